@@ -0,0 +1,366 @@
+/* ArchiveBuilder.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.log.LogLevel;
+import com.gladdware.game.util.BlockCodec;
+
+/**
+ * Builds packed asset archives for AssetArchive
+ * 
+ * Entries are read and written one at a time, so building needs little
+ * memory regardless of archive size. With compression enabled each entry is
+ * compressed, but stored as is unless that saves at least an eighth of its
+ * size; stored entries can be served zero-copy at runtime.
+ * 
+ * Run main() to pack a directory tree at build time.
+ */
+public class ArchiveBuilder {
+    
+    private static final String TAG = "ArchiveBuilder";
+    
+    private static class Input {
+        final String path;
+        final long hash;
+        final File file;
+        final byte[] data;
+        
+        Input(String path, File file, byte[] data) {
+            this.path = path;
+            this.hash = AssetArchive.pathHash(path);
+            this.file = file;
+            this.data = data;
+        }
+    }
+    
+    private final List<Input> inputs;
+    private final Map<Long, String> hashes;
+    private int compression;
+    
+    private long rawBytes;
+    private long storedBytes;
+    
+    /**
+     * Constructor
+     */
+    public ArchiveBuilder() {
+        this.inputs = new ArrayList<Input>();
+        this.hashes = new HashMap<Long, String>();
+    }
+    
+    /**
+     * Set the compression used for entries where it pays off
+     *
+     * @param compression one of the AssetArchive.COMPRESSION_* constants
+     */
+    public void setCompression(int compression) {
+        this.compression = compression;
+    }
+    
+    /**
+     * Add a file
+     *
+     * @param path the asset path the file is looked up with
+     * @param file the file
+     * @throws IllegalArgumentException if the path is already added or its
+     *      hash collides with another path
+     */
+    public void add(String path, File file) {
+        addInput(new Input(path, file, null));
+    }
+    
+    /**
+     * Add in-memory data
+     *
+     * @param path the asset path the data is looked up with
+     * @param data the data
+     * @throws IllegalArgumentException if the path is already added or its
+     *      hash collides with another path
+     */
+    public void add(String path, byte[] data) {
+        addInput(new Input(path, null, data));
+    }
+    
+    /**
+     * Add every file below a directory, under its path relative to it
+     *
+     * @param root the directory
+     */
+    public void addDirectory(File root) {
+        addDirectory(root, "");
+    }
+    
+    /**
+     * Write the archive
+     *
+     * @param out the archive file
+     * @throws IOException on a write failure
+     */
+    public void build(File out) throws IOException {
+        List<Input> sorted = new ArrayList<Input>(inputs);
+        Collections.sort(sorted, new Comparator<Input>() {
+            public int compare(Input a, Input b) {
+                return a.hash < b.hash ? -1 : (a.hash == b.hash ? 0 : 1);
+            }
+        });
+        
+        int n = sorted.size();
+        ByteBuffer index = ByteBuffer.allocate(AssetArchive.HEADER_SIZE +
+                n * AssetArchive.ENTRY_SIZE);
+        index.putInt(AssetArchive.MAGIC);
+        index.putInt(AssetArchive.VERSION);
+        index.putInt(n);
+        index.putInt(0);
+        
+        this.rawBytes = 0;
+        this.storedBytes = 0;
+        
+        if(out.exists() && !out.delete()) {
+            throw new IOException("Cannot replace " + out);
+        }
+        
+        RandomAccessFile raf = new RandomAccessFile(out, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            long pos = align(index.capacity());
+            
+            for(int i = 0; i < n; i++) {
+                Input in = sorted.get(i);
+                byte[] raw = in.data != null ? in.data : readFile(in.file);
+                byte[] stored = raw;
+                int compression = AssetArchive.COMPRESSION_NONE;
+                
+                if(this.compression != AssetArchive.COMPRESSION_NONE) {
+                    byte[] packed = pack(raw, this.compression);
+                    
+                    if(packed.length <= raw.length - raw.length / 8) {
+                        stored = packed;
+                        compression = this.compression;
+                    }
+                }
+                
+                index.putLong(in.hash);
+                index.putLong(pos);
+                index.putInt(stored.length);
+                index.putInt(raw.length);
+                index.putInt(compression);
+                index.putInt(0);
+                
+                ByteBuffer b = ByteBuffer.wrap(stored);
+                long p = pos;
+                while(b.hasRemaining()) {
+                    p += ch.write(b, p);
+                }
+                
+                pos = align(pos + stored.length);
+                rawBytes += raw.length;
+                storedBytes += stored.length;
+            }
+            
+            // pad the last entry so the data section is fully aligned
+            raf.setLength(pos);
+            
+            index.flip();
+            long p = 0;
+            while(index.hasRemaining()) {
+                p += ch.write(index, p);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Get the number of entries added
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return inputs.size();
+    }
+    
+    /**
+     * Get the total size of the entries written by the last build()
+     *
+     * @return the size before compression, in bytes
+     */
+    public long getRawBytes() {
+        return this.rawBytes;
+    }
+    
+    /**
+     * Get the total stored size of the entries written by the last build()
+     *
+     * @return the size after compression, in bytes
+     */
+    public long getStoredBytes() {
+        return this.storedBytes;
+    }
+    
+    private void addDirectory(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        
+        if(files == null) {
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        }
+        
+        for(int i = 0; i < files.length; i++) {
+            File f = files[i];
+            String path = prefix + f.getName();
+            
+            if(f.isDirectory()) {
+                addDirectory(f, path + "/");
+            } else if(f.isFile()) {
+                add(path, f);
+            }
+        }
+    }
+    
+    private void addInput(Input in) {
+        String other = hashes.get(in.hash);
+        
+        if(other != null) {
+            throw new IllegalArgumentException(other.equals(in.path) ?
+                    "Duplicate archive path " + in.path :
+                    "Archive path hash collision: " + in.path + ", " + other);
+        }
+        
+        hashes.put(in.hash, in.path);
+        inputs.add(in);
+    }
+    
+    private static long align(long pos) {
+        int a = AssetArchive.DATA_ALIGN;
+        return (pos + a - 1) / a * a;
+    }
+    
+    private static byte[] readFile(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    (int)Math.max(32, f.length()));
+            byte[] buf = new byte[8192];
+            int n;
+            
+            while((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static byte[] pack(byte[] raw, int compression) {
+        switch(compression) {
+        case AssetArchive.COMPRESSION_DEFLATE:
+            return deflate(raw);
+        case AssetArchive.COMPRESSION_BLOCK:
+            ByteBuffer frame = BlockCodec.compress(ByteBuffer.wrap(raw),
+                    BlockCodec.DEFAULT_BLOCK_SIZE);
+            byte[] out = new byte[frame.remaining()];
+            frame.get(out);
+            return out;
+        default:
+            throw new IllegalArgumentException("Unknown compression " +
+                    compression);
+        }
+    }
+    
+    private static byte[] deflate(byte[] raw) {
+        Deflater def = new Deflater(Deflater.BEST_COMPRESSION);
+        
+        try {
+            def.setInput(raw);
+            def.finish();
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    raw.length / 2 + 64);
+            byte[] buf = new byte[8192];
+            
+            while(!def.finished()) {
+                int n = def.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            
+            return out.toByteArray();
+        } finally {
+            def.end();
+        }
+    }
+    
+    /**
+     * Build-time entry point
+     * 
+     * Usage: ArchiveBuilder inputDir outputFile [-deflate|-block]
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        Log.setLevel(LogLevel.DEBUG);
+        
+        if(args.length < 2) {
+            System.err.println("Usage: ArchiveBuilder <inputDir> " +
+                    "<outputFile> [-deflate|-block]");
+            System.exit(1);
+        }
+        
+        ArchiveBuilder builder = new ArchiveBuilder();
+        if(args.length > 2 && args[2].equals("-deflate")) {
+            builder.setCompression(AssetArchive.COMPRESSION_DEFLATE);
+        } else if(args.length > 2 && args[2].equals("-block")) {
+            builder.setCompression(AssetArchive.COMPRESSION_BLOCK);
+        }
+        
+        try {
+            builder.addDirectory(new File(args[0]));
+            builder.build(new File(args[1]));
+            
+            Log.i(TAG, "Packed " + builder.getEntryCount() + " files, " +
+                    builder.getRawBytes() + " bytes into " +
+                    builder.getStoredBytes() + " bytes");
+        } catch(IllegalArgumentException e) {
+            Log.f(TAG, "Failed to build archive: " + e.getMessage());
+            System.exit(1);
+        } catch(IOException e) {
+            Log.f(TAG, "Failed to build archive: " + e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+}
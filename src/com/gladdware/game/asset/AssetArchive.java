@@ -0,0 +1,321 @@
+/* AssetArchive.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.gladdware.game.util.BlockCodec;
+import com.gladdware.game.util.Hash;
+
+/**
+ * Read-only, memory-mapped packed asset archive
+ * 
+ * The whole archive is mapped once when opened. Stored (uncompressed)
+ * entries are returned as read-only slices of the mapping, so reading them
+ * copies nothing and needs no file handle; compressed entries are
+ * decompressed into a new buffer, block-compressed ones straight from the
+ * mapping and in parallel. Lookups binary search the index in place.
+ * 
+ * File layout (big-endian, see ArchiveBuilder):
+ * 
+ * - header: magic "GGEP", version, entry count, reserved
+ * - index: ENTRY_SIZE bytes per entry, sorted by path hash: path hash (long),
+ *   data offset (long), stored length, original length, compression, reserved
+ * - data: entries' bytes, each aligned to DATA_ALIGN
+ * 
+ * Paths are hashed with Hash.fnv1a64() after normalizing separators to '/'.
+ * Archives are limited to 2 GB (one mapping).
+ */
+public class AssetArchive implements AssetSource {
+    
+    static final int MAGIC = 0x47474550;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 32;
+    static final int DATA_ALIGN = 16;
+    
+    /** Entry is stored as is */
+    public static final int COMPRESSION_NONE = 0;
+    /** Entry is zlib-deflated */
+    public static final int COMPRESSION_DEFLATE = 1;
+    /** Entry is a BlockCodec frame */
+    public static final int COMPRESSION_BLOCK = 2;
+    
+    private final File file;
+    private final ByteBuffer map;
+    private final int entryCount;
+    
+    private volatile boolean closed = false;
+    
+    /**
+     * Constructor
+     */
+    private AssetArchive(File file, ByteBuffer map, int entryCount) {
+        this.file = file;
+        this.map = map;
+        this.entryCount = entryCount;
+    }
+    
+    /**
+     * Map an archive file
+     *
+     * @param file the archive file
+     * @return the opened archive
+     * @throws IOException if the file cannot be mapped or is not a valid
+     *      archive
+     */
+    public static AssetArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer map;
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            if(ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive too large to map: " + file);
+            }
+            
+            // the mapping stays valid after the channel is closed
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            raf.close();
+        }
+        
+        if(map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not an asset archive: " + file);
+        }
+        if(map.getInt(4) != VERSION) {
+            throw new IOException("Unsupported archive version " +
+                    map.getInt(4) + " in " + file);
+        }
+        
+        int count = map.getInt(8);
+        if(count < 0 ||
+                HEADER_SIZE + (long)count * ENTRY_SIZE > map.capacity()) {
+            throw new IOException("Corrupt archive index in " + file);
+        }
+        
+        AssetArchive archive = new AssetArchive(file, map, count);
+        archive.validate();
+        
+        return archive;
+    }
+    
+    /**
+     * Get the hash an archive path is indexed under
+     *
+     * @param path the asset path
+     * @return the path hash
+     */
+    public static long pathHash(String path) {
+        return Hash.fnv1a64(path.replace('\\', '/'));
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetSource#read(java.lang.String)
+     */
+    public ByteBuffer read(String path) throws IOException {
+        if(closed) {
+            throw new IOException("Archive closed: " + file);
+        }
+        
+        ByteBuffer b = find(pathHash(path));
+        
+        if(b == null) {
+            throw new FileNotFoundException(path + " not in archive " + file);
+        }
+        
+        return b;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetSource#close()
+     */
+    public void close() {
+        // the mapping is released once no returned slice references it
+        closed = true;
+    }
+    
+    /**
+     * Look up an entry by path hash
+     *
+     * @param hash the path hash (see pathHash())
+     * @return the entry's bytes, or null if there is no such entry
+     * @throws IOException if a compressed entry is corrupt
+     */
+    public ByteBuffer find(long hash) throws IOException {
+        int i = indexOf(hash);
+        
+        if(i < 0) {
+            return null;
+        }
+        
+        int e = HEADER_SIZE + i * ENTRY_SIZE;
+        int offset = (int)map.getLong(e + 8);
+        int stored = map.getInt(e + 16);
+        int length = map.getInt(e + 20);
+        int compression = map.getInt(e + 24);
+        
+        ByteBuffer data = map.duplicate();
+        data.limit(offset + stored).position(offset);
+        data = data.slice();
+        
+        switch(compression) {
+        case COMPRESSION_NONE:
+            return data.asReadOnlyBuffer();
+        case COMPRESSION_DEFLATE:
+            return inflate(data, length);
+        case COMPRESSION_BLOCK:
+            if(BlockCodec.getRawLength(data) != length) {
+                throw new IOException("Corrupt compressed entry in " + file);
+            }
+            ByteBuffer out = ByteBuffer.allocateDirect(length);
+            BlockCodec.decompress(data, out);
+            return out;
+        default:
+            throw new IOException("Unknown compression " + compression +
+                    " in " + file);
+        }
+    }
+    
+    /**
+     * Check whether the archive holds an asset
+     *
+     * @param path the asset path
+     * @return true if the path is in the archive
+     */
+    public boolean contains(String path) {
+        return indexOf(pathHash(path)) >= 0;
+    }
+    
+    /**
+     * Get the number of entries
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+    
+    /**
+     * Get the archive file
+     *
+     * @return the archive file
+     */
+    public File getFile() {
+        return this.file;
+    }
+    
+    /**
+     * Binary search the index
+     *
+     * @return the entry index, or -1
+     */
+    private int indexOf(long hash) {
+        int lo = 0;
+        int hi = entryCount - 1;
+        
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long h = map.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+            
+            if(h < hash) {
+                lo = mid + 1;
+            } else if(h > hash) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Check that the index is sorted, every entry lies inside the file and
+     * its lengths and compression are usable
+     */
+    private void validate() throws IOException {
+        long prev = Long.MIN_VALUE;
+        
+        for(int i = 0; i < entryCount; i++) {
+            int e = HEADER_SIZE + i * ENTRY_SIZE;
+            long hash = map.getLong(e);
+            long offset = map.getLong(e + 8);
+            int stored = map.getInt(e + 16);
+            int length = map.getInt(e + 20);
+            int compression = map.getInt(e + 24);
+            
+            if((i > 0 && hash <= prev) || offset < 0 || stored < 0 ||
+                    offset + stored > map.capacity() ||
+                    !validLength(compression, stored, length)) {
+                throw new IOException("Corrupt archive entry " + i + " in " +
+                        file);
+            }
+            prev = hash;
+        }
+    }
+    
+    /**
+     * Check an entry's original length against its compression
+     */
+    private static boolean validLength(int compression, int stored,
+            int length) {
+        switch(compression) {
+        case COMPRESSION_NONE:
+            return length == stored;
+        case COMPRESSION_DEFLATE:
+        case COMPRESSION_BLOCK:
+            return length >= 0;
+        default:
+            return false;
+        }
+    }
+    
+    private ByteBuffer inflate(ByteBuffer data, int length) throws IOException {
+        byte[] in = new byte[data.remaining()];
+        data.get(in);
+        
+        byte[] out = new byte[length];
+        Inflater inf = new Inflater();
+        
+        try {
+            inf.setInput(in);
+            int n = inf.inflate(out);
+            
+            if(n != length || !inf.finished()) {
+                throw new IOException("Corrupt compressed entry in " + file);
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt compressed entry in " + file, e);
+        } finally {
+            inf.end();
+        }
+        
+        return ByteBuffer.wrap(out);
+    }
+}
@@ -0,0 +1,493 @@
+/* AssetCache.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gladdware.game.log.Log;
+
+/**
+ * Shared, reference-counted cache of loaded assets
+ * 
+ * Systems acquire assets by path instead of loading them directly, so an
+ * asset requested twice is loaded once. Two paths whose raw bytes hash to the
+ * same content hash (and use the same loader) share one asset as well.
+ * 
+ * Every acquire() returns an AssetRef that must be released. Assets whose last
+ * reference is released stay cached in least-recently-released order until
+ * the heap or native byte budget (see SizedAsset) is exceeded; then the
+ * oldest unreferenced assets are evicted. Among the few oldest candidates,
+ * the largest one that holds memory of the over-budget kind goes first, so a
+ * single big texture is dropped before many small sounds. Referenced assets
+ * are never evicted, so the budgets can be exceeded while they are in use.
+ * 
+ * All methods must be called from the main thread. Call update() once per
+ * frame after AssetManager.processUploads().
+ */
+public class AssetCache {
+    
+    private static final String TAG = "AssetCache";
+    
+    /** Number of oldest unreferenced entries considered per eviction */
+    private static final int EVICTION_WINDOW = 4;
+    
+    /**
+     * Cached asset, or an alias of one with the same content
+     */
+    static class Entry {
+        final String path;
+        final AssetLoader<?> loader;
+        AssetHandle<?> handle;
+        
+        /** Entry holding the shared asset, if this is an alias */
+        Entry canonical;
+        List<Entry> aliases;
+        
+        int refs;
+        boolean resident;
+        long heapBytes;
+        long nativeBytes;
+        
+        /** Unreferenced list links; head is the most recently released */
+        Entry prev, next;
+        boolean unreferenced;
+        
+        Entry(String path, AssetLoader<?> loader) {
+            this.path = path;
+            this.loader = loader;
+        }
+        
+        Entry resolve() {
+            return canonical == null ? this : canonical;
+        }
+    }
+    
+    private final AssetManager manager;
+    private final Map<String, Entry> byPath;
+    private final Map<Long, Entry> byContent;
+    private final List<Entry> loading;
+    
+    private Entry lruHead, lruTail;
+    
+    private long heapBudget;
+    private long nativeBudget;
+    private long heapUsed;
+    private long nativeUsed;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+    private long duplicates;
+    
+    /**
+     * Constructor
+     *
+     * @param manager loads missing assets
+     * @param heapBudget Java heap budget, in bytes
+     * @param nativeBudget native memory budget, in bytes
+     */
+    public AssetCache(AssetManager manager, long heapBudget,
+            long nativeBudget) {
+        this.manager = manager;
+        this.byPath = new HashMap<String, Entry>();
+        this.byContent = new HashMap<Long, Entry>();
+        this.loading = new ArrayList<Entry>();
+        this.heapBudget = heapBudget;
+        this.nativeBudget = nativeBudget;
+    }
+    
+    /**
+     * Acquire a reference to an asset, loading it if it is not cached
+     * 
+     * A path must always be acquired with the same loader. Assets that failed
+     * to load are loaded again.
+     *
+     * @param path the asset path
+     * @param loader decodes and uploads the asset
+     * @param priority load priority, if the asset has to be loaded
+     * @return a new reference to the asset
+     */
+    public <T> AssetRef<T> acquire(String path, AssetLoader<T> loader,
+            int priority) {
+        Entry e = byPath.get(path);
+        
+        if(e != null && e.loader != loader) {
+            throw new IllegalArgumentException("Asset " + path +
+                    " is already cached with a different loader");
+        }
+        
+        if(e != null) {
+            AssetHandle.State s = e.resolve().handle.getState();
+            
+            if(s == AssetHandle.State.FAILED ||
+                    s == AssetHandle.State.CANCELLED) {
+                removeEntry(e.resolve());
+                e = null;
+            }
+        }
+        
+        if(e != null) {
+            hits++;
+            addRef(e.resolve());
+        } else {
+            misses++;
+            e = new Entry(path, loader);
+            e.handle = manager.load(path, loader, priority);
+            e.refs = 1;
+            byPath.put(path, e);
+            loading.add(e);
+        }
+        
+        return new AssetRef<T>(this, e);
+    }
+    
+    /**
+     * Acquire a reference to an asset at AssetManager.PRIORITY_NORMAL
+     *
+     * @param path the asset path
+     * @param loader decodes and uploads the asset
+     * @return a new reference to the asset
+     */
+    public <T> AssetRef<T> acquire(String path, AssetLoader<T> loader) {
+        return acquire(path, loader, AssetManager.PRIORITY_NORMAL);
+    }
+    
+    /**
+     * Account for newly loaded assets and evict over budget
+     */
+    public void update() {
+        for(int i = loading.size() - 1; i >= 0; i--) {
+            Entry e = loading.get(i);
+            
+            if(!e.handle.isDone()) {
+                continue;
+            }
+            
+            loading.set(i, loading.get(loading.size() - 1));
+            loading.remove(loading.size() - 1);
+            
+            if(e.handle.isReady()) {
+                admit(e);
+            }
+        }
+        
+        evict();
+    }
+    
+    /**
+     * Change the memory budgets, evicting if necessary
+     *
+     * @param heapBudget Java heap budget, in bytes
+     * @param nativeBudget native memory budget, in bytes
+     */
+    public void setBudgets(long heapBudget, long nativeBudget) {
+        this.heapBudget = heapBudget;
+        this.nativeBudget = nativeBudget;
+        evict();
+    }
+    
+    /**
+     * Evict every unreferenced asset (e.g. between levels)
+     */
+    public void trim() {
+        while(lruTail != null) {
+            removeEntry(lruTail);
+        }
+    }
+    
+    /**
+     * Get the Java heap memory held by cached assets
+     *
+     * @return the size, in bytes
+     */
+    public long getHeapBytes() {
+        return this.heapUsed;
+    }
+    
+    /**
+     * Get the native memory held by cached assets
+     *
+     * @return the size, in bytes
+     */
+    public long getNativeBytes() {
+        return this.nativeUsed;
+    }
+    
+    /**
+     * Get the Java heap budget
+     *
+     * @return the budget, in bytes
+     */
+    public long getHeapBudget() {
+        return this.heapBudget;
+    }
+    
+    /**
+     * Get the native memory budget
+     *
+     * @return the budget, in bytes
+     */
+    public long getNativeBudget() {
+        return this.nativeBudget;
+    }
+    
+    /**
+     * Get the number of cached paths, loading or loaded
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        return byPath.size();
+    }
+    
+    /**
+     * Get the number of acquires served from the cache
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return this.hits;
+    }
+    
+    /**
+     * Get the number of acquires that started a load
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return this.misses;
+    }
+    
+    /**
+     * Get the number of assets evicted to stay within budget
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return this.evictions;
+    }
+    
+    /**
+     * Get the memory freed by evictions
+     *
+     * @return the size, heap and native combined, in bytes
+     */
+    public long getEvictedBytes() {
+        return this.evictedBytes;
+    }
+    
+    /**
+     * Get the number of loaded assets dropped because an asset with the same
+     * content was already cached
+     *
+     * @return the duplicate count
+     */
+    public long getDuplicateCount() {
+        return this.duplicates;
+    }
+    
+    /**
+     * Release one reference to an entry
+     */
+    void release(Entry entry) {
+        Entry c = entry.resolve();
+        
+        if(--c.refs > 0) {
+            return;
+        }
+        
+        if(!c.resident && c.handle.isReady()) {
+            // loaded but not yet seen by update()
+            loading.remove(c);
+            admit(c);
+            evict();
+        } else if(c.resident) {
+            lruPush(c);
+            evict();
+        } else {
+            // nobody wants it any more; stop loading
+            c.handle.cancel();
+            loading.remove(c);
+            removeEntry(c);
+        }
+    }
+    
+    /**
+     * Make a loaded entry resident, or alias it to one with the same content
+     */
+    private void admit(Entry e) {
+        long hash = e.handle.getContentHash();
+        Entry same = byContent.get(hash);
+        
+        if(same != null && same.loader == e.loader) {
+            duplicates++;
+            disposeAsset(e.handle);
+            
+            e.canonical = same;
+            if(same.aliases == null) {
+                same.aliases = new ArrayList<Entry>();
+            }
+            same.aliases.add(e);
+            
+            if(e.refs > 0) {
+                if(same.refs == 0) {
+                    lruRemove(same);
+                }
+                same.refs += e.refs;
+                e.refs = 0;
+            }
+            return;
+        }
+        
+        Object asset = e.handle.get();
+        if(asset instanceof SizedAsset) {
+            e.heapBytes = ((SizedAsset)asset).getHeapBytes();
+            e.nativeBytes = ((SizedAsset)asset).getNativeBytes();
+        }
+        
+        e.resident = true;
+        heapUsed += e.heapBytes;
+        nativeUsed += e.nativeBytes;
+        byContent.put(hash, e);
+        
+        if(e.refs == 0) {
+            lruPush(e);
+        }
+    }
+    
+    /**
+     * Evict unreferenced entries until both budgets are met or nothing more
+     * can be evicted
+     */
+    private void evict() {
+        while(heapUsed > heapBudget || nativeUsed > nativeBudget) {
+            boolean heapOver = heapUsed > heapBudget;
+            boolean nativeOver = nativeUsed > nativeBudget;
+            
+            Entry victim = null;
+            long victimBytes = 0;
+            int seen = 0;
+            
+            for(Entry e = lruTail; e != null && seen < EVICTION_WINDOW;
+                    e = e.prev) {
+                long bytes = (heapOver ? e.heapBytes : 0) +
+                        (nativeOver ? e.nativeBytes : 0);
+                
+                if(bytes > 0) {
+                    seen++;
+                    if(bytes > victimBytes) {
+                        victim = e;
+                        victimBytes = bytes;
+                    }
+                }
+            }
+            
+            if(victim == null) {
+                // everything left is in use
+                return;
+            }
+            
+            evictions++;
+            evictedBytes += victim.heapBytes + victim.nativeBytes;
+            Log.d(TAG, "Evicting " + victim.path);
+            removeEntry(victim);
+        }
+    }
+    
+    private void addRef(Entry c) {
+        if(c.refs++ == 0 && c.unreferenced) {
+            lruRemove(c);
+        }
+    }
+    
+    /**
+     * Forget an entry and its aliases, disposing its asset if loaded
+     */
+    private void removeEntry(Entry c) {
+        if(c.unreferenced) {
+            lruRemove(c);
+        }
+        
+        // a stale reference may outlive its path's mapping to a new entry
+        unmapPath(c);
+        if(c.aliases != null) {
+            for(Entry a : c.aliases) {
+                unmapPath(a);
+            }
+        }
+        
+        if(c.resident) {
+            c.resident = false;
+            heapUsed -= c.heapBytes;
+            nativeUsed -= c.nativeBytes;
+            byContent.remove(c.handle.getContentHash());
+            disposeAsset(c.handle);
+        }
+    }
+    
+    private void unmapPath(Entry e) {
+        if(byPath.get(e.path) == e) {
+            byPath.remove(e.path);
+        }
+    }
+    
+    private static <T> void disposeAsset(AssetHandle<T> h) {
+        T asset = h.getAsset();
+        
+        if(asset != null) {
+            h.setAsset(null);
+            h.getLoader().dispose(asset);
+        }
+    }
+    
+    private void lruPush(Entry e) {
+        e.unreferenced = true;
+        e.prev = null;
+        e.next = lruHead;
+        
+        if(lruHead != null) {
+            lruHead.prev = e;
+        } else {
+            lruTail = e;
+        }
+        lruHead = e;
+    }
+    
+    private void lruRemove(Entry e) {
+        if(e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            lruHead = e.next;
+        }
+        
+        if(e.next != null) {
+            e.next.prev = e.prev;
+        } else {
+            lruTail = e.prev;
+        }
+        
+        e.prev = e.next = null;
+        e.unreferenced = false;
+    }
+}
@@ -0,0 +1,224 @@
+/* AssetHandle.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Handle to an asset being loaded by the AssetManager
+ * 
+ * Handles are returned immediately by AssetManager.load() and can be polled
+ * every frame (e.g. from Game.onUpdate()). An asset only becomes ready on the
+ * main thread, during AssetManager.processUploads(), so a ready asset is
+ * always safe to render with.
+ *
+ * @param <T> the asset type
+ */
+public class AssetHandle<T> {
+    
+    /**
+     * Load progress of an asset
+     */
+    public enum State {
+        /** Waiting for an I/O thread */
+        QUEUED,
+        /** Raw bytes are being read */
+        READING,
+        /** Raw bytes are being decoded */
+        DECODING,
+        /** Waiting for its main-thread upload */
+        UPLOADING,
+        /** Loaded and usable */
+        READY,
+        /** Loading failed; see getError() */
+        FAILED,
+        /** Cancelled before it became ready */
+        CANCELLED
+    }
+    
+    private final AssetManager manager;
+    private final String path;
+    private final AssetLoader<T> loader;
+    private final int priority;
+    private final long sequence;
+    private final AtomicReference<State> state;
+    
+    private volatile T asset;
+    private volatile Throwable error;
+    private volatile long contentHash;
+    
+    /** The task currently queued for this handle, if any */
+    volatile Runnable pendingTask;
+    
+    /**
+     * Constructor
+     */
+    AssetHandle(AssetManager manager, String path, AssetLoader<T> loader,
+            int priority, long sequence) {
+        this.manager = manager;
+        this.path = path;
+        this.loader = loader;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.state = new AtomicReference<State>(State.QUEUED);
+    }
+    
+    /**
+     * Get the asset path
+     *
+     * @return the asset path
+     */
+    public String getPath() {
+        return this.path;
+    }
+    
+    /**
+     * Get the load priority
+     *
+     * @return the priority; higher loads first
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+    
+    /**
+     * Get the current load state
+     *
+     * @return the state
+     */
+    public State getState() {
+        return state.get();
+    }
+    
+    /**
+     * Check whether the asset is loaded
+     *
+     * @return true if get() will return the asset
+     */
+    public boolean isReady() {
+        return state.get() == State.READY;
+    }
+    
+    /**
+     * Check whether loading has finished, successfully or not
+     *
+     * @return true if the handle is ready, failed or cancelled
+     */
+    public boolean isDone() {
+        State s = state.get();
+        return s == State.READY || s == State.FAILED || s == State.CANCELLED;
+    }
+    
+    /**
+     * Get the loaded asset
+     *
+     * @return the asset
+     * @throws IllegalStateException if the asset is not ready
+     */
+    public T get() {
+        if(!isReady()) {
+            throw new IllegalStateException("Asset " + path + " is not ready (" +
+                    state.get() + ")");
+        }
+        
+        return this.asset;
+    }
+    
+    /**
+     * Get the reason loading failed
+     *
+     * @return the error, or null if loading has not failed
+     */
+    public Throwable getError() {
+        return this.error;
+    }
+    
+    /**
+     * Get the hash of the asset's raw bytes
+     * 
+     * Assets with equal content hashes (and loaders) decode to equal assets.
+     *
+     * @return the 64-bit FNV-1a hash of the raw bytes, or 0 before they have
+     *      been read
+     */
+    public long getContentHash() {
+        return this.contentHash;
+    }
+    
+    /**
+     * Cancel loading
+     * 
+     * Has no effect once the asset is ready or has failed. A cancelled asset
+     * that was already decoded is disposed on the main thread.
+     *
+     * @return true if the load was cancelled by this call
+     */
+    public boolean cancel() {
+        return manager.cancel(this);
+    }
+    
+    AssetLoader<T> getLoader() {
+        return this.loader;
+    }
+    
+    long getSequence() {
+        return this.sequence;
+    }
+    
+    T getAsset() {
+        return this.asset;
+    }
+    
+    void setAsset(T asset) {
+        this.asset = asset;
+    }
+    
+    void setContentHash(long hash) {
+        this.contentHash = hash;
+    }
+    
+    boolean transition(State from, State to) {
+        return state.compareAndSet(from, to);
+    }
+    
+    /**
+     * Move to a final state unless the handle is already done
+     *
+     * @return true if this call finished the handle
+     */
+    boolean finish(State to, Throwable error) {
+        while(true) {
+            State s = state.get();
+            
+            if(s == State.READY || s == State.FAILED || s == State.CANCELLED) {
+                return false;
+            }
+            if(state.compareAndSet(s, to)) {
+                this.error = error;
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "AssetHandle[" + path + ", " + state.get() + "]";
+    }
+}
@@ -0,0 +1,68 @@
+/* AssetLoader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns raw asset bytes into a usable asset
+ * 
+ * Loading is split in two stages so that only the part that needs the
+ * graphics context runs on the main thread:
+ * 
+ * - decode() runs on a background decode thread and must not touch OpenGL
+ *   (parse the file, decompress pixels, build vertex buffers, ...).
+ * - upload() runs on the main thread within the per-frame upload budget
+ *   (create textures, fill buffer objects, ...). It should be short.
+ *
+ * @param <T> the asset type
+ */
+public interface AssetLoader<T> {
+    
+    /**
+     * Decode an asset from its raw bytes
+     * 
+     * Called on a decode thread; must be thread-safe.
+     *
+     * @param path the asset path
+     * @param data the raw bytes, from position to limit
+     * @return the decoded asset
+     * @throws Exception on a malformed asset
+     */
+    T decode(String path, ByteBuffer data) throws Exception;
+    
+    /**
+     * Finish a decoded asset on the main thread
+     *
+     * @param asset the decoded asset
+     * @throws Exception on a failed upload
+     */
+    void upload(T asset) throws Exception;
+    
+    /**
+     * Release an asset's resources
+     * 
+     * Called on the main thread for assets that are dropped, including ones
+     * cancelled after decoding.
+     *
+     * @param asset the asset
+     */
+    void dispose(T asset);
+}
@@ -0,0 +1,449 @@
+/* AssetManager.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.util.Hash;
+
+/**
+ * Asynchronous asset loading service
+ * 
+ * Each load runs through three stages:
+ * 
+ * 1. Read: a small pool of I/O threads reads the raw bytes from the
+ *    AssetSource and hashes them (see AssetHandle.getContentHash()). These
+ *    threads spend most of their time blocked, so there are more of them
+ *    than the CPU alone would justify.
+ * 2. Decode: a bounded pool (one thread less than the core count, so the main
+ *    thread keeps a core) runs AssetLoader.decode().
+ * 3. Upload: the main thread runs AssetLoader.upload() from
+ *    processUploads(), which stops once the per-frame time budget is spent.
+ * 
+ * Both pools and the upload queue serve higher priorities first, and loads of
+ * equal priority in request order. Loads can be cancelled at any stage.
+ */
+public class AssetManager {
+    
+    private static final String TAG = "AssetManager";
+    
+    public static final int PRIORITY_BACKGROUND = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+    
+    public static final int DEFAULT_IO_THREADS = 4;
+    
+    /** Higher priority first, then request order */
+    private static final Comparator<AssetHandle<?>> HANDLE_ORDER =
+            new Comparator<AssetHandle<?>>() {
+        public int compare(AssetHandle<?> a, AssetHandle<?> b) {
+            if(a.getPriority() != b.getPriority()) {
+                return a.getPriority() > b.getPriority() ? -1 : 1;
+            }
+            
+            return a.getSequence() < b.getSequence() ? -1 :
+                (a.getSequence() == b.getSequence() ? 0 : 1);
+        }
+    };
+    
+    private final AssetSource source;
+    private final ThreadPoolExecutor ioPool;
+    private final ThreadPoolExecutor decodePool;
+    private final PriorityBlockingQueue<AssetHandle<?>> uploads;
+    
+    private final AtomicLong nextSequence;
+    private final AtomicInteger inFlight;
+    
+    private int lastUploadCount;
+    private long lastUploadNs;
+    
+    /**
+     * Constructor
+     *
+     * @param source where raw asset bytes are read from
+     * @param ioThreads number of I/O threads
+     * @param decodeThreads number of decode threads
+     */
+    public AssetManager(AssetSource source, int ioThreads, int decodeThreads) {
+        this.source = source;
+        this.ioPool = createPool("gge-asset-io", Math.max(1, ioThreads));
+        this.decodePool = createPool("gge-asset-decode",
+                Math.max(1, decodeThreads));
+        this.uploads = new PriorityBlockingQueue<AssetHandle<?>>(64,
+                HANDLE_ORDER);
+        this.nextSequence = new AtomicLong();
+        this.inFlight = new AtomicInteger();
+    }
+    
+    /**
+     * Constructor
+     * 
+     * Uses DEFAULT_IO_THREADS I/O threads and one decode thread less than the
+     * number of cores.
+     *
+     * @param source where raw asset bytes are read from
+     */
+    public AssetManager(AssetSource source) {
+        this(source, DEFAULT_IO_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1);
+    }
+    
+    /**
+     * Start loading an asset
+     *
+     * @param path the asset path
+     * @param loader decodes and uploads the asset
+     * @param priority load priority; higher loads first
+     * @return the asset handle
+     */
+    public <T> AssetHandle<T> load(String path, AssetLoader<T> loader,
+            int priority) {
+        AssetHandle<T> h = new AssetHandle<T>(this, path, loader, priority,
+                nextSequence.getAndIncrement());
+        
+        inFlight.incrementAndGet();
+        submit(ioPool, new ReadTask(h));
+        
+        return h;
+    }
+    
+    /**
+     * Start loading an asset at PRIORITY_NORMAL
+     *
+     * @param path the asset path
+     * @param loader decodes and uploads the asset
+     * @return the asset handle
+     */
+    public <T> AssetHandle<T> load(String path, AssetLoader<T> loader) {
+        return load(path, loader, PRIORITY_NORMAL);
+    }
+    
+    /**
+     * Run pending main-thread uploads
+     * 
+     * Call once per frame from the main thread. At least one upload runs per
+     * call (if any is pending) so that loading always makes progress, after
+     * which uploads stop as soon as the budget is used up.
+     *
+     * @param budgetNs time budget, in nanoseconds
+     * @return the number of handles finished by this call
+     */
+    public int processUploads(long budgetNs) {
+        long start = System.nanoTime();
+        int count = 0;
+        
+        AssetHandle<?> h;
+        while((h = uploads.poll()) != null) {
+            finishUpload(h);
+            count++;
+            
+            if(System.nanoTime() - start >= budgetNs) {
+                break;
+            }
+        }
+        
+        this.lastUploadCount = count;
+        this.lastUploadNs = System.nanoTime() - start;
+        
+        return count;
+    }
+    
+    /**
+     * Block until an asset is done, running uploads on the calling thread
+     * 
+     * Must be called from the main thread. Intended for assets needed before
+     * the first frame (e.g. in Game.onInit()).
+     *
+     * @param handle the asset handle
+     * @return true if the asset is ready
+     */
+    public boolean waitFor(AssetHandle<?> handle) {
+        while(!handle.isDone()) {
+            try {
+                AssetHandle<?> h = uploads.poll(5, TimeUnit.MILLISECONDS);
+                
+                if(h != null) {
+                    finishUpload(h);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        
+        return handle.isReady();
+    }
+    
+    /**
+     * Cancel a load
+     *
+     * @param handle the asset handle
+     * @return true if the load was cancelled by this call
+     */
+    public boolean cancel(AssetHandle<?> handle) {
+        if(!handle.finish(AssetHandle.State.CANCELLED, null)) {
+            return false;
+        }
+        
+        // drop the queued task early if it has not started
+        Runnable task = handle.pendingTask;
+        if(task != null && (ioPool.remove(task) || decodePool.remove(task))) {
+            handle.pendingTask = null;
+        }
+        
+        inFlight.decrementAndGet();
+        
+        return true;
+    }
+    
+    /**
+     * Get the number of loads not yet done
+     *
+     * @return the number of loads in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+    
+    /**
+     * Get the number of uploads waiting for the main thread
+     *
+     * @return the upload queue length
+     */
+    public int getPendingUploadCount() {
+        return uploads.size();
+    }
+    
+    /**
+     * Get the number of handles finished by the last processUploads()
+     *
+     * @return the upload count
+     */
+    public int getLastUploadCount() {
+        return this.lastUploadCount;
+    }
+    
+    /**
+     * Get the time spent in the last processUploads()
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getLastUploadTimeNs() {
+        return this.lastUploadNs;
+    }
+    
+    /**
+     * Stop all loading, dispose decoded assets that were never uploaded and
+     * close the asset source
+     * 
+     * Must be called from the main thread.
+     */
+    public void shutdown() {
+        Log.d(TAG, "Shutting down asset loading");
+        
+        ioPool.shutdownNow();
+        decodePool.shutdownNow();
+        
+        try {
+            ioPool.awaitTermination(1, TimeUnit.SECONDS);
+            decodePool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        AssetHandle<?> h;
+        while((h = uploads.poll()) != null) {
+            cancel(h);
+            finishUpload(h);
+        }
+        
+        source.close();
+    }
+    
+    /**
+     * Upload (or, if cancelled meanwhile, dispose) a decoded asset
+     */
+    private <T> void finishUpload(AssetHandle<T> h) {
+        T asset = h.getAsset();
+        
+        if(h.getState() == AssetHandle.State.CANCELLED) {
+            h.setAsset(null);
+            if(asset != null) {
+                h.getLoader().dispose(asset);
+            }
+            return;
+        }
+        
+        try {
+            h.getLoader().upload(asset);
+            
+            // a cancel from another thread may land during the upload
+            if(h.finish(AssetHandle.State.READY, null)) {
+                inFlight.decrementAndGet();
+            } else {
+                h.setAsset(null);
+                h.getLoader().dispose(asset);
+            }
+        } catch(Exception e) {
+            Log.e(TAG, "Failed to upload " + h.getPath(), e);
+            fail(h, e);
+            h.setAsset(null);
+            h.getLoader().dispose(asset);
+        }
+    }
+    
+    private void fail(AssetHandle<?> h, Throwable t) {
+        if(h.finish(AssetHandle.State.FAILED, t)) {
+            inFlight.decrementAndGet();
+        }
+    }
+    
+    private void submit(ThreadPoolExecutor pool, StageTask task) {
+        task.handle.pendingTask = task;
+        
+        try {
+            pool.execute(task);
+        } catch(RejectedExecutionException e) {
+            fail(task.handle, e);
+        }
+    }
+    
+    private static ThreadPoolExecutor createPool(final String name,
+            int threads) {
+        ThreadFactory factory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        
+        return new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                factory);
+    }
+    
+    /**
+     * One background stage of a load, ordered like its handle
+     */
+    private abstract static class StageTask
+            implements Runnable, Comparable<StageTask> {
+        
+        final AssetHandle<?> handle;
+        
+        StageTask(AssetHandle<?> handle) {
+            this.handle = handle;
+        }
+        
+        public int compareTo(StageTask o) {
+            return HANDLE_ORDER.compare(handle, o.handle);
+        }
+    }
+    
+    /**
+     * Reads raw bytes, then hands them to the decode pool
+     */
+    private class ReadTask extends StageTask {
+        
+        ReadTask(AssetHandle<?> handle) {
+            super(handle);
+        }
+        
+        public void run() {
+            if(!handle.transition(AssetHandle.State.QUEUED,
+                    AssetHandle.State.READING)) {
+                return;
+            }
+            
+            ByteBuffer data;
+            try {
+                data = source.read(handle.getPath());
+            } catch(Exception e) {
+                Log.e(TAG, "Failed to read " + handle.getPath(), e);
+                fail(handle, e);
+                return;
+            }
+            
+            handle.setContentHash(Hash.fnv1a64(data));
+            
+            if(handle.transition(AssetHandle.State.READING,
+                    AssetHandle.State.DECODING)) {
+                submit(decodePool, new DecodeTask<Object>(
+                        castHandle(handle), data));
+            }
+        }
+    }
+    
+    /**
+     * Decodes raw bytes, then queues the main-thread upload
+     */
+    private class DecodeTask<T> extends StageTask {
+        
+        private final AssetHandle<T> typed;
+        private final ByteBuffer data;
+        
+        DecodeTask(AssetHandle<T> handle, ByteBuffer data) {
+            super(handle);
+            this.typed = handle;
+            this.data = data;
+        }
+        
+        public void run() {
+            handle.pendingTask = null;
+            
+            if(handle.getState() != AssetHandle.State.DECODING) {
+                return;
+            }
+            
+            T asset;
+            try {
+                asset = typed.getLoader().decode(typed.getPath(), data);
+            } catch(Exception e) {
+                Log.e(TAG, "Failed to decode " + handle.getPath(), e);
+                fail(handle, e);
+                return;
+            }
+            
+            typed.setAsset(asset);
+            typed.transition(AssetHandle.State.DECODING,
+                    AssetHandle.State.UPLOADING);
+            
+            // queued even if cancelled meanwhile, so it is disposed on the
+            // main thread
+            uploads.add(typed);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static AssetHandle<Object> castHandle(AssetHandle<?> h) {
+        return (AssetHandle<Object>)h;
+    }
+}
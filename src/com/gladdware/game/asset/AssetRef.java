@@ -0,0 +1,100 @@
+/* AssetRef.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+/**
+ * Counted reference to an asset in an AssetCache
+ * 
+ * The cached asset stays loaded at least until every reference to it has
+ * been released. Each reference must be released exactly once; further
+ * release() calls are ignored.
+ *
+ * @param <T> the asset type
+ */
+public class AssetRef<T> {
+    
+    private final AssetCache cache;
+    private final AssetCache.Entry entry;
+    private boolean released;
+    
+    /**
+     * Constructor
+     */
+    AssetRef(AssetCache cache, AssetCache.Entry entry) {
+        this.cache = cache;
+        this.entry = entry;
+    }
+    
+    /**
+     * Get the asset path this reference was acquired with
+     *
+     * @return the asset path
+     */
+    public String getPath() {
+        return entry.path;
+    }
+    
+    /**
+     * Check whether the asset is loaded
+     *
+     * @return true if get() will return the asset
+     */
+    public boolean isReady() {
+        return !released && entry.resolve().handle.isReady();
+    }
+    
+    /**
+     * Get the underlying load handle
+     *
+     * @return the handle of the loaded (or loading) asset
+     */
+    @SuppressWarnings("unchecked")
+    public AssetHandle<T> getHandle() {
+        return (AssetHandle<T>)entry.resolve().handle;
+    }
+    
+    /**
+     * Get the asset
+     *
+     * @return the asset
+     * @throws IllegalStateException if the asset is not ready or the
+     *      reference was released
+     */
+    public T get() {
+        if(released) {
+            throw new IllegalStateException("Reference to " + entry.path +
+                    " was released");
+        }
+        
+        return getHandle().get();
+    }
+    
+    /**
+     * Release the reference
+     * 
+     * Must be called from the main thread.
+     */
+    public void release() {
+        if(!released) {
+            released = true;
+            cache.release(entry);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/* AssetSource.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the asset manager reads raw asset bytes from
+ * 
+ * Called on the asset I/O threads; implementations must be thread-safe.
+ */
+public interface AssetSource {
+    
+    /**
+     * Read an asset's raw bytes
+     *
+     * @param path the asset path
+     * @return a buffer holding the bytes between position and limit
+     * @throws IOException if the asset cannot be read
+     */
+    ByteBuffer read(String path) throws IOException;
+    
+    /**
+     * Release the source; read() fails afterwards
+     * 
+     * Buffers returned earlier stay valid.
+     */
+    void close();
+}
@@ -0,0 +1,80 @@
+/* FileAssetSource.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads assets from files below a root directory
+ */
+public class FileAssetSource implements AssetSource {
+    
+    private final File root;
+    
+    /**
+     * Constructor
+     *
+     * @param root directory asset paths are relative to
+     */
+    public FileAssetSource(File root) {
+        this.root = root;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetSource#read(java.lang.String)
+     */
+    public ByteBuffer read(String path) throws IOException {
+        File f = new File(root, path);
+        FileInputStream in = new FileInputStream(f);
+        
+        try {
+            FileChannel ch = in.getChannel();
+            long size = ch.size();
+            
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Asset too large: " + f);
+            }
+            
+            ByteBuffer buf = ByteBuffer.allocate((int)size);
+            while(buf.hasRemaining()) {
+                if(ch.read(buf) < 0) {
+                    throw new EOFException("Unexpected end of " + f);
+                }
+            }
+            buf.flip();
+            
+            return buf;
+        } finally {
+            in.close();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetSource#close()
+     */
+    public void close() {
+        // no open handles between reads
+    }
+}
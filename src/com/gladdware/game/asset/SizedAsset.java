@@ -0,0 +1,44 @@
+/* SizedAsset.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.asset;
+
+/**
+ * An asset that reports its memory use to the AssetCache
+ * 
+ * Assets that do not implement this interface are cached but count as zero
+ * bytes against the cache budgets.
+ */
+public interface SizedAsset {
+    
+    /**
+     * Get the Java heap memory held by the asset
+     *
+     * @return the size, in bytes
+     */
+    long getHeapBytes();
+    
+    /**
+     * Get the memory held outside the Java heap (direct buffers, GL textures
+     * and buffer objects, ...)
+     *
+     * @return the size, in bytes
+     */
+    long getNativeBytes();
+}
@@ -19,11 +19,22 @@
 
 package com.gladdware.game.core;
 
+import java.io.File;
+
+import com.gladdware.game.util.TimerWheel;
+
 /**
  * Container for context data for the game engine
  */
 public class EngineContext {
     
+    /** Default per-frame asset upload budget: 2 ms */
+    public static final long DEFAULT_ASSET_UPLOAD_BUDGET_NS = 2000000L;
+    /** Default asset cache heap budget: 256 MB */
+    public static final long DEFAULT_ASSET_HEAP_BUDGET = 256L << 20;
+    /** Default asset cache native budget: 512 MB */
+    public static final long DEFAULT_ASSET_NATIVE_BUDGET = 512L << 20;
+    
     /** The width of the display window */
     public int screenWidth;
     /** The height of the display window */
@@ -32,6 +43,20 @@ public class EngineContext {
     public int targetFramerate;
     /** The title of the display window */
     public String screenTitle;
+    /** The rendering backend for the display window */
+    public Window.Backend renderBackend;
+    /** The directory game assets are loaded from */
+    public File assetRoot;
+    /** Packed asset archive to load from instead of assetRoot, or null */
+    public File assetArchive;
+    /** Main-thread time per frame for finishing loaded assets, in ns */
+    public long assetUploadBudgetNs;
+    /** Java heap budget for cached assets, in bytes */
+    public long assetHeapBudget;
+    /** Native (direct buffer and GPU) budget for cached assets, in bytes */
+    public long assetNativeBudget;
+    /** Resolution of the engine's timer wheel, in ns */
+    public long timerTickNs;
     
     /**
      * Constructor
@@ -42,9 +67,29 @@ public class EngineContext {
      * @param title display window title
      */
     public EngineContext(int width, int height, int framerate, String title) {
+        this(width, height, framerate, title, Window.Backend.OPENGL);
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param width display width
+     * @param height display height
+     * @param framerate target framerate
+     * @param title display window title
+     * @param backend rendering backend
+     */
+    public EngineContext(int width, int height, int framerate, String title,
+            Window.Backend backend) {
         this.screenWidth = width;
         this.screenHeight = height;
         this.targetFramerate = framerate;
         this.screenTitle = title;
+        this.renderBackend = backend;
+        this.assetRoot = new File(".");
+        this.assetUploadBudgetNs = DEFAULT_ASSET_UPLOAD_BUDGET_NS;
+        this.assetHeapBudget = DEFAULT_ASSET_HEAP_BUDGET;
+        this.assetNativeBudget = DEFAULT_ASSET_NATIVE_BUDGET;
+        this.timerTickNs = TimerWheel.DEFAULT_TICK_NS;
     }
 }
@@ -19,11 +19,18 @@
 
 package com.gladdware.game.core;
 
-import org.lwjgl.opengl.Display;
+import java.io.IOException;
 
+import com.gladdware.game.asset.AssetArchive;
+import com.gladdware.game.asset.AssetCache;
+import com.gladdware.game.asset.AssetManager;
+import com.gladdware.game.asset.AssetSource;
+import com.gladdware.game.asset.FileAssetSource;
 import com.gladdware.game.log.Log;
 import com.gladdware.game.util.FpsManager;
 import com.gladdware.game.util.Time;
+import com.gladdware.game.util.TimerWheel;
+import com.gladdware.game.world.WorldStreamer;
 
 /**
  * Core game engine implementation
@@ -38,6 +45,9 @@ public class EngineCore {
     
     private Game game;
     private EngineContext engineCtx;
+    private AssetManager assets;
+    private AssetCache assetCache;
+    private TimerWheel timers;
 
     /**
      * Constructor
@@ -99,6 +109,19 @@ public class EngineCore {
             // update inputs
             Input.collectInput();
             
+            // finish assets loaded in the background
+            assets.processUploads(engineCtx.assetUploadBudgetNs);
+            assetCache.update();
+            
+            // stream world chunks around the focus set last frame
+            WorldStreamer<?> world = game.getWorldStreamer();
+            if(world != null) {
+                world.update();
+            }
+            
+            // fire timers due by the start of this frame
+            timers.advance(Time.getFrameStartTimeNs());
+            
             // update the game state
             game.onUpdate(Time.getDeltaMs());
             
@@ -110,12 +133,15 @@ public class EngineCore {
             FpsManager.finishedFrame();
             
             // sync to the target framerate
-            Display.sync(engineCtx.targetFramerate);
+            Window.sync(engineCtx.targetFramerate);
         }
         
         Log.d(TAG, "Engine stopping");
         
-        // cleanup
+        // cleanup; chunks unload while the game's resources still exist
+        if(game.getWorldStreamer() != null) {
+            game.getWorldStreamer().unloadAll();
+        }
         game.onCleanup();
         cleanup();
     }
@@ -127,7 +153,7 @@ public class EngineCore {
      */
     private boolean init() {
         // de-conflict
-        if(Display.isCreated()) {
+        if(Window.isCreated()) {
             Log.w(TAG, "Trying to re-initialize engine core");
             return false;
         }
@@ -137,13 +163,32 @@ public class EngineCore {
         try {
             // setup the window
             Window.create(engineCtx.screenWidth, engineCtx.screenHeight,
-                    engineCtx.screenTitle);
+                    engineCtx.screenTitle, engineCtx.renderBackend);
             
             // setup input
             Input.init();
+            
+            // setup asset loading
+            AssetSource source;
+            if(engineCtx.assetArchive != null) {
+                source = AssetArchive.open(engineCtx.assetArchive);
+            } else {
+                source = new FileAssetSource(engineCtx.assetRoot);
+            }
+            assets = new AssetManager(source);
+            assetCache = new AssetCache(assets, engineCtx.assetHeapBudget,
+                    engineCtx.assetNativeBudget);
+            game.setAssets(assets, assetCache);
+            
+            // setup timers
+            timers = new TimerWheel(engineCtx.timerTickNs, Time.getTimeNs());
+            game.setTimers(timers);
         } catch(EngineException e) {
             Log.e(TAG, "Failed to initialize engine: " + e.getMessage(), e);
             return false;
+        } catch(IOException e) {
+            Log.e(TAG, "Failed to open asset archive: " + e.getMessage(), e);
+            return false;
         }
         
         return true;
@@ -155,6 +200,20 @@ public class EngineCore {
     private void cleanup() {
         Log.d(TAG, "Engine cleanup");
         
+        // stop asset loading
+        if(assets != null) {
+            assetCache.trim();
+            assetCache = null;
+            assets.shutdown();
+            assets = null;
+        }
+        
+        // drop pending timers
+        if(timers != null) {
+            timers.clear();
+            timers = null;
+        }
+        
         // teardown input
         Input.dispose();
         
@@ -19,6 +19,11 @@
 
 package com.gladdware.game.core;
 
+import com.gladdware.game.asset.AssetCache;
+import com.gladdware.game.asset.AssetManager;
+import com.gladdware.game.util.TimerWheel;
+import com.gladdware.game.world.WorldStreamer;
+
 /**
  * Base abstract game implementation
  */
@@ -28,6 +33,22 @@ public abstract class Game {
      * Shutdown flag
      */
     private Boolean stopRequested;
+    
+    /**
+     * Engine asset loader, set before onInit()
+     */
+    private AssetManager assets;
+    private AssetCache assetCache;
+    
+    /**
+     * Engine timer wheel, set before onInit()
+     */
+    private TimerWheel timers;
+    
+    /**
+     * World streamer updated by the engine each frame, or null
+     */
+    private WorldStreamer<?> worldStreamer;
 
     /**
      * Constructor
@@ -62,6 +83,85 @@ public abstract class Game {
         }
     }
     
+    /**
+     * Get the engine's asset manager
+     * 
+     * Available from onInit() on. Assets loaded through it become ready
+     * between frames, before onUpdate() is called.
+     *
+     * @return the asset manager
+     */
+    protected AssetManager getAssets() {
+        return this.assets;
+    }
+    
+    /**
+     * Get the engine's shared asset cache
+     * 
+     * Available from onInit() on. Prefer it over getAssets() for assets that
+     * several systems use.
+     *
+     * @return the asset cache
+     */
+    protected AssetCache getAssetCache() {
+        return this.assetCache;
+    }
+    
+    /**
+     * Set the engine's asset manager and cache
+     *
+     * @param assets the asset manager
+     * @param cache the asset cache
+     */
+    void setAssets(AssetManager assets, AssetCache cache) {
+        this.assets = assets;
+        this.assetCache = cache;
+    }
+    
+    /**
+     * Get the engine's timer wheel
+     * 
+     * Available from onInit() on. Timers due by the start of a frame fire
+     * before onUpdate() is called, and delays count from the start of the
+     * current frame.
+     *
+     * @return the timer wheel
+     */
+    protected TimerWheel getTimers() {
+        return this.timers;
+    }
+    
+    /**
+     * Set the engine's timer wheel
+     *
+     * @param timers the timer wheel
+     */
+    void setTimers(TimerWheel timers) {
+        this.timers = timers;
+    }
+    
+    /**
+     * Set the world streamer the engine updates each frame
+     * 
+     * The engine calls its update() at each frame boundary, after finished
+     * assets are uploaded and before onUpdate(), and unloads all its chunks
+     * after onCleanup().
+     *
+     * @param streamer the world streamer, or null
+     */
+    protected void setWorldStreamer(WorldStreamer<?> streamer) {
+        this.worldStreamer = streamer;
+    }
+    
+    /**
+     * Get the world streamer the engine updates each frame
+     *
+     * @return the world streamer, or null
+     */
+    WorldStreamer<?> getWorldStreamer() {
+        return this.worldStreamer;
+    }
+    
     /**
      * Perform game initialization
      *
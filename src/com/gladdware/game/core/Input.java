@@ -46,12 +46,26 @@ public class Input {
     /** List of all "current" input events */
     private static List<InputEvent> curInputs;
     
+    /** Whether the LWJGL keyboard and mouse are being polled */
+    private static boolean devicesCreated = false;
+    
     /**
      * Initialize mouse and keyboard input for the game engine
      *
      * @throws EngineException on failure to initialize any input source
      */
     public static void init() throws EngineException {
+        // allocate input lists
+        curInputs = new ArrayList<InputEvent>();
+        curMouseInputs = new ArrayList<MouseEvent>();
+        curKeyboardInputs = new ArrayList<KeyboardEvent>();
+        
+        if(Window.getBackend() != Window.Backend.OPENGL) {
+            // LWJGL input devices need an LWJGL display
+            Log.d(TAG, "No LWJGL display; input sources disabled");
+            return;
+        }
+        
         // try to initialize keyboard and mouse
         
         try {
@@ -68,10 +82,7 @@ public class Input {
             throw new EngineException("Failed to setup mouse input", e);
         }
         
-        // allocate input lists
-        curInputs = new ArrayList<InputEvent>();
-        curMouseInputs = new ArrayList<MouseEvent>();
-        curKeyboardInputs = new ArrayList<KeyboardEvent>();
+        devicesCreated = true;
     }
     
     /**
@@ -79,9 +90,12 @@ public class Input {
      */
     public static void dispose() {
         // destroy keyboard and mouse
-        Log.d(TAG, "Destroying input sources");
-        Keyboard.destroy();
-        Mouse.destroy();
+        if(devicesCreated) {
+            Log.d(TAG, "Destroying input sources");
+            Keyboard.destroy();
+            Mouse.destroy();
+            devicesCreated = false;
+        }
         
         clearInputs();
     }
@@ -135,6 +149,10 @@ public class Input {
         // clear old lists
         clearInputs();
         
+        if(!devicesCreated) {
+            return;
+        }
+        
         // collect keyboard input
         while(Keyboard.next()) {
             long keyTimeNs = Keyboard.getEventNanoseconds();
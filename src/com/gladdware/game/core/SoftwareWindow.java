@@ -0,0 +1,234 @@
+/* SoftwareWindow.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.core;
+
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.render.FrameBuffer;
+import com.gladdware.game.render.SoftwareRasterizer;
+import com.gladdware.game.util.Time;
+
+/**
+ * Display state for the software rendering backend
+ * 
+ * Owns the frame buffer and rasterizer, and presents finished frames either
+ * in an AWT window (when a display is available) or by dumping them to PNG
+ * files, or both.
+ */
+class SoftwareWindow {
+    
+    private static final String TAG = "SoftwareWindow";
+    
+    private static FrameBuffer frameBuffer = null;
+    private static SoftwareRasterizer rasterizer = null;
+    
+    private static Frame frame = null;
+    private static Canvas canvas = null;
+    private static BufferedImage image = null;
+    private static volatile boolean closeRequested = false;
+    
+    private static File dumpDirectory = null;
+    private static int frameNumber = 0;
+    
+    private static long nextFrameNs = 0L;
+    
+    /**
+     * Create the frame buffer and, if possible, an on-screen window
+     *
+     * @param width frame buffer width
+     * @param height frame buffer height
+     * @param title window title
+     */
+    static void create(int width, int height, String title) {
+        frameBuffer = new FrameBuffer(width, height);
+        rasterizer = new SoftwareRasterizer(frameBuffer);
+        closeRequested = false;
+        frameNumber = 0;
+        nextFrameNs = 0L;
+        
+        if(GraphicsEnvironment.isHeadless()) {
+            Log.d(TAG, "Headless environment; frames will not be shown");
+            return;
+        }
+        
+        canvas = new Canvas();
+        canvas.setPreferredSize(new Dimension(width, height));
+        canvas.setIgnoreRepaint(true);
+        
+        frame = new Frame(title);
+        frame.add(canvas);
+        frame.setResizable(false);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeRequested = true;
+            }
+        });
+        frame.pack();
+        frame.setVisible(true);
+        
+        Log.d(TAG, "Created software display window");
+    }
+    
+    /**
+     * Release the frame buffer and close the on-screen window
+     */
+    static void dispose() {
+        if(frame != null) {
+            frame.dispose();
+        }
+        
+        frame = null;
+        canvas = null;
+        image = null;
+        rasterizer = null;
+        frameBuffer = null;
+    }
+    
+    /**
+     * Finish the current frame: draw pending triangles, then show and/or dump
+     * the frame buffer
+     */
+    static void present() {
+        rasterizer.flush();
+        
+        if(canvas != null) {
+            image = frameBuffer.toImage(image);
+            
+            Graphics g = canvas.getGraphics();
+            if(g != null) {
+                g.drawImage(image, 0, 0, null);
+                g.dispose();
+            }
+        }
+        
+        if(dumpDirectory != null) {
+            File out = new File(dumpDirectory,
+                    String.format("frame_%1$06d.png", frameNumber));
+            
+            try {
+                frameBuffer.writePng(out);
+            } catch(IOException e) {
+                Log.w(TAG, "Failed to dump frame to " + out, e);
+            }
+        }
+        
+        frameNumber++;
+    }
+    
+    /**
+     * Sleep until the next frame is due at the given framerate
+     *
+     * @param fps target framerate
+     */
+    static void sync(int fps) {
+        if(fps <= 0) {
+            return;
+        }
+        
+        long frameNs = Time.ONE_SECOND_NS / fps;
+        long now = Time.getTimeNs();
+        
+        if(nextFrameNs == 0L || now - nextFrameNs > frameNs) {
+            // first frame, or we fell far behind; don't try to catch up
+            nextFrameNs = now;
+        }
+        
+        long waitNs = nextFrameNs - now;
+        if(waitNs > 0L) {
+            try {
+                Thread.sleep(waitNs / 1000000L, (int)(waitNs % 1000000L));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        nextFrameNs += frameNs;
+    }
+    
+    /**
+     * Check whether the software display exists
+     *
+     * @return true if created
+     */
+    static boolean isCreated() {
+        return frameBuffer != null;
+    }
+    
+    /**
+     * Check whether the on-screen window was closed
+     *
+     * @return true if window close is requested
+     */
+    static boolean isCloseRequested() {
+        return closeRequested;
+    }
+    
+    /**
+     * Set the directory finished frames are written to
+     *
+     * @param dir the dump directory, or null to stop dumping
+     */
+    static void setDumpDirectory(File dir) {
+        dumpDirectory = dir;
+    }
+    
+    /**
+     * Get the number of frames presented so far
+     *
+     * @return the frame number
+     */
+    static int getFrameNumber() {
+        return frameNumber;
+    }
+    
+    /**
+     * Get the frame buffer
+     *
+     * @return the frame buffer, or null if not created
+     */
+    static FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+    
+    /**
+     * Get the rasterizer drawing into the frame buffer
+     *
+     * @return the rasterizer, or null if not created
+     */
+    static SoftwareRasterizer getRasterizer() {
+        return rasterizer;
+    }
+    
+    /**
+     * Constructor - Never instantiate
+     */
+    private SoftwareWindow() {}
+}
@@ -19,11 +19,17 @@
 
 package com.gladdware.game.core;
 
+import java.io.File;
+
 import org.lwjgl.LWJGLException;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 
 import com.gladdware.game.log.Log;
+import com.gladdware.game.render.FrameBuffer;
+import com.gladdware.game.render.GLState;
+import com.gladdware.game.render.LwjglGL;
+import com.gladdware.game.render.SoftwareRasterizer;
 
 /**
  * Abstraction for a display window
@@ -35,6 +41,11 @@ public class Window {
     public static final String DEFAULT_TITLE = "Gladdware Game Engine";
     
     private static final String TAG = "Window";
+    
+    private static Backend backend = Backend.OPENGL;
+    
+    /** State tracker for the OpenGL backend */
+    private static GLState glState = null;
 
     /**
      * Create a display window with the given parameters
@@ -42,10 +53,19 @@ public class Window {
      * @param width display width
      * @param height display height
      * @param title window title
+     * @param renderBackend the rendering backend to use
      * @throws EngineException on failure to initialize or create a display
      */
-    public static void create(int width, int height, String title)
-            throws EngineException {
+    public static void create(int width, int height, String title,
+            Backend renderBackend) throws EngineException {
+        backend = renderBackend;
+        
+        if(backend == Backend.SOFTWARE) {
+            SoftwareWindow.create(width, height, title);
+            Log.d(TAG, "Successfully created software display");
+            return;
+        }
+        
         // invoke lwjgl to setup the display
         Display.setTitle(title);
         
@@ -55,11 +75,26 @@ public class Window {
             
             Display.create();
             Log.d(TAG, "Successfully created display");
+            
+            glState = new GLState(new LwjglGL());
         } catch (LWJGLException e) {
             throw new EngineException("Failed to setup display", e);
         }
     }
     
+    /**
+     * Create an OpenGL display window with the given parameters
+     *
+     * @param width display width
+     * @param height display height
+     * @param title window title
+     * @throws EngineException on failure to initialize or create a display
+     */
+    public static void create(int width, int height, String title)
+            throws EngineException {
+        create(width, height, title, Backend.OPENGL);
+    }
+    
     /**
      * Create a display window with a default title
      *
@@ -76,14 +111,68 @@ public class Window {
      */
     public static void dispose() {
         Log.d(TAG, "Destroying display");
-        Display.destroy();
+        
+        if(backend == Backend.SOFTWARE) {
+            SoftwareWindow.dispose();
+        } else {
+            Display.destroy();
+            glState = null;
+        }
     }
     
     /**
-     * Update the display window (effectively swaps the OpenGL buffers)
+     * Update the display window
+     * 
+     * With the OpenGL backend this effectively swaps the OpenGL buffers. With
+     * the software backend it draws pending triangles, then shows the frame
+     * buffer on screen (if possible) and dumps it to the frame dump directory
+     * (if set).
      */
     public static void render() {
-        Display.update();
+        if(backend == Backend.SOFTWARE) {
+            SoftwareWindow.present();
+        } else {
+            if(glState != null) {
+                glState.finishFrame();
+            }
+            
+            Display.update();
+        }
+    }
+    
+    /**
+     * Wait as needed to hold the given framerate
+     *
+     * @param fps the target framerate
+     */
+    public static void sync(int fps) {
+        if(backend == Backend.SOFTWARE) {
+            SoftwareWindow.sync(fps);
+        } else {
+            Display.sync(fps);
+        }
+    }
+    
+    /**
+     * Check whether the display window has been created
+     *
+     * @return true if the display exists
+     */
+    public static boolean isCreated() {
+        if(backend == Backend.SOFTWARE) {
+            return SoftwareWindow.isCreated();
+        }
+        
+        return Display.isCreated();
+    }
+    
+    /**
+     * Get the rendering backend in use
+     *
+     * @return the current backend
+     */
+    public static Backend getBackend() {
+        return backend;
     }
     
     /**
@@ -92,27 +181,96 @@ public class Window {
      * @return true if window close is requested
      */
     public static boolean isCloseRequested() {
+        if(backend == Backend.SOFTWARE) {
+            return SoftwareWindow.isCloseRequested();
+        }
+        
         return Display.isCloseRequested();
     }
     
     /**
      * Get the width of the display window
      *
-     * @return the width of the display window
+     * @return the width of the display window, or 0 if the software window
+     *         is not created
      */
     public static int getWidth() {
+        if(backend == Backend.SOFTWARE) {
+            FrameBuffer fb = SoftwareWindow.getFrameBuffer();
+            return (fb != null) ? fb.getWidth() : 0;
+        }
+        
         return Display.getDisplayMode().getWidth();
     }
     
     /**
      * Get the height of the display window
      *
-     * @return the height of the display window
+     * @return the height of the display window, or 0 if the software window
+     *         is not created
      */
     public static int getHeight() {
+        if(backend == Backend.SOFTWARE) {
+            FrameBuffer fb = SoftwareWindow.getFrameBuffer();
+            return (fb != null) ? fb.getHeight() : 0;
+        }
+        
         return Display.getDisplayMode().getHeight();
     }
     
+    /**
+     * Get the OpenGL state tracker
+     * 
+     * Game code should change the tracked GL state through this object rather
+     * than through LWJGL directly so redundant calls can be dropped. Its
+     * per-frame call counters roll over on every render().
+     *
+     * @return the state tracker, or null when not using the OpenGL backend
+     */
+    public static GLState getGLState() {
+        return glState;
+    }
+    
+    /**
+     * Get the software frame buffer
+     *
+     * @return the frame buffer, or null when not using the software backend
+     */
+    public static FrameBuffer getFrameBuffer() {
+        return (backend == Backend.SOFTWARE) ?
+                SoftwareWindow.getFrameBuffer() : null;
+    }
+    
+    /**
+     * Get the software rasterizer that draws into the frame buffer
+     *
+     * @return the rasterizer, or null when not using the software backend
+     */
+    public static SoftwareRasterizer getRasterizer() {
+        return (backend == Backend.SOFTWARE) ?
+                SoftwareWindow.getRasterizer() : null;
+    }
+    
+    /**
+     * Set a directory that every frame rendered by the software backend is
+     * written to as a numbered PNG file
+     *
+     * @param dir the dump directory, or null to stop dumping frames
+     */
+    public static void setFrameDumpDirectory(File dir) {
+        SoftwareWindow.setDumpDirectory(dir);
+    }
+    
+    /**
+     * Rendering backend enumeration
+     */
+    public enum Backend {
+        /** LWJGL display with an OpenGL context */
+        OPENGL,
+        /** Multithreaded software rasterizer into an in-memory frame buffer */
+        SOFTWARE;
+    }
+    
     /**
      * Constructor - Never instantiate
      */
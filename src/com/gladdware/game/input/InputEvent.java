@@ -29,6 +29,9 @@ public abstract class InputEvent implements Comparable<InputEvent> {
     /** Time the input event occurred, in nanoseconds */
     private long evtTimeNs;
     
+    /** Simulation tick the event applies to, or -1 if untagged */
+    private long tick = -1;
+    
     /**
      * Constructor
      *
@@ -60,6 +63,36 @@ public abstract class InputEvent implements Comparable<InputEvent> {
         return this.evtTimeNs;
     }
     
+    /**
+     * Overwrite the event time, for decoders that reuse event objects
+     *
+     * @param evtTimeNs the event time, in nanoseconds
+     */
+    protected void setEventTimeNs(long evtTimeNs) {
+        this.evtTimeNs = evtTimeNs;
+    }
+    
+    /**
+     * Get the simulation tick the event applies to
+     * 
+     * Events are tagged when a fixed-tick simulation consumes them, e.g. by
+     * ClientPredictor, so a server can apply them on the same tick.
+     *
+     * @return the tick, or -1 if the event has not been tagged
+     */
+    public long getTick() {
+        return this.tick;
+    }
+    
+    /**
+     * Tag the event with the simulation tick it applies to
+     *
+     * @param tick the tick
+     */
+    public void setTick(long tick) {
+        this.tick = tick;
+    }
+    
     /* (non-Javadoc)
      * @see java.lang.Comparable#compareTo(java.lang.Object)
      */
@@ -47,6 +47,23 @@ public class KeyboardEvent extends InputEvent {
         this.keyChar = character;
     }
     
+    /**
+     * Overwrite the event, for decoders that reuse event objects
+     *
+     * @param timeNs the time the key event occurred in nanoseconds
+     * @param state the state of the key
+     * @param code the key code
+     * @param character the key character
+     */
+    public void set(long timeNs, State state, int code, char character) {
+        setEventTimeNs(timeNs);
+        setTick(-1);
+        
+        this.keyState = state;
+        this.keyCode = code;
+        this.keyChar = character;
+    }
+    
     /**
      * Get the key state for the event
      *
@@ -62,6 +62,32 @@ public class MouseEvent extends InputEvent {
         this.deltaWheel = dWheel;
     }
     
+    /**
+     * Overwrite the event, for decoders that reuse event objects
+     *
+     * @param timeNs the time the mouse event occurred in nanoseconds
+     * @param btn the button that caused this event
+     * @param btnState the state of the mouse button
+     * @param x absolute X position of the mouse pointer
+     * @param y absolute Y position of the mouse pointer
+     * @param dx change in X position of the mouse pointer since last event
+     * @param dy change in Y position of the mouse pointer since last event
+     * @param dWheel change in mouse wheel position since last event
+     */
+    public void set(long timeNs, int btn, ButtonState btnState, int x, int y,
+            int dx, int dy, int dWheel) {
+        setEventTimeNs(timeNs);
+        setTick(-1);
+        
+        this.button = btn;
+        this.buttonState = btnState;
+        this.x = x;
+        this.y = y;
+        this.deltaX = dx;
+        this.deltaY = dy;
+        this.deltaWheel = dWheel;
+    }
+    
     /**
      * Get the mouse button for this event.
      * 
@@ -0,0 +1,113 @@
+/* HalfFloat.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.math;
+
+/**
+ * IEEE 754 half-precision (16-bit) float conversion
+ * 
+ * Halves hold about three decimal digits, which is enough for texture
+ * coordinates and positions in model space, at half the size of a float.
+ */
+public class HalfFloat {
+    
+    /**
+     * Convert a float to the nearest half
+     * 
+     * Values too large for a half become infinity; values too small become
+     * (signed) zero or a denormal.
+     *
+     * @param f the float
+     * @return the half's bits
+     */
+    public static short fromFloat(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xff;
+        int mant = bits & 0x7fffff;
+        
+        if(exp == 0xff) {
+            // infinity or NaN
+            return (short)(sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+        }
+        
+        int e = exp - 127 + 15;
+        if(e >= 0x1f) {
+            return (short)(sign | 0x7c00);
+        }
+        
+        if(e <= 0) {
+            if(e < -10) {
+                return (short)sign;
+            }
+            
+            // denormal: shift in the implicit bit, round to nearest even
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int half = mant >> shift;
+            int rest = mant & ((1 << shift) - 1);
+            int mid = 1 << (shift - 1);
+            
+            if(rest > mid || (rest == mid && (half & 1) != 0)) {
+                half++;
+            }
+            return (short)(sign | half);
+        }
+        
+        // normal: round mantissa to nearest even; a carry bumps the exponent
+        int h = sign | (e << 10) | (mant >> 13);
+        int rest = mant & 0x1fff;
+        if(rest > 0x1000 || (rest == 0x1000 && (h & 1) != 0)) {
+            h++;
+        }
+        
+        return (short)h;
+    }
+    
+    /**
+     * Convert a half to a float
+     *
+     * @param h the half's bits
+     * @return the float
+     */
+    public static float toFloat(short h) {
+        int bits = h & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1f;
+        int mant = bits & 0x3ff;
+        
+        if(exp == 0) {
+            // zero or denormal
+            float f = mant * (1.0f / (1 << 24));
+            return sign != 0 ? -f : f;
+        }
+        if(exp == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        }
+        
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) |
+                (mant << 13));
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private HalfFloat() {}
+
+}
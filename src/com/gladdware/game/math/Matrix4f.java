@@ -253,6 +253,30 @@ public class Matrix4f {
         return result;
     }
     
+    /**
+     * Get a single element of this matrix
+     *
+     * @param row the element row (0-3)
+     * @param col the element column (0-3)
+     * @return the element value
+     */
+    public float get(int row, int col) {
+        return this.matrix[row + col * DIM];
+    }
+    
+    /**
+     * Copy the elements of this matrix, in column-major order, into the given
+     * array
+     *
+     * @param dst the destination array (at least 16 elements)
+     * @return the destination array
+     */
+    public float[] get(float[] dst) {
+        System.arraycopy(this.matrix, 0, dst, 0, MATRIX_4X4_SIZE);
+        
+        return dst;
+    }
+    
     /**
      * Create a new float buffer for LWJGL backed by this matrix
      *
@@ -58,6 +58,49 @@ public class Vector3f {
         this(other.x, other.y, other.z);
     }
 
+    /**
+     * Get the x coordinate
+     *
+     * @return the x coordinate
+     */
+    public float getX() {
+        return this.x;
+    }
+    
+    /**
+     * Get the y coordinate
+     *
+     * @return the y coordinate
+     */
+    public float getY() {
+        return this.y;
+    }
+    
+    /**
+     * Get the z coordinate
+     *
+     * @return the z coordinate
+     */
+    public float getZ() {
+        return this.z;
+    }
+    
+    /**
+     * Set all coordinates of this vector in place
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return this vector
+     */
+    public Vector3f set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        
+        return this;
+    }
+
     /**
      * Get the magnitude of this vector
      *
@@ -0,0 +1,114 @@
+/* IndexTripleMap.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from (position, texcoord, normal) index triples to
+ * vertex indices
+ * 
+ * Keys and values live in flat int arrays, so lookups allocate nothing.
+ */
+final class IndexTripleMap {
+    
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    
+    /**
+     * Constructor
+     *
+     * @param expected expected number of entries
+     */
+    IndexTripleMap(int expected) {
+        int cap = 16;
+        while(cap < expected * 2) {
+            cap <<= 1;
+        }
+        
+        allocate(cap);
+    }
+    
+    int size() {
+        return this.size;
+    }
+    
+    /**
+     * Get the value for a triple, adding it if absent
+     *
+     * @param p position index
+     * @param t texcoord index
+     * @param n normal index
+     * @param value value to add if the triple is absent
+     * @return the existing value, or -1 if the triple was added
+     */
+    int putIfAbsent(int p, int t, int n, int value) {
+        if(size * 2 >= values.length) {
+            grow();
+        }
+        
+        int slot = hash(p, t, n) & mask;
+        while(values[slot] >= 0) {
+            int k = slot * 3;
+            if(keys[k] == p && keys[k + 1] == t && keys[k + 2] == n) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        int k = slot * 3;
+        keys[k] = p;
+        keys[k + 1] = t;
+        keys[k + 2] = n;
+        values[slot] = value;
+        size++;
+        
+        return -1;
+    }
+    
+    private static int hash(int p, int t, int n) {
+        int h = p * 0x9e3779b1 + t * 0x85ebca6b + n * 0xc2b2ae35;
+        return h ^ (h >>> 15);
+    }
+    
+    private void allocate(int cap) {
+        this.keys = new int[cap * 3];
+        this.values = new int[cap];
+        this.mask = cap - 1;
+        Arrays.fill(values, -1);
+    }
+    
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        
+        allocate(oldValues.length * 2);
+        size = 0;
+        
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] >= 0) {
+                putIfAbsent(oldKeys[i * 3], oldKeys[i * 3 + 1],
+                        oldKeys[i * 3 + 2], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/* Material.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+/**
+ * Surface material, as described by a Wavefront MTL file
+ * 
+ * Texture map paths are as written in the MTL file, usually relative to it.
+ */
+public class Material {
+    
+    private final String name;
+    
+    final float[] ambient = {0, 0, 0};
+    final float[] diffuse = {0.8f, 0.8f, 0.8f};
+    final float[] specular = {0, 0, 0};
+    final float[] emissive = {0, 0, 0};
+    float shininess = 0;
+    float opacity = 1;
+    String diffuseMap;
+    String specularMap;
+    String normalMap;
+    String opacityMap;
+    
+    /**
+     * Constructor
+     *
+     * @param name the material name
+     */
+    public Material(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Get the material name
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+    
+    /**
+     * Get the ambient color (Ka)
+     *
+     * @return RGB color, not a copy
+     */
+    public float[] getAmbient() {
+        return this.ambient;
+    }
+    
+    /**
+     * Get the diffuse color (Kd)
+     *
+     * @return RGB color, not a copy
+     */
+    public float[] getDiffuse() {
+        return this.diffuse;
+    }
+    
+    /**
+     * Get the specular color (Ks)
+     *
+     * @return RGB color, not a copy
+     */
+    public float[] getSpecular() {
+        return this.specular;
+    }
+    
+    /**
+     * Get the emissive color (Ke)
+     *
+     * @return RGB color, not a copy
+     */
+    public float[] getEmissive() {
+        return this.emissive;
+    }
+    
+    /**
+     * Get the specular exponent (Ns)
+     *
+     * @return the exponent
+     */
+    public float getShininess() {
+        return this.shininess;
+    }
+    
+    /**
+     * Get the opacity (d, or 1 - Tr)
+     *
+     * @return opacity, 1 for opaque
+     */
+    public float getOpacity() {
+        return this.opacity;
+    }
+    
+    /**
+     * Get the diffuse texture (map_Kd)
+     *
+     * @return the texture path, or null
+     */
+    public String getDiffuseMap() {
+        return this.diffuseMap;
+    }
+    
+    /**
+     * Get the specular texture (map_Ks)
+     *
+     * @return the texture path, or null
+     */
+    public String getSpecularMap() {
+        return this.specularMap;
+    }
+    
+    /**
+     * Get the normal/bump texture (norm, map_Bump or bump)
+     *
+     * @return the texture path, or null
+     */
+    public String getNormalMap() {
+        return this.normalMap;
+    }
+    
+    /**
+     * Get the opacity texture (map_d)
+     *
+     * @return the texture path, or null
+     */
+    public String getOpacityMap() {
+        return this.opacityMap;
+    }
+}
@@ -0,0 +1,198 @@
+/* Mesh.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import com.gladdware.game.asset.SizedAsset;
+
+/**
+ * Indexed triangle mesh with interleaved vertex data
+ * 
+ * Each vertex holds its position (3 floats), then its texture coordinates
+ * (2 floats) if the mesh has TEXCOORD, then its normal (3 floats) if the mesh
+ * has NORMAL. Vertex and index data live in direct buffers, ready for
+ * glBufferData(). Triangles are grouped into sub-meshes by material.
+ */
+public class Mesh implements SizedAsset {
+    
+    public static final int POSITION = 1;
+    public static final int TEXCOORD = 2;
+    public static final int NORMAL = 4;
+    
+    private final FloatBuffer vertices;
+    private final IntBuffer indices;
+    private final int format;
+    private final int floatsPerVertex;
+    private final List<SubMesh> subMeshes;
+    private final List<String> materialLibs;
+    
+    /**
+     * Constructor
+     *
+     * @param vertices interleaved vertices, position 0 to limit
+     * @param indices triangle indices, position 0 to limit
+     * @param format attribute flags, POSITION plus optionally TEXCOORD and
+     *      NORMAL
+     * @param subMeshes index ranges by material
+     * @param materialLibs MTL files referenced by the mesh
+     */
+    public Mesh(FloatBuffer vertices, IntBuffer indices, int format,
+            List<SubMesh> subMeshes, List<String> materialLibs) {
+        if((format & POSITION) == 0) {
+            throw new IllegalArgumentException("Mesh needs positions");
+        }
+        
+        this.vertices = vertices;
+        this.indices = indices;
+        this.format = format;
+        this.floatsPerVertex = floatsPerVertex(format);
+        this.subMeshes = Collections.unmodifiableList(subMeshes);
+        this.materialLibs = Collections.unmodifiableList(materialLibs);
+    }
+    
+    /**
+     * Get the number of floats per vertex for a format
+     *
+     * @param format attribute flags
+     * @return the vertex size, in floats
+     */
+    public static int floatsPerVertex(int format) {
+        return 3 + ((format & TEXCOORD) != 0 ? 2 : 0) +
+                ((format & NORMAL) != 0 ? 3 : 0);
+    }
+    
+    /**
+     * Get the interleaved vertex data
+     *
+     * @return the vertices, position 0 to limit
+     */
+    public FloatBuffer getVertices() {
+        return this.vertices;
+    }
+    
+    /**
+     * Get the triangle indices
+     *
+     * @return the indices, position 0 to limit
+     */
+    public IntBuffer getIndices() {
+        return this.indices;
+    }
+    
+    /**
+     * Get the vertex format
+     *
+     * @return attribute flags
+     */
+    public int getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * Check whether vertices have an attribute
+     *
+     * @param attribute TEXCOORD or NORMAL
+     * @return true if the attribute is present
+     */
+    public boolean has(int attribute) {
+        return (format & attribute) != 0;
+    }
+    
+    /**
+     * Get the vertex size
+     *
+     * @return the number of floats per vertex
+     */
+    public int getFloatsPerVertex() {
+        return this.floatsPerVertex;
+    }
+    
+    /**
+     * Get the offset of the texture coordinates within a vertex
+     *
+     * @return the offset, in floats, or -1 without TEXCOORD
+     */
+    public int getTexCoordOffset() {
+        return has(TEXCOORD) ? 3 : -1;
+    }
+    
+    /**
+     * Get the offset of the normal within a vertex
+     *
+     * @return the offset, in floats, or -1 without NORMAL
+     */
+    public int getNormalOffset() {
+        return has(NORMAL) ? (has(TEXCOORD) ? 5 : 3) : -1;
+    }
+    
+    /**
+     * Get the number of vertices
+     *
+     * @return the vertex count
+     */
+    public int getVertexCount() {
+        return vertices.limit() / floatsPerVertex;
+    }
+    
+    /**
+     * Get the number of indices
+     *
+     * @return the index count (three per triangle)
+     */
+    public int getIndexCount() {
+        return indices.limit();
+    }
+    
+    /**
+     * Get the index ranges by material
+     *
+     * @return the sub-meshes
+     */
+    public List<SubMesh> getSubMeshes() {
+        return this.subMeshes;
+    }
+    
+    /**
+     * Get the MTL files the mesh references
+     *
+     * @return the material library paths, as written in the source file
+     */
+    public List<String> getMaterialLibs() {
+        return this.materialLibs;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.SizedAsset#getHeapBytes()
+     */
+    public long getHeapBytes() {
+        return 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.SizedAsset#getNativeBytes()
+     */
+    public long getNativeBytes() {
+        return 4L * (vertices.capacity() + indices.capacity());
+    }
+}
@@ -0,0 +1,425 @@
+/* MeshOptimizer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.log.LogLevel;
+
+/**
+ * Reorders mesh data for GPU cache efficiency
+ * 
+ * - optimizeVertexCache() reorders triangles for the post-transform vertex
+ *   cache (Tom Forsyth's linear-speed algorithm), lowering the number of
+ *   vertex shader runs per triangle (ACMR).
+ * - optimizeVertexFetch() renumbers vertices in the order the triangles
+ *   first use them, so vertex fetches walk memory mostly forward, and drops
+ *   unused vertices.
+ * 
+ * optimize() applies both to a whole mesh, sub-mesh by sub-mesh. Run main()
+ * to print cache, quantization and LOD reports for an OBJ file.
+ */
+public class MeshOptimizer {
+    
+    private static final String TAG = "MeshOptimizer";
+    
+    /** Cache size used for ACMR reports; typical of current hardware */
+    public static final int REPORT_CACHE_SIZE = 16;
+    
+    /** Cache size modeled by the optimizer */
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRI_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    
+    /** Score by cache position, precomputed */
+    private static final float[] CACHE_SCORE = new float[CACHE_SIZE];
+    static {
+        for(int i = 0; i < CACHE_SIZE; i++) {
+            if(i < 3) {
+                // the last triangle's vertices; fixed so it isn't rewarded
+                // for using them in a particular order
+                CACHE_SCORE[i] = LAST_TRI_SCORE;
+            } else {
+                float s = 1.0f - (i - 3) / (float)(CACHE_SIZE - 3);
+                CACHE_SCORE[i] = (float)Math.pow(s, CACHE_DECAY_POWER);
+            }
+        }
+    }
+    
+    /**
+     * Optimize a mesh for the vertex cache and vertex fetch
+     * 
+     * Triangles keep their sub-mesh; within a sub-mesh their order changes.
+     *
+     * @param mesh the mesh
+     * @return a new, optimized mesh
+     */
+    public static Mesh optimize(Mesh mesh) {
+        int[] indices = toArray(mesh.getIndices());
+        int vertexCount = mesh.getVertexCount();
+        
+        for(SubMesh s : mesh.getSubMeshes()) {
+            optimizeVertexCache(indices, s.getFirstIndex(), s.getIndexCount(),
+                    vertexCount);
+        }
+        
+        int stride = mesh.getFloatsPerVertex();
+        FloatBuffer vertices = optimizeVertexFetch(mesh.getVertices(), stride,
+                indices);
+        
+        IntBuffer ib = BufferUtils.createIntBuffer(indices.length);
+        ib.put(indices).flip();
+        
+        return new Mesh(vertices, ib, mesh.getFormat(), mesh.getSubMeshes(),
+                mesh.getMaterialLibs());
+    }
+    
+    /**
+     * Reorder a range of triangles for the post-transform vertex cache
+     *
+     * @param indices triangle indices, reordered in place
+     * @param first first index of the range
+     * @param count number of indices in the range (multiple of 3)
+     * @param vertexCount number of vertices (larger than any index)
+     */
+    public static void optimizeVertexCache(int[] indices, int first,
+            int count, int vertexCount) {
+        int triCount = count / 3;
+        if(triCount < 2) {
+            return;
+        }
+        
+        // vertex -> triangles adjacency (CSR)
+        int[] valence = new int[vertexCount];
+        for(int i = first; i < first + count; i++) {
+            valence[indices[i]]++;
+        }
+        int[] adjStart = new int[vertexCount + 1];
+        for(int v = 0; v < vertexCount; v++) {
+            adjStart[v + 1] = adjStart[v] + valence[v];
+        }
+        int[] adj = new int[count];
+        int[] fill = Arrays.copyOf(adjStart, vertexCount);
+        for(int t = 0; t < triCount; t++) {
+            for(int j = 0; j < 3; j++) {
+                int v = indices[first + t * 3 + j];
+                adj[fill[v]++] = t;
+            }
+        }
+        
+        // per-vertex state; 'remaining' counts triangles not yet emitted
+        int[] remaining = valence;
+        int[] cachePos = new int[vertexCount];
+        Arrays.fill(cachePos, -1);
+        float[] vscore = new float[vertexCount];
+        for(int v = 0; v < vertexCount; v++) {
+            vscore[v] = vertexScore(-1, remaining[v]);
+        }
+        
+        float[] tscore = new float[triCount];
+        boolean[] emitted = new boolean[triCount];
+        for(int t = 0; t < triCount; t++) {
+            int b = first + t * 3;
+            tscore[t] = vscore[indices[b]] + vscore[indices[b + 1]] +
+                    vscore[indices[b + 2]];
+        }
+        
+        int[] out = new int[count];
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int scan = 0;
+        
+        int best = -1;
+        float bestScore = -1;
+        for(int t = 0; t < triCount; t++) {
+            if(tscore[t] > bestScore) {
+                bestScore = tscore[t];
+                best = t;
+            }
+        }
+        
+        for(int o = 0; o < triCount; o++) {
+            if(best < 0) {
+                // nothing in the cache helps; take the next unemitted one
+                while(emitted[scan]) {
+                    scan++;
+                }
+                best = scan;
+            }
+            
+            int t = best;
+            int b = first + t * 3;
+            emitted[t] = true;
+            
+            // emit and move the triangle's vertices to the cache front
+            int n = 0;
+            for(int j = 0; j < 3; j++) {
+                int v = indices[b + j];
+                out[o * 3 + j] = v;
+                newCache[n++] = v;
+                
+                // drop the triangle from the vertex's remaining list
+                int s = adjStart[v];
+                int e = s + remaining[v];
+                for(int k = s; k < e; k++) {
+                    if(adj[k] == t) {
+                        adj[k] = adj[e - 1];
+                        break;
+                    }
+                }
+                remaining[v]--;
+            }
+            for(int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if(v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+                    newCache[n++] = v;
+                }
+            }
+            
+            int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheCount = n;
+            
+            // update vertex scores; evicted vertices leave the cache
+            for(int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                int p = i < CACHE_SIZE ? i : -1;
+                
+                cachePos[v] = p;
+                vscore[v] = vertexScore(p, remaining[v]);
+            }
+            if(cacheCount > CACHE_SIZE) {
+                cacheCount = CACHE_SIZE;
+            }
+            
+            // rescore triangles touching the cache and pick the best
+            best = -1;
+            bestScore = -1;
+            for(int i = 0; i < n; i++) {
+                int v = cache[i];
+                int s = adjStart[v];
+                int e = s + remaining[v];
+                
+                for(int k = s; k < e; k++) {
+                    int tt = adj[k];
+                    int bb = first + tt * 3;
+                    float sc = vscore[indices[bb]] + vscore[indices[bb + 1]] +
+                            vscore[indices[bb + 2]];
+                    tscore[tt] = sc;
+                    
+                    if(sc > bestScore) {
+                        bestScore = sc;
+                        best = tt;
+                    }
+                }
+            }
+        }
+        
+        System.arraycopy(out, 0, indices, first, count);
+    }
+    
+    /**
+     * Renumber vertices in order of first use and drop unused ones
+     *
+     * @param vertices interleaved vertices, position 0 to limit
+     * @param stride floats per vertex
+     * @param indices triangle indices, renumbered in place
+     * @return the reordered vertices, in a new direct buffer
+     */
+    public static FloatBuffer optimizeVertexFetch(FloatBuffer vertices,
+            int stride, int[] indices) {
+        int vertexCount = vertices.limit() / stride;
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        
+        int next = 0;
+        for(int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if(remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        
+        FloatBuffer out = BufferUtils.createFloatBuffer(next * stride);
+        for(int v = 0; v < vertexCount; v++) {
+            if(remap[v] >= 0) {
+                int src = v * stride;
+                int dst = remap[v] * stride;
+                
+                for(int k = 0; k < stride; k++) {
+                    out.put(dst + k, vertices.get(src + k));
+                }
+            }
+        }
+        
+        return out;
+    }
+    
+    /**
+     * Average cache miss ratio: vertex shader runs per triangle with a FIFO
+     * post-transform cache
+     * 
+     * 3.0 is the worst case; 0.5 is the ideal for large regular grids.
+     *
+     * @param indices triangle indices
+     * @param cacheSize cache entries
+     * @return the ACMR
+     */
+    public static float acmr(int[] indices, int cacheSize) {
+        return indices.length == 0 ? 0 :
+            cacheMisses(indices, cacheSize) / (indices.length / 3f);
+    }
+    
+    /**
+     * Average transform to vertex ratio: vertex shader runs per vertex with a
+     * FIFO post-transform cache
+     * 
+     * 1.0 is ideal: every vertex is transformed exactly once.
+     *
+     * @param indices triangle indices
+     * @param vertexCount number of referenced vertices
+     * @param cacheSize cache entries
+     * @return the ATVR
+     */
+    public static float atvr(int[] indices, int vertexCount, int cacheSize) {
+        return vertexCount == 0 ? 0 :
+            cacheMisses(indices, cacheSize) / (float)vertexCount;
+    }
+    
+    /**
+     * Copy an index buffer into an array
+     *
+     * @param indices indices, position 0 to limit
+     * @return the indices
+     */
+    public static int[] toArray(IntBuffer indices) {
+        int[] a = new int[indices.limit()];
+        
+        IntBuffer d = indices.duplicate();
+        d.position(0);
+        d.get(a);
+        
+        return a;
+    }
+    
+    private static int cacheMisses(int[] indices, int cacheSize) {
+        int max = 0;
+        for(int i = 0; i < indices.length; i++) {
+            max = Math.max(max, indices[i]);
+        }
+        
+        // time each vertex entered the FIFO
+        int[] stamp = new int[max + 1];
+        Arrays.fill(stamp, Integer.MIN_VALUE / 2);
+        int clock = 0;
+        int misses = 0;
+        
+        for(int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            
+            if(clock - stamp[v] > cacheSize) {
+                stamp[v] = ++clock;
+                misses++;
+            }
+        }
+        
+        return misses;
+    }
+    
+    private static float vertexScore(int cachePos, int remaining) {
+        if(remaining == 0) {
+            return -1;
+        }
+        
+        float score = cachePos < 0 ? 0 : CACHE_SCORE[cachePos];
+        
+        // favor vertices with few triangles left, to finish them off
+        score += VALENCE_BOOST_SCALE *
+                (float)Math.pow(remaining, -VALENCE_BOOST_POWER);
+        
+        return score;
+    }
+    
+    /**
+     * Offline report tool
+     * 
+     * Usage: MeshOptimizer objFile
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        Log.setLevel(LogLevel.DEBUG);
+        
+        if(args.length < 1) {
+            System.err.println("Usage: MeshOptimizer <objFile>");
+            System.exit(1);
+        }
+        
+        try {
+            Mesh mesh = new ObjLoader().load(new File(args[0]));
+            report("original", mesh);
+            
+            Mesh opt = optimize(mesh);
+            report("optimized", opt);
+            
+            QuantizedMesh q = QuantizedMesh.quantize(opt);
+            Log.i(TAG, String.format("quantized: %d -> %d vertex bytes",
+                    opt.getVertexCount() * opt.getFloatsPerVertex() * 4,
+                    q.getVertices().limit()));
+            
+            Mesh[] lods = MeshSimplifier.generateLods(opt,
+                    new float[] {0.5f, 0.25f, 0.125f});
+            for(int i = 0; i < lods.length; i++) {
+                report("lod " + (i + 1), lods[i]);
+            }
+        } catch(IOException e) {
+            Log.f(TAG, "Failed to load " + args[0] + ": " + e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+    
+    private static void report(String name, Mesh mesh) {
+        int[] indices = toArray(mesh.getIndices());
+        
+        Log.i(TAG, String.format("%s: %d triangles, %d vertices, " +
+                "ACMR %.3f, ATVR %.3f (cache %d)", name, indices.length / 3,
+                mesh.getVertexCount(), acmr(indices, REPORT_CACHE_SIZE),
+                atvr(indices, mesh.getVertexCount(), REPORT_CACHE_SIZE),
+                REPORT_CACHE_SIZE));
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private MeshOptimizer() {}
+
+}
@@ -0,0 +1,553 @@
+/* MeshSimplifier.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * Level-of-detail generation by edge collapse
+ * 
+ * Repeatedly collapses the edge whose removal changes the surface least,
+ * measured with quadric error metrics (Garland and Heckbert): each vertex
+ * accumulates the planes of its triangles, and the cost of moving it onto a
+ * neighbor is the squared distance of the neighbor to those planes. A vertex
+ * is always collapsed onto an existing neighbor, so no new vertices or
+ * attributes are created.
+ * 
+ * Vertices on an open edge of the index buffer are never moved. This keeps
+ * mesh borders in place, and also UV and normal seams, since the OBJ loader
+ * splits vertices there. Collapses that would flip a triangle or pinch the
+ * surface are skipped.
+ */
+public class MeshSimplifier {
+    
+    /** Minimum cosine between a triangle's normal before and after */
+    private static final double FLIP_LIMIT = 0.2;
+    
+    /**
+     * Pending collapse of vertex 'from' onto vertex 'to'
+     */
+    private static class Collapse implements Comparable<Collapse> {
+        final double cost;
+        final int from, to;
+        final int fromVersion, toVersion;
+        
+        Collapse(double cost, int from, int to, int fromVersion,
+                int toVersion) {
+            this.cost = cost;
+            this.from = from;
+            this.to = to;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+        
+        public int compareTo(Collapse o) {
+            return Double.compare(cost, o.cost);
+        }
+    }
+    
+    private final FloatBuffer vertices;
+    private final int stride;
+    private final int[] tris;
+    private final int triCount;
+    
+    private final boolean[] triAlive;
+    private int liveTris;
+    
+    /** Per-vertex triangle lists */
+    private final int[][] vtris;
+    private final int[] vtriCount;
+    
+    private final boolean[] locked;
+    private final boolean[] vertexAlive;
+    private final int[] version;
+    private final double[] quadrics;
+    
+    private final PriorityQueue<Collapse> queue;
+    
+    /**
+     * Constructor
+     */
+    private MeshSimplifier(FloatBuffer vertices, int stride, int[] indices) {
+        int vertexCount = vertices.limit() / stride;
+        
+        this.vertices = vertices;
+        this.stride = stride;
+        this.tris = indices.clone();
+        this.triCount = indices.length / 3;
+        this.triAlive = new boolean[triCount];
+        this.liveTris = triCount;
+        this.vtris = new int[vertexCount][];
+        this.vtriCount = new int[vertexCount];
+        this.locked = new boolean[vertexCount];
+        this.vertexAlive = new boolean[vertexCount];
+        this.version = new int[vertexCount];
+        this.quadrics = new double[vertexCount * 10];
+        this.queue = new PriorityQueue<Collapse>();
+        
+        Arrays.fill(triAlive, true);
+        
+        for(int t = 0; t < triCount; t++) {
+            for(int j = 0; j < 3; j++) {
+                int v = tris[t * 3 + j];
+                
+                if(vtris[v] == null) {
+                    vtris[v] = new int[8];
+                }
+                addTri(v, t);
+                vertexAlive[v] = true;
+            }
+            addPlaneQuadric(t);
+        }
+        
+        lockBorders();
+        
+        for(int t = 0; t < triCount; t++) {
+            for(int j = 0; j < 3; j++) {
+                int a = tris[t * 3 + j];
+                int b = tris[t * 3 + (j + 1) % 3];
+                
+                push(a, b);
+                push(b, a);
+            }
+        }
+    }
+    
+    /**
+     * Simplify a triangle list
+     *
+     * @param vertices interleaved vertices (position first)
+     * @param stride floats per vertex
+     * @param indices triangle indices
+     * @param targetIndexCount stop once at most this many indices remain
+     * @return the remaining triangles' indices, into the same vertices
+     */
+    public static int[] simplify(FloatBuffer vertices, int stride,
+            int[] indices, int targetIndexCount) {
+        MeshSimplifier s = new MeshSimplifier(vertices, stride, indices);
+        s.run(targetIndexCount / 3);
+        
+        return s.survivors(null, null);
+    }
+    
+    /**
+     * Generate levels of detail of a mesh
+     * 
+     * Each level is simplified from the previous one, keeps the sub-mesh
+     * grouping, and is optimized with MeshOptimizer.optimize().
+     *
+     * @param mesh the full-detail mesh
+     * @param ratios target triangle counts relative to the mesh, decreasing
+     * @return one mesh per ratio
+     */
+    public static Mesh[] generateLods(Mesh mesh, float[] ratios) {
+        int[] indices = MeshOptimizer.toArray(mesh.getIndices());
+        int fullTris = indices.length / 3;
+        List<SubMesh> subs = mesh.getSubMeshes();
+        
+        // sub-mesh of each triangle
+        int[] group = new int[fullTris];
+        for(int s = 0; s < subs.size(); s++) {
+            SubMesh sm = subs.get(s);
+            Arrays.fill(group, sm.getFirstIndex() / 3,
+                    (sm.getFirstIndex() + sm.getIndexCount()) / 3, s);
+        }
+        
+        Mesh[] lods = new Mesh[ratios.length];
+        for(int i = 0; i < ratios.length; i++) {
+            MeshSimplifier s = new MeshSimplifier(mesh.getVertices(),
+                    mesh.getFloatsPerVertex(), indices);
+            s.run((int)(fullTris * ratios[i]));
+            
+            int[] nextGroup = new int[s.liveTris];
+            indices = s.survivors(group, nextGroup);
+            group = nextGroup;
+            
+            lods[i] = MeshOptimizer.optimize(toMesh(mesh, indices, group));
+        }
+        
+        return lods;
+    }
+    
+    /**
+     * Get the live triangles' indices, in their original order
+     *
+     * @param group group of each input triangle, or null
+     * @param groupOut receives the group of each live triangle, or null
+     * @return the indices
+     */
+    private int[] survivors(int[] group, int[] groupOut) {
+        int[] out = new int[liveTris * 3];
+        int o = 0;
+        
+        for(int t = 0; t < triCount; t++) {
+            if(triAlive[t]) {
+                if(groupOut != null) {
+                    groupOut[o / 3] = group[t];
+                }
+                System.arraycopy(tris, t * 3, out, o, 3);
+                o += 3;
+            }
+        }
+        
+        return out;
+    }
+    
+    /**
+     * Collapse until the target triangle count or no valid collapse is left
+     */
+    private void run(int targetTris) {
+        while(liveTris > targetTris) {
+            Collapse c = queue.poll();
+            if(c == null) {
+                break;
+            }
+            
+            if(!vertexAlive[c.from] || !vertexAlive[c.to] ||
+                    version[c.from] != c.fromVersion ||
+                    version[c.to] != c.toVersion) {
+                // stale; the current version of the edge was queued again
+                continue;
+            }
+            
+            if(!canCollapse(c.from, c.to)) {
+                continue;
+            }
+            
+            collapse(c.from, c.to);
+        }
+    }
+    
+    private void collapse(int a, int b) {
+        for(int i = 0; i < vtriCount[a]; i++) {
+            int t = vtris[a][i];
+            int base = t * 3;
+            
+            if(tris[base] == b || tris[base + 1] == b || tris[base + 2] == b) {
+                // the collapsed edge's triangles disappear
+                triAlive[t] = false;
+                liveTris--;
+                
+                for(int j = 0; j < 3; j++) {
+                    int v = tris[base + j];
+                    if(v != a) {
+                        removeTri(v, t);
+                    }
+                }
+            } else {
+                for(int j = 0; j < 3; j++) {
+                    if(tris[base + j] == a) {
+                        tris[base + j] = b;
+                    }
+                }
+                addTri(b, t);
+            }
+        }
+        
+        vtriCount[a] = 0;
+        vertexAlive[a] = false;
+        
+        for(int k = 0; k < 10; k++) {
+            quadrics[b * 10 + k] += quadrics[a * 10 + k];
+        }
+        version[b]++;
+        
+        // requeue the edges around b with the new quadric
+        for(int i = 0; i < vtriCount[b]; i++) {
+            int base = vtris[b][i] * 3;
+            
+            for(int j = 0; j < 3; j++) {
+                int n = tris[base + j];
+                
+                if(n != b) {
+                    version[n]++;
+                }
+            }
+        }
+        for(int i = 0; i < vtriCount[b]; i++) {
+            int base = vtris[b][i] * 3;
+            
+            for(int j = 0; j < 3; j++) {
+                int n = tris[base + j];
+                
+                if(n != b) {
+                    push(n, b);
+                    push(b, n);
+                    
+                    // the neighbor's other edges were invalidated too
+                    int m = tris[base + (j + 1) % 3];
+                    if(m != b && m != n) {
+                        push(n, m);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check that collapsing a onto b keeps the surface sane
+     */
+    private boolean canCollapse(int a, int b) {
+        if(locked[a]) {
+            return false;
+        }
+        
+        // link condition: a and b may only share the two vertices opposite
+        // their common edge
+        int shared = 0;
+        for(int i = 0; i < vtriCount[a]; i++) {
+            int base = vtris[a][i] * 3;
+            boolean hasB = tris[base] == b || tris[base + 1] == b ||
+                    tris[base + 2] == b;
+            
+            if(hasB) {
+                shared++;
+            }
+        }
+        if(shared == 0 || shared > 2) {
+            return false;
+        }
+        
+        int common = 0;
+        for(int i = 0; i < vtriCount[a] && common <= 2; i++) {
+            int base = vtris[a][i] * 3;
+            
+            for(int j = 0; j < 3; j++) {
+                int n = tris[base + j];
+                
+                if(n != a && n != b && isNeighbor(b, n) &&
+                        firstOccurrence(a, i, n)) {
+                    common++;
+                }
+            }
+        }
+        if(common > 2) {
+            return false;
+        }
+        
+        // no flipped or degenerate triangles
+        for(int i = 0; i < vtriCount[a]; i++) {
+            int base = vtris[a][i] * 3;
+            int v0 = tris[base], v1 = tris[base + 1], v2 = tris[base + 2];
+            
+            if(v0 == b || v1 == b || v2 == b) {
+                continue;
+            }
+            
+            double[] before = normal(v0, v1, v2);
+            double[] after = normal(v0 == a ? b : v0, v1 == a ? b : v1,
+                    v2 == a ? b : v2);
+            
+            double lb = len(before), la = len(after);
+            if(la == 0 || lb == 0 ||
+                    dot(before, after) < FLIP_LIMIT * la * lb) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private boolean isNeighbor(int v, int n) {
+        for(int i = 0; i < vtriCount[v]; i++) {
+            int base = vtris[v][i] * 3;
+            
+            if(tris[base] == n || tris[base + 1] == n || tris[base + 2] == n) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Check that vertex n does not appear in a's triangles before index i
+     */
+    private boolean firstOccurrence(int a, int i, int n) {
+        for(int k = 0; k < i; k++) {
+            int base = vtris[a][k] * 3;
+            
+            if(tris[base] == n || tris[base + 1] == n || tris[base + 2] == n) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private void push(int a, int b) {
+        if(locked[a] || a == b) {
+            return;
+        }
+        
+        // error of a's and b's planes, evaluated at b
+        double[] q = quadrics;
+        int qa = a * 10, qb = b * 10;
+        double x = vertices.get(b * stride);
+        double y = vertices.get(b * stride + 1);
+        double z = vertices.get(b * stride + 2);
+        
+        double cost = 0;
+        for(int k = 0; k < 2; k++) {
+            int o = k == 0 ? qa : qb;
+            
+            cost += q[o] * x * x + 2 * q[o + 1] * x * y + 2 * q[o + 2] * x * z +
+                    2 * q[o + 3] * x + q[o + 4] * y * y + 2 * q[o + 5] * y * z +
+                    2 * q[o + 6] * y + q[o + 7] * z * z + 2 * q[o + 8] * z +
+                    q[o + 9];
+        }
+        
+        queue.add(new Collapse(Math.max(cost, 0), a, b, version[a],
+                version[b]));
+    }
+    
+    /**
+     * Add a triangle's area-weighted plane to its vertices' quadrics
+     */
+    private void addPlaneQuadric(int t) {
+        double[] n = normal(tris[t * 3], tris[t * 3 + 1], tris[t * 3 + 2]);
+        double l = len(n);
+        if(l == 0) {
+            return;
+        }
+        
+        // plane (a, b, c, d) with unit normal; weight by area (l / 2)
+        double a = n[0] / l, b = n[1] / l, c = n[2] / l;
+        int p = tris[t * 3] * stride;
+        double d = -(a * vertices.get(p) + b * vertices.get(p + 1) +
+                c * vertices.get(p + 2));
+        double w = l * 0.5;
+        
+        double[] plane = {
+            a * a, a * b, a * c, a * d,
+            b * b, b * c, b * d,
+            c * c, c * d,
+            d * d
+        };
+        
+        for(int j = 0; j < 3; j++) {
+            int o = tris[t * 3 + j] * 10;
+            
+            for(int k = 0; k < 10; k++) {
+                quadrics[o + k] += plane[k] * w;
+            }
+        }
+    }
+    
+    /**
+     * Lock the vertices of edges used by only one triangle
+     */
+    private void lockBorders() {
+        for(int t = 0; t < triCount; t++) {
+            for(int j = 0; j < 3; j++) {
+                int a = tris[t * 3 + j];
+                int b = tris[t * 3 + (j + 1) % 3];
+                
+                // count the triangles sharing edge a-b
+                int uses = 0;
+                for(int i = 0; i < vtriCount[a]; i++) {
+                    int base = vtris[a][i] * 3;
+                    
+                    if(tris[base] == b || tris[base + 1] == b ||
+                            tris[base + 2] == b) {
+                        uses++;
+                    }
+                }
+                
+                if(uses < 2) {
+                    locked[a] = true;
+                    locked[b] = true;
+                }
+            }
+        }
+    }
+    
+    private double[] normal(int v0, int v1, int v2) {
+        int p0 = v0 * stride, p1 = v1 * stride, p2 = v2 * stride;
+        double ax = vertices.get(p1) - vertices.get(p0);
+        double ay = vertices.get(p1 + 1) - vertices.get(p0 + 1);
+        double az = vertices.get(p1 + 2) - vertices.get(p0 + 2);
+        double bx = vertices.get(p2) - vertices.get(p0);
+        double by = vertices.get(p2 + 1) - vertices.get(p0 + 1);
+        double bz = vertices.get(p2 + 2) - vertices.get(p0 + 2);
+        
+        return new double[] {
+            ay * bz - az * by, az * bx - ax * bz, ax * by - ay * bx
+        };
+    }
+    
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+    
+    private static double len(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+    
+    private void addTri(int v, int t) {
+        if(vtriCount[v] == vtris[v].length) {
+            vtris[v] = Arrays.copyOf(vtris[v], vtris[v].length * 2);
+        }
+        vtris[v][vtriCount[v]++] = t;
+    }
+    
+    private void removeTri(int v, int t) {
+        int[] list = vtris[v];
+        
+        for(int i = 0; i < vtriCount[v]; i++) {
+            if(list[i] == t) {
+                list[i] = list[--vtriCount[v]];
+                return;
+            }
+        }
+    }
+    
+    private static Mesh toMesh(Mesh source, int[] indices, int[] group) {
+        List<SubMesh> subs = source.getSubMeshes();
+        List<SubMesh> out = new ArrayList<SubMesh>();
+        
+        int start = 0;
+        for(int s = 0; s < subs.size(); s++) {
+            int end = start;
+            while(end < group.length && group[end] == s) {
+                end++;
+            }
+            
+            if(end > start) {
+                out.add(new SubMesh(subs.get(s).getMaterial(), start * 3,
+                        (end - start) * 3));
+            }
+            start = end;
+        }
+        
+        IntBuffer ib = BufferUtils.createIntBuffer(indices.length);
+        ib.put(indices).flip();
+        
+        return new Mesh(source.getVertices(), ib, source.getFormat(), out,
+                source.getMaterialLibs());
+    }
+}
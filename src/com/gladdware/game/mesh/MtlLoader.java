@@ -0,0 +1,123 @@
+/* MtlLoader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wavefront MTL material library parser
+ * 
+ * Supports the common colors, exponents and texture maps; unknown statements
+ * are ignored.
+ */
+public class MtlLoader {
+    
+    /**
+     * Parse a material library file
+     *
+     * @param file the MTL file
+     * @return materials by name, in file order
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static Map<String, Material> load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            
+            return parse(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Parse a material library
+     *
+     * @param data the library text, from position to limit
+     * @return materials by name, in file order
+     * @throws IOException if the library is malformed
+     */
+    public static Map<String, Material> parse(ByteBuffer data)
+            throws IOException {
+        Map<String, Material> materials =
+                new LinkedHashMap<String, Material>();
+        TextScanner s = new TextScanner(data, data.position(), data.limit());
+        Material m = null;
+        
+        while(s.hasMore()) {
+            s.skipSpaces();
+            
+            if(s.keyword("newmtl")) {
+                m = new Material(s.rest());
+                materials.put(m.getName(), m);
+            } else if(m == null) {
+                // statements before the first material are meaningless
+            } else if(s.keyword("Ka")) {
+                color(s, m.ambient);
+            } else if(s.keyword("Kd")) {
+                color(s, m.diffuse);
+            } else if(s.keyword("Ks")) {
+                color(s, m.specular);
+            } else if(s.keyword("Ke")) {
+                color(s, m.emissive);
+            } else if(s.keyword("Ns")) {
+                m.shininess = s.parseFloat();
+            } else if(s.keyword("d")) {
+                m.opacity = s.parseFloat();
+            } else if(s.keyword("Tr")) {
+                m.opacity = 1 - s.parseFloat();
+            } else if(s.keyword("map_Kd")) {
+                m.diffuseMap = s.lastWord();
+            } else if(s.keyword("map_Ks")) {
+                m.specularMap = s.lastWord();
+            } else if(s.keyword("map_d")) {
+                m.opacityMap = s.lastWord();
+            } else if(s.keyword("norm") || s.keyword("map_Bump") ||
+                    s.keyword("map_bump") || s.keyword("bump")) {
+                m.normalMap = s.lastWord();
+            }
+            
+            s.nextLine();
+        }
+        
+        return materials;
+    }
+    
+    private static void color(TextScanner s, float[] rgb) throws IOException {
+        float r = s.parseFloat();
+        
+        rgb[0] = r;
+        rgb[1] = s.parseFloat(r);
+        rgb[2] = s.parseFloat(r);
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private MtlLoader() {}
+
+}
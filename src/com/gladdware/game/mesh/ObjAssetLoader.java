@@ -0,0 +1,57 @@
+/* ObjAssetLoader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.nio.ByteBuffer;
+
+import com.gladdware.game.asset.AssetLoader;
+
+/**
+ * Loads OBJ meshes through the AssetManager
+ * 
+ * Parsing happens on the decode threads. The mesh's buffers are left for the
+ * game to upload, so upload() and dispose() do nothing.
+ */
+public class ObjAssetLoader implements AssetLoader<Mesh> {
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetLoader#decode(java.lang.String, java.nio.ByteBuffer)
+     */
+    public Mesh decode(String path, ByteBuffer data) throws Exception {
+        ObjLoader loader = new ObjLoader();
+        
+        // the decode pool already runs loads side by side
+        loader.setParallel(false);
+        
+        return loader.parse(data);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetLoader#upload(java.lang.Object)
+     */
+    public void upload(Mesh asset) {
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.asset.AssetLoader#dispose(java.lang.Object)
+     */
+    public void dispose(Mesh asset) {
+    }
+}
@@ -0,0 +1,545 @@
+/* ObjLoader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Streaming Wavefront OBJ mesh loader
+ * 
+ * The file is memory-mapped and parsed straight from its bytes: no line or
+ * token Strings are created, and numbers are parsed from the bytes directly.
+ * Loading runs in three steps:
+ * 
+ * 1. Parse: the text is cut into chunks at line boundaries, which are parsed
+ *    in parallel (files below PARALLEL_THRESHOLD use a single chunk). Each
+ *    chunk collects its positions, texture coordinates, normals and
+ *    triangulated faces into primitive arrays.
+ * 2. Resolve: chunk-relative (negative) indices and materials are resolved
+ *    to global ones.
+ * 3. Build: triangles are grouped by material, and each distinct
+ *    position/texcoord/normal combination becomes one vertex, found through
+ *    a primitive hash map. Indices go straight into a direct buffer; the
+ *    interleaved vertices are filled in parallel afterwards.
+ * 
+ * Supported statements: v, vt, vn, f (any polygon, fan-triangulated, with
+ * positive or negative indices), usemtl and mtllib. Everything else (groups,
+ * smoothing groups, lines, line continuations) is ignored.
+ */
+public class ObjLoader {
+    
+    private static final String TAG = "ObjLoader";
+    
+    /** Files at least this large are parsed in parallel */
+    public static final int PARALLEL_THRESHOLD = 4 << 20;
+    
+    /** Encodes chunk-relative indices below -1 (-1 means "absent") */
+    private static final int RELATIVE_BASE = Integer.MIN_VALUE + (1 << 30);
+    
+    private boolean parallel;
+    
+    /**
+     * Constructor
+     */
+    public ObjLoader() {
+        this.parallel = true;
+    }
+    
+    /**
+     * Enable or disable parallel parsing of large files
+     *
+     * @param parallel true to parse large files on the worker pool
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Load an OBJ file
+     *
+     * @param file the OBJ file
+     * @return the mesh
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public Mesh load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            if(ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("OBJ file too large: " + file);
+            }
+            
+            return parse(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Parse OBJ text
+     *
+     * @param data the text, from position to limit
+     * @return the mesh
+     * @throws IOException if the text is malformed
+     */
+    public Mesh parse(ByteBuffer data) throws IOException {
+        long start = System.nanoTime();
+        
+        final Chunk[] chunks = split(data);
+        Parallel.forRange(chunks.length, 1, new Parallel.RangeTask() {
+            public void run(int first, int end) {
+                for(int i = first; i < end; i++) {
+                    chunks[i].parse();
+                }
+            }
+        });
+        
+        for(Chunk c : chunks) {
+            if(c.error != null) {
+                throw c.error;
+            }
+        }
+        
+        Mesh mesh = build(chunks);
+        
+        Log.d(TAG, "Parsed " + data.remaining() + " bytes in " +
+                chunks.length + " chunk(s): " + mesh.getVertexCount() +
+                " vertices, " + mesh.getIndexCount() / 3 + " triangles in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        
+        return mesh;
+    }
+    
+    /**
+     * Cut the text into chunks at line boundaries
+     */
+    private Chunk[] split(ByteBuffer data) {
+        int begin = data.position();
+        int end = data.limit();
+        int size = end - begin;
+        
+        int count = 1;
+        if(parallel && size >= PARALLEL_THRESHOLD) {
+            count = Math.max(1, Math.min(Parallel.getParallelism() * 2,
+                    size / (PARALLEL_THRESHOLD / 4)));
+        }
+        
+        List<Chunk> chunks = new ArrayList<Chunk>(count);
+        int s = begin;
+        for(int i = 1; i <= count && s < end; i++) {
+            int e = i == count ? end : begin + (int)((long)size * i / count);
+            
+            while(e < end && data.get(e - 1) != '\n') {
+                e++;
+            }
+            if(e > s) {
+                chunks.add(new Chunk(data, s, e));
+            }
+            s = e;
+        }
+        if(chunks.isEmpty()) {
+            chunks.add(new Chunk(data, begin, end));
+        }
+        
+        return chunks.toArray(new Chunk[chunks.size()]);
+    }
+    
+    /**
+     * Resolve indices and materials, deduplicate vertices and build the mesh
+     */
+    private static Mesh build(Chunk[] chunks) throws IOException {
+        // global attribute arrays
+        int posTotal = 0, uvTotal = 0, nrmTotal = 0, triTotal = 0;
+        for(Chunk c : chunks) {
+            posTotal += c.posCount;
+            uvTotal += c.uvCount;
+            nrmTotal += c.nrmCount;
+            triTotal += c.cornerCount / 9;
+        }
+        
+        final float[] pos = concat(chunks, posTotal, 0);
+        final float[] uv = concat(chunks, uvTotal, 1);
+        final float[] nrm = concat(chunks, nrmTotal, 2);
+        int positions = posTotal / 3, uvs = uvTotal / 2, normals = nrmTotal / 3;
+        
+        // resolve indices and materials to global ones
+        List<String> materials = new ArrayList<String>();
+        List<String> libs = new ArrayList<String>();
+        Map<String, Integer> materialIds = new HashMap<String, Integer>();
+        int[] triMaterial = new int[triTotal];
+        int current = -1;
+        boolean hasUv = false, hasNormal = false;
+        int p0 = 0, t0 = 0, n0 = 0, tri = 0;
+        
+        for(Chunk c : chunks) {
+            libs.addAll(c.libs);
+            
+            int[] local = new int[c.materials.size()];
+            for(int i = 0; i < local.length; i++) {
+                String name = c.materials.get(i);
+                Integer id = materialIds.get(name);
+                
+                if(id == null) {
+                    id = materials.size();
+                    materials.add(name);
+                    materialIds.put(name, id);
+                }
+                local[i] = id;
+            }
+            
+            int[] k = c.corners;
+            for(int i = 0; i < c.cornerCount; i += 3) {
+                k[i] = resolve(k[i], p0, positions, false);
+                k[i + 1] = resolve(k[i + 1], t0, uvs, true);
+                k[i + 2] = resolve(k[i + 2], n0, normals, true);
+                hasUv |= k[i + 1] >= 0;
+                hasNormal |= k[i + 2] >= 0;
+            }
+            
+            for(int i = 0; i < c.cornerCount / 9; i++) {
+                int m = c.triMaterial[i];
+                if(m >= 0) {
+                    current = local[m];
+                }
+                triMaterial[tri++] = current;
+            }
+            
+            // a usemtl after the chunk's last face applies to the next chunk
+            if(c.pendingMaterial >= 0) {
+                current = local[c.pendingMaterial];
+            }
+            
+            p0 += c.posCount / 3;
+            t0 += c.uvCount / 2;
+            n0 += c.nrmCount / 3;
+        }
+        
+        // group triangles by material (-1 first), keeping file order within
+        int groups = materials.size() + 1;
+        int[] groupStart = new int[groups + 1];
+        for(int i = 0; i < triTotal; i++) {
+            groupStart[triMaterial[i] + 2]++;
+        }
+        for(int g = 0; g < groups; g++) {
+            groupStart[g + 1] += groupStart[g];
+        }
+        
+        int[] chunkOf = new int[triTotal];
+        int[] triOrder = new int[triTotal];
+        int[] fill = groupStart.clone();
+        tri = 0;
+        for(int ci = 0; ci < chunks.length; ci++) {
+            for(int i = 0; i < chunks[ci].cornerCount / 9; i++, tri++) {
+                int slot = fill[triMaterial[tri] + 1]++;
+                triOrder[slot] = i;
+                chunkOf[slot] = ci;
+            }
+        }
+        
+        // deduplicate vertices, writing indices as we go
+        IntBuffer indices = BufferUtils.createIntBuffer(triTotal * 3);
+        IndexTripleMap map = new IndexTripleMap(Math.max(positions, 16));
+        int[] keys = new int[Math.max(positions, 16) * 3];
+        int vertexCount = 0;
+        
+        for(int slot = 0; slot < triTotal; slot++) {
+            int[] k = chunks[chunkOf[slot]].corners;
+            int base = triOrder[slot] * 9;
+            
+            for(int j = 0; j < 9; j += 3) {
+                int p = k[base + j];
+                int t = hasUv ? k[base + j + 1] : -1;
+                int n = hasNormal ? k[base + j + 2] : -1;
+                
+                int v = map.putIfAbsent(p, t, n, vertexCount);
+                if(v < 0) {
+                    v = vertexCount++;
+                    if(v * 3 + 3 > keys.length) {
+                        keys = Arrays.copyOf(keys, keys.length * 2);
+                    }
+                    keys[v * 3] = p;
+                    keys[v * 3 + 1] = t;
+                    keys[v * 3 + 2] = n;
+                }
+                indices.put(slot * 3 + j / 3, v);
+            }
+        }
+        
+        // fill the interleaved vertices in parallel
+        final int format = Mesh.POSITION | (hasUv ? Mesh.TEXCOORD : 0) |
+                (hasNormal ? Mesh.NORMAL : 0);
+        final int stride = Mesh.floatsPerVertex(format);
+        final FloatBuffer vertices =
+                BufferUtils.createFloatBuffer(vertexCount * stride);
+        final int[] vkeys = keys;
+        
+        Parallel.forRange(vertexCount, new Parallel.RangeTask() {
+            public void run(int start, int end) {
+                for(int v = start; v < end; v++) {
+                    int o = v * stride;
+                    int p = vkeys[v * 3] * 3;
+                    
+                    vertices.put(o, pos[p]);
+                    vertices.put(o + 1, pos[p + 1]);
+                    vertices.put(o + 2, pos[p + 2]);
+                    o += 3;
+                    
+                    if((format & Mesh.TEXCOORD) != 0) {
+                        int t = vkeys[v * 3 + 1];
+                        vertices.put(o, t >= 0 ? uv[t * 2] : 0);
+                        vertices.put(o + 1, t >= 0 ? uv[t * 2 + 1] : 0);
+                        o += 2;
+                    }
+                    if((format & Mesh.NORMAL) != 0) {
+                        int n = vkeys[v * 3 + 2];
+                        vertices.put(o, n >= 0 ? nrm[n * 3] : 0);
+                        vertices.put(o + 1, n >= 0 ? nrm[n * 3 + 1] : 0);
+                        vertices.put(o + 2, n >= 0 ? nrm[n * 3 + 2] : 0);
+                    }
+                }
+            }
+        });
+        
+        List<SubMesh> subMeshes = new ArrayList<SubMesh>();
+        for(int g = 0; g < groups; g++) {
+            int count = groupStart[g + 1] - groupStart[g];
+            
+            if(count > 0) {
+                subMeshes.add(new SubMesh(g == 0 ? null : materials.get(g - 1),
+                        groupStart[g] * 3, count * 3));
+            }
+        }
+        
+        return new Mesh(vertices, indices, format, subMeshes, libs);
+    }
+    
+    /**
+     * Turn a stored face index into a global 0-based one
+     */
+    private static int resolve(int stored, int chunkBase, int count,
+            boolean optional) throws IOException {
+        if(stored == -1) {
+            if(optional) {
+                return -1;
+            }
+            throw new IOException("Face corner without a position");
+        }
+        
+        int i = stored < -1 ? chunkBase + (stored - RELATIVE_BASE) : stored;
+        if(i < 0 || i >= count) {
+            throw new IOException("Face index " + (i + 1) + " out of range");
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Concatenate one attribute array of all chunks
+     */
+    private static float[] concat(Chunk[] chunks, int total, int attrib) {
+        if(chunks.length == 1) {
+            return chunks[0].attrib(attrib);
+        }
+        
+        float[] out = new float[total];
+        int o = 0;
+        for(Chunk c : chunks) {
+            int n = attrib == 0 ? c.posCount :
+                (attrib == 1 ? c.uvCount : c.nrmCount);
+            System.arraycopy(c.attrib(attrib), 0, out, o, n);
+            o += n;
+        }
+        
+        return out;
+    }
+    
+    /**
+     * One line-aligned piece of the file and what was parsed from it
+     */
+    private static class Chunk {
+        
+        private final TextScanner scanner;
+        
+        float[] pos = new float[3 * 1024];
+        float[] uv = new float[2 * 1024];
+        float[] nrm = new float[3 * 1024];
+        int posCount, uvCount, nrmCount;
+        
+        /** p, t, n per corner, 3 corners per triangle */
+        int[] corners = new int[9 * 1024];
+        int cornerCount;
+        
+        /** Local material set by a triangle's usemtl, or -1 if unchanged */
+        int[] triMaterial = new int[1024];
+        
+        final List<String> materials = new ArrayList<String>();
+        final List<String> libs = new ArrayList<String>();
+        IOException error;
+        
+        /** Polygon scratch: p, t, n per corner */
+        private int[] poly = new int[3 * 8];
+        /** Local material of a usemtl not yet applied to a triangle */
+        int pendingMaterial = -1;
+        
+        Chunk(ByteBuffer data, int start, int end) {
+            this.scanner = new TextScanner(data, start, end);
+        }
+        
+        float[] attrib(int attrib) {
+            return attrib == 0 ? pos : (attrib == 1 ? uv : nrm);
+        }
+        
+        void parse() {
+            TextScanner s = this.scanner;
+            
+            try {
+                while(s.hasMore()) {
+                    s.skipSpaces();
+                    int c = s.peek();
+                    int c1 = s.peek(1);
+                    
+                    if(c == 'v' && (c1 == ' ' || c1 == '\t')) {
+                        s.skip(1);
+                        pos = ensure(pos, posCount + 3);
+                        pos[posCount++] = s.parseFloat();
+                        pos[posCount++] = s.parseFloat();
+                        pos[posCount++] = s.parseFloat();
+                    } else if(c == 'v' && c1 == 't') {
+                        s.skip(2);
+                        uv = ensure(uv, uvCount + 2);
+                        uv[uvCount++] = s.parseFloat();
+                        uv[uvCount++] = s.parseFloat(0);
+                    } else if(c == 'v' && c1 == 'n') {
+                        s.skip(2);
+                        nrm = ensure(nrm, nrmCount + 3);
+                        nrm[nrmCount++] = s.parseFloat();
+                        nrm[nrmCount++] = s.parseFloat();
+                        nrm[nrmCount++] = s.parseFloat();
+                    } else if(c == 'f' && (c1 == ' ' || c1 == '\t')) {
+                        s.skip(1);
+                        face(s);
+                    } else if(s.keyword("usemtl")) {
+                        String name = s.rest();
+                        int id = materials.indexOf(name);
+                        if(id < 0) {
+                            id = materials.size();
+                            materials.add(name);
+                        }
+                        pendingMaterial = id;
+                    } else if(s.keyword("mtllib")) {
+                        libs.add(s.rest());
+                    }
+                    
+                    s.nextLine();
+                }
+            } catch(IOException e) {
+                this.error = e;
+            }
+        }
+        
+        private void face(TextScanner s) throws IOException {
+            int n = 0;
+            
+            while(!s.atLineEnd()) {
+                if(n * 3 + 3 > poly.length) {
+                    poly = Arrays.copyOf(poly, poly.length * 2);
+                }
+                
+                int p = s.parseInt();
+                int t = 0, nr = 0;
+                
+                if(s.peek() == '/') {
+                    s.skip(1);
+                    if(s.peek() != '/') {
+                        t = s.parseInt();
+                    }
+                    if(s.peek() == '/') {
+                        s.skip(1);
+                        nr = s.parseInt();
+                    }
+                }
+                
+                poly[n * 3] = encode(p, posCount / 3);
+                poly[n * 3 + 1] = encode(t, uvCount / 2);
+                poly[n * 3 + 2] = encode(nr, nrmCount / 3);
+                n++;
+            }
+            
+            if(n < 3) {
+                throw s.error("at least 3 face corners");
+            }
+            
+            // fan triangulation
+            for(int i = 1; i + 1 < n; i++) {
+                int tri = cornerCount / 9;
+                corners = ensure(corners, cornerCount + 9);
+                triMaterial = ensure(triMaterial, tri + 1);
+                
+                triMaterial[tri] = pendingMaterial;
+                pendingMaterial = -1;
+                
+                System.arraycopy(poly, 0, corners, cornerCount, 3);
+                System.arraycopy(poly, i * 3, corners, cornerCount + 3, 6);
+                cornerCount += 9;
+            }
+        }
+        
+        /**
+         * Store a 1-based OBJ index: positive ones become global 0-based
+         * indices, negative ones chunk-relative, 0 (absent) becomes -1
+         */
+        private static int encode(int index, int localCount) {
+            if(index > 0) {
+                return index - 1;
+            } else if(index < 0) {
+                return RELATIVE_BASE + localCount + index;
+            }
+            
+            return -1;
+        }
+        
+        private static float[] ensure(float[] a, int n) {
+            return n <= a.length ? a :
+                Arrays.copyOf(a, Math.max(n, a.length * 2));
+        }
+        
+        private static int[] ensure(int[] a, int n) {
+            return n <= a.length ? a :
+                Arrays.copyOf(a, Math.max(n, a.length * 2));
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/* QuantizedMesh.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.math.HalfFloat;
+
+/**
+ * Mesh with compressed vertex attributes, ready for upload
+ * 
+ * Vertex layout (native byte order):
+ * 
+ * - position: 4 half floats (x, y, z, 1), 8 bytes
+ * - texture coordinates, if TEXCOORD: 2 half floats, 4 bytes
+ * - normal, if NORMAL: octahedral encoding as 2 normalized shorts, 4 bytes;
+ *   decode in the shader with octDecode()'s formula
+ * 
+ * A full vertex shrinks from 32 to 16 bytes. Indices are 16-bit when the
+ * mesh has at most 65536 vertices, 32-bit otherwise.
+ */
+public class QuantizedMesh {
+    
+    private final ByteBuffer vertices;
+    private final ByteBuffer indices;
+    private final int format;
+    private final int stride;
+    private final int indexSize;
+    private final int vertexCount;
+    private final int indexCount;
+    private final List<SubMesh> subMeshes;
+    
+    /**
+     * Constructor
+     */
+    private QuantizedMesh(ByteBuffer vertices, ByteBuffer indices, int format,
+            int stride, int indexSize, int vertexCount, int indexCount,
+            List<SubMesh> subMeshes) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.format = format;
+        this.stride = stride;
+        this.indexSize = indexSize;
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.subMeshes = subMeshes;
+    }
+    
+    /**
+     * Quantize a mesh
+     *
+     * @param mesh the mesh
+     * @return the quantized mesh
+     */
+    public static QuantizedMesh quantize(Mesh mesh) {
+        int format = mesh.getFormat();
+        int stride = 8 + (mesh.has(Mesh.TEXCOORD) ? 4 : 0) +
+                (mesh.has(Mesh.NORMAL) ? 4 : 0);
+        int n = mesh.getVertexCount();
+        int fpv = mesh.getFloatsPerVertex();
+        int uvOff = mesh.getTexCoordOffset();
+        int nOff = mesh.getNormalOffset();
+        FloatBuffer src = mesh.getVertices();
+        
+        ByteBuffer vb = BufferUtils.createByteBuffer(n * stride);
+        for(int v = 0; v < n; v++) {
+            int s = v * fpv;
+            int d = v * stride;
+            
+            vb.putShort(d, HalfFloat.fromFloat(src.get(s)));
+            vb.putShort(d + 2, HalfFloat.fromFloat(src.get(s + 1)));
+            vb.putShort(d + 4, HalfFloat.fromFloat(src.get(s + 2)));
+            vb.putShort(d + 6, HalfFloat.fromFloat(1.0f));
+            d += 8;
+            
+            if(uvOff >= 0) {
+                vb.putShort(d, HalfFloat.fromFloat(src.get(s + uvOff)));
+                vb.putShort(d + 2, HalfFloat.fromFloat(src.get(s + uvOff + 1)));
+                d += 4;
+            }
+            if(nOff >= 0) {
+                int oct = octEncode(src.get(s + nOff), src.get(s + nOff + 1),
+                        src.get(s + nOff + 2));
+                vb.putShort(d, (short)oct);
+                vb.putShort(d + 2, (short)(oct >> 16));
+            }
+        }
+        
+        IntBuffer src32 = mesh.getIndices();
+        int count = src32.limit();
+        int indexSize = n <= 65536 ? 2 : 4;
+        
+        ByteBuffer ib = BufferUtils.createByteBuffer(count * indexSize);
+        for(int i = 0; i < count; i++) {
+            if(indexSize == 2) {
+                ib.putShort(i * 2, (short)src32.get(i));
+            } else {
+                ib.putInt(i * 4, src32.get(i));
+            }
+        }
+        
+        return new QuantizedMesh(vb, ib, format, stride, indexSize, n, count,
+                mesh.getSubMeshes());
+    }
+    
+    /**
+     * Octahedral normal encoding
+     * 
+     * Projects the unit vector onto an octahedron and unfolds it into a
+     * square, stored as two signed normalized 16-bit values.
+     *
+     * @param x normal x
+     * @param y normal y
+     * @param z normal z
+     * @return u in the low 16 bits, v in the high 16 bits
+     */
+    public static int octEncode(float x, float y, float z) {
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if(l1 == 0) {
+            return 0;
+        }
+        
+        float u = x / l1;
+        float v = y / l1;
+        if(z < 0) {
+            float fu = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            float fv = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = fu;
+            v = fv;
+        }
+        
+        int su = Math.round(Math.max(-1, Math.min(1, u)) * 32767);
+        int sv = Math.round(Math.max(-1, Math.min(1, v)) * 32767);
+        
+        return (su & 0xffff) | (sv << 16);
+    }
+    
+    /**
+     * Decode an octahedral normal
+     *
+     * @param packed value from octEncode()
+     * @param out receives the unit normal (x, y, z)
+     */
+    public static void octDecode(int packed, float[] out) {
+        float u = (short)packed / 32767f;
+        float v = (short)(packed >> 16) / 32767f;
+        float z = 1 - Math.abs(u) - Math.abs(v);
+        
+        if(z < 0) {
+            float fu = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            float fv = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = fu;
+            v = fv;
+        }
+        
+        float len = (float)Math.sqrt(u * u + v * v + z * z);
+        out[0] = u / len;
+        out[1] = v / len;
+        out[2] = z / len;
+    }
+    
+    /**
+     * Get the packed vertex data
+     *
+     * @return the vertices, position 0 to limit
+     */
+    public ByteBuffer getVertices() {
+        return this.vertices;
+    }
+    
+    /**
+     * Get the packed index data
+     *
+     * @return the indices, position 0 to limit
+     */
+    public ByteBuffer getIndices() {
+        return this.indices;
+    }
+    
+    /**
+     * Get the vertex format
+     *
+     * @return Mesh attribute flags
+     */
+    public int getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * Get the vertex size
+     *
+     * @return the vertex stride, in bytes
+     */
+    public int getStride() {
+        return this.stride;
+    }
+    
+    /**
+     * Get the byte offset of the texture coordinates in a vertex
+     *
+     * @return the offset, or -1 without TEXCOORD
+     */
+    public int getTexCoordOffset() {
+        return (format & Mesh.TEXCOORD) != 0 ? 8 : -1;
+    }
+    
+    /**
+     * Get the byte offset of the normal in a vertex
+     *
+     * @return the offset, or -1 without NORMAL
+     */
+    public int getNormalOffset() {
+        return (format & Mesh.NORMAL) != 0 ? stride - 4 : -1;
+    }
+    
+    /**
+     * Get the index size
+     *
+     * @return 2 for 16-bit indices, 4 for 32-bit
+     */
+    public int getIndexSize() {
+        return this.indexSize;
+    }
+    
+    /**
+     * Get the number of vertices
+     *
+     * @return the vertex count
+     */
+    public int getVertexCount() {
+        return this.vertexCount;
+    }
+    
+    /**
+     * Get the number of indices
+     *
+     * @return the index count
+     */
+    public int getIndexCount() {
+        return this.indexCount;
+    }
+    
+    /**
+     * Get the index ranges by material
+     *
+     * @return the sub-meshes
+     */
+    public List<SubMesh> getSubMeshes() {
+        return this.subMeshes;
+    }
+}
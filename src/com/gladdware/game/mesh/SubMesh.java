@@ -0,0 +1,70 @@
+/* SubMesh.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+/**
+ * Range of a mesh's index buffer drawn with one material
+ */
+public class SubMesh {
+    
+    private final String material;
+    private final int firstIndex;
+    private final int indexCount;
+    
+    /**
+     * Constructor
+     *
+     * @param material material name, or null for none
+     * @param firstIndex first index of the range
+     * @param indexCount number of indices
+     */
+    public SubMesh(String material, int firstIndex, int indexCount) {
+        this.material = material;
+        this.firstIndex = firstIndex;
+        this.indexCount = indexCount;
+    }
+    
+    /**
+     * Get the material name
+     *
+     * @return the material name, or null for none
+     */
+    public String getMaterial() {
+        return this.material;
+    }
+    
+    /**
+     * Get the first index of the range
+     *
+     * @return the first index
+     */
+    public int getFirstIndex() {
+        return this.firstIndex;
+    }
+    
+    /**
+     * Get the number of indices
+     *
+     * @return the index count
+     */
+    public int getIndexCount() {
+        return this.indexCount;
+    }
+}
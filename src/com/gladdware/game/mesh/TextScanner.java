@@ -0,0 +1,318 @@
+/* TextScanner.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Allocation-free scanner for line-based ASCII formats
+ * 
+ * Reads numbers and keywords straight from a byte buffer; only names (e.g.
+ * material names) are turned into Strings.
+ */
+final class TextScanner {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /** Exactly representable powers of ten */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    private final ByteBuffer buf;
+    private final int end;
+    private int pos;
+    
+    /**
+     * Constructor
+     *
+     * @param buf the text
+     * @param start offset of the first byte to scan
+     * @param end offset after the last byte to scan
+     */
+    TextScanner(ByteBuffer buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+    
+    int position() {
+        return this.pos;
+    }
+    
+    boolean hasMore() {
+        return pos < end;
+    }
+    
+    /**
+     * Get the byte at the current position
+     *
+     * @return the byte, or -1 at the end
+     */
+    int peek() {
+        return pos < end ? buf.get(pos) : -1;
+    }
+    
+    /**
+     * Get the byte after the current position
+     *
+     * @return the byte, or -1 at the end
+     */
+    int peek(int ahead) {
+        return pos + ahead < end ? buf.get(pos + ahead) : -1;
+    }
+    
+    void skip(int n) {
+        pos += n;
+    }
+    
+    void skipSpaces() {
+        while(pos < end) {
+            byte b = buf.get(pos);
+            if(b != ' ' && b != '\t') {
+                break;
+            }
+            pos++;
+        }
+    }
+    
+    /**
+     * Skip past the end of the current line
+     */
+    void nextLine() {
+        while(pos < end && buf.get(pos++) != '\n') {
+        }
+    }
+    
+    /**
+     * Check for the end of the line's content (end of line, comment or end
+     * of input), after skipping spaces
+     *
+     * @return true if nothing is left on the line
+     */
+    boolean atLineEnd() {
+        skipSpaces();
+        
+        if(pos >= end) {
+            return true;
+        }
+        
+        byte b = buf.get(pos);
+        return b == '\n' || b == '\r' || b == '#';
+    }
+    
+    /**
+     * Consume a keyword if the line continues with it, followed by a space
+     *
+     * @param keyword the keyword (ASCII)
+     * @return true if the keyword was consumed
+     */
+    boolean keyword(String keyword) {
+        int n = keyword.length();
+        
+        if(pos + n > end) {
+            return false;
+        }
+        for(int i = 0; i < n; i++) {
+            if(buf.get(pos + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        if(pos + n < end) {
+            byte b = buf.get(pos + n);
+            if(b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return false;
+            }
+        }
+        
+        pos += n;
+        return true;
+    }
+    
+    /**
+     * Read the rest of the line (without comments) as a trimmed string
+     *
+     * @return the text
+     */
+    String rest() {
+        skipSpaces();
+        
+        int start = pos;
+        int last = pos;
+        while(pos < end) {
+            byte b = buf.get(pos);
+            if(b == '\n' || b == '\r' || b == '#') {
+                break;
+            }
+            pos++;
+            if(b != ' ' && b != '\t') {
+                last = pos;
+            }
+        }
+        
+        byte[] bytes = new byte[last - start];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        
+        return new String(bytes, UTF8);
+    }
+    
+    /**
+     * Read the last whitespace-separated word of the line
+     * 
+     * Used for texture maps, whose options precede the file name.
+     *
+     * @return the word
+     */
+    String lastWord() {
+        String s = rest();
+        int space = Math.max(s.lastIndexOf(' '), s.lastIndexOf('\t'));
+        
+        return space < 0 ? s : s.substring(space + 1);
+    }
+    
+    /**
+     * Parse a signed decimal integer
+     *
+     * @return the value
+     * @throws IOException if there is no integer at the position
+     */
+    int parseInt() throws IOException {
+        skipSpaces();
+        
+        boolean neg = false;
+        if(pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            neg = buf.get(pos) == '-';
+            pos++;
+        }
+        
+        int start = pos;
+        int v = 0;
+        while(pos < end) {
+            int d = buf.get(pos) - '0';
+            if(d < 0 || d > 9) {
+                break;
+            }
+            v = v * 10 + d;
+            pos++;
+        }
+        
+        if(pos == start) {
+            throw error("integer");
+        }
+        
+        return neg ? -v : v;
+    }
+    
+    /**
+     * Parse a decimal floating point number (with optional exponent)
+     *
+     * @return the value
+     * @throws IOException if there is no number at the position
+     */
+    float parseFloat() throws IOException {
+        skipSpaces();
+        
+        boolean neg = false;
+        if(pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            neg = buf.get(pos) == '-';
+            pos++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;
+        int exp = 0;
+        int start = pos;
+        
+        // integer part; digits past what a long holds only scale
+        while(pos < end) {
+            int d = buf.get(pos) - '0';
+            if(d < 0 || d > 9) {
+                break;
+            }
+            if(digits < 18) {
+                mantissa = mantissa * 10 + d;
+                if(mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exp++;
+            }
+            pos++;
+        }
+        
+        // fraction
+        if(pos < end && buf.get(pos) == '.') {
+            pos++;
+            while(pos < end) {
+                int d = buf.get(pos) - '0';
+                if(d < 0 || d > 9) {
+                    break;
+                }
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + d;
+                    exp--;
+                    if(mantissa != 0) {
+                        digits++;
+                    }
+                }
+                pos++;
+            }
+        }
+        
+        if(pos == start || (pos == start + 1 && buf.get(start) == '.')) {
+            throw error("number");
+        }
+        
+        // exponent
+        if(pos < end && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+            pos++;
+            exp += parseInt();
+        }
+        
+        double v = mantissa;
+        if(exp < 0) {
+            v = -exp < POW10.length ? v / POW10[-exp] : v * Math.pow(10, exp);
+        } else if(exp > 0) {
+            v = exp < POW10.length ? v * POW10[exp] : v * Math.pow(10, exp);
+        }
+        
+        return (float)(neg ? -v : v);
+    }
+    
+    /**
+     * Parse an optional float, as for OBJ's optional components
+     *
+     * @param def value if the line has ended
+     * @return the value
+     * @throws IOException on a malformed number
+     */
+    float parseFloat(float def) throws IOException {
+        return atLineEnd() ? def : parseFloat();
+    }
+    
+    IOException error(String expected) {
+        return new IOException("Expected " + expected + " at byte " + pos);
+    }
+}
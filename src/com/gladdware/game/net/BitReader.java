@@ -0,0 +1,122 @@
+/* BitReader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by BitWriter
+ * 
+ * Reading past the end throws BufferUnderflowException, so truncated or
+ * malformed packets fail instead of producing garbage.
+ */
+public class BitReader {
+    
+    private ByteBuffer data;
+    private int base;
+    private int limit;
+    
+    /** Whole bytes consumed */
+    private int bytePos;
+    /** Unread bits, in the low scratchBits bits of scratch */
+    private long scratch;
+    private int scratchBits;
+    
+    /**
+     * Constructor
+     */
+    public BitReader() {
+        
+    }
+    
+    /**
+     * Start reading a buffer
+     *
+     * @param data the bytes, from position to limit; the buffer's position
+     *        is not changed
+     * @return this reader
+     */
+    public BitReader reset(ByteBuffer data) {
+        this.data = data;
+        this.base = data.position();
+        this.limit = data.remaining();
+        this.bytePos = 0;
+        this.scratch = 0;
+        this.scratchBits = 0;
+        return this;
+    }
+    
+    /**
+     * Read an unsigned value
+     *
+     * @param bits number of bits, 0 to 32
+     * @return the value
+     */
+    public int read(int bits) {
+        while(scratchBits < bits) {
+            if(bytePos >= limit) {
+                throw new BufferUnderflowException();
+            }
+            scratch = (scratch << 8) | (data.get(base + bytePos++) & 0xff);
+            scratchBits += 8;
+        }
+        
+        scratchBits -= bits;
+        return (int)((scratch >>> scratchBits) & ((1L << bits) - 1));
+    }
+    
+    /**
+     * Read one bit
+     *
+     * @return the bit
+     */
+    public boolean readBoolean() {
+        return read(1) != 0;
+    }
+    
+    /**
+     * Read a quantized float
+     *
+     * @param min range minimum
+     * @param max range maximum
+     * @param bits number of bits, 1 to 31
+     * @return the value
+     */
+    public float readQuantized(float min, float max, int bits) {
+        return BitWriter.dequantize(read(bits), min, max, bits);
+    }
+    
+    /**
+     * Skip to the next byte boundary
+     */
+    public void align() {
+        scratchBits &= ~7;
+    }
+    
+    /**
+     * Get the number of bits left
+     *
+     * @return the bit count
+     */
+    public int remaining() {
+        return (limit - bytePos) * 8 + scratchBits;
+    }
+}
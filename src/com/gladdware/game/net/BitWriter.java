@@ -0,0 +1,176 @@
+/* BitWriter.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit widths into a byte array
+ * 
+ * Bits are packed most significant first. Quantized floats take only the
+ * bits needed for their range and precision.
+ */
+public class BitWriter {
+    
+    private byte[] data;
+    
+    /** Whole bytes written */
+    private int bytePos;
+    /** Pending bits, in the low scratchBits (< 8) bits of scratch */
+    private long scratch;
+    private int scratchBits;
+    
+    /**
+     * Constructor
+     *
+     * @param capacity initial capacity, in bytes
+     */
+    public BitWriter(int capacity) {
+        this.data = new byte[Math.max(capacity, 16)];
+    }
+    
+    /**
+     * Write the low bits of a value
+     *
+     * @param value the value
+     * @param bits number of bits, 0 to 32
+     */
+    public void write(int value, int bits) {
+        if(bytePos + 6 > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        
+        scratch = (scratch << bits) | (value & ((1L << bits) - 1));
+        scratchBits += bits;
+        
+        while(scratchBits >= 8) {
+            scratchBits -= 8;
+            data[bytePos++] = (byte)(scratch >>> scratchBits);
+        }
+        
+        // keep the partial byte readable in place
+        if(scratchBits > 0) {
+            data[bytePos] = (byte)(scratch << (8 - scratchBits));
+        }
+    }
+    
+    /**
+     * Write one bit
+     *
+     * @param value the bit
+     */
+    public void writeBoolean(boolean value) {
+        write(value ? 1 : 0, 1);
+    }
+    
+    /**
+     * Write a float quantized to a range
+     *
+     * @param value the value, clamped to the range
+     * @param min range minimum
+     * @param max range maximum
+     * @param bits number of bits, 1 to 31
+     */
+    public void writeQuantized(float value, float min, float max, int bits) {
+        write(quantize(value, min, max, bits), bits);
+    }
+    
+    /**
+     * Skip to the next byte boundary
+     */
+    public void align() {
+        if(scratchBits > 0) {
+            bytePos++;
+            scratchBits = 0;
+            scratch = 0;
+        }
+    }
+    
+    /**
+     * Get the number of bits written
+     *
+     * @return the bit count
+     */
+    public int getBitCount() {
+        return bytePos * 8 + scratchBits;
+    }
+    
+    /**
+     * Get the number of bytes holding the bits written
+     *
+     * @return the byte count
+     */
+    public int getByteCount() {
+        return bytePos + (scratchBits > 0 ? 1 : 0);
+    }
+    
+    /**
+     * Get the backing array
+     *
+     * @return the array; the first getByteCount() bytes are valid
+     */
+    public byte[] getData() {
+        return data;
+    }
+    
+    /**
+     * Discard the bits written
+     */
+    public void reset() {
+        bytePos = 0;
+        scratch = 0;
+        scratchBits = 0;
+    }
+    
+    /**
+     * Quantize a float to an unsigned integer of a bit width
+     *
+     * @param value the value, clamped to the range
+     * @param min range minimum
+     * @param max range maximum
+     * @param bits number of bits, 1 to 31
+     * @return the quantized value
+     */
+    public static int quantize(float value, float min, float max, int bits) {
+        int steps = (1 << bits) - 1;
+        float t = (value - min) / (max - min);
+        
+        if(!(t > 0)) {
+            return 0;
+        } else if(t >= 1) {
+            return steps;
+        }
+        
+        return Math.round(t * steps);
+    }
+    
+    /**
+     * Restore a quantized float
+     *
+     * @param q the quantized value
+     * @param min range minimum
+     * @param max range maximum
+     * @param bits number of bits, 1 to 31
+     * @return the value
+     */
+    public static float dequantize(int q, float min, float max, int bits) {
+        return min + (max - min) * q / ((1 << bits) - 1);
+    }
+}
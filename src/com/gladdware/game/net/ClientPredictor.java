@@ -0,0 +1,363 @@
+/* ClientPredictor.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gladdware.game.input.InputEvent;
+import com.gladdware.game.input.KeyboardEvent;
+import com.gladdware.game.input.MouseEvent;
+import com.gladdware.game.log.Log;
+import com.gladdware.game.save.SaveBuffer;
+import com.gladdware.game.save.SaveSection;
+
+/**
+ * Client-side prediction with server reconciliation on a fixed tick
+ * 
+ * The client runs its simulation ahead of the server: every tick, the
+ * inputs are tagged with the tick number and kept, the predicted state at
+ * the start of the tick is captured from the SaveSection, and the tick is
+ * simulated locally. The kept inputs are sent to the server with
+ * writeInputs() until it acknowledges them.
+ * 
+ * When the authoritative state for a tick arrives, reconcile() compares it
+ * with the state predicted for that tick. If they match nothing else
+ * happens; otherwise the authoritative state is loaded and every tick since
+ * is resimulated headless with its kept inputs. States and inputs live in a
+ * ring of reused buffers, so reconciling allocates nothing and its cost is
+ * the simulation's own: a few microseconds of capture per tick on top of
+ * step().
+ * 
+ * The server should write the authoritative state with the same
+ * SaveSection, at the precision it is replicated with, so a correct
+ * prediction compares equal byte for byte.
+ * 
+ * All methods must be called from the main thread.
+ */
+public class ClientPredictor {
+    
+    private static final String TAG = "ClientPredictor";
+    
+    /** Bits of the tick count and per-tick event count in writeInputs() */
+    static final int COUNT_BITS = 6;
+    static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+    
+    /** Bits of an event's offset into its tick, in microseconds */
+    static final int OFFSET_BITS = 20;
+    private static final long MAX_OFFSET_US = (1 << OFFSET_BITS) - 1;
+    
+    /**
+     * Advances the predicted state by one tick, headless
+     */
+    public interface Simulation {
+        
+        /**
+         * Run one tick of game logic
+         * 
+         * Must produce the same state as the server given the same state and
+         * inputs, and must not have side effects outside the predicted state
+         * (sounds, effects) when resimulating.
+         *
+         * @param tick the tick number
+         * @param inputs the tick's input events
+         * @param tickMs the tick length, in milliseconds
+         * @param resimulating true when replaying a tick after a correction
+         */
+        void step(long tick, List<InputEvent> inputs, float tickMs,
+                boolean resimulating);
+    }
+    
+    private final Simulation simulation;
+    private final SaveSection state;
+    private final float tickMs;
+    
+    /** Predicted states at the start of each tick, by tick % capacity */
+    private final SaveBuffer[] states;
+    /** Inputs of each tick, by tick % capacity */
+    private final List<List<InputEvent>> inputs;
+    
+    private long tick;
+    private long ackedTick;
+    private float accumulatorMs;
+    private final List<InputEvent> pending;
+    
+    private int corrections;
+    private int lastResimulated;
+    private long lastReconcileNs;
+    
+    /**
+     * Constructor
+     *
+     * @param simulation runs ticks, live and when resimulating
+     * @param state the predicted state
+     * @param tickMs the fixed tick length, in milliseconds
+     * @param maxTicks largest number of ticks predicted ahead of the last
+     *        authoritative state; should cover the round trip time
+     */
+    public ClientPredictor(Simulation simulation, SaveSection state,
+            float tickMs, int maxTicks) {
+        if(tickMs <= 0 || maxTicks < 1) {
+            throw new IllegalArgumentException("Invalid tick settings");
+        }
+        
+        this.simulation = simulation;
+        this.state = state;
+        this.tickMs = tickMs;
+        
+        this.states = new SaveBuffer[maxTicks + 1];
+        this.inputs = new ArrayList<List<InputEvent>>(states.length);
+        for(int i = 0; i < states.length; i++) {
+            states[i] = new SaveBuffer(256);
+            inputs.add(new ArrayList<InputEvent>());
+        }
+        
+        this.pending = new ArrayList<InputEvent>();
+    }
+    
+    /**
+     * Run the ticks due in a frame
+     * 
+     * The frame's inputs go to the first tick run; if no tick is due they
+     * wait for the next one.
+     *
+     * @param frameInputs the frame's input events, e.g. Input.getInputs()
+     * @param deltaMs the frame's delta time, in milliseconds
+     * @return the number of ticks run
+     */
+    public int update(List<InputEvent> frameInputs, float deltaMs) {
+        pending.addAll(frameInputs);
+        accumulatorMs += deltaMs;
+        
+        int ran = 0;
+        while(accumulatorMs >= tickMs) {
+            accumulatorMs -= tickMs;
+            predict(pending);
+            pending.clear();
+            ran++;
+        }
+        
+        return ran;
+    }
+    
+    /**
+     * Predict one tick
+     * 
+     * The inputs are tagged with the tick and kept until the server
+     * acknowledges it. If the client is already maxTicks ahead of the last
+     * authoritative state, the oldest tick is dropped and can no longer be
+     * corrected.
+     *
+     * @param tickInputs the tick's input events
+     */
+    public void predict(List<InputEvent> tickInputs) {
+        if(tick - ackedTick >= states.length - 1) {
+            ackedTick++;
+        }
+        
+        int slot = slot(tick);
+        List<InputEvent> kept = inputs.get(slot);
+        kept.clear();
+        for(int i = 0; i < tickInputs.size(); i++) {
+            InputEvent e = tickInputs.get(i);
+            e.setTick(tick);
+            kept.add(e);
+        }
+        
+        capture(slot);
+        simulation.step(tick, kept, tickMs, false);
+        tick++;
+    }
+    
+    /**
+     * Apply the authoritative state of a tick
+     * 
+     * If the state differs from the prediction it is loaded and the ticks
+     * since are resimulated.
+     *
+     * @param stateTick the tick whose starting state this is
+     * @param data the state, as written by the SaveSection
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the number of ticks resimulated, 0 if the prediction was
+     *         right, or -1 if the state is older than the last one applied
+     */
+    public int reconcile(long stateTick, byte[] data, int offset,
+            int length) {
+        if(stateTick < ackedTick) {
+            return -1;
+        }
+        
+        long start = System.nanoTime();
+        
+        if(stateTick > tick) {
+            // the server is ahead; jump to its tick
+            Log.w(TAG, "Authoritative tick " + stateTick +
+                    " ahead of predicted tick " + tick);
+            tick = stateTick;
+        } else if(stateTick < tick &&
+                states[slot(stateTick)].contentEquals(data, offset, length)) {
+            ackedTick = stateTick;
+            lastResimulated = 0;
+            lastReconcileNs = System.nanoTime() - start;
+            return 0;
+        }
+        
+        state.load(new SaveBuffer(data, offset, length));
+        
+        for(long t = stateTick; t < tick; t++) {
+            int slot = slot(t);
+            capture(slot);
+            simulation.step(t, inputs.get(slot), tickMs, true);
+        }
+        
+        ackedTick = stateTick;
+        corrections++;
+        lastResimulated = (int)(tick - stateTick);
+        lastReconcileNs = System.nanoTime() - start;
+        
+        return lastResimulated;
+    }
+    
+    /**
+     * Write the inputs of the ticks not yet acknowledged
+     * 
+     * Every input packet repeats them, so a lost packet costs no input. At
+     * most 63 ticks with 63 events each are written, oldest ticks first.
+     * Each event carries its time relative to the first event of its tick,
+     * so the server sees their order and spacing; read them with an
+     * InputReader.
+     *
+     * @param out the writer
+     * @return the number of ticks written
+     */
+    public int writeInputs(BitWriter out) {
+        long first = Math.max(ackedTick, tick - MAX_COUNT);
+        int count = (int)(tick - first);
+        
+        out.write((int)first, 32);
+        out.write(count, COUNT_BITS);
+        
+        for(long t = first; t < tick; t++) {
+            List<InputEvent> kept = inputs.get(slot(t));
+            int events = Math.min(kept.size(), MAX_COUNT);
+            
+            out.write(events, COUNT_BITS);
+            long baseNs = events > 0 ? kept.get(0).getEventTimeNs() : 0;
+            for(int i = 0; i < events; i++) {
+                writeEvent(out, kept.get(i), baseNs);
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Get the next tick to be predicted
+     *
+     * @return the tick number
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    /**
+     * Get the tick of the last authoritative state applied
+     *
+     * @return the tick number
+     */
+    public long getAckedTick() {
+        return ackedTick;
+    }
+    
+    /**
+     * Get how far the accumulated frame time is into the next tick
+     *
+     * @return the fraction of a tick, from 0 to 1, for interpolation
+     */
+    public float getTickAlpha() {
+        return accumulatorMs / tickMs;
+    }
+    
+    /**
+     * Get the number of mispredictions corrected
+     *
+     * @return the correction count
+     */
+    public int getCorrectionCount() {
+        return corrections;
+    }
+    
+    /**
+     * Get the number of ticks resimulated by the last reconcile()
+     *
+     * @return the tick count
+     */
+    public int getLastResimulatedTicks() {
+        return lastResimulated;
+    }
+    
+    /**
+     * Get the time taken by the last reconcile(), including resimulation
+     *
+     * @return the time, in ns
+     */
+    public long getLastReconcileTimeNs() {
+        return lastReconcileNs;
+    }
+    
+    private int slot(long t) {
+        return (int)(t % states.length);
+    }
+    
+    /**
+     * Capture the current state into a ring slot
+     */
+    private void capture(int slot) {
+        SaveBuffer buf = states[slot];
+        buf.clear();
+        state.save(buf);
+    }
+    
+    private static void writeEvent(BitWriter out, InputEvent e, long baseNs) {
+        long offsetUs = (e.getEventTimeNs() - baseNs) / 1000;
+        out.write((int)Math.max(0, Math.min(offsetUs, MAX_OFFSET_US)),
+                OFFSET_BITS);
+        
+        if(e instanceof KeyboardEvent) {
+            KeyboardEvent k = (KeyboardEvent)e;
+            out.writeBoolean(false);
+            out.writeBoolean(k.getKeyState() == KeyboardEvent.State.DOWN);
+            out.write(k.getKeyCode(), 16);
+            out.write(k.getKeyChar(), 16);
+        } else {
+            MouseEvent m = (MouseEvent)e;
+            out.writeBoolean(true);
+            // buttons from -1 (none) up to 14
+            out.write(m.getButton() + 1, 4);
+            out.write(m.getButtonState().ordinal(), 2);
+            out.write(m.getX(), 16);
+            out.write(m.getY(), 16);
+            out.write(m.getDeltaX(), 16);
+            out.write(m.getDeltaY(), 16);
+            out.write(m.getDeltaWheel(), 16);
+        }
+    }
+}
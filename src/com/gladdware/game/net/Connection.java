@@ -0,0 +1,434 @@
+/* Connection.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of the link with one peer
+ * 
+ * Every packet carries a 16-bit sequence number, the newest sequence number
+ * received from the peer and a bit mask of the 32 before it, so each packet
+ * acknowledges the last 33 received and lost acks are repeated for free.
+ * Reliable messages ride along in packets and are resent until a packet
+ * carrying them is acknowledged; the receiver delivers them once, in order.
+ */
+public class Connection {
+    
+    /** Largest reliable message: a packet's payload less its id and length */
+    public static final int MAX_MESSAGE = UdpTransport.MAX_PAYLOAD - 4;
+    
+    /** Sent packets remembered for acks */
+    private static final int SENT_HISTORY = 1024;
+    
+    /** Most reliable messages per packet */
+    static final int MAX_MESSAGES_PER_PACKET = 16;
+    
+    /** Furthest ahead an out-of-order reliable message is kept */
+    private static final int MAX_EARLY = 1024;
+    
+    /** Shortest resend interval for reliable messages */
+    private static final long MIN_RESEND_NS = 100000000L;
+    
+    /**
+     * Reliable message waiting for an ack
+     */
+    static class Message {
+        final int id;
+        final byte[] data;
+        long lastSentNs;
+        boolean acked;
+        
+        Message(int id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+    
+    private final SocketAddress address;
+    
+    /** Outgoing packet sequence */
+    private int localSequence;
+    private final int[] sentSequence;
+    private final long[] sentTimeNs;
+    private final boolean[] sentAcked;
+    private final Message[][] sentMessages;
+    
+    /** Incoming packet sequence and the received mask before it */
+    private int remoteSequence;
+    private int receivedBits;
+    private boolean receivedAny;
+    
+    /** Reliable messages */
+    private int nextMessageId;
+    private final List<Message> outgoing;
+    private int nextDeliverId;
+    private final Map<Integer, byte[]> early;
+    
+    private long lastReceiveNs;
+    private float rttMs;
+    private long sentBytes;
+    private long receivedBytes;
+    private int sentPackets;
+    private int ackedPackets;
+    private boolean connected;
+    
+    /**
+     * Constructor
+     *
+     * @param address the peer's address
+     * @param nowNs the current time
+     */
+    Connection(SocketAddress address, long nowNs) {
+        this.address = address;
+        this.sentSequence = new int[SENT_HISTORY];
+        this.sentTimeNs = new long[SENT_HISTORY];
+        this.sentAcked = new boolean[SENT_HISTORY];
+        this.sentMessages = new Message[SENT_HISTORY][];
+        this.outgoing = new ArrayList<Message>();
+        this.early = new HashMap<Integer, byte[]>();
+        this.lastReceiveNs = nowNs;
+        this.rttMs = 100;
+        this.connected = true;
+        
+        Arrays.fill(sentSequence, -1);
+    }
+    
+    /**
+     * Queue a reliable message
+     * 
+     * It is sent with the next packets to the peer, see
+     * UdpTransport.send().
+     *
+     * @param data the message, at most MAX_MESSAGE bytes; not copied
+     */
+    public void sendReliable(byte[] data) {
+        if(data.length > MAX_MESSAGE) {
+            throw new IllegalArgumentException("Message too large: " +
+                    data.length);
+        }
+        
+        outgoing.add(new Message(nextMessageId, data));
+        nextMessageId = (nextMessageId + 1) & 0xffff;
+    }
+    
+    /**
+     * Get the peer's address
+     *
+     * @return the address
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+    
+    /**
+     * Get the smoothed round trip time
+     *
+     * @return the round trip time, in ms
+     */
+    public float getRoundTripMs() {
+        return rttMs;
+    }
+    
+    /**
+     * Get the number of bytes sent, including headers
+     *
+     * @return the byte count
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+    
+    /**
+     * Get the number of bytes received, including headers
+     *
+     * @return the byte count
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+    
+    /**
+     * Get the number of packets sent
+     *
+     * @return the packet count
+     */
+    public int getSentPackets() {
+        return sentPackets;
+    }
+    
+    /**
+     * Get the number of sent packets the peer acknowledged
+     *
+     * @return the packet count
+     */
+    public int getAckedPackets() {
+        return ackedPackets;
+    }
+    
+    /**
+     * Get the number of reliable messages not yet acknowledged
+     *
+     * @return the message count
+     */
+    public int getPendingMessageCount() {
+        return outgoing.size();
+    }
+    
+    /**
+     * Check whether the connection is still up
+     *
+     * @return false once it timed out or was closed
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+    
+    /**
+     * Compare 16-bit sequence numbers across wrap-around
+     *
+     * @param a a sequence number
+     * @param b another sequence number
+     * @return true if a is newer than b
+     */
+    public static boolean isNewer(int a, int b) {
+        int d = (a - b) & 0xffff;
+        return d != 0 && d < 0x8000;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "Connection[" + address + "]";
+    }
+    
+    /**
+     * Write the packet header and due reliable messages
+     *
+     * @return the packet's sequence number
+     */
+    int writeHeader(ByteBuffer out, int protocolId, int payloadLength,
+            long nowNs) {
+        int seq = localSequence;
+        localSequence = (localSequence + 1) & 0xffff;
+        
+        out.putInt(protocolId);
+        out.putShort((short)seq);
+        out.putShort((short)remoteSequence);
+        out.putInt(receivedAny ? receivedBits : 0);
+        
+        // reliable messages not sent within about a round trip
+        long resendNs = Math.max(MIN_RESEND_NS, (long)(rttMs * 1.5e6));
+        int countPos = out.position();
+        out.put((byte)0);
+        
+        List<Message> sent = null;
+        int room = out.remaining() - payloadLength;
+        for(int i = 0; i < outgoing.size(); i++) {
+            Message m = outgoing.get(i);
+            if(m.lastSentNs != 0 && nowNs - m.lastSentNs < resendNs) {
+                continue;
+            }
+            // a large message waits for a packet with room for it
+            if(m.data.length + 4 > room) {
+                continue;
+            }
+            
+            out.putShort((short)m.id);
+            out.putShort((short)m.data.length);
+            out.put(m.data);
+            room -= m.data.length + 4;
+            m.lastSentNs = nowNs;
+            
+            if(sent == null) {
+                sent = new ArrayList<Message>();
+            }
+            sent.add(m);
+            if(sent.size() == MAX_MESSAGES_PER_PACKET) {
+                break;
+            }
+        }
+        out.put(countPos, (byte)(sent != null ? sent.size() : 0));
+        
+        int slot = seq % SENT_HISTORY;
+        sentSequence[slot] = seq;
+        sentTimeNs[slot] = nowNs;
+        sentAcked[slot] = false;
+        sentMessages[slot] = sent != null ?
+                sent.toArray(new Message[sent.size()]) : null;
+        sentPackets++;
+        
+        return seq;
+    }
+    
+    /**
+     * Check whether reliable messages are due for (re)sending
+     */
+    boolean hasDueMessages(long nowNs) {
+        long resendNs = Math.max(MIN_RESEND_NS, (long)(rttMs * 1.5e6));
+        
+        for(int i = 0; i < outgoing.size(); i++) {
+            Message m = outgoing.get(i);
+            if(m.lastSentNs == 0 || nowNs - m.lastSentNs >= resendNs) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Record a received packet's sequence number
+     *
+     * @return false if the packet is a duplicate or too old to track
+     */
+    boolean receive(int seq, int bytes, long nowNs) {
+        lastReceiveNs = nowNs;
+        receivedBytes += bytes;
+        
+        if(!receivedAny) {
+            receivedAny = true;
+            remoteSequence = seq;
+            receivedBits = 0;
+            return true;
+        }
+        
+        if(isNewer(seq, remoteSequence)) {
+            int shift = (seq - remoteSequence) & 0xffff;
+            
+            // the old newest packet becomes bit shift - 1
+            receivedBits = shift > 32 ? 0 :
+                (int)((((long)receivedBits << 1) | 1) << (shift - 1));
+            remoteSequence = seq;
+            return true;
+        }
+        
+        int age = (remoteSequence - seq) & 0xffff;
+        if(age == 0 || age > 32) {
+            return false;
+        }
+        
+        int bit = 1 << (age - 1);
+        if((receivedBits & bit) != 0) {
+            return false;
+        }
+        receivedBits |= bit;
+        
+        return true;
+    }
+    
+    /**
+     * Process a received packet's acks
+     */
+    void processAcks(int ack, int ackBits, long nowNs, NetListener listener) {
+        for(int i = 32; i >= 0; i--) {
+            if(i < 32 && (ackBits & (1 << i)) == 0) {
+                continue;
+            }
+            
+            int seq = (ack - (i < 32 ? i + 1 : 0)) & 0xffff;
+            int slot = seq % SENT_HISTORY;
+            if(sentSequence[slot] != seq || sentAcked[slot]) {
+                continue;
+            }
+            
+            sentAcked[slot] = true;
+            ackedPackets++;
+            
+            float sample = (nowNs - sentTimeNs[slot]) / 1e6f;
+            rttMs += (sample - rttMs) * 0.1f;
+            
+            Message[] msgs = sentMessages[slot];
+            if(msgs != null) {
+                for(Message m : msgs) {
+                    m.acked = true;
+                }
+                sentMessages[slot] = null;
+                removeAcked();
+            }
+            
+            if(listener != null) {
+                listener.onAck(this, seq);
+            }
+        }
+    }
+    
+    /**
+     * Accept a received reliable message and deliver the ones now in order
+     */
+    void receiveMessage(int id, byte[] data, NetListener listener) {
+        if(id != nextDeliverId) {
+            // early: keep for later; late: already delivered
+            if(((id - nextDeliverId) & 0xffff) < MAX_EARLY) {
+                early.put(id, data);
+            }
+            return;
+        }
+        
+        while(data != null) {
+            nextDeliverId = (nextDeliverId + 1) & 0xffff;
+            if(listener != null) {
+                listener.onMessage(this, ByteBuffer.wrap(data));
+            }
+            data = early.remove(nextDeliverId);
+        }
+    }
+    
+    /**
+     * Count sent bytes
+     */
+    void countSent(int bytes) {
+        sentBytes += bytes;
+    }
+    
+    /**
+     * Get the time of the last packet from the peer
+     */
+    long getLastReceiveNs() {
+        return lastReceiveNs;
+    }
+    
+    /**
+     * Mark the connection as closed
+     */
+    void close() {
+        connected = false;
+    }
+    
+    private void removeAcked() {
+        int n = 0;
+        for(int i = 0; i < outgoing.size(); i++) {
+            Message m = outgoing.get(i);
+            if(!m.acked) {
+                outgoing.set(n++, m);
+            }
+        }
+        while(outgoing.size() > n) {
+            outgoing.remove(outgoing.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/* InputReader.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gladdware.game.input.InputEvent;
+import com.gladdware.game.input.KeyboardEvent;
+import com.gladdware.game.input.MouseEvent;
+
+/**
+ * Server side reader of the inputs a ClientPredictor writes
+ * 
+ * Event times are rebuilt from the tick number and each event's offset into
+ * its tick, so they keep their order and spacing within a tick but are not
+ * the client's clock. Event objects are reused from packet to packet; keep
+ * one reader per client.
+ */
+public class InputReader {
+    
+    /**
+     * Receives input events read on the server
+     */
+    public interface Handler {
+        
+        /**
+         * Handle one tick's input events
+         *
+         * @param tick the tick number
+         * @param inputs the tick's input events, tagged with the tick; the
+         *        list and events are only valid during the call
+         */
+        void onInputs(long tick, List<InputEvent> inputs);
+    }
+    
+    private static final MouseEvent.ButtonState[] BUTTON_STATES =
+            MouseEvent.ButtonState.values();
+    
+    private final long tickNs;
+    
+    private final List<InputEvent> events =
+            new ArrayList<InputEvent>(ClientPredictor.MAX_COUNT);
+    private final List<KeyboardEvent> keys = new ArrayList<KeyboardEvent>();
+    private final List<MouseEvent> mice = new ArrayList<MouseEvent>();
+    
+    /**
+     * Constructor
+     *
+     * @param tickMs the fixed tick length in milliseconds
+     */
+    public InputReader(float tickMs) {
+        this.tickNs = (long)(tickMs * 1000000f);
+    }
+    
+    /**
+     * Read inputs written by ClientPredictor.writeInputs()
+     * 
+     * Ticks up to newerThan were handled from earlier packets and are
+     * skipped.
+     *
+     * @param in the reader
+     * @param newerThan the newest tick already handled, or -1
+     * @param handler receives each new tick's inputs in order
+     * @return the newest tick handled
+     */
+    public long read(BitReader in, long newerThan, Handler handler) {
+        long first = in.read(32) & 0xffffffffL;
+        int count = in.read(ClientPredictor.COUNT_BITS);
+        
+        for(int k = 0; k < count; k++) {
+            long t = first + k;
+            int n = in.read(ClientPredictor.COUNT_BITS);
+            int nKeys = 0;
+            int nMice = 0;
+            
+            events.clear();
+            for(int i = 0; i < n; i++) {
+                long timeNs = t * tickNs +
+                        in.read(ClientPredictor.OFFSET_BITS) * 1000L;
+                InputEvent e;
+                if(!in.readBoolean()) {
+                    e = readKey(in, timeNs, nKeys++);
+                } else {
+                    e = readMouse(in, timeNs, nMice++);
+                }
+                e.setTick(t);
+                events.add(e);
+            }
+            
+            if(t > newerThan) {
+                handler.onInputs(t, events);
+                newerThan = t;
+            }
+        }
+        
+        events.clear();
+        return newerThan;
+    }
+    
+    private KeyboardEvent readKey(BitReader in, long timeNs, int index) {
+        KeyboardEvent.State state = in.readBoolean() ?
+                KeyboardEvent.State.DOWN : KeyboardEvent.State.UP;
+        int code = in.read(16);
+        char c = (char)in.read(16);
+        
+        if(index == keys.size()) {
+            keys.add(new KeyboardEvent(timeNs, state, code, c));
+        } else {
+            keys.get(index).set(timeNs, state, code, c);
+        }
+        
+        return keys.get(index);
+    }
+    
+    private MouseEvent readMouse(BitReader in, long timeNs, int index) {
+        int button = in.read(4) - 1;
+        MouseEvent.ButtonState state = BUTTON_STATES[in.read(2)];
+        int x = (short)in.read(16);
+        int y = (short)in.read(16);
+        int dx = (short)in.read(16);
+        int dy = (short)in.read(16);
+        int dWheel = (short)in.read(16);
+        
+        if(index == mice.size()) {
+            mice.add(new MouseEvent(timeNs, button, state, x, y, dx, dy,
+                    dWheel));
+        } else {
+            mice.get(index).set(timeNs, button, state, x, y, dx, dy, dWheel);
+        }
+        
+        return mice.get(index);
+    }
+}
@@ -0,0 +1,514 @@
+/* InterestManager.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.gladdware.game.math.Vector3f;
+
+/**
+ * Decides which entities each client receives, and in which order
+ * 
+ * Entity positions are kept in a uniform grid on the XZ plane that is
+ * updated incrementally (an entity only changes cells when it crosses a cell
+ * border). Each tick, a client's relevant set is rebuilt from the grid cells
+ * around its view position, so the cost per client depends on the entities
+ * near it rather than on the world. An entity becomes relevant within the
+ * client's view radius and stays relevant until it is HYSTERESIS further
+ * out, so entities at the edge do not flicker in and out.
+ * 
+ * Every relevant entity accumulates priority each tick: its base priority
+ * scaled up the closer it is. send() replicates the relevant entities in
+ * order of accumulated priority within the client's byte budget and resets
+ * the accumulators of the ones brought up to date, so distant or
+ * low-priority entities are updated less often but never starve. The
+ * budget comes from a per-client bandwidth; unused bytes carry over up to
+ * one packet.
+ * 
+ * Entity ids are those of the ReplicationServer snapshot.
+ */
+public class InterestManager {
+    
+    /** Extra radius, as a fraction, before a relevant entity is dropped */
+    public static final float HYSTERESIS = 0.15f;
+    
+    /** Default per-client bandwidth, in bytes per tick */
+    public static final int DEFAULT_BYTES_PER_TICK = 600;
+    
+    /** Smallest budget worth sending a packet for */
+    private static final int MIN_SEND_BYTES = 64;
+    
+    /**
+     * Grid cell: the entity slots in it
+     */
+    private static class Cell {
+        int[] slots = new int[8];
+        int count;
+    }
+    
+    /**
+     * Interest state of one client
+     */
+    private static class Client {
+        float x, y, z;
+        float radius;
+        int bytesPerTick;
+        int credit;
+        int sentTick = -1;
+        
+        /** Relevant entity ids, ascending, and their accumulators */
+        int[] ids = new int[64];
+        float[] acc = new float[64];
+        int count;
+        
+        /** Next relevant set, swapped in by update() */
+        int[] nextIds = new int[64];
+        float[] nextAcc = new float[64];
+    }
+    
+    private final float cellSize;
+    private final Map<Long, Cell> cells;
+    private final Map<Connection, Client> clients;
+    
+    /** Entity data by slot */
+    private int[] entityId;
+    private float[] posX, posY, posZ;
+    private float[] priority;
+    private long[] cellKey;
+    private int[] cellIndex;
+    private float[] distance;
+    private int slotCount;
+    private int[] freeSlots;
+    private int freeCount;
+    
+    /** Slot of each entity id, or -1 */
+    private int[] slotOfId;
+    
+    /** Query and send scratch */
+    private long[] candidates;
+    private long[] sendKeys;
+    private int[] order;
+    private int[] orderSlot;
+    
+    private long lastUpdateNs;
+    
+    /**
+     * Constructor
+     *
+     * @param cellSize grid cell edge length, in world units; around the
+     *        typical view radius works well
+     */
+    public InterestManager(float cellSize) {
+        this.cellSize = cellSize;
+        this.cells = new HashMap<Long, Cell>();
+        this.clients = new HashMap<Connection, Client>();
+        
+        this.entityId = new int[256];
+        this.posX = new float[256];
+        this.posY = new float[256];
+        this.posZ = new float[256];
+        this.priority = new float[256];
+        this.cellKey = new long[256];
+        this.cellIndex = new int[256];
+        this.distance = new float[256];
+        this.freeSlots = new int[16];
+        this.slotOfId = new int[256];
+        Arrays.fill(slotOfId, -1);
+        
+        this.candidates = new long[256];
+        this.sendKeys = new long[256];
+        this.order = new int[256];
+        this.orderSlot = new int[256];
+    }
+    
+    /**
+     * Add an entity or update its position and priority
+     *
+     * @param id the entity id
+     * @param position the entity's position
+     * @param basePriority the entity's priority (e.g. 1 for props, 10 for
+     *        players)
+     */
+    public void setEntity(int id, Vector3f position, float basePriority) {
+        setEntity(id, position.getX(), position.getY(), position.getZ(),
+                basePriority);
+    }
+    
+    /**
+     * Add an entity or update its position and priority
+     *
+     * @param id the entity id
+     * @param x position x
+     * @param y position y
+     * @param z position z
+     * @param basePriority the entity's priority
+     */
+    public void setEntity(int id, float x, float y, float z,
+            float basePriority) {
+        if(id >= slotOfId.length) {
+            int old = slotOfId.length;
+            slotOfId = Arrays.copyOf(slotOfId, Math.max(id + 1, old * 2));
+            Arrays.fill(slotOfId, old, slotOfId.length, -1);
+        }
+        
+        int slot = slotOfId[id];
+        long key = cellKey(x, z);
+        
+        if(slot < 0) {
+            slot = allocateSlot();
+            slotOfId[id] = slot;
+            entityId[slot] = id;
+            insert(slot, key);
+        } else if(cellKey[slot] != key) {
+            remove(slot);
+            insert(slot, key);
+        }
+        
+        posX[slot] = x;
+        posY[slot] = y;
+        posZ[slot] = z;
+        priority[slot] = basePriority;
+    }
+    
+    /**
+     * Remove an entity
+     *
+     * @param id the entity id
+     */
+    public void removeEntity(int id) {
+        int slot = id < slotOfId.length ? slotOfId[id] : -1;
+        if(slot < 0) {
+            return;
+        }
+        
+        remove(slot);
+        slotOfId[id] = -1;
+        entityId[slot] = -1;
+        
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+    
+    /**
+     * Add a client or move its view
+     *
+     * @param conn the client's connection
+     * @param view the client's view position
+     * @param radius the client's view radius
+     */
+    public void setClient(Connection conn, Vector3f view, float radius) {
+        Client c = clients.get(conn);
+        if(c == null) {
+            c = new Client();
+            c.bytesPerTick = DEFAULT_BYTES_PER_TICK;
+            clients.put(conn, c);
+        }
+        
+        c.x = view.getX();
+        c.y = view.getY();
+        c.z = view.getZ();
+        c.radius = radius;
+    }
+    
+    /**
+     * Set a client's bandwidth
+     *
+     * @param conn the client's connection
+     * @param bytesPerTick payload bytes per tick
+     */
+    public void setBandwidth(Connection conn, int bytesPerTick) {
+        Client c = clients.get(conn);
+        if(c != null) {
+            c.bytesPerTick = bytesPerTick;
+        }
+    }
+    
+    /**
+     * Remove a client
+     *
+     * @param conn the client's connection
+     */
+    public void removeClient(Connection conn) {
+        clients.remove(conn);
+    }
+    
+    /**
+     * Update every client's relevant set and priorities
+     * 
+     * Call once per tick after moving entities and clients.
+     */
+    public void update() {
+        long start = System.nanoTime();
+        
+        for(Client c : clients.values()) {
+            updateClient(c);
+        }
+        
+        lastUpdateNs = System.nanoTime() - start;
+    }
+    
+    /**
+     * Replicate the current snapshot to a client within its budget
+     * 
+     * Call at most once per client per tick: the client's budget accrues on
+     * every call, and ReplicationServer.send() rejects a second packet for
+     * the same tick anyway.
+     *
+     * @param server the replication server holding the current snapshot
+     * @param transport the transport
+     * @param conn the client's connection
+     * @return the payload size, or 0 if the client is out of budget this
+     *         tick
+     * @throws IOException on a socket error
+     * @throws IllegalStateException if this tick was already sent to the
+     *         client
+     */
+    public int send(ReplicationServer server, UdpTransport transport,
+            Connection conn) throws IOException {
+        Client c = clients.get(conn);
+        if(c == null) {
+            throw new IllegalArgumentException("Unknown client " + conn);
+        }
+        
+        Snapshot snap = server.getSnapshot();
+        if(c.sentTick == snap.getTick()) {
+            throw new IllegalStateException("Tick " + snap.getTick() +
+                    " already sent to " + conn);
+        }
+        c.sentTick = snap.getTick();
+        
+        c.credit = Math.min(c.credit + c.bytesPerTick,
+                UdpTransport.MAX_PAYLOAD);
+        if(c.credit < MIN_SEND_BYTES) {
+            return 0;
+        }
+        
+        // relevant entities in the snapshot, by descending accumulator
+        ensureSendScratch(c.count);
+        int n = 0;
+        for(int k = 0; k < c.count; k++) {
+            int index = snap.indexOf(c.ids[k]);
+            if(index >= 0) {
+                // non-negative floats order like their bits
+                sendKeys[n++] = ((long)Float.floatToIntBits(c.acc[k]) << 32) |
+                        k;
+            }
+        }
+        Arrays.sort(sendKeys, 0, n);
+        for(int m = 0; m < n; m++) {
+            int k = (int)sendKeys[n - 1 - m];
+            orderSlot[m] = k;
+            order[m] = snap.indexOf(c.ids[k]);
+        }
+        
+        int bytes = server.send(transport, conn, order, n, c.credit);
+        c.credit -= bytes;
+        
+        for(int m = 0; m < n; m++) {
+            if(server.isIncluded(order[m])) {
+                c.acc[orderSlot[m]] = 0;
+            }
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Get the number of entities relevant to a client
+     *
+     * @param conn the client's connection
+     * @return the entity count
+     */
+    public int getRelevantCount(Connection conn) {
+        Client c = clients.get(conn);
+        return c != null ? c.count : 0;
+    }
+    
+    /**
+     * Check whether an entity is relevant to a client
+     *
+     * @param conn the client's connection
+     * @param id the entity id
+     * @return true if relevant
+     */
+    public boolean isRelevant(Connection conn, int id) {
+        Client c = clients.get(conn);
+        return c != null && Arrays.binarySearch(c.ids, 0, c.count, id) >= 0;
+    }
+    
+    /**
+     * Get the time taken by the last update()
+     *
+     * @return the time, in ns
+     */
+    public long getLastUpdateTimeNs() {
+        return lastUpdateNs;
+    }
+    
+    /**
+     * Rebuild a client's relevant set from the grid around it
+     */
+    private void updateClient(Client c) {
+        float exit = c.radius * (1 + HYSTERESIS);
+        float exit2 = exit * exit;
+        float enter2 = c.radius * c.radius;
+        
+        // entities within the exit radius, as (id, slot) sort keys
+        int n = 0;
+        int x0 = cellCoord(c.x - exit), x1 = cellCoord(c.x + exit);
+        int z0 = cellCoord(c.z - exit), z1 = cellCoord(c.z + exit);
+        for(int cz = z0; cz <= z1; cz++) {
+            for(int cx = x0; cx <= x1; cx++) {
+                Cell cell = cells.get(key(cx, cz));
+                if(cell == null) {
+                    continue;
+                }
+                
+                for(int k = 0; k < cell.count; k++) {
+                    int s = cell.slots[k];
+                    float dx = posX[s] - c.x;
+                    float dy = posY[s] - c.y;
+                    float dz = posZ[s] - c.z;
+                    float d2 = dx * dx + dy * dy + dz * dz;
+                    if(d2 > exit2) {
+                        continue;
+                    }
+                    
+                    if(n == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, n * 2);
+                    }
+                    candidates[n++] = ((long)entityId[s] << 32) | s;
+                    distance[s] = d2;
+                }
+            }
+        }
+        
+        // sort by id; the distances stay with the slots
+        Arrays.sort(candidates, 0, n);
+        
+        // merge with the previous set to keep accumulators
+        if(c.nextIds.length < n) {
+            c.nextIds = new int[n * 2];
+            c.nextAcc = new float[n * 2];
+        }
+        int m = 0;
+        int j = 0;
+        for(int k = 0; k < n; k++) {
+            int id = (int)(candidates[k] >>> 32);
+            int s = (int)candidates[k];
+            float d2 = distance[s];
+            
+            while(j < c.count && c.ids[j] < id) {
+                j++;
+            }
+            boolean was = j < c.count && c.ids[j] == id;
+            if(!was && d2 > enter2) {
+                continue;
+            }
+            
+            float closeness = 1 - (float)Math.sqrt(d2) / exit;
+            c.nextIds[m] = id;
+            c.nextAcc[m] = (was ? c.acc[j] : 0) +
+                    priority[s] * (0.25f + 0.75f * closeness);
+            m++;
+        }
+        
+        int[] ids = c.ids;
+        float[] acc = c.acc;
+        c.ids = c.nextIds;
+        c.acc = c.nextAcc;
+        c.nextIds = ids;
+        c.nextAcc = acc;
+        c.count = m;
+    }
+    
+    private int allocateSlot() {
+        if(freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        
+        if(slotCount == entityId.length) {
+            int cap = slotCount * 2;
+            entityId = Arrays.copyOf(entityId, cap);
+            posX = Arrays.copyOf(posX, cap);
+            posY = Arrays.copyOf(posY, cap);
+            posZ = Arrays.copyOf(posZ, cap);
+            priority = Arrays.copyOf(priority, cap);
+            cellKey = Arrays.copyOf(cellKey, cap);
+            cellIndex = Arrays.copyOf(cellIndex, cap);
+            distance = Arrays.copyOf(distance, cap);
+        }
+        
+        return slotCount++;
+    }
+    
+    private void insert(int slot, long key) {
+        Cell cell = cells.get(key);
+        if(cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        }
+        if(cell.count == cell.slots.length) {
+            cell.slots = Arrays.copyOf(cell.slots, cell.count * 2);
+        }
+        
+        cellKey[slot] = key;
+        cellIndex[slot] = cell.count;
+        cell.slots[cell.count++] = slot;
+    }
+    
+    private void remove(int slot) {
+        Cell cell = cells.get(cellKey[slot]);
+        int i = cellIndex[slot];
+        int last = cell.slots[--cell.count];
+        
+        cell.slots[i] = last;
+        cellIndex[last] = i;
+        
+        if(cell.count == 0) {
+            cells.remove(cellKey[slot]);
+        }
+    }
+    
+    private void ensureSendScratch(int count) {
+        if(sendKeys.length < count) {
+            sendKeys = new long[count * 2];
+            order = new int[count * 2];
+            orderSlot = new int[count * 2];
+        }
+    }
+    
+    private int cellCoord(float v) {
+        return (int)Math.floor(v / cellSize);
+    }
+    
+    private long cellKey(float x, float z) {
+        return key(cellCoord(x), cellCoord(z));
+    }
+    
+    private static long key(int cx, int cz) {
+        return ((long)cx << 32) | (cz & 0xffffffffL);
+    }
+}
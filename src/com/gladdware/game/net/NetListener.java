@@ -0,0 +1,73 @@
+/* NetListener.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives transport events
+ * 
+ * Called from UdpTransport.poll(), on the thread that polls. Payload buffers
+ * are only valid during the call.
+ */
+public interface NetListener {
+    
+    /**
+     * A peer sent its first packet, or connect() was called
+     *
+     * @param conn the connection
+     */
+    void onConnect(Connection conn);
+    
+    /**
+     * A peer timed out or was disconnected
+     *
+     * @param conn the connection
+     */
+    void onDisconnect(Connection conn);
+    
+    /**
+     * A packet's unreliable payload arrived
+     * 
+     * Packets can arrive out of order (compare sequence numbers with
+     * Connection.isNewer()) but never twice.
+     *
+     * @param conn the connection
+     * @param sequence the packet's sequence number
+     * @param payload the payload, from position to limit
+     */
+    void onPacket(Connection conn, int sequence, ByteBuffer payload);
+    
+    /**
+     * A reliable message arrived, in the order it was sent
+     *
+     * @param conn the connection
+     * @param message the message, from position to limit
+     */
+    void onMessage(Connection conn, ByteBuffer message);
+    
+    /**
+     * The peer acknowledged a packet sent to it
+     *
+     * @param conn the connection
+     * @param sequence the packet's sequence number
+     */
+    void onAck(Connection conn, int sequence);
+}
@@ -0,0 +1,214 @@
+/* ReplicationClient.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.gladdware.game.log.Log;
+
+/**
+ * Client side of snapshot replication
+ * 
+ * Decodes the packets of a ReplicationServer against the snapshots received
+ * earlier and keeps the recent ones, e.g. for interpolating between the two
+ * newest. Feed it the payloads from NetListener.onPacket().
+ */
+public class ReplicationClient {
+    
+    private static final String TAG = "ReplicationClient";
+    
+    private final SnapshotSchema schema;
+    private final int fieldCount;
+    private final Snapshot[] received;
+    private final Snapshot empty;
+    private final BitReader in;
+    
+    /** Per-packet scratch: removed ids and updates */
+    private int[] removed;
+    private final Snapshot updates;
+    private long[] order;
+    
+    private Snapshot latest;
+    
+    /**
+     * Constructor
+     *
+     * @param schema the entity layout, identical to the server's
+     */
+    public ReplicationClient(SnapshotSchema schema) {
+        this.schema = schema;
+        this.fieldCount = schema.getFieldCount();
+        this.received = new Snapshot[ReplicationServer.HISTORY];
+        for(int i = 0; i < received.length; i++) {
+            received[i] = new Snapshot(schema);
+        }
+        this.empty = new Snapshot(schema);
+        this.in = new BitReader();
+        this.removed = new int[64];
+        this.updates = new Snapshot(schema);
+        this.order = new long[64];
+    }
+    
+    /**
+     * Decode a snapshot packet
+     *
+     * @param payload the packet payload, from position to limit
+     * @return the decoded snapshot, or null if the packet was stale,
+     *         malformed or its baseline is no longer available
+     */
+    public Snapshot receive(ByteBuffer payload) {
+        try {
+            return decode(payload);
+        } catch(BufferUnderflowException e) {
+            Log.d(TAG, "Malformed snapshot packet");
+            return null;
+        }
+    }
+    
+    /**
+     * Get the newest snapshot received
+     *
+     * @return the snapshot, or null
+     */
+    public Snapshot getLatest() {
+        return latest;
+    }
+    
+    /**
+     * Get a recent snapshot
+     *
+     * @param tick the server tick
+     * @return the snapshot, or null if not received or too old
+     */
+    public Snapshot getSnapshot(int tick) {
+        Snapshot s = received[slot(tick)];
+        return s.tick == tick ? s : null;
+    }
+    
+    private Snapshot decode(ByteBuffer payload) {
+        in.reset(payload);
+        
+        int tick = in.read(32);
+        Snapshot base = empty;
+        if(in.readBoolean()) {
+            base = getSnapshot(in.read(32));
+            if(base == null) {
+                Log.d(TAG, "Missing baseline for tick " + tick);
+                return null;
+            }
+        }
+        
+        Snapshot target = received[slot(tick)];
+        if(target.tick == tick) {
+            return target;
+        }
+        if(target == base || (latest != null &&
+                latest.tick - tick >= ReplicationServer.HISTORY)) {
+            return null;
+        }
+        
+        int idBits = schema.getIdBits();
+        int removalCount = in.read(idBits);
+        if(removed.length < removalCount) {
+            removed = new int[removalCount];
+        }
+        for(int i = 0; i < removalCount; i++) {
+            removed[i] = in.read(idBits);
+        }
+        
+        updates.clear(tick);
+        while(in.readBoolean()) {
+            int id = in.read(idBits);
+            int b = base.indexOf(id);
+            int off = updates.append(id);
+            
+            for(int f = 0; f < fieldCount; f++) {
+                int v;
+                if(b < 0) {
+                    v = in.read(schema.getBits(f));
+                } else if(!in.readBoolean()) {
+                    v = base.values[b * fieldCount + f];
+                } else if(in.readBoolean()) {
+                    int zigzag = in.read(schema.getDeltaBits(f));
+                    v = base.values[b * fieldCount + f] +
+                            ((zigzag >>> 1) ^ -(zigzag & 1));
+                } else {
+                    v = in.read(schema.getBits(f));
+                }
+                updates.values[off + f] = v;
+            }
+        }
+        
+        merge(base, removalCount, target, tick);
+        
+        if(latest == null || tick - latest.tick > 0) {
+            latest = target;
+        }
+        
+        return target;
+    }
+    
+    /**
+     * Build a snapshot from a baseline, removals and updates
+     */
+    private void merge(Snapshot base, int removalCount, Snapshot target,
+            int tick) {
+        // updates arrive in priority order; walk them by id (high half of
+        // the sort key) and use the update index (low half)
+        int n = updates.count;
+        if(order.length < n) {
+            order = new long[n * 2];
+        }
+        for(int i = 0; i < n; i++) {
+            order[i] = ((long)updates.ids[i] << 32) | i;
+        }
+        Arrays.sort(order, 0, n);
+        Arrays.sort(removed, 0, removalCount);
+        
+        target.clear(tick);
+        int u = 0;
+        int r = 0;
+        for(int j = 0; j < base.count; j++) {
+            int id = base.ids[j];
+            
+            while(u < n && (int)(order[u] >>> 32) < id) {
+                target.appendFrom(updates, (int)order[u++]);
+            }
+            while(r < removalCount && removed[r] < id) {
+                r++;
+            }
+            
+            if(u < n && (int)(order[u] >>> 32) == id) {
+                target.appendFrom(updates, (int)order[u++]);
+            } else if(r >= removalCount || removed[r] != id) {
+                target.appendFrom(base, j);
+            }
+        }
+        while(u < n) {
+            target.appendFrom(updates, (int)order[u++]);
+        }
+    }
+    
+    private static int slot(int tick) {
+        return tick & (ReplicationServer.HISTORY - 1);
+    }
+}
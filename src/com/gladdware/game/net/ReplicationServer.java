@@ -0,0 +1,481 @@
+/* ReplicationServer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server side of snapshot replication
+ * 
+ * Each tick the game adds the state of all replicated entities to a new
+ * snapshot, then sends it to every client. Each client gets it
+ * delta-encoded against the newest state that client acknowledged: only
+ * removed entities, new entities and changed fields are written, bit-packed
+ * and quantized per the SnapshotSchema. Until a client acknowledges
+ * anything, or if its acknowledged state is too old, it gets a full
+ * snapshot.
+ * 
+ * When an update does not fit the packet budget, the entities left out keep
+ * their previous state on the client and are sent in later ticks; the
+ * server tracks exactly which state each client will hold for each packet,
+ * so deltas never assume data the client does not have.
+ * 
+ * Forward NetListener.onAck() to onAck(). The server learns about acks only
+ * from packets the client sends, so clients should send at least one packet
+ * (e.g. their input) per tick.
+ * 
+ * Packet payload: tick (32 bits), baseline flag and tick, removal count and
+ * ids, then entity updates each preceded by a 1 bit (0 ends the list):
+ * id, and for entities the baseline has a changed bit per field followed by
+ * a small zigzag delta or the full value, else all full values.
+ */
+public class ReplicationServer {
+    
+    /** Ticks of per-client state kept as delta baselines */
+    static final int HISTORY = 64;
+    
+    /** Sent packets remembered per client for acks */
+    private static final int PACKET_HISTORY = 1024;
+    
+    /**
+     * Replication state of one client
+     */
+    private static class Client {
+        /** State the client holds after each tick's packet, by tick */
+        final Snapshot[] sent;
+        /** Tick carried by each sent packet, by sequence */
+        final int[] packetSeq;
+        final int[] packetTick;
+        int ackedTick;
+        /** Tick of the last snapshot sent, or -1 */
+        int sentTick;
+        
+        Client(SnapshotSchema schema) {
+            sent = new Snapshot[HISTORY];
+            for(int i = 0; i < HISTORY; i++) {
+                sent[i] = new Snapshot(schema);
+            }
+            packetSeq = new int[PACKET_HISTORY];
+            packetTick = new int[PACKET_HISTORY];
+            Arrays.fill(packetSeq, -1);
+            ackedTick = -1;
+            sentTick = -1;
+        }
+    }
+    
+    private final SnapshotSchema schema;
+    private final int fieldCount;
+    private final Snapshot current;
+    private final Snapshot empty;
+    private final Map<Connection, Client> clients;
+    private final BitWriter out;
+    
+    /**
+     * Per-send scratch: the relevant entities in id order, and for each
+     * entity of the current snapshot its baseline index and whether it is
+     * up to date on the client
+     */
+    private int[] visible;
+    private int[] baseIndex;
+    private boolean[] written;
+    private int[] removals;
+    
+    private long lastEncodeNs;
+    
+    /**
+     * Constructor
+     *
+     * @param schema the entity layout
+     */
+    public ReplicationServer(SnapshotSchema schema) {
+        this.schema = schema;
+        this.fieldCount = schema.getFieldCount();
+        this.current = new Snapshot(schema);
+        this.empty = new Snapshot(schema);
+        this.clients = new HashMap<Connection, Client>();
+        this.out = new BitWriter(UdpTransport.MAX_PAYLOAD);
+        this.visible = new int[64];
+        this.baseIndex = new int[64];
+        this.written = new boolean[64];
+        this.removals = new int[64];
+    }
+    
+    /**
+     * Start a new snapshot
+     *
+     * @param tick the server tick, increasing
+     */
+    public void beginSnapshot(int tick) {
+        current.clear(tick);
+    }
+    
+    /**
+     * Add an entity to the snapshot
+     *
+     * @param id the entity id, greater than the previous one added
+     * @param values the entity's field values, in schema order
+     */
+    public void addEntity(int id, float[] values) {
+        if(current.count > 0 && id <= current.ids[current.count - 1]) {
+            throw new IllegalArgumentException("Entity ids must increase");
+        }
+        if(id < 0 || (id >>> schema.getIdBits()) != 0) {
+            throw new IllegalArgumentException("Entity id out of range: " +
+                    id);
+        }
+        
+        int off = current.append(id);
+        for(int f = 0; f < fieldCount; f++) {
+            current.values[off + f] = schema.quantize(f, values[f]);
+        }
+    }
+    
+    /**
+     * Get the snapshot being built
+     *
+     * @return the current snapshot
+     */
+    public Snapshot getSnapshot() {
+        return current;
+    }
+    
+    /**
+     * Start replicating to a client
+     *
+     * @param conn the client's connection
+     */
+    public void addClient(Connection conn) {
+        if(!clients.containsKey(conn)) {
+            clients.put(conn, new Client(schema));
+        }
+    }
+    
+    /**
+     * Stop replicating to a client
+     *
+     * @param conn the client's connection
+     */
+    public void removeClient(Connection conn) {
+        clients.remove(conn);
+    }
+    
+    /**
+     * Handle a packet acknowledged by a client
+     *
+     * @param conn the client's connection
+     * @param sequence the packet's sequence number
+     */
+    public void onAck(Connection conn, int sequence) {
+        Client c = clients.get(conn);
+        if(c == null) {
+            return;
+        }
+        
+        int slot = sequence % PACKET_HISTORY;
+        if(c.packetSeq[slot] == sequence && c.packetTick[slot] > c.ackedTick) {
+            c.ackedTick = c.packetTick[slot];
+        }
+    }
+    
+    /**
+     * Send the current snapshot to a client, all entities in id order
+     *
+     * @param transport the transport
+     * @param conn the client's connection
+     * @return the payload size, in bytes
+     * @throws IOException on a socket error
+     */
+    public int send(UdpTransport transport, Connection conn)
+            throws IOException {
+        return send(transport, conn, null, current.count,
+                UdpTransport.MAX_PAYLOAD);
+    }
+    
+    /**
+     * Send the current snapshot to a client
+     * 
+     * Only the listed entities are replicated to the client; any it holds
+     * that are not listed are removed from it. The cost is proportional to
+     * the number of listed entities and the client's previous state, not to
+     * the whole snapshot.
+     * 
+     * A snapshot is sent to each client at most once: the client keeps the
+     * first packet of a tick, so a second one could become a baseline the
+     * client never stored.
+     *
+     * @param transport the transport
+     * @param conn the client's connection
+     * @param order indices into the current snapshot of the entities
+     *        relevant to the client, most important first, or null for all
+     *        in id order
+     * @param orderCount number of indices in order
+     * @param byteBudget largest payload, at most UdpTransport.MAX_PAYLOAD
+     * @return the payload size, in bytes
+     * @throws IOException on a socket error
+     */
+    public int send(UdpTransport transport, Connection conn, int[] order,
+            int orderCount, int byteBudget) throws IOException {
+        long start = System.nanoTime();
+        
+        Client c = clients.get(conn);
+        if(c == null) {
+            throw new IllegalArgumentException("Unknown client " + conn);
+        }
+        if(c.sentTick == current.tick) {
+            throw new IllegalStateException("Tick " + current.tick +
+                    " already sent to " + conn);
+        }
+        c.sentTick = current.tick;
+        
+        Snapshot base = baseline(c);
+        Snapshot target = c.sent[current.tick % HISTORY];
+        if(target == base) {
+            // the slot is reused; never delta against the state replaced
+            base = empty;
+        }
+        
+        // the relevant entities in id order
+        ensureScratch(base.count);
+        if(order == null) {
+            orderCount = current.count;
+            for(int i = 0; i < orderCount; i++) {
+                visible[i] = i;
+            }
+        } else {
+            System.arraycopy(order, 0, visible, 0, orderCount);
+            Arrays.sort(visible, 0, orderCount);
+        }
+        int removalCount = matchBaseline(base, orderCount);
+        
+        out.reset();
+        out.write(current.tick, 32);
+        out.writeBoolean(base != empty);
+        if(base != empty) {
+            out.write(base.tick, 32);
+        }
+        
+        // removals, as many as fit next to the end marker
+        int idBits = schema.getIdBits();
+        int budgetBits = Math.min(byteBudget, UdpTransport.MAX_PAYLOAD) * 8;
+        int fit = (budgetBits - out.getBitCount() - idBits - 1) / idBits;
+        removalCount = Math.max(0, Math.min(removalCount, fit));
+        out.write(removalCount, idBits);
+        for(int i = 0; i < removalCount; i++) {
+            out.write(removals[i], idBits);
+        }
+        
+        // updates, in order, while a worst-case update still fits
+        int maxBits = schema.getMaxEntityBits();
+        for(int k = 0; k < orderCount; k++) {
+            written[visible[k]] = false;
+        }
+        for(int k = 0; k < orderCount; k++) {
+            int i = order != null ? order[k] : k;
+            int b = baseIndex[i];
+            
+            if(b >= 0 && unchanged(i, base, b)) {
+                written[i] = true;
+                continue;
+            }
+            if(out.getBitCount() + maxBits + 1 > budgetBits) {
+                break;
+            }
+            
+            writeEntity(i, base, b);
+            written[i] = true;
+        }
+        out.writeBoolean(false);
+        
+        buildSent(base, target, orderCount, removalCount);
+        
+        int bytes = out.getByteCount();
+        int seq = transport.send(conn, out.getData(), 0, bytes);
+        int slot = seq % PACKET_HISTORY;
+        c.packetSeq[slot] = seq;
+        c.packetTick[slot] = current.tick;
+        
+        lastEncodeNs = System.nanoTime() - start;
+        
+        return bytes;
+    }
+    
+    /**
+     * Check whether the last send() brought an entity up to date
+     * 
+     * Entities left out for lack of budget return false; valid for the
+     * entities passed to that send().
+     *
+     * @param index the entity's index in the current snapshot
+     * @return true if the entity was written or already up to date
+     */
+    public boolean isIncluded(int index) {
+        return written[index];
+    }
+    
+    /**
+     * Get the time spent encoding and sending the last packet
+     *
+     * @return the time, in ns
+     */
+    public long getLastEncodeTimeNs() {
+        return lastEncodeNs;
+    }
+    
+    /**
+     * Get a client's delta baseline
+     */
+    private Snapshot baseline(Client c) {
+        if(c.ackedTick < 0 || current.tick - c.ackedTick >= HISTORY) {
+            return empty;
+        }
+        
+        Snapshot s = c.sent[c.ackedTick % HISTORY];
+        return s.tick == c.ackedTick ? s : empty;
+    }
+    
+    private void ensureScratch(int baseCount) {
+        int n = current.ids.length;
+        if(visible.length < n) {
+            visible = new int[n];
+            baseIndex = new int[n];
+            written = new boolean[n];
+        }
+        if(removals.length < baseCount) {
+            removals = new int[baseCount * 2];
+        }
+    }
+    
+    /**
+     * Match the relevant entities to baseline entities and collect the
+     * baseline entities to remove, in id order
+     *
+     * @return the number of removals
+     */
+    private int matchBaseline(Snapshot base, int visibleCount) {
+        int removalCount = 0;
+        int j = 0;
+        
+        for(int v = 0; v < visibleCount; v++) {
+            int i = visible[v];
+            int id = current.ids[i];
+            
+            while(j < base.count && base.ids[j] < id) {
+                removals[removalCount++] = base.ids[j++];
+            }
+            baseIndex[i] = j < base.count && base.ids[j] == id ? j++ : -1;
+        }
+        while(j < base.count) {
+            removals[removalCount++] = base.ids[j++];
+        }
+        
+        return removalCount;
+    }
+    
+    private boolean unchanged(int i, Snapshot base, int b) {
+        int ci = i * fieldCount;
+        int bi = b * fieldCount;
+        
+        for(int f = 0; f < fieldCount; f++) {
+            if(current.values[ci + f] != base.values[bi + f]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private void writeEntity(int i, Snapshot base, int b) {
+        int ci = i * fieldCount;
+        
+        out.writeBoolean(true);
+        out.write(current.ids[i], schema.getIdBits());
+        
+        for(int f = 0; f < fieldCount; f++) {
+            int v = current.values[ci + f];
+            
+            if(b < 0) {
+                out.write(v, schema.getBits(f));
+                continue;
+            }
+            
+            int d = v - base.values[b * fieldCount + f];
+            if(d == 0) {
+                out.writeBoolean(false);
+                continue;
+            }
+            
+            out.writeBoolean(true);
+            int zigzag = (d << 1) ^ (d >> 31);
+            int deltaBits = schema.getDeltaBits(f);
+            if((zigzag >>> deltaBits) == 0) {
+                out.writeBoolean(true);
+                out.write(zigzag, deltaBits);
+            } else {
+                out.writeBoolean(false);
+                out.write(v, schema.getBits(f));
+            }
+        }
+    }
+    
+    /**
+     * Record the state the client holds once it receives this packet
+     */
+    private void buildSent(Snapshot base, Snapshot target, int visibleCount,
+            int removalCount) {
+        target.clear(current.tick);
+        
+        // removals written are a prefix of the baseline-only ids, in order
+        int r = 0;
+        int j = 0;
+        for(int v = 0; v < visibleCount; v++) {
+            int i = visible[v];
+            int id = current.ids[i];
+            
+            while(j < base.count && base.ids[j] < id) {
+                if(r < removalCount && removals[r] == base.ids[j]) {
+                    r++;
+                } else {
+                    target.appendFrom(base, j);
+                }
+                j++;
+            }
+            
+            int b = baseIndex[i];
+            if(written[i]) {
+                target.appendFrom(current, i);
+            } else if(b >= 0) {
+                target.appendFrom(base, b);
+            }
+            if(b >= 0) {
+                j = b + 1;
+            }
+        }
+        for(; j < base.count; j++) {
+            if(r < removalCount && removals[r] == base.ids[j]) {
+                r++;
+            } else {
+                target.appendFrom(base, j);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/* Snapshot.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Quantized state of all replicated entities at one tick
+ * 
+ * Entities are kept sorted by id, with their quantized field values packed
+ * fieldCount per entity.
+ */
+public class Snapshot {
+    
+    private final SnapshotSchema schema;
+    private final int fieldCount;
+    
+    int tick;
+    int count;
+    int[] ids;
+    int[] values;
+    
+    /**
+     * Constructor
+     *
+     * @param schema the entity layout
+     */
+    Snapshot(SnapshotSchema schema) {
+        this.schema = schema;
+        this.fieldCount = schema.getFieldCount();
+        this.tick = -1;
+        this.ids = new int[64];
+        this.values = new int[64 * Math.max(fieldCount, 1)];
+    }
+    
+    /**
+     * Get the tick
+     *
+     * @return the server tick the snapshot was taken at
+     */
+    public int getTick() {
+        return tick;
+    }
+    
+    /**
+     * Get the number of entities
+     *
+     * @return the entity count
+     */
+    public int getEntityCount() {
+        return count;
+    }
+    
+    /**
+     * Get an entity's id
+     *
+     * @param index the entity index
+     * @return the id
+     */
+    public int getEntityId(int index) {
+        return ids[index];
+    }
+    
+    /**
+     * Find an entity
+     *
+     * @param id the entity id
+     * @return the entity index, or -1
+     */
+    public int indexOf(int id) {
+        int i = Arrays.binarySearch(ids, 0, count, id);
+        return i >= 0 ? i : -1;
+    }
+    
+    /**
+     * Get a field value
+     *
+     * @param index the entity index
+     * @param field the field index
+     * @return the value, as quantized
+     */
+    public float getValue(int index, int field) {
+        return schema.dequantize(field, values[index * fieldCount + field]);
+    }
+    
+    /**
+     * Get a quantized field value
+     *
+     * @param index the entity index
+     * @param field the field index
+     * @return the quantized value
+     */
+    public int getQuantized(int index, int field) {
+        return values[index * fieldCount + field];
+    }
+    
+    /**
+     * Remove all entities
+     */
+    void clear(int tick) {
+        this.tick = tick;
+        this.count = 0;
+    }
+    
+    /**
+     * Append an entity, growing the arrays as needed
+     *
+     * @return the offset of its values
+     */
+    int append(int id) {
+        if(count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            values = Arrays.copyOf(values, ids.length * fieldCount);
+        }
+        
+        ids[count] = id;
+        return count++ * fieldCount;
+    }
+    
+    /**
+     * Append an entity with the values of another snapshot's entity
+     */
+    void appendFrom(Snapshot src, int index) {
+        int off = append(src.ids[index]);
+        System.arraycopy(src.values, index * fieldCount, values, off,
+                fieldCount);
+    }
+}
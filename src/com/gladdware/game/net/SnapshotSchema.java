@@ -0,0 +1,178 @@
+/* SnapshotSchema.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Layout of replicated entity state
+ * 
+ * Each entity has an id and a fixed list of float fields. Every field is
+ * quantized to a range and bit width chosen for it (e.g. positions to 1 cm
+ * over the level size, angles to 12 bits); changes up to deltaBits of
+ * quantized steps are sent as small deltas.
+ */
+public class SnapshotSchema {
+    
+    /** Default entity id width */
+    public static final int DEFAULT_ID_BITS = 16;
+    
+    private final int idBits;
+    private int fieldCount;
+    private float[] min = new float[8];
+    private float[] max = new float[8];
+    private int[] bits = new int[8];
+    private int[] deltaBits = new int[8];
+    
+    /**
+     * Constructor
+     *
+     * @param idBits entity id width; ids must be below 2^idBits
+     */
+    public SnapshotSchema(int idBits) {
+        if(idBits < 1 || idBits > 31) {
+            throw new IllegalArgumentException("Invalid id width " + idBits);
+        }
+        this.idBits = idBits;
+    }
+    
+    /**
+     * Constructor for DEFAULT_ID_BITS wide ids
+     */
+    public SnapshotSchema() {
+        this(DEFAULT_ID_BITS);
+    }
+    
+    /**
+     * Add a field
+     *
+     * @param min smallest value
+     * @param max largest value
+     * @param bits quantized width, 1 to 31
+     * @param deltaBits width of small changes sent as deltas, below bits
+     * @return the field index
+     */
+    public int addField(float min, float max, int bits, int deltaBits) {
+        if(bits < 1 || bits > 31 || deltaBits < 1 || deltaBits >= bits ||
+                !(max > min)) {
+            throw new IllegalArgumentException("Invalid field");
+        }
+        
+        if(fieldCount == this.bits.length) {
+            int cap = fieldCount * 2;
+            this.min = Arrays.copyOf(this.min, cap);
+            this.max = Arrays.copyOf(this.max, cap);
+            this.bits = Arrays.copyOf(this.bits, cap);
+            this.deltaBits = Arrays.copyOf(this.deltaBits, cap);
+        }
+        
+        this.min[fieldCount] = min;
+        this.max[fieldCount] = max;
+        this.bits[fieldCount] = bits;
+        this.deltaBits[fieldCount] = deltaBits;
+        
+        return fieldCount++;
+    }
+    
+    /**
+     * Add a field whose small changes use half its width
+     *
+     * @param min smallest value
+     * @param max largest value
+     * @param bits quantized width, 2 to 31
+     * @return the field index
+     */
+    public int addField(float min, float max, int bits) {
+        return addField(min, max, bits, Math.max(1, bits / 2));
+    }
+    
+    /**
+     * Get the entity id width
+     *
+     * @return the width, in bits
+     */
+    public int getIdBits() {
+        return idBits;
+    }
+    
+    /**
+     * Get the number of fields
+     *
+     * @return the field count
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+    
+    /**
+     * Quantize a field value
+     *
+     * @param field the field index
+     * @param value the value
+     * @return the quantized value
+     */
+    public int quantize(int field, float value) {
+        return BitWriter.quantize(value, min[field], max[field], bits[field]);
+    }
+    
+    /**
+     * Restore a quantized field value
+     *
+     * @param field the field index
+     * @param q the quantized value
+     * @return the value
+     */
+    public float dequantize(int field, int q) {
+        return BitWriter.dequantize(q, min[field], max[field], bits[field]);
+    }
+    
+    /**
+     * Get a field's quantized width
+     *
+     * @param field the field index
+     * @return the width, in bits
+     */
+    public int getBits(int field) {
+        return bits[field];
+    }
+    
+    /**
+     * Get a field's small delta width
+     *
+     * @param field the field index
+     * @return the width, in bits
+     */
+    public int getDeltaBits(int field) {
+        return deltaBits[field];
+    }
+    
+    /**
+     * Get the largest encoded size of one entity update
+     *
+     * @return the size, in bits
+     */
+    public int getMaxEntityBits() {
+        int total = 1 + idBits;
+        for(int f = 0; f < fieldCount; f++) {
+            total += 2 + bits[f];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,307 @@
+/* UdpTransport.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gladdware.game.log.Log;
+
+/**
+ * Non-blocking UDP transport with sequenced, acknowledged packets
+ * 
+ * One transport serves any number of peers over a single DatagramChannel.
+ * Each send() produces exactly one datagram holding a header, the due
+ * reliable messages of the connection and an unreliable payload; see
+ * Connection for the sequencing and ack scheme. A server accepts peers whose
+ * first packet carries the right protocol id; a client connect()s to the
+ * server's address. Peers that stay silent for the timeout are dropped.
+ * 
+ * Nothing blocks or spawns threads: call poll() once per tick from the game
+ * loop (or a network thread) to receive packets, resend reliable messages
+ * and detect timeouts. Listener callbacks run inside poll().
+ * 
+ * Packet layout (big-endian): protocol id (int), sequence, ack (shorts), ack
+ * bits (int), reliable message count (byte), messages (id, length, bytes),
+ * payload.
+ */
+public class UdpTransport {
+    
+    private static final String TAG = "UdpTransport";
+    
+    /** Largest datagram sent; stays below common path MTUs */
+    public static final int MAX_PACKET = 1200;
+    /** Packet header size */
+    public static final int HEADER_SIZE = 13;
+    /** Largest payload of a packet */
+    public static final int MAX_PAYLOAD = MAX_PACKET - HEADER_SIZE;
+    
+    /** Default protocol id; choose one per game and version */
+    public static final int DEFAULT_PROTOCOL_ID = 0x47474531;
+    /** Default time without packets before a peer is dropped */
+    public static final long DEFAULT_TIMEOUT_NS = 5000000000L;
+    
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    
+    private final DatagramChannel channel;
+    private final NetListener listener;
+    private final int protocolId;
+    private final ByteBuffer sendBuf;
+    private final ByteBuffer recvBuf;
+    private final Map<SocketAddress, Connection> connections;
+    private final List<Connection> dropped;
+    
+    private boolean accepting;
+    private int maxConnections;
+    private long timeoutNs;
+    
+    /**
+     * Constructor
+     *
+     * @param port local port to bind, or 0 for any
+     * @param protocolId protocol id; packets with another id are ignored
+     * @param listener receives transport events
+     * @throws IOException if the socket cannot be opened
+     */
+    public UdpTransport(int port, int protocolId, NetListener listener)
+            throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.socket().bind(new InetSocketAddress(port));
+        
+        this.listener = listener;
+        this.protocolId = protocolId;
+        this.sendBuf = ByteBuffer.allocateDirect(MAX_PACKET);
+        this.recvBuf = ByteBuffer.allocateDirect(MAX_PACKET + 1);
+        this.connections = new HashMap<SocketAddress, Connection>();
+        this.dropped = new ArrayList<Connection>();
+        
+        this.accepting = true;
+        this.maxConnections = 64;
+        this.timeoutNs = DEFAULT_TIMEOUT_NS;
+    }
+    
+    /**
+     * Set whether unknown peers may connect
+     *
+     * @param accepting true for servers, typically false for clients
+     * @param maxConnections largest number of connections
+     */
+    public void setAccepting(boolean accepting, int maxConnections) {
+        this.accepting = accepting;
+        this.maxConnections = maxConnections;
+    }
+    
+    /**
+     * Set the time without packets before a peer is dropped
+     *
+     * @param timeoutNs the timeout, in ns
+     */
+    public void setTimeout(long timeoutNs) {
+        this.timeoutNs = timeoutNs;
+    }
+    
+    /**
+     * Start talking to a peer
+     *
+     * @param address the peer's address
+     * @return the connection
+     */
+    public Connection connect(SocketAddress address) {
+        Connection conn = connections.get(address);
+        
+        if(conn == null) {
+            conn = new Connection(address, System.nanoTime());
+            connections.put(address, conn);
+            listener.onConnect(conn);
+        }
+        
+        return conn;
+    }
+    
+    /**
+     * Drop a peer
+     *
+     * @param conn the connection
+     */
+    public void disconnect(Connection conn) {
+        if(connections.remove(conn.getAddress()) != null) {
+            conn.close();
+            listener.onDisconnect(conn);
+        }
+    }
+    
+    /**
+     * Send a packet to a peer
+     * 
+     * The packet also carries acks for the peer's packets and the reliable
+     * messages due for (re)sending that fit.
+     *
+     * @param conn the connection
+     * @param payload the unreliable payload
+     * @param offset index of the first payload byte
+     * @param length payload length, at most MAX_PAYLOAD
+     * @return the packet's sequence number, reported to onAck() once the
+     *         peer acknowledges it
+     * @throws IOException on a socket error
+     */
+    public int send(Connection conn, byte[] payload, int offset, int length)
+            throws IOException {
+        if(length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large: " + length);
+        }
+        
+        long now = System.nanoTime();
+        sendBuf.clear();
+        int seq = conn.writeHeader(sendBuf, protocolId, length, now);
+        sendBuf.put(payload, offset, length);
+        sendBuf.flip();
+        
+        int bytes = sendBuf.remaining();
+        channel.send(sendBuf, conn.getAddress());
+        conn.countSent(bytes);
+        
+        return seq;
+    }
+    
+    /**
+     * Receive pending packets, resend reliable messages and drop silent
+     * peers
+     *
+     * @throws IOException on a socket error
+     */
+    public void poll() throws IOException {
+        SocketAddress from;
+        
+        while(true) {
+            recvBuf.clear();
+            from = channel.receive(recvBuf);
+            if(from == null) {
+                break;
+            }
+            recvBuf.flip();
+            
+            try {
+                receive(from, recvBuf);
+            } catch(BufferUnderflowException e) {
+                Log.d(TAG, "Malformed packet from " + from);
+            }
+        }
+        
+        long now = System.nanoTime();
+        for(Connection conn : connections.values()) {
+            if(now - conn.getLastReceiveNs() > timeoutNs) {
+                dropped.add(conn);
+            } else if(conn.hasDueMessages(now)) {
+                // nothing else to send; resend in an empty packet
+                send(conn, NO_PAYLOAD, 0, 0);
+            }
+        }
+        
+        for(int i = 0; i < dropped.size(); i++) {
+            Log.d(TAG, dropped.get(i) + " timed out");
+            disconnect(dropped.get(i));
+        }
+        dropped.clear();
+    }
+    
+    /**
+     * Get the current connections
+     *
+     * @return the connections (do not modify)
+     */
+    public Collection<Connection> getConnections() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+    
+    /**
+     * Get the bound local port
+     *
+     * @return the port
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+    
+    /**
+     * Close the socket
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to close socket: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Handle one datagram
+     */
+    private void receive(SocketAddress from, ByteBuffer b) {
+        int bytes = b.remaining();
+        if(bytes < HEADER_SIZE || bytes > MAX_PACKET ||
+                b.getInt() != protocolId) {
+            return;
+        }
+        
+        Connection conn = connections.get(from);
+        if(conn == null) {
+            if(!accepting || connections.size() >= maxConnections) {
+                return;
+            }
+            conn = connect(from);
+        }
+        
+        int seq = b.getShort() & 0xffff;
+        int ack = b.getShort() & 0xffff;
+        int ackBits = b.getInt();
+        long now = System.nanoTime();
+        
+        if(!conn.receive(seq, bytes, now)) {
+            return;
+        }
+        conn.processAcks(ack, ackBits, now, listener);
+        
+        int count = b.get() & 0xff;
+        for(int i = 0; i < count; i++) {
+            int id = b.getShort() & 0xffff;
+            int len = b.getShort() & 0xffff;
+            if(len > b.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            
+            byte[] data = new byte[len];
+            b.get(data);
+            conn.receiveMessage(id, data, listener);
+        }
+        
+        listener.onPacket(conn, seq, b);
+    }
+}
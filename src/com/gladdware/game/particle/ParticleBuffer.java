@@ -0,0 +1,241 @@
+/* ParticleBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.particle;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Structure-of-arrays storage for a fixed number of particles
+ * 
+ * Each particle attribute lives in its own primitive array so that update
+ * kernels stream through memory linearly and the JIT can vectorize them. Live
+ * particles are always packed into the range [0, getCount()).
+ */
+public class ParticleBuffer {
+    
+    /** Number of floats written per particle by writeVertices() */
+    public static final int FLOATS_PER_VERTEX = 8;
+    
+    /** Maximum number of particles */
+    private final int capacity;
+    /** Number of live particles */
+    private int count;
+    
+    /** Particle positions */
+    final float[] posX, posY, posZ;
+    /** Particle velocities, in units per second */
+    final float[] velX, velY, velZ;
+    /** Remaining particle life, in seconds */
+    final float[] life;
+    /** Reciprocal of the initial particle life */
+    final float[] invLifetime;
+    /** Particle sizes */
+    final float[] size;
+    /** Particle colors */
+    final float[] colR, colG, colB, colA;
+    
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of particles the buffer can hold
+     */
+    public ParticleBuffer(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException(
+                    "Particle capacity must be positive");
+        }
+        
+        this.capacity = capacity;
+        this.count = 0;
+        
+        this.posX = new float[capacity];
+        this.posY = new float[capacity];
+        this.posZ = new float[capacity];
+        this.velX = new float[capacity];
+        this.velY = new float[capacity];
+        this.velZ = new float[capacity];
+        this.life = new float[capacity];
+        this.invLifetime = new float[capacity];
+        this.size = new float[capacity];
+        this.colR = new float[capacity];
+        this.colG = new float[capacity];
+        this.colB = new float[capacity];
+        this.colA = new float[capacity];
+    }
+    
+    /**
+     * Get the maximum number of particles the buffer can hold
+     *
+     * @return the particle capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+    
+    /**
+     * Get the number of live particles
+     *
+     * @return the live particle count
+     */
+    public int getCount() {
+        return this.count;
+    }
+    
+    /**
+     * Check whether the buffer has room for more particles
+     *
+     * @return true if the buffer is full
+     */
+    public boolean isFull() {
+        return this.count >= this.capacity;
+    }
+    
+    /**
+     * Remove all particles
+     */
+    public void clear() {
+        this.count = 0;
+    }
+    
+    /**
+     * Add a particle to the end of the buffer
+     *
+     * @param x x position
+     * @param y y position
+     * @param z z position
+     * @param vx x velocity, in units per second
+     * @param vy y velocity, in units per second
+     * @param vz z velocity, in units per second
+     * @param lifeSec particle lifetime, in seconds
+     * @param sz particle size
+     * @param r red color component
+     * @param g green color component
+     * @param b blue color component
+     * @param a alpha color component
+     * @return the index of the new particle, or -1 if the buffer is full
+     */
+    public int add(float x, float y, float z, float vx, float vy, float vz,
+            float lifeSec, float sz, float r, float g, float b, float a) {
+        if(this.count >= this.capacity || lifeSec <= 0.0f) {
+            return -1;
+        }
+        
+        int i = this.count++;
+        
+        posX[i] = x;
+        posY[i] = y;
+        posZ[i] = z;
+        velX[i] = vx;
+        velY[i] = vy;
+        velZ[i] = vz;
+        life[i] = lifeSec;
+        invLifetime[i] = 1.0f / lifeSec;
+        size[i] = sz;
+        colR[i] = r;
+        colG[i] = g;
+        colB[i] = b;
+        colA[i] = a;
+        
+        return i;
+    }
+    
+    /**
+     * Remove dead particles (those with no remaining life) by moving live
+     * particles from the end of the buffer into their slots.
+     * 
+     * Runs in place without allocating; particle order is not preserved.
+     *
+     * @return the number of particles removed
+     */
+    public int compact() {
+        int n = this.count;
+        int i = 0;
+        
+        while(i < n) {
+            if(life[i] > 0.0f) {
+                i++;
+            } else {
+                // fill the hole with the last particle and re-check the slot
+                n--;
+                if(i != n) {
+                    move(n, i);
+                }
+            }
+        }
+        
+        int removed = this.count - n;
+        this.count = n;
+        
+        return removed;
+    }
+    
+    /**
+     * Write render-ready vertex data for a range of particles into the given
+     * buffer using absolute puts (the buffer position is left unchanged).
+     * 
+     * Each particle produces FLOATS_PER_VERTEX floats: x, y, z, size, r, g, b,
+     * a. Alpha is scaled by the fraction of life remaining so particles fade
+     * out. Disjoint ranges may be written from different threads.
+     *
+     * @param dst the destination buffer
+     * @param dstParticle index of the first destination particle slot in dst
+     * @param start first particle to write (inclusive)
+     * @param end last particle to write (exclusive)
+     */
+    public void writeVertices(FloatBuffer dst, int dstParticle, int start,
+            int end) {
+        int o = dstParticle * FLOATS_PER_VERTEX;
+        
+        for(int i = start; i < end; i++) {
+            dst.put(o, posX[i]);
+            dst.put(o + 1, posY[i]);
+            dst.put(o + 2, posZ[i]);
+            dst.put(o + 3, size[i]);
+            dst.put(o + 4, colR[i]);
+            dst.put(o + 5, colG[i]);
+            dst.put(o + 6, colB[i]);
+            dst.put(o + 7, colA[i] * (life[i] * invLifetime[i]));
+            
+            o += FLOATS_PER_VERTEX;
+        }
+    }
+    
+    /**
+     * Copy all attributes of one particle slot into another
+     *
+     * @param src the source slot
+     * @param dst the destination slot
+     */
+    private void move(int src, int dst) {
+        posX[dst] = posX[src];
+        posY[dst] = posY[src];
+        posZ[dst] = posZ[src];
+        velX[dst] = velX[src];
+        velY[dst] = velY[src];
+        velZ[dst] = velZ[src];
+        life[dst] = life[src];
+        invLifetime[dst] = invLifetime[src];
+        size[dst] = size[src];
+        colR[dst] = colR[src];
+        colG[dst] = colG[src];
+        colB[dst] = colB[src];
+        colA[dst] = colA[src];
+    }
+}
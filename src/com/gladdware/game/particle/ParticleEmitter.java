@@ -0,0 +1,337 @@
+/* ParticleEmitter.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.particle;
+
+import com.gladdware.game.math.Vector3f;
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Spawns and simulates a pool of particles sharing the same behavior
+ * 
+ * Particles are emitted from a point with a base velocity plus a random
+ * spread, accelerate under a constant force (gravity, wind), are slowed by
+ * linear drag, and die when their lifetime runs out. All per-particle state is
+ * held in a ParticleBuffer.
+ */
+public class ParticleEmitter {
+    
+    private final ParticleBuffer particles;
+    
+    /** Emission origin */
+    private float originX, originY, originZ;
+    /** Base emission velocity, in units per second */
+    private float velX, velY, velZ;
+    /** Maximum random deviation from the base velocity, per axis */
+    private float spread;
+    /** Constant acceleration, in units per second squared */
+    private float accelX, accelY, accelZ;
+    /** Linear drag coefficient, per second */
+    private float drag;
+    
+    /** Particle lifetime range, in seconds */
+    private float minLifeSec, maxLifeSec;
+    /** Particle size */
+    private float particleSize;
+    /** Particle color */
+    private float red, green, blue, alpha;
+    
+    /** Continuous emission rate, in particles per second */
+    private float rate;
+    /** Fractional particles carried over between frames */
+    private float emitAccumulator;
+    
+    /** Random number generator state (xorshift) */
+    private int seed;
+    
+    /** Step for the current update, read by the integrator */
+    private float stepSec;
+    
+    /** Reusable update kernel, so updates don't allocate */
+    private final Parallel.RangeTask integrator = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            integrate(start, end, stepSec);
+        }
+    };
+    
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of live particles
+     */
+    public ParticleEmitter(int capacity) {
+        this.particles = new ParticleBuffer(capacity);
+        
+        this.minLifeSec = 1.0f;
+        this.maxLifeSec = 1.0f;
+        this.particleSize = 1.0f;
+        this.red = this.green = this.blue = this.alpha = 1.0f;
+        this.seed = 0x9E3779B9 ^ System.identityHashCode(this);
+        if(this.seed == 0) {
+            this.seed = 1;
+        }
+    }
+    
+    /**
+     * Get the particle storage for this emitter
+     *
+     * @return the particle buffer
+     */
+    public ParticleBuffer getParticles() {
+        return this.particles;
+    }
+    
+    /**
+     * Set the emission origin
+     *
+     * @param origin the emission origin
+     */
+    public void setOrigin(Vector3f origin) {
+        this.originX = origin.getX();
+        this.originY = origin.getY();
+        this.originZ = origin.getZ();
+    }
+    
+    /**
+     * Set the base emission velocity and random spread
+     *
+     * @param velocity base velocity, in units per second
+     * @param spread maximum random deviation per axis, in units per second
+     */
+    public void setVelocity(Vector3f velocity, float spread) {
+        this.velX = velocity.getX();
+        this.velY = velocity.getY();
+        this.velZ = velocity.getZ();
+        this.spread = spread;
+    }
+    
+    /**
+     * Set the constant acceleration applied to all particles
+     *
+     * @param accel acceleration, in units per second squared
+     */
+    public void setAcceleration(Vector3f accel) {
+        this.accelX = accel.getX();
+        this.accelY = accel.getY();
+        this.accelZ = accel.getZ();
+    }
+    
+    /**
+     * Set the linear drag coefficient
+     *
+     * @param drag fraction of velocity lost per second
+     */
+    public void setDrag(float drag) {
+        this.drag = drag;
+    }
+    
+    /**
+     * Set the range of particle lifetimes
+     *
+     * @param minSec minimum lifetime, in seconds
+     * @param maxSec maximum lifetime, in seconds
+     */
+    public void setLifetime(float minSec, float maxSec) {
+        this.minLifeSec = minSec;
+        this.maxLifeSec = Math.max(minSec, maxSec);
+    }
+    
+    /**
+     * Set the size of newly emitted particles
+     *
+     * @param size particle size
+     */
+    public void setSize(float size) {
+        this.particleSize = size;
+    }
+    
+    /**
+     * Set the color of newly emitted particles
+     *
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     * @param a alpha component
+     */
+    public void setColor(float r, float g, float b, float a) {
+        this.red = r;
+        this.green = g;
+        this.blue = b;
+        this.alpha = a;
+    }
+    
+    /**
+     * Set the continuous emission rate
+     *
+     * @param particlesPerSec particles emitted per second (0 to stop)
+     */
+    public void setRate(float particlesPerSec) {
+        this.rate = particlesPerSec;
+    }
+    
+    /**
+     * Immediately emit a burst of particles
+     *
+     * @param n number of particles to emit
+     * @return the number of particles actually emitted (limited by capacity)
+     */
+    public int emit(int n) {
+        ParticleBuffer p = this.particles;
+        int emitted = 0;
+        
+        while(emitted < n && !p.isFull()) {
+            float life = minLifeSec + (maxLifeSec - minLifeSec) * nextFloat();
+            
+            p.add(originX, originY, originZ,
+                    velX + spread * nextSigned(),
+                    velY + spread * nextSigned(),
+                    velZ + spread * nextSigned(),
+                    life, particleSize, red, green, blue, alpha);
+            
+            emitted++;
+        }
+        
+        return emitted;
+    }
+    
+    /**
+     * Advance the emitter: emit new particles for the elapsed time, integrate
+     * all live particles and remove the dead ones.
+     * 
+     * Large particle counts are integrated in parallel chunks.
+     *
+     * @param deltaMs elapsed time since the last update, in milliseconds
+     */
+    public void update(float deltaMs) {
+        spawn(deltaMs);
+        
+        this.stepSec = deltaMs / 1000.0f;
+        Parallel.forRange(this.particles.getCount(), this.integrator);
+        
+        this.particles.compact();
+    }
+    
+    /**
+     * Emit particles at the continuous rate for the elapsed time
+     *
+     * @param deltaMs elapsed time, in milliseconds
+     */
+    void spawn(float deltaMs) {
+        if(rate <= 0.0f) {
+            return;
+        }
+        
+        emitAccumulator += rate * (deltaMs / 1000.0f);
+        int n = (int)emitAccumulator;
+        emitAccumulator -= n;
+        
+        emit(n);
+    }
+    
+    /**
+     * Integrate a range of particles forward in time
+     * 
+     * Each attribute is processed in its own simple loop over a primitive
+     * array so the JIT can turn it into SIMD instructions.
+     *
+     * @param start first particle (inclusive)
+     * @param end last particle (exclusive)
+     * @param dt time step, in seconds
+     */
+    void integrate(int start, int end, float dt) {
+        ParticleBuffer p = this.particles;
+        
+        float damp = Math.max(0.0f, 1.0f - drag * dt);
+        float ax = accelX * dt;
+        float ay = accelY * dt;
+        float az = accelZ * dt;
+        
+        float[] vx = p.velX, vy = p.velY, vz = p.velZ;
+        float[] px = p.posX, py = p.posY, pz = p.posZ;
+        float[] life = p.life;
+        
+        for(int i = start; i < end; i++) {
+            vx[i] = (vx[i] + ax) * damp;
+        }
+        for(int i = start; i < end; i++) {
+            vy[i] = (vy[i] + ay) * damp;
+        }
+        for(int i = start; i < end; i++) {
+            vz[i] = (vz[i] + az) * damp;
+        }
+        
+        for(int i = start; i < end; i++) {
+            px[i] += vx[i] * dt;
+        }
+        for(int i = start; i < end; i++) {
+            py[i] += vy[i] * dt;
+        }
+        for(int i = start; i < end; i++) {
+            pz[i] += vz[i] * dt;
+        }
+        
+        for(int i = start; i < end; i++) {
+            life[i] -= dt;
+        }
+    }
+    
+    /**
+     * Set the integration step for the current update (used by the particle
+     * system when it schedules this emitter's work itself)
+     *
+     * @param dt time step, in seconds
+     */
+    void setStep(float dt) {
+        this.stepSec = dt;
+    }
+    
+    /**
+     * Get the reusable integration kernel for this emitter
+     *
+     * @return the integration kernel
+     */
+    Parallel.RangeTask getIntegrator() {
+        return this.integrator;
+    }
+    
+    /**
+     * Get a random float in [0, 1)
+     *
+     * @return the random value
+     */
+    private float nextFloat() {
+        // xorshift32 is cheap, allocation-free and good enough for effects
+        int s = this.seed;
+        s ^= s << 13;
+        s ^= s >>> 17;
+        s ^= s << 5;
+        this.seed = s;
+        
+        return (s >>> 8) * (1.0f / (1 << 24));
+    }
+    
+    /**
+     * Get a random float in [-1, 1)
+     *
+     * @return the random value
+     */
+    private float nextSigned() {
+        return nextFloat() * 2.0f - 1.0f;
+    }
+}
@@ -0,0 +1,269 @@
+/* ParticleSystem.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.particle;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Updates a set of particle emitters and packs their particles for rendering
+ * 
+ * Emitters with many particles are integrated in parallel chunks; emitters
+ * with few particles are batched together so each worker handles several of
+ * them. Vertex data is written straight into a direct buffer that can be
+ * handed to OpenGL.
+ */
+public class ParticleSystem {
+    
+    /** Emitters below this many particles are updated as a single task */
+    private static final int SMALL_EMITTER = 8192;
+    /** Minimum number of particles per parallel chunk */
+    private static final int CHUNK = 16384;
+    
+    private final List<ParticleEmitter> emitters;
+    
+    /** Step for the current update, read by the small emitter task */
+    private float stepSec;
+    /** Whether each emitter takes the large path in the current update */
+    private boolean[] largeEmitters;
+    /** Destination for the current vertex write */
+    private FloatBuffer vertexDst;
+    /** First destination particle slot per emitter for the current write */
+    private int[] vertexOffsets;
+    /** Large emitter currently being written */
+    private ParticleBuffer writeSrc;
+    /** First destination particle slot of the large emitter being written */
+    private int writeOffset;
+    
+    /** Reusable task that fully updates small emitters */
+    private final Parallel.RangeTask smallUpdater = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            for(int i = start; i < end; i++) {
+                ParticleEmitter e = emitters.get(i);
+                ParticleBuffer p = e.getParticles();
+                
+                if(!largeEmitters[i]) {
+                    e.integrate(0, p.getCount(), stepSec);
+                    p.compact();
+                }
+            }
+        }
+    };
+    
+    /** Reusable task that writes vertices for whole small emitters */
+    private final Parallel.RangeTask vertexWriter = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            for(int i = start; i < end; i++) {
+                ParticleBuffer p = emitters.get(i).getParticles();
+                
+                if(p.getCount() < SMALL_EMITTER) {
+                    p.writeVertices(vertexDst, vertexOffsets[i], 0,
+                            p.getCount());
+                }
+            }
+        }
+    };
+    
+    /** Reusable task that writes vertices for a chunk of a large emitter */
+    private final Parallel.RangeTask chunkWriter = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            writeSrc.writeVertices(vertexDst, writeOffset + start, start, end);
+        }
+    };
+    
+    /**
+     * Constructor
+     */
+    public ParticleSystem() {
+        this.emitters = new ArrayList<ParticleEmitter>();
+        this.vertexOffsets = new int[0];
+        this.largeEmitters = new boolean[0];
+    }
+    
+    /**
+     * Add an emitter to the system
+     *
+     * @param emitter the emitter to add
+     */
+    public void addEmitter(ParticleEmitter emitter) {
+        this.emitters.add(emitter);
+    }
+    
+    /**
+     * Remove an emitter from the system
+     *
+     * @param emitter the emitter to remove
+     * @return true if the emitter was part of the system
+     */
+    public boolean removeEmitter(ParticleEmitter emitter) {
+        return this.emitters.remove(emitter);
+    }
+    
+    /**
+     * Get the emitters managed by this system
+     * 
+     * Note: Users should not modify the returned list.
+     *
+     * @return the list of emitters
+     */
+    public List<ParticleEmitter> getEmitters() {
+        return this.emitters;
+    }
+    
+    /**
+     * Get the total number of live particles across all emitters
+     *
+     * @return the live particle count
+     */
+    public int getParticleCount() {
+        int total = 0;
+        
+        for(int i = 0; i < emitters.size(); i++) {
+            total += emitters.get(i).getParticles().getCount();
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Get the total particle capacity across all emitters
+     *
+     * @return the particle capacity
+     */
+    public int getCapacity() {
+        int total = 0;
+        
+        for(int i = 0; i < emitters.size(); i++) {
+            total += emitters.get(i).getParticles().getCapacity();
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Advance all emitters
+     *
+     * @param deltaMs elapsed time since the last update, in milliseconds
+     */
+    public void update(float deltaMs) {
+        float dt = deltaMs / 1000.0f;
+        
+        // emission draws from each emitter's random state, so keep it serial
+        for(int i = 0; i < emitters.size(); i++) {
+            emitters.get(i).spawn(deltaMs);
+        }
+        
+        // pick each emitter's path once; compaction changes the counts
+        int n = emitters.size();
+        if(largeEmitters.length < n) {
+            largeEmitters = new boolean[n];
+        }
+        for(int i = 0; i < n; i++) {
+            largeEmitters[i] =
+                    emitters.get(i).getParticles().getCount() >= SMALL_EMITTER;
+        }
+        
+        // large emitters: split each one across the workers
+        for(int i = 0; i < n; i++) {
+            ParticleEmitter e = emitters.get(i);
+            ParticleBuffer p = e.getParticles();
+            
+            if(largeEmitters[i]) {
+                e.setStep(dt);
+                Parallel.forRange(p.getCount(), CHUNK, e.getIntegrator());
+                p.compact();
+            }
+        }
+        
+        // small emitters: one task per group of emitters
+        this.stepSec = dt;
+        Parallel.forRange(n, 4, this.smallUpdater);
+    }
+    
+    /**
+     * Allocate a direct buffer big enough to hold vertex data for every
+     * particle this system can hold
+     *
+     * @return a new direct float buffer
+     */
+    public FloatBuffer createVertexBuffer() {
+        return BufferUtils.createFloatBuffer(
+                getCapacity() * ParticleBuffer.FLOATS_PER_VERTEX);
+    }
+    
+    /**
+     * Write vertex data for all live particles into the given buffer
+     * 
+     * See ParticleBuffer.writeVertices() for the vertex layout. On return the
+     * buffer's position is 0 and its limit marks the end of the vertex data,
+     * ready to be uploaded.
+     *
+     * @param dst the destination buffer, at least getParticleCount() *
+     *            ParticleBuffer.FLOATS_PER_VERTEX floats in size
+     * @return the number of particles written
+     */
+    public int writeVertices(FloatBuffer dst) {
+        int n = emitters.size();
+        
+        if(vertexOffsets.length < n) {
+            vertexOffsets = new int[n];
+        }
+        
+        int total = 0;
+        for(int i = 0; i < n; i++) {
+            vertexOffsets[i] = total;
+            total += emitters.get(i).getParticles().getCount();
+        }
+        
+        int floats = total * ParticleBuffer.FLOATS_PER_VERTEX;
+        if(dst.capacity() < floats) {
+            throw new IllegalArgumentException("Vertex buffer too small: " +
+                    dst.capacity() + " < " + floats);
+        }
+        
+        dst.clear();
+        
+        this.vertexDst = dst;
+        
+        for(int i = 0; i < n; i++) {
+            ParticleBuffer p = emitters.get(i).getParticles();
+            
+            if(p.getCount() >= SMALL_EMITTER) {
+                this.writeSrc = p;
+                this.writeOffset = vertexOffsets[i];
+                Parallel.forRange(p.getCount(), CHUNK, this.chunkWriter);
+            }
+        }
+        this.writeSrc = null;
+        
+        Parallel.forRange(n, 1, this.vertexWriter);
+        this.vertexDst = null;
+        
+        dst.position(0);
+        dst.limit(floats);
+        
+        return total;
+    }
+}
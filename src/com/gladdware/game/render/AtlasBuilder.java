@@ -0,0 +1,274 @@
+/* AtlasBuilder.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.log.LogLevel;
+
+/**
+ * Packs many small images into a few texture atlas pages
+ * 
+ * Images are sorted largest first and placed with MaxRectsPacker, opening a
+ * new page whenever an image doesn't fit on any existing one. Each image gets
+ * a border of padding pixels; with bleeding enabled the border is filled with
+ * copies of the image's edge pixels so filtering near the edge doesn't pick
+ * up neighboring images.
+ * 
+ * Run main() to build an atlas from a directory of images at build time.
+ */
+public class AtlasBuilder {
+    
+    private static final String TAG = "AtlasBuilder";
+    
+    private final int pageWidth, pageHeight;
+    private final int padding;
+    private final boolean bleed;
+    
+    private final List<String> names;
+    private final List<BufferedImage> images;
+    private final Map<Integer, String> ids;
+    
+    /**
+     * Constructor
+     *
+     * @param pageWidth page width, in pixels
+     * @param pageHeight page height, in pixels
+     * @param padding border around each image, in pixels
+     * @param bleed true to fill the border with the image's edge pixels
+     */
+    public AtlasBuilder(int pageWidth, int pageHeight, int padding,
+            boolean bleed) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = Math.max(0, padding);
+        this.bleed = bleed;
+        this.names = new ArrayList<String>();
+        this.images = new ArrayList<BufferedImage>();
+        this.ids = new HashMap<Integer, String>();
+    }
+    
+    /**
+     * Add an image to the atlas
+     *
+     * @param name the image name (looked up later by name or name ID)
+     * @param image the image
+     * @throws IllegalArgumentException if the name is already added, its
+     *      name ID collides with another name, or the image does not fit
+     *      on a page
+     */
+    public void add(String name, BufferedImage image) {
+        int id = TextureAtlas.nameId(name);
+        String other = ids.get(id);
+        
+        if(other != null) {
+            throw new IllegalArgumentException(other.equals(name) ?
+                    "Duplicate atlas image name " + name :
+                    "Atlas name ID collision: " + name + ", " + other);
+        }
+        
+        int w = image.getWidth() + 2 * padding;
+        int h = image.getHeight() + 2 * padding;
+        
+        if(w > pageWidth || h > pageHeight) {
+            throw new IllegalArgumentException("Image " + name + " (" +
+                    image.getWidth() + "x" + image.getHeight() +
+                    ") does not fit on an atlas page");
+        }
+        
+        ids.put(id, name);
+        names.add(name);
+        images.add(image);
+    }
+    
+    /**
+     * Pack all added images
+     *
+     * @return the new atlas
+     */
+    public TextureAtlas build() {
+        // largest side first packs noticeably tighter
+        Integer[] order = new Integer[images.size()];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                BufferedImage ia = images.get(a), ib = images.get(b);
+                int sa = Math.max(ia.getWidth(), ia.getHeight());
+                int sb = Math.max(ib.getWidth(), ib.getHeight());
+                
+                if(sa != sb) {
+                    return sb - sa;
+                }
+                
+                return ib.getWidth() * ib.getHeight() -
+                        ia.getWidth() * ia.getHeight();
+            }
+        });
+        
+        List<MaxRectsPacker> packers = new ArrayList<MaxRectsPacker>();
+        List<BufferedImage> pages = new ArrayList<BufferedImage>();
+        List<AtlasRegion> regions = new ArrayList<AtlasRegion>();
+        
+        for(int k = 0; k < order.length; k++) {
+            int i = order[k];
+            BufferedImage img = images.get(i);
+            int w = img.getWidth() + 2 * padding;
+            int h = img.getHeight() + 2 * padding;
+            
+            int page = -1;
+            int[] pos = null;
+            for(int p = 0; p < packers.size() && pos == null; p++) {
+                pos = packers.get(p).insert(w, h);
+                page = p;
+            }
+            
+            if(pos == null) {
+                packers.add(new MaxRectsPacker(pageWidth, pageHeight));
+                pages.add(new BufferedImage(pageWidth, pageHeight,
+                        BufferedImage.TYPE_INT_ARGB));
+                page = packers.size() - 1;
+                pos = packers.get(page).insert(w, h);
+            }
+            
+            int x = pos[0] + padding, y = pos[1] + padding;
+            blit(img, pages.get(page), x, y);
+            
+            String name = names.get(i);
+            regions.add(new AtlasRegion(name, TextureAtlas.nameId(name), page,
+                    x, y, img.getWidth(), img.getHeight(), pageWidth,
+                    pageHeight));
+        }
+        
+        for(int p = 0; p < packers.size(); p++) {
+            Log.d(TAG, String.format("Page %1$d occupancy %2$.1f%%", p,
+                    packers.get(p).getOccupancy() * 100.0f));
+        }
+        
+        return new TextureAtlas(pages, regions);
+    }
+    
+    /**
+     * Copy an image onto a page, plus its bleed border
+     */
+    private void blit(BufferedImage src, BufferedImage page, int x, int y) {
+        int w = src.getWidth(), h = src.getHeight();
+        int[] px = src.getRGB(0, 0, w, h, null, 0, w);
+        
+        page.setRGB(x, y, w, h, px, 0, w);
+        
+        if(!bleed || padding == 0) {
+            return;
+        }
+        
+        for(int dy = -padding; dy < h + padding; dy++) {
+            int sy = Math.min(Math.max(dy, 0), h - 1);
+            
+            for(int dx = -padding; dx < w + padding; dx++) {
+                if(dx >= 0 && dx < w && dy >= 0 && dy < h) {
+                    // interior already copied
+                    dx = w - 1;
+                    continue;
+                }
+                
+                int sx = Math.min(Math.max(dx, 0), w - 1);
+                page.setRGB(x + dx, y + dy, px[sx + sy * w]);
+            }
+        }
+    }
+    
+    /**
+     * Build-time entry point
+     * 
+     * Usage: AtlasBuilder inputDir outputDir baseName [pageSize [padding]]
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        Log.setLevel(LogLevel.DEBUG);
+        
+        if(args.length < 3) {
+            System.err.println("Usage: AtlasBuilder <inputDir> <outputDir> " +
+                    "<baseName> [pageSize [padding]]");
+            System.exit(1);
+        }
+        
+        File inDir = new File(args[0]);
+        File outDir = new File(args[1]);
+        int pageSize = args.length > 3 ? Integer.parseInt(args[3]) : 2048;
+        int pad = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        
+        File[] files = inDir.listFiles();
+        if(files == null) {
+            Log.f(TAG, "Not a directory: " + inDir);
+            System.exit(1);
+        }
+        
+        List<File> sorted = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(sorted);
+        
+        AtlasBuilder builder = new AtlasBuilder(pageSize, pageSize, pad, true);
+        
+        try {
+            for(int i = 0; i < sorted.size(); i++) {
+                File f = sorted.get(i);
+                if(!f.isFile()) {
+                    continue;
+                }
+                
+                BufferedImage img = ImageIO.read(f);
+                if(img == null) {
+                    Log.w(TAG, "Skipping non-image file " + f.getName());
+                    continue;
+                }
+                
+                String name = f.getName();
+                int dot = name.lastIndexOf('.');
+                builder.add(dot > 0 ? name.substring(0, dot) : name, img);
+            }
+            
+            TextureAtlas atlas = builder.build();
+            atlas.save(outDir, args[2]);
+            
+            Log.i(TAG, "Packed " + atlas.getRegions().size() + " images into " +
+                    atlas.getPageCount() + " page(s)");
+        } catch(IOException e) {
+            Log.f(TAG, "Failed to build atlas: " + e.getMessage(), e);
+            System.exit(1);
+        } catch(IllegalArgumentException e) {
+            // e.g. foo.png and foo.jpg both named foo
+            Log.f(TAG, "Failed to build atlas: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
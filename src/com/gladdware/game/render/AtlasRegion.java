@@ -0,0 +1,167 @@
+/* AtlasRegion.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Location of one image inside a texture atlas
+ */
+public class AtlasRegion {
+    
+    private final String name;
+    private final int id;
+    private final int page;
+    private final int x, y, width, height;
+    private final float u0, v0, u1, v1;
+    
+    /**
+     * Constructor
+     *
+     * @param name the image name
+     * @param id the image name ID (see TextureAtlas.nameId())
+     * @param page index of the atlas page holding the image
+     * @param x left edge on the page, in pixels
+     * @param y top edge on the page, in pixels
+     * @param width image width, in pixels
+     * @param height image height, in pixels
+     * @param pageWidth page width, in pixels
+     * @param pageHeight page height, in pixels
+     */
+    public AtlasRegion(String name, int id, int page, int x, int y, int width,
+            int height, int pageWidth, int pageHeight) {
+        this.name = name;
+        this.id = id;
+        this.page = page;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.u0 = (float)x / pageWidth;
+        this.v0 = (float)y / pageHeight;
+        this.u1 = (float)(x + width) / pageWidth;
+        this.v1 = (float)(y + height) / pageHeight;
+    }
+    
+    /**
+     * Get the image name
+     *
+     * @return the image name
+     */
+    public String getName() {
+        return this.name;
+    }
+    
+    /**
+     * Get the image name ID
+     *
+     * @return the name ID
+     */
+    public int getId() {
+        return this.id;
+    }
+    
+    /**
+     * Get the index of the atlas page holding the image
+     *
+     * @return the page index
+     */
+    public int getPage() {
+        return this.page;
+    }
+    
+    /**
+     * Get the left edge on the page
+     *
+     * @return the left edge, in pixels
+     */
+    public int getX() {
+        return this.x;
+    }
+    
+    /**
+     * Get the top edge on the page
+     *
+     * @return the top edge, in pixels
+     */
+    public int getY() {
+        return this.y;
+    }
+    
+    /**
+     * Get the image width
+     *
+     * @return the width, in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Get the image height
+     *
+     * @return the height, in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Get the left texture coordinate
+     *
+     * @return the left u
+     */
+    public float getU0() {
+        return this.u0;
+    }
+    
+    /**
+     * Get the top texture coordinate
+     *
+     * @return the top v
+     */
+    public float getV0() {
+        return this.v0;
+    }
+    
+    /**
+     * Get the right texture coordinate
+     *
+     * @return the right u
+     */
+    public float getU1() {
+        return this.u1;
+    }
+    
+    /**
+     * Get the bottom texture coordinate
+     *
+     * @return the bottom v
+     */
+    public float getV1() {
+        return this.v1;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return String.format("AtlasRegion [%1$s, page=%2$d, %3$d,%4$d %5$dx%6$d]",
+                name, page, x, y, width, height);
+    }
+}
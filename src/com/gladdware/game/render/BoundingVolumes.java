@@ -0,0 +1,288 @@
+/* BoundingVolumes.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+/**
+ * Packed bounding volumes for a batch of objects
+ * 
+ * Every object has a bounding sphere and an axis-aligned bounding box sharing
+ * one center. Attributes are stored structure-of-arrays style so culling
+ * passes can stream through them in tight loops. Objects are identified by
+ * their index in the batch.
+ */
+public class BoundingVolumes {
+    
+    private static final int DEFAULT_CAPACITY = 256;
+    
+    private int count;
+    
+    /** Volume centers */
+    float[] centerX, centerY, centerZ;
+    /** Bounding sphere radii */
+    float[] radius;
+    /** Bounding box half extents */
+    float[] extentX, extentY, extentZ;
+    
+    /**
+     * Constructor
+     *
+     * @param initialCapacity number of volumes to allocate space for
+     */
+    public BoundingVolumes(int initialCapacity) {
+        int cap = Math.max(1, initialCapacity);
+        
+        this.centerX = new float[cap];
+        this.centerY = new float[cap];
+        this.centerZ = new float[cap];
+        this.radius = new float[cap];
+        this.extentX = new float[cap];
+        this.extentY = new float[cap];
+        this.extentZ = new float[cap];
+        this.count = 0;
+    }
+    
+    /**
+     * Constructor
+     */
+    public BoundingVolumes() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Get the number of volumes in the batch
+     *
+     * @return the volume count
+     */
+    public int getCount() {
+        return this.count;
+    }
+    
+    /**
+     * Remove all volumes
+     */
+    public void clear() {
+        this.count = 0;
+    }
+    
+    /**
+     * Add a volume described by a bounding sphere
+     *
+     * @param x sphere center x
+     * @param y sphere center y
+     * @param z sphere center z
+     * @param r sphere radius
+     * @return the index of the new volume
+     */
+    public int addSphere(float x, float y, float z, float r) {
+        int i = allocate();
+        setSphere(i, x, y, z, r);
+        
+        return i;
+    }
+    
+    /**
+     * Add a volume described by an axis-aligned bounding box
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return the index of the new volume
+     */
+    public int addAabb(float minX, float minY, float minZ, float maxX,
+            float maxY, float maxZ) {
+        int i = allocate();
+        setAabb(i, minX, minY, minZ, maxX, maxY, maxZ);
+        
+        return i;
+    }
+    
+    /**
+     * Replace a volume with a bounding sphere
+     *
+     * @param i the volume index
+     * @param x sphere center x
+     * @param y sphere center y
+     * @param z sphere center z
+     * @param r sphere radius
+     */
+    public void setSphere(int i, float x, float y, float z, float r) {
+        checkIndex(i);
+        
+        centerX[i] = x;
+        centerY[i] = y;
+        centerZ[i] = z;
+        radius[i] = r;
+        extentX[i] = r;
+        extentY[i] = r;
+        extentZ[i] = r;
+    }
+    
+    /**
+     * Replace a volume with an axis-aligned bounding box
+     *
+     * @param i the volume index
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     */
+    public void setAabb(int i, float minX, float minY, float minZ, float maxX,
+            float maxY, float maxZ) {
+        checkIndex(i);
+        
+        float hx = (maxX - minX) * 0.5f;
+        float hy = (maxY - minY) * 0.5f;
+        float hz = (maxZ - minZ) * 0.5f;
+        
+        centerX[i] = minX + hx;
+        centerY[i] = minY + hy;
+        centerZ[i] = minZ + hz;
+        extentX[i] = hx;
+        extentY[i] = hy;
+        extentZ[i] = hz;
+        radius[i] = (float)Math.sqrt(hx * hx + hy * hy + hz * hz);
+    }
+    
+    /**
+     * Move a volume without changing its size
+     *
+     * @param i the volume index
+     * @param x new center x
+     * @param y new center y
+     * @param z new center z
+     */
+    public void setCenter(int i, float x, float y, float z) {
+        checkIndex(i);
+        
+        centerX[i] = x;
+        centerY[i] = y;
+        centerZ[i] = z;
+    }
+    
+    /**
+     * Get the center x of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getCenterX(int i) {
+        return centerX[i];
+    }
+    
+    /**
+     * Get the center y of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getCenterY(int i) {
+        return centerY[i];
+    }
+    
+    /**
+     * Get the center z of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getCenterZ(int i) {
+        return centerZ[i];
+    }
+    
+    /**
+     * Get the bounding sphere radius of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getRadius(int i) {
+        return radius[i];
+    }
+    
+    /**
+     * Get the bounding box half extent along x of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getExtentX(int i) {
+        return extentX[i];
+    }
+    
+    /**
+     * Get the bounding box half extent along y of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getExtentY(int i) {
+        return extentY[i];
+    }
+    
+    /**
+     * Get the bounding box half extent along z of a volume
+     *
+     * @param i the volume index
+     * @return the value
+     */
+    public float getExtentZ(int i) {
+        return extentZ[i];
+    }
+    
+    /**
+     * Reserve the next volume slot, growing the arrays if needed
+     *
+     * @return the index of the reserved slot
+     */
+    private int allocate() {
+        if(count == centerX.length) {
+            int cap = centerX.length * 2;
+            
+            centerX = Arrays.copyOf(centerX, cap);
+            centerY = Arrays.copyOf(centerY, cap);
+            centerZ = Arrays.copyOf(centerZ, cap);
+            radius = Arrays.copyOf(radius, cap);
+            extentX = Arrays.copyOf(extentX, cap);
+            extentY = Arrays.copyOf(extentY, cap);
+            extentZ = Arrays.copyOf(extentZ, cap);
+        }
+        
+        return count++;
+    }
+    
+    /**
+     * Make sure an index refers to an existing volume
+     *
+     * @param i the volume index
+     */
+    private void checkIndex(int i) {
+        if(i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Volume index " + i +
+                    " out of range [0, " + count + ")");
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/* Camera.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import com.gladdware.game.math.Matrix4f;
+import com.gladdware.game.math.Vector3f;
+
+/**
+ * Viewpoint into the scene: a view transform plus a projection
+ * 
+ * The camera keeps its matrices as column-major float arrays and derives the
+ * combined view-projection matrix and the view frustum from them on demand.
+ */
+public class Camera {
+    
+    private static final int MATRIX_SIZE = 16;
+    
+    private final float[] projection;
+    private final float[] view;
+    private final float[] viewProjection;
+    
+    private final Frustum frustum;
+    
+    /** Camera position in world space */
+    private float posX, posY, posZ;
+    
+    private boolean orthographic;
+    /** Set when the view or projection changed since the last derivation */
+    private boolean dirty;
+    
+    /**
+     * Constructor
+     * 
+     * The camera starts at the origin with identity view and projection.
+     */
+    public Camera() {
+        this.projection = Matrix4f.identity().get(new float[MATRIX_SIZE]);
+        this.view = Matrix4f.identity().get(new float[MATRIX_SIZE]);
+        this.viewProjection = new float[MATRIX_SIZE];
+        this.frustum = new Frustum();
+        this.orthographic = true;
+        this.dirty = true;
+    }
+    
+    /**
+     * Set a symmetric perspective projection
+     *
+     * @param fovYRad vertical field of view, in radians
+     * @param aspect viewport width divided by height
+     * @param near near clipping plane distance
+     * @param far far clipping plane distance
+     */
+    public void setPerspective(float fovYRad, float aspect, float near,
+            float far) {
+        float top = near * (float)Math.tan(fovYRad / 2.0f);
+        float right = top * aspect;
+        
+        Matrix4f.perspective(-right, right, top, -top, near, far)
+                .get(this.projection);
+        this.orthographic = false;
+        this.dirty = true;
+    }
+    
+    /**
+     * Set an orthographic projection
+     *
+     * @param left
+     * @param right
+     * @param top
+     * @param bottom
+     * @param near
+     * @param far
+     */
+    public void setOrthographic(float left, float right, float top,
+            float bottom, float near, float far) {
+        Matrix4f.orthographic(left, right, top, bottom, near, far)
+                .get(this.projection);
+        this.orthographic = true;
+        this.dirty = true;
+    }
+    
+    /**
+     * Position and orient the camera so it looks at a target point
+     *
+     * @param eye the camera position
+     * @param target the point to look at
+     * @param up the approximate up direction
+     */
+    public void lookAt(Vector3f eye, Vector3f target, Vector3f up) {
+        float ex = eye.getX(), ey = eye.getY(), ez = eye.getZ();
+        
+        // forward
+        float fx = target.getX() - ex;
+        float fy = target.getY() - ey;
+        float fz = target.getZ() - ez;
+        float fl = (float)Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= fl;
+        fy /= fl;
+        fz /= fl;
+        
+        // side = forward x up
+        float sx = fy * up.getZ() - fz * up.getY();
+        float sy = fz * up.getX() - fx * up.getZ();
+        float sz = fx * up.getY() - fy * up.getX();
+        float sl = (float)Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx /= sl;
+        sy /= sl;
+        sz /= sl;
+        
+        // true up = side x forward
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+        
+        float[] m = this.view;
+        m[0] = sx;   m[4] = sy;   m[8] = sz;
+        m[1] = ux;   m[5] = uy;   m[9] = uz;
+        m[2] = -fx;  m[6] = -fy;  m[10] = -fz;
+        m[3] = 0.0f; m[7] = 0.0f; m[11] = 0.0f;
+        
+        m[12] = -(sx * ex + sy * ey + sz * ez);
+        m[13] = -(ux * ex + uy * ey + uz * ez);
+        m[14] = fx * ex + fy * ey + fz * ez;
+        m[15] = 1.0f;
+        
+        this.posX = ex;
+        this.posY = ey;
+        this.posZ = ez;
+        this.dirty = true;
+    }
+    
+    /**
+     * Set the projection matrix directly
+     *
+     * @param proj the projection matrix
+     * @param isOrthographic true if proj is an orthographic projection
+     */
+    public void setProjection(Matrix4f proj, boolean isOrthographic) {
+        proj.get(this.projection);
+        this.orthographic = isOrthographic;
+        this.dirty = true;
+    }
+    
+    /**
+     * Set the view matrix directly
+     *
+     * @param viewMatrix the view (world to eye) matrix
+     * @param position the camera position in world space
+     */
+    public void setView(Matrix4f viewMatrix, Vector3f position) {
+        viewMatrix.get(this.view);
+        this.posX = position.getX();
+        this.posY = position.getY();
+        this.posZ = position.getZ();
+        this.dirty = true;
+    }
+    
+    /**
+     * Check whether the camera uses an orthographic projection
+     *
+     * @return true if orthographic, false if perspective
+     */
+    public boolean isOrthographic() {
+        return this.orthographic;
+    }
+    
+    /**
+     * Get the camera position in world space
+     *
+     * @return a new vector holding the camera position
+     */
+    public Vector3f getPosition() {
+        return new Vector3f(posX, posY, posZ);
+    }
+    
+    /**
+     * Get the projection matrix
+     *
+     * @return a new matrix holding the projection
+     */
+    public Matrix4f getProjection() {
+        return new Matrix4f(this.projection);
+    }
+    
+    /**
+     * Get the view matrix
+     *
+     * @return a new matrix holding the view transform
+     */
+    public Matrix4f getView() {
+        return new Matrix4f(this.view);
+    }
+    
+    /**
+     * Get the combined view-projection matrix (projection * view)
+     *
+     * @return a new matrix holding the view-projection transform
+     */
+    public Matrix4f getViewProjection() {
+        update();
+        
+        return new Matrix4f(this.viewProjection);
+    }
+    
+    /**
+     * Copy the projection matrix, column-major, into the given array
+     *
+     * @param dst the destination array (at least 16 elements)
+     * @return the destination array
+     */
+    public float[] getProjection(float[] dst) {
+        System.arraycopy(this.projection, 0, dst, 0, MATRIX_SIZE);
+        
+        return dst;
+    }
+    
+    /**
+     * Copy the view matrix, column-major, into the given array
+     *
+     * @param dst the destination array (at least 16 elements)
+     * @return the destination array
+     */
+    public float[] getView(float[] dst) {
+        System.arraycopy(this.view, 0, dst, 0, MATRIX_SIZE);
+        
+        return dst;
+    }
+    
+    /**
+     * Copy the view-projection matrix, column-major, into the given array
+     *
+     * @param dst the destination array (at least 16 elements)
+     * @return the destination array
+     */
+    public float[] getViewProjection(float[] dst) {
+        update();
+        System.arraycopy(this.viewProjection, 0, dst, 0, MATRIX_SIZE);
+        
+        return dst;
+    }
+    
+    /**
+     * Get the view frustum for the current view and projection
+     * 
+     * The returned frustum is owned by the camera and is updated in place
+     * whenever the camera changes.
+     *
+     * @return the camera's view frustum
+     */
+    public Frustum getFrustum() {
+        update();
+        
+        return this.frustum;
+    }
+    
+    /**
+     * Recompute derived state if the view or projection changed
+     */
+    private void update() {
+        if(!this.dirty) {
+            return;
+        }
+        
+        multiply(this.projection, this.view, this.viewProjection);
+        this.frustum.set(this.viewProjection);
+        this.dirty = false;
+    }
+    
+    /**
+     * Multiply two column-major 4x4 matrices (dst = a * b)
+     *
+     * @param a left-hand matrix
+     * @param b right-hand matrix
+     * @param dst destination; must not alias a or b
+     */
+    static void multiply(float[] a, float[] b, float[] dst) {
+        for(int c = 0; c < 4; c++) {
+            for(int r = 0; r < 4; r++) {
+                dst[r + c * 4] =
+                        a[r] * b[c * 4] +
+                        a[r + 4] * b[1 + c * 4] +
+                        a[r + 8] * b[2 + c * 4] +
+                        a[r + 12] * b[3 + c * 4];
+            }
+        }
+    }
+}
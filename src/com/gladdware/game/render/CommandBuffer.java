@@ -0,0 +1,98 @@
+/* CommandBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+/**
+ * Draw commands recorded by a single thread
+ * 
+ * A command buffer must only be written by one thread at a time; the render
+ * queue hands each recording thread its own.
+ */
+public class CommandBuffer {
+    
+    long[] keys;
+    int[] meshes;
+    int[] userData;
+    int count;
+    
+    /**
+     * Constructor
+     */
+    CommandBuffer() {
+        this.keys = new long[256];
+        this.meshes = new int[256];
+        this.userData = new int[256];
+        this.count = 0;
+    }
+    
+    /**
+     * Record a draw command
+     *
+     * @param key the command sort key (see SortKey)
+     * @param mesh mesh id
+     * @param data extra per-draw data
+     */
+    public void draw(long key, int mesh, int data) {
+        if(count == keys.length) {
+            int cap = count * 2;
+            keys = Arrays.copyOf(keys, cap);
+            meshes = Arrays.copyOf(meshes, cap);
+            userData = Arrays.copyOf(userData, cap);
+        }
+        
+        keys[count] = key;
+        meshes[count] = mesh;
+        userData[count] = data;
+        count++;
+    }
+    
+    /**
+     * Record a draw command, building its sort key from parts
+     *
+     * @param layer draw layer
+     * @param shader shader id
+     * @param texture texture id
+     * @param depth quantized depth (see SortKey.quantizeDepth())
+     * @param mesh mesh id
+     * @param data extra per-draw data
+     */
+    public void draw(int layer, int shader, int texture, int depth, int mesh,
+            int data) {
+        draw(SortKey.make(layer, shader, texture, depth), mesh, data);
+    }
+    
+    /**
+     * Get the number of recorded commands
+     *
+     * @return the command count
+     */
+    public int size() {
+        return this.count;
+    }
+    
+    /**
+     * Discard all recorded commands
+     */
+    void reset() {
+        this.count = 0;
+    }
+}
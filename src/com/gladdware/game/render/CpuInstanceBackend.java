@@ -0,0 +1,196 @@
+/* CpuInstanceBackend.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Instancing fallback for hardware without instanced draws
+ * 
+ * Every instance of a batch is transformed on the CPU by its model matrix and
+ * written, together with its color, into one merged vertex/index buffer pair,
+ * which is then drawn with a single ordinary draw call. Large batches are
+ * expanded in parallel. Nothing here calls OpenGL directly, so it also serves
+ * to check instance data headless.
+ * 
+ * Merged vertices are FLOATS_PER_VERTEX floats each: x, y, z, r, g, b, a.
+ */
+public class CpuInstanceBackend implements InstanceBackend {
+    
+    public static final int FLOATS_PER_VERTEX = 7;
+    
+    /** Minimum number of instances per parallel chunk */
+    private static final int CHUNK = 256;
+    
+    /**
+     * Draws merged geometry
+     */
+    public interface MergedDrawer {
+        /**
+         * Draw merged instance geometry
+         *
+         * @param material material id
+         * @param vertices merged vertices, from position 0 to the limit
+         * @param indices merged indices, from position 0 to the limit
+         */
+        void drawMerged(int material, FloatBuffer vertices, IntBuffer indices);
+    }
+    
+    private final MergedDrawer drawer;
+    private final Map<Integer, float[]> meshPositions;
+    private final Map<Integer, int[]> meshIndices;
+    
+    private FloatBuffer vertices;
+    private IntBuffer indices;
+    
+    private FloatBuffer curData;
+    private int curStride;
+    private float[] curPositions;
+    private int[] curIndices;
+    
+    /** Reusable task: expand a range of instances */
+    private final Parallel.RangeTask expandTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            expand(start, end);
+        }
+    };
+    
+    /**
+     * Constructor
+     *
+     * @param drawer draws the merged geometry
+     */
+    public CpuInstanceBackend(MergedDrawer drawer) {
+        this.drawer = drawer;
+        this.meshPositions = new HashMap<Integer, float[]>();
+        this.meshIndices = new HashMap<Integer, int[]>();
+        this.vertices = BufferUtils.createFloatBuffer(FLOATS_PER_VERTEX * 1024);
+        this.indices = BufferUtils.createIntBuffer(3 * 1024);
+    }
+    
+    /**
+     * Register the geometry of a mesh
+     *
+     * @param mesh mesh id
+     * @param positions vertex positions, 3 floats per vertex
+     * @param tris triangle indices
+     */
+    public void setMesh(int mesh, float[] positions, int[] tris) {
+        meshPositions.put(mesh, positions);
+        meshIndices.put(mesh, tris);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.InstanceBackend#drawInstanced(com.gladdware.game.render.InstanceBatch)
+     */
+    public void drawInstanced(InstanceBatch batch) {
+        float[] pos = meshPositions.get(batch.getMesh());
+        int[] tris = meshIndices.get(batch.getMesh());
+        
+        if(pos == null || tris == null) {
+            throw new IllegalStateException("No geometry registered for mesh " +
+                    batch.getMesh());
+        }
+        
+        int n = batch.getCount();
+        int vertexFloats = n * (pos.length / 3) * FLOATS_PER_VERTEX;
+        int indexCount = n * tris.length;
+        
+        if(vertices.capacity() < vertexFloats) {
+            vertices = BufferUtils.createFloatBuffer(vertexFloats);
+        }
+        if(indices.capacity() < indexCount) {
+            indices = BufferUtils.createIntBuffer(indexCount);
+        }
+        
+        this.curData = batch.getData();
+        this.curStride = batch.getFloatsPerInstance();
+        this.curPositions = pos;
+        this.curIndices = tris;
+        
+        Parallel.forRange(n, CHUNK, this.expandTask);
+        
+        this.curData = null;
+        
+        vertices.limit(vertexFloats).position(0);
+        indices.limit(indexCount).position(0);
+        
+        drawer.drawMerged(batch.getMaterial(), vertices, indices);
+        
+        vertices.clear();
+        indices.clear();
+    }
+    
+    /**
+     * Transform the mesh by a range of instances into the merged buffers
+     */
+    private void expand(int start, int end) {
+        FloatBuffer inst = curData;
+        int stride = curStride;
+        float[] pos = curPositions;
+        int[] tris = curIndices;
+        int vertsPerMesh = pos.length / 3;
+        
+        FloatBuffer v = this.vertices;
+        IntBuffer ix = this.indices;
+        
+        for(int i = start; i < end; i++) {
+            int m = i * stride;
+            float m0 = inst.get(m), m1 = inst.get(m + 1), m2 = inst.get(m + 2);
+            float m4 = inst.get(m + 4), m5 = inst.get(m + 5),
+                    m6 = inst.get(m + 6);
+            float m8 = inst.get(m + 8), m9 = inst.get(m + 9),
+                    m10 = inst.get(m + 10);
+            float m12 = inst.get(m + 12), m13 = inst.get(m + 13),
+                    m14 = inst.get(m + 14);
+            
+            int c = m + InstanceBatch.COLOR_OFFSET;
+            float r = inst.get(c), g = inst.get(c + 1), b = inst.get(c + 2),
+                    a = inst.get(c + 3);
+            
+            int o = i * vertsPerMesh * FLOATS_PER_VERTEX;
+            for(int k = 0; k < pos.length; k += 3) {
+                float x = pos[k], y = pos[k + 1], z = pos[k + 2];
+                
+                v.put(o, m0 * x + m4 * y + m8 * z + m12);
+                v.put(o + 1, m1 * x + m5 * y + m9 * z + m13);
+                v.put(o + 2, m2 * x + m6 * y + m10 * z + m14);
+                v.put(o + 3, r);
+                v.put(o + 4, g);
+                v.put(o + 5, b);
+                v.put(o + 6, a);
+                o += FLOATS_PER_VERTEX;
+            }
+            
+            int base = i * vertsPerMesh;
+            int io = i * tris.length;
+            for(int k = 0; k < tris.length; k++) {
+                ix.put(io + k, base + tris[k]);
+            }
+        }
+    }
+}
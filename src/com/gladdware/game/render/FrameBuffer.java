@@ -0,0 +1,143 @@
+/* FrameBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * In-memory color and depth buffer for the software rasterizer
+ * 
+ * Colors are packed ARGB integers and depths are normalized to [0, 1]. Pixel
+ * (0, 0) is the top left corner.
+ */
+public class FrameBuffer {
+    
+    private final int width, height;
+    
+    /** Packed ARGB pixels, row-major */
+    final int[] color;
+    /** Pixel depths, row-major */
+    final float[] depth;
+    
+    /**
+     * Constructor
+     *
+     * @param width buffer width, in pixels
+     * @param height buffer height, in pixels
+     */
+    public FrameBuffer(int width, int height) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame buffer size " +
+                    width + "x" + height);
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.color = new int[width * height];
+        this.depth = new float[width * height];
+        
+        clear(0xff000000);
+    }
+    
+    /**
+     * Get the buffer width
+     *
+     * @return the width, in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Get the buffer height
+     *
+     * @return the height, in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Fill the color buffer with one color and reset the depth buffer to the
+     * far plane
+     *
+     * @param argb the packed ARGB clear color
+     */
+    public void clear(int argb) {
+        Arrays.fill(color, argb);
+        Arrays.fill(depth, 1.0f);
+    }
+    
+    /**
+     * Get the color of a pixel
+     *
+     * @param x pixel x
+     * @param y pixel y
+     * @return the packed ARGB color
+     */
+    public int getPixel(int x, int y) {
+        return color[x + y * width];
+    }
+    
+    /**
+     * Get the depth of a pixel
+     *
+     * @param x pixel x
+     * @param y pixel y
+     * @return the pixel depth
+     */
+    public float getDepth(int x, int y) {
+        return depth[x + y * width];
+    }
+    
+    /**
+     * Copy the color buffer into an image
+     *
+     * @param dst the destination image, or null to allocate one
+     * @return the destination image
+     */
+    public BufferedImage toImage(BufferedImage dst) {
+        if(dst == null || dst.getWidth() != width ||
+                dst.getHeight() != height) {
+            dst = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        
+        dst.setRGB(0, 0, width, height, color, 0, width);
+        
+        return dst;
+    }
+    
+    /**
+     * Write the color buffer to a PNG file
+     *
+     * @param file the destination file
+     * @throws IOException on failure to write the file
+     */
+    public void writePng(File file) throws IOException {
+        if(!ImageIO.write(toImage(null), "png", file)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+}
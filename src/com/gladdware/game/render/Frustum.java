@@ -0,0 +1,140 @@
+/* Frustum.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Six clipping planes bounding the visible volume of a camera
+ * 
+ * Planes are stored as (a, b, c, d) with normals pointing into the frustum,
+ * so a point p is inside a plane when a*p.x + b*p.y + c*p.z + d >= 0.
+ */
+public class Frustum {
+    
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+    
+    public static final int PLANE_COUNT = 6;
+    
+    /** Plane coefficients, one array element per plane */
+    final float[] a, b, c, d;
+    
+    /**
+     * Constructor
+     */
+    public Frustum() {
+        this.a = new float[PLANE_COUNT];
+        this.b = new float[PLANE_COUNT];
+        this.c = new float[PLANE_COUNT];
+        this.d = new float[PLANE_COUNT];
+    }
+    
+    /**
+     * Derive the frustum planes from a combined view-projection matrix
+     * 
+     * See Gribb & Hartmann, "Fast Extraction of Viewing Frustum Planes from
+     * the World-View-Projection Matrix".
+     *
+     * @param m column-major view-projection matrix
+     */
+    public void set(float[] m) {
+        // row i of the matrix is (m[i], m[i + 4], m[i + 8], m[i + 12])
+        setPlane(LEFT,   m[3] + m[0], m[7] + m[4], m[11] + m[8], m[15] + m[12]);
+        setPlane(RIGHT,  m[3] - m[0], m[7] - m[4], m[11] - m[8], m[15] - m[12]);
+        setPlane(BOTTOM, m[3] + m[1], m[7] + m[5], m[11] + m[9], m[15] + m[13]);
+        setPlane(TOP,    m[3] - m[1], m[7] - m[5], m[11] - m[9], m[15] - m[13]);
+        setPlane(NEAR,   m[3] + m[2], m[7] + m[6], m[11] + m[10], m[15] + m[14]);
+        setPlane(FAR,    m[3] - m[2], m[7] - m[6], m[11] - m[10], m[15] - m[14]);
+    }
+    
+    /**
+     * Get the signed distance from a plane to a point
+     *
+     * @param plane plane index (LEFT, RIGHT, ...)
+     * @param x point x
+     * @param y point y
+     * @param z point z
+     * @return signed distance; positive on the inside of the plane
+     */
+    public float distance(int plane, float x, float y, float z) {
+        return a[plane] * x + b[plane] * y + c[plane] * z + d[plane];
+    }
+    
+    /**
+     * Test whether a bounding sphere is at least partially inside the frustum
+     *
+     * @param x sphere center x
+     * @param y sphere center y
+     * @param z sphere center z
+     * @param radius sphere radius
+     * @return true if the sphere may be visible
+     */
+    public boolean testSphere(float x, float y, float z, float radius) {
+        for(int p = 0; p < PLANE_COUNT; p++) {
+            if(distance(p, x, y, z) < -radius) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Test whether an axis-aligned bounding box is at least partially inside
+     * the frustum
+     *
+     * @param cx box center x
+     * @param cy box center y
+     * @param cz box center z
+     * @param hx box half extent along x
+     * @param hy box half extent along y
+     * @param hz box half extent along z
+     * @return true if the box may be visible
+     */
+    public boolean testAabb(float cx, float cy, float cz, float hx, float hy,
+            float hz) {
+        for(int p = 0; p < PLANE_COUNT; p++) {
+            // projected radius of the box onto the plane normal
+            float r = Math.abs(a[p]) * hx + Math.abs(b[p]) * hy +
+                    Math.abs(c[p]) * hz;
+            
+            if(distance(p, cx, cy, cz) < -r) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Store a normalized plane
+     */
+    private void setPlane(int p, float pa, float pb, float pc, float pd) {
+        float len = (float)Math.sqrt(pa * pa + pb * pb + pc * pc);
+        
+        a[p] = pa / len;
+        b[p] = pb / len;
+        c[p] = pc / len;
+        d[p] = pd / len;
+    }
+}
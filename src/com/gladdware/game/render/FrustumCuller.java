@@ -0,0 +1,175 @@
+/* FrustumCuller.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Batched view-frustum culling of packed bounding volumes
+ * 
+ * Each frustum plane is tested against a whole range of volumes at a time in
+ * a branch-free loop, and large batches are split across the worker pool. An
+ * object is culled when either its bounding sphere or its bounding box lies
+ * entirely outside any plane.
+ */
+public class FrustumCuller {
+    
+    /** Minimum number of volumes per parallel chunk */
+    private static final int CHUNK = 2048;
+    
+    /** Per-volume visibility flags from the last pass (1 = visible) */
+    private byte[] flags;
+    
+    private Frustum curFrustum;
+    private BoundingVolumes curVolumes;
+    
+    private long testedCount;
+    private long visibleCount;
+    
+    /** Reusable culling kernel */
+    private final Parallel.RangeTask kernel = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            cullRange(curFrustum, curVolumes, flags, start, end);
+        }
+    };
+    
+    /**
+     * Constructor
+     */
+    public FrustumCuller() {
+        this.flags = new byte[0];
+    }
+    
+    /**
+     * Cull a batch of volumes against a camera's frustum
+     *
+     * @param camera the camera to cull against
+     * @param volumes the volumes to test
+     * @param visible cleared, then filled with indices of visible volumes in
+     *        increasing order
+     * @return the number of visible volumes
+     */
+    public int cull(Camera camera, BoundingVolumes volumes,
+            VisibilityList visible) {
+        return cull(camera.getFrustum(), volumes, visible);
+    }
+    
+    /**
+     * Cull a batch of volumes against a frustum
+     *
+     * @param frustum the frustum to cull against
+     * @param volumes the volumes to test
+     * @param visible cleared, then filled with indices of visible volumes in
+     *        increasing order
+     * @return the number of visible volumes
+     */
+    public int cull(Frustum frustum, BoundingVolumes volumes,
+            VisibilityList visible) {
+        int n = volumes.getCount();
+        
+        if(flags.length < n) {
+            flags = new byte[Math.max(n, flags.length * 2)];
+        }
+        
+        this.curFrustum = frustum;
+        this.curVolumes = volumes;
+        Parallel.forRange(n, CHUNK, this.kernel);
+        this.curFrustum = null;
+        this.curVolumes = null;
+        
+        // gather the survivors in index order
+        visible.clear();
+        visible.ensureCapacity(n);
+        byte[] f = this.flags;
+        for(int i = 0; i < n; i++) {
+            if(f[i] != 0) {
+                visible.add(i);
+            }
+        }
+        
+        testedCount += n;
+        visibleCount += visible.size();
+        
+        return visible.size();
+    }
+    
+    /**
+     * Check whether a volume was visible in the last culling pass
+     *
+     * @param i the volume index
+     * @return true if the volume was visible
+     */
+    public boolean isVisible(int i) {
+        return flags[i] != 0;
+    }
+    
+    /**
+     * Get the total number of volumes tested since the last stats reset
+     *
+     * @return tested volume count
+     */
+    public long getTestedCount() {
+        return this.testedCount;
+    }
+    
+    /**
+     * Get the total number of visible volumes since the last stats reset
+     *
+     * @return visible volume count
+     */
+    public long getVisibleCount() {
+        return this.visibleCount;
+    }
+    
+    /**
+     * Reset the culling statistics
+     */
+    public void resetStats() {
+        this.testedCount = 0L;
+        this.visibleCount = 0L;
+    }
+    
+    /**
+     * Test a range of volumes against all planes
+     */
+    static void cullRange(Frustum fr, BoundingVolumes bv, byte[] out,
+            int start, int end) {
+        float[] cx = bv.centerX, cy = bv.centerY, cz = bv.centerZ;
+        float[] rad = bv.radius;
+        float[] hx = bv.extentX, hy = bv.extentY, hz = bv.extentZ;
+        
+        for(int i = start; i < end; i++) {
+            out[i] = 1;
+        }
+        
+        for(int p = 0; p < Frustum.PLANE_COUNT; p++) {
+            float a = fr.a[p], b = fr.b[p], c = fr.c[p], d = fr.d[p];
+            float aa = Math.abs(a), ab = Math.abs(b), ac = Math.abs(c);
+            
+            for(int i = start; i < end; i++) {
+                float dist = a * cx[i] + b * cy[i] + c * cz[i] + d;
+                // tighter of the sphere and box radii along the plane normal
+                float r = Math.min(rad[i], aa * hx[i] + ab * hy[i] + ac * hz[i]);
+                
+                out[i] &= (dist >= -r) ? 1 : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/* GLApi.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * The subset of OpenGL whose state the engine tracks
+ * 
+ * Game and engine code go through a GLState rather than calling LWJGL
+ * directly; GLState in turn calls an implementation of this interface. The
+ * LWJGL implementation is LwjglGL; tests can substitute a recording mock and
+ * run without a GL context.
+ */
+public interface GLApi {
+    
+    /**
+     * See OpenGL glActiveTexture
+     *
+     * @param unit
+     */
+    void glActiveTexture(int unit);
+    
+    /**
+     * See OpenGL glBindTexture
+     *
+     * @param target
+     * @param texture
+     */
+    void glBindTexture(int target, int texture);
+    
+    /**
+     * See OpenGL glUseProgram
+     *
+     * @param program
+     */
+    void glUseProgram(int program);
+    
+    /**
+     * See OpenGL glBindBuffer
+     *
+     * @param target
+     * @param buffer
+     */
+    void glBindBuffer(int target, int buffer);
+    
+    /**
+     * See OpenGL glEnable
+     *
+     * @param cap
+     */
+    void glEnable(int cap);
+    
+    /**
+     * See OpenGL glDisable
+     *
+     * @param cap
+     */
+    void glDisable(int cap);
+    
+    /**
+     * See OpenGL glBlendFunc
+     *
+     * @param sfactor
+     * @param dfactor
+     */
+    void glBlendFunc(int sfactor, int dfactor);
+    
+    /**
+     * See OpenGL glDepthFunc
+     *
+     * @param func
+     */
+    void glDepthFunc(int func);
+    
+    /**
+     * See OpenGL glDepthMask
+     *
+     * @param flag
+     */
+    void glDepthMask(boolean flag);
+    
+    /**
+     * See OpenGL glViewport
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    void glViewport(int x, int y, int width, int height);
+}
@@ -0,0 +1,151 @@
+/* GLInstanceBackend.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+
+/**
+ * Draws instance batches with hardware instancing (OpenGL 3.3)
+ * 
+ * Each batch's instance data is streamed into one buffer object and exposed
+ * to the shader as per-instance attributes: the model matrix as four vec4s
+ * starting at MODEL_ATTRIB, the color at COLOR_ATTRIB, and custom floats as
+ * vec4s starting at CUSTOM_ATTRIB. The mesh and material are bound by the
+ * game through a MeshBinder, then one glDrawElementsInstanced call draws the
+ * whole batch. The per-instance attributes are disabled again afterwards so
+ * later non-instanced draws can use those slots.
+ */
+public class GLInstanceBackend implements InstanceBackend {
+    
+    public static final int MODEL_ATTRIB = 4;
+    public static final int COLOR_ATTRIB = 8;
+    public static final int CUSTOM_ATTRIB = 9;
+    
+    private static final int FLOAT_BYTES = 4;
+    
+    /**
+     * Binds game meshes and materials for drawing
+     * 
+     * Buffers, programs and textures must be bound through the given state
+     * tracker; a raw GL bind leaves it shadowing a stale binding, and a later
+     * bind it suppresses then goes to the wrong object.
+     */
+    public interface MeshBinder {
+        /**
+         * Bind a mesh's vertex attributes and element buffer
+         *
+         * @param state the GL state tracker to bind through
+         * @param mesh mesh id
+         * @return number of indices (unsigned ints) to draw
+         */
+        int bindMesh(GLState state, int mesh);
+        
+        /**
+         * Bind a material's program, textures and uniforms
+         *
+         * @param state the GL state tracker to bind through
+         * @param material material id
+         */
+        void bindMaterial(GLState state, int material);
+    }
+    
+    private final GLState state;
+    private final MeshBinder binder;
+    private int instanceBuffer;
+    
+    /**
+     * Constructor
+     * 
+     * Requires a current OpenGL 3.3 context.
+     *
+     * @param state the GL state tracker to bind through
+     * @param binder binds meshes and materials
+     */
+    public GLInstanceBackend(GLState state, MeshBinder binder) {
+        this.state = state;
+        this.binder = binder;
+        this.instanceBuffer = GL15.glGenBuffers();
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.InstanceBackend#drawInstanced(com.gladdware.game.render.InstanceBatch)
+     */
+    public void drawInstanced(InstanceBatch batch) {
+        binder.bindMaterial(state, batch.getMaterial());
+        int indexCount = binder.bindMesh(state, batch.getMesh());
+        
+        FloatBuffer data = batch.getData();
+        int stride = batch.getFloatsPerInstance() * FLOAT_BYTES;
+        
+        // orphan and refill the instance stream
+        state.bindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STREAM_DRAW);
+        
+        for(int col = 0; col < 4; col++) {
+            instanceAttrib(MODEL_ATTRIB + col, 4, stride, col * 4);
+        }
+        instanceAttrib(COLOR_ATTRIB, 4, stride, InstanceBatch.COLOR_OFFSET);
+        
+        int customAttribs = (batch.getCustomFloats() + 3) / 4;
+        for(int k = 0; k < customAttribs; k++) {
+            int size = Math.min(4, batch.getCustomFloats() - k * 4);
+            
+            instanceAttrib(CUSTOM_ATTRIB + k, size, stride,
+                    InstanceBatch.CUSTOM_OFFSET + k * 4);
+        }
+        
+        GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, indexCount,
+                GL11.GL_UNSIGNED_INT, 0L, batch.getCount());
+        
+        // back to per-vertex attributes for the draws that follow
+        for(int index = MODEL_ATTRIB; index < CUSTOM_ATTRIB + customAttribs;
+                index++) {
+            GL33.glVertexAttribDivisor(index, 0);
+            GL20.glDisableVertexAttribArray(index);
+        }
+    }
+    
+    /**
+     * Release the instance buffer object
+     */
+    public void dispose() {
+        GL15.glDeleteBuffers(instanceBuffer);
+        instanceBuffer = 0;
+        state.invalidate();
+    }
+    
+    /**
+     * Point a vertex attribute at the instance stream, advancing once per
+     * instance
+     */
+    private static void instanceAttrib(int index, int size, int stride,
+            int floatOffset) {
+        GL20.glEnableVertexAttribArray(index);
+        GL20.glVertexAttribPointer(index, size, GL11.GL_FLOAT, false, stride,
+                (long)floatOffset * FLOAT_BYTES);
+        GL33.glVertexAttribDivisor(index, 1);
+    }
+}
@@ -0,0 +1,146 @@
+/* GLSpriteRenderer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * Draws SpriteBatch batches with OpenGL vertex buffer objects
+ * 
+ * The vertex buffer object mirrors the batch's vertex ring, so each batch is
+ * uploaded into its own region and drawn with a single glDrawElements call
+ * using a shared, static quad index buffer. Vertex attributes are fed to the
+ * current shader program at POSITION_ATTRIB (vec2), TEXCOORD_ATTRIB (vec2)
+ * and COLOR_ATTRIB (vec4).
+ */
+public class GLSpriteRenderer implements SpriteRenderer {
+    
+    public static final int POSITION_ATTRIB = 0;
+    public static final int TEXCOORD_ATTRIB = 1;
+    public static final int COLOR_ATTRIB = 2;
+    
+    private static final int FLOAT_BYTES = 4;
+    private static final int STRIDE =
+            SpriteBatch.FLOATS_PER_VERTEX * FLOAT_BYTES;
+    
+    private final GLState state;
+    private int vertexBuffer;
+    private int indexBuffer;
+    
+    /**
+     * Constructor
+     * 
+     * Requires a current OpenGL context.
+     *
+     * @param state the GL state tracker to bind through
+     * @param ringSprites number of quads in the sprite batch's vertex ring
+     * @param maxBatchSprites maximum number of quads per batch
+     */
+    public GLSpriteRenderer(GLState state, int ringSprites,
+            int maxBatchSprites) {
+        this.state = state;
+        
+        this.vertexBuffer = GL15.glGenBuffers();
+        state.bindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER,
+                (long)ringSprites * SpriteBatch.FLOATS_PER_SPRITE * FLOAT_BYTES,
+                GL15.GL_STREAM_DRAW);
+        
+        // two triangles per quad: 0-1-2, 2-3-0
+        IntBuffer indices = BufferUtils.createIntBuffer(
+                maxBatchSprites * SpriteBatch.INDICES_PER_SPRITE);
+        for(int i = 0; i < maxBatchSprites; i++) {
+            int v = i * SpriteBatch.VERTICES_PER_SPRITE;
+            
+            indices.put(v).put(v + 1).put(v + 2);
+            indices.put(v + 2).put(v + 3).put(v);
+        }
+        indices.flip();
+        
+        this.indexBuffer = GL15.glGenBuffers();
+        state.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices,
+                GL15.GL_STATIC_DRAW);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * Requires a current OpenGL context.
+     *
+     * @param state the GL state tracker to bind through
+     * @param batch the sprite batch this renderer will draw for
+     */
+    public GLSpriteRenderer(GLState state, SpriteBatch batch) {
+        this(state, batch.getRingSprites(), batch.getMaxBatchSprites());
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.SpriteRenderer#drawBatch(java.nio.FloatBuffer, int, int, int)
+     */
+    public void drawBatch(FloatBuffer vertices, int firstSprite,
+            int spriteCount, int texture) {
+        int first = firstSprite * SpriteBatch.FLOATS_PER_SPRITE;
+        int floats = spriteCount * SpriteBatch.FLOATS_PER_SPRITE;
+        long byteOffset = (long)first * FLOAT_BYTES;
+        
+        state.bindTexture2d(0, texture);
+        state.bindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+        state.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        
+        // upload just this batch's region of the ring
+        vertices.limit(first + floats).position(first);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, byteOffset, vertices);
+        vertices.clear();
+        
+        GL20.glEnableVertexAttribArray(POSITION_ATTRIB);
+        GL20.glEnableVertexAttribArray(TEXCOORD_ATTRIB);
+        GL20.glEnableVertexAttribArray(COLOR_ATTRIB);
+        GL20.glVertexAttribPointer(POSITION_ATTRIB, 2, GL11.GL_FLOAT, false,
+                STRIDE, byteOffset);
+        GL20.glVertexAttribPointer(TEXCOORD_ATTRIB, 2, GL11.GL_FLOAT, false,
+                STRIDE, byteOffset + 2 * FLOAT_BYTES);
+        GL20.glVertexAttribPointer(COLOR_ATTRIB, 4, GL11.GL_FLOAT, false,
+                STRIDE, byteOffset + 4 * FLOAT_BYTES);
+        
+        GL11.glDrawElements(GL11.GL_TRIANGLES,
+                spriteCount * SpriteBatch.INDICES_PER_SPRITE,
+                GL11.GL_UNSIGNED_INT, 0L);
+    }
+    
+    /**
+     * Release the GL buffer objects
+     */
+    public void dispose() {
+        GL15.glDeleteBuffers(vertexBuffer);
+        GL15.glDeleteBuffers(indexBuffer);
+        vertexBuffer = 0;
+        indexBuffer = 0;
+        
+        // the tracker may still think the deleted names are bound
+        state.invalidate();
+    }
+}
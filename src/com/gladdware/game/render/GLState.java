@@ -0,0 +1,453 @@
+/* GLState.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+/**
+ * OpenGL state tracker that filters out redundant state changes
+ * 
+ * GLState shadows the bound textures, program, buffers, enabled capabilities,
+ * blend and depth state, and viewport. A call that would set state to the
+ * value it already has is dropped instead of being passed to the driver.
+ * Issued and suppressed calls are counted per frame.
+ * 
+ * All state starts out unknown, so the first call of each kind is always
+ * issued. If other code changes GL state behind the tracker's back, call
+ * invalidate() to forget the shadowed values.
+ */
+public class GLState {
+    
+    /** Number of texture units tracked */
+    public static final int MAX_TEXTURE_UNITS = 32;
+    
+    /** GL_TEXTURE0 */
+    private static final int GL_TEXTURE0 = 0x84C0;
+    /** GL_TEXTURE_2D */
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    /** GL_ARRAY_BUFFER */
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    /** GL_ELEMENT_ARRAY_BUFFER */
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    
+    /** Maximum number of distinct capabilities tracked */
+    private static final int MAX_CAPS = 32;
+    
+    /** Marker for a value that is not known */
+    private static final int UNKNOWN = -1;
+    
+    private static final byte CAP_UNKNOWN = 0;
+    private static final byte CAP_DISABLED = 1;
+    private static final byte CAP_ENABLED = 2;
+    
+    private final GLApi gl;
+    
+    private int activeUnit;
+    private final int[] textures2d;
+    private int program;
+    private int arrayBuffer;
+    private int elementBuffer;
+    
+    private final int[] capIds;
+    private final byte[] capStates;
+    private int capCount;
+    
+    private int blendSrc, blendDst;
+    private int depthFunc;
+    /** Depth mask: UNKNOWN, 0 (false) or 1 (true) */
+    private int depthMask;
+    private int viewX, viewY, viewWidth, viewHeight;
+    
+    private int issued, suppressed;
+    private int lastIssued, lastSuppressed;
+    private long totalIssued, totalSuppressed;
+    
+    /**
+     * Constructor
+     *
+     * @param gl the GL implementation to forward calls to
+     */
+    public GLState(GLApi gl) {
+        this.gl = gl;
+        this.textures2d = new int[MAX_TEXTURE_UNITS];
+        this.capIds = new int[MAX_CAPS];
+        this.capStates = new byte[MAX_CAPS];
+        
+        invalidate();
+    }
+    
+    /**
+     * Get the GL implementation calls are forwarded to
+     *
+     * @return the GL implementation
+     */
+    public GLApi getApi() {
+        return this.gl;
+    }
+    
+    /**
+     * Forget all shadowed state so that the next call of each kind is issued
+     */
+    public void invalidate() {
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures2d, UNKNOWN);
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementBuffer = UNKNOWN;
+        Arrays.fill(capStates, CAP_UNKNOWN);
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        viewX = viewY = viewWidth = viewHeight = UNKNOWN;
+    }
+    
+    /**
+     * Select the active texture unit
+     *
+     * @param unit the unit index (0 for GL_TEXTURE0)
+     */
+    public void activeTexture(int unit) {
+        if(unit == activeUnit) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glActiveTexture(GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issued++;
+    }
+    
+    /**
+     * Bind a texture to the active texture unit
+     * 
+     * Only GL_TEXTURE_2D bindings are shadowed; other targets are always
+     * issued.
+     *
+     * @param target the texture target
+     * @param texture the texture name
+     */
+    public void bindTexture(int target, int texture) {
+        int unit = activeUnit;
+        
+        if(target == GL_TEXTURE_2D && unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+            if(textures2d[unit] == texture) {
+                suppressed++;
+                return;
+            }
+            textures2d[unit] = texture;
+        }
+        
+        gl.glBindTexture(target, texture);
+        issued++;
+    }
+    
+    /**
+     * Bind a 2D texture to the given texture unit
+     *
+     * @param unit the unit index (0 for GL_TEXTURE0)
+     * @param texture the texture name
+     */
+    public void bindTexture2d(int unit, int texture) {
+        if(unit >= 0 && unit < MAX_TEXTURE_UNITS &&
+                textures2d[unit] == texture) {
+            suppressed++;
+            return;
+        }
+        
+        activeTexture(unit);
+        bindTexture(GL_TEXTURE_2D, texture);
+    }
+    
+    /**
+     * Make a shader program current
+     *
+     * @param prog the program name (0 for none)
+     */
+    public void useProgram(int prog) {
+        if(prog == program) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glUseProgram(prog);
+        program = prog;
+        issued++;
+    }
+    
+    /**
+     * Bind a buffer object
+     * 
+     * Array and element array bindings are shadowed; other targets are always
+     * issued.
+     *
+     * @param target the buffer target
+     * @param buffer the buffer name
+     */
+    public void bindBuffer(int target, int buffer) {
+        if(target == GL_ARRAY_BUFFER) {
+            if(arrayBuffer == buffer) {
+                suppressed++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if(target == GL_ELEMENT_ARRAY_BUFFER) {
+            if(elementBuffer == buffer) {
+                suppressed++;
+                return;
+            }
+            elementBuffer = buffer;
+        }
+        
+        gl.glBindBuffer(target, buffer);
+        issued++;
+    }
+    
+    /**
+     * Enable a capability
+     *
+     * @param cap the capability
+     */
+    public void enable(int cap) {
+        setCapability(cap, true);
+    }
+    
+    /**
+     * Disable a capability
+     *
+     * @param cap the capability
+     */
+    public void disable(int cap) {
+        setCapability(cap, false);
+    }
+    
+    /**
+     * Enable or disable a capability
+     *
+     * @param cap the capability
+     * @param enabled true to enable
+     */
+    public void setCapability(int cap, boolean enabled) {
+        int slot = capSlot(cap);
+        byte want = enabled ? CAP_ENABLED : CAP_DISABLED;
+        
+        if(slot >= 0) {
+            if(capStates[slot] == want) {
+                suppressed++;
+                return;
+            }
+            capStates[slot] = want;
+        }
+        
+        if(enabled) {
+            gl.glEnable(cap);
+        } else {
+            gl.glDisable(cap);
+        }
+        issued++;
+    }
+    
+    /**
+     * Set the blend function
+     *
+     * @param src source factor
+     * @param dst destination factor
+     */
+    public void blendFunc(int src, int dst) {
+        if(src == blendSrc && dst == blendDst) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glBlendFunc(src, dst);
+        blendSrc = src;
+        blendDst = dst;
+        issued++;
+    }
+    
+    /**
+     * Set the depth comparison function
+     *
+     * @param func the depth function
+     */
+    public void depthFunc(int func) {
+        if(func == depthFunc) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glDepthFunc(func);
+        depthFunc = func;
+        issued++;
+    }
+    
+    /**
+     * Enable or disable depth buffer writes
+     *
+     * @param flag true to write depth
+     */
+    public void depthMask(boolean flag) {
+        int v = flag ? 1 : 0;
+        
+        if(v == depthMask) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glDepthMask(flag);
+        depthMask = v;
+        issued++;
+    }
+    
+    /**
+     * Set the viewport
+     *
+     * @param x left edge
+     * @param y bottom edge
+     * @param width viewport width
+     * @param height viewport height
+     */
+    public void viewport(int x, int y, int width, int height) {
+        if(x == viewX && y == viewY && width == viewWidth &&
+                height == viewHeight) {
+            suppressed++;
+            return;
+        }
+        
+        gl.glViewport(x, y, width, height);
+        viewX = x;
+        viewY = y;
+        viewWidth = width;
+        viewHeight = height;
+        issued++;
+    }
+    
+    /**
+     * Get the program made current through this tracker
+     *
+     * @return the current program, or -1 if unknown
+     */
+    public int getProgram() {
+        return this.program;
+    }
+    
+    /**
+     * Get the 2D texture bound to a unit through this tracker
+     *
+     * @param unit the unit index
+     * @return the bound texture, or -1 if unknown
+     */
+    public int getTexture2d(int unit) {
+        return this.textures2d[unit];
+    }
+    
+    /**
+     * Close out the current frame's call counters
+     * 
+     * The counts are then available through getLastIssuedCount() and
+     * getLastSuppressedCount() until the next frame finishes.
+     */
+    public void finishFrame() {
+        lastIssued = issued;
+        lastSuppressed = suppressed;
+        totalIssued += issued;
+        totalSuppressed += suppressed;
+        issued = 0;
+        suppressed = 0;
+    }
+    
+    /**
+     * Get the number of calls passed to GL so far this frame
+     *
+     * @return issued call count
+     */
+    public int getIssuedCount() {
+        return this.issued;
+    }
+    
+    /**
+     * Get the number of redundant calls dropped so far this frame
+     *
+     * @return suppressed call count
+     */
+    public int getSuppressedCount() {
+        return this.suppressed;
+    }
+    
+    /**
+     * Get the number of calls passed to GL during the last finished frame
+     *
+     * @return issued call count
+     */
+    public int getLastIssuedCount() {
+        return this.lastIssued;
+    }
+    
+    /**
+     * Get the number of redundant calls dropped during the last finished
+     * frame
+     *
+     * @return suppressed call count
+     */
+    public int getLastSuppressedCount() {
+        return this.lastSuppressed;
+    }
+    
+    /**
+     * Get the number of calls passed to GL over all finished frames
+     *
+     * @return total issued call count
+     */
+    public long getTotalIssuedCount() {
+        return this.totalIssued;
+    }
+    
+    /**
+     * Get the number of redundant calls dropped over all finished frames
+     *
+     * @return total suppressed call count
+     */
+    public long getTotalSuppressedCount() {
+        return this.totalSuppressed;
+    }
+    
+    /**
+     * Find or allocate the shadow slot for a capability
+     *
+     * @param cap the capability
+     * @return the slot, or -1 if the table is full (cap is not shadowed)
+     */
+    private int capSlot(int cap) {
+        for(int i = 0; i < capCount; i++) {
+            if(capIds[i] == cap) {
+                return i;
+            }
+        }
+        
+        if(capCount == MAX_CAPS) {
+            return -1;
+        }
+        
+        capIds[capCount] = cap;
+        capStates[capCount] = CAP_UNKNOWN;
+        
+        return capCount++;
+    }
+}
@@ -0,0 +1,373 @@
+/* HiZBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+/**
+ * Low resolution software depth buffer with a hierarchical max-depth pyramid
+ * 
+ * Depth values are normalized to [0, 1] with 0 at the near plane and 1 at the
+ * far plane. Level 0 is stored in TILE x TILE pixel tiles so that a rasterizer
+ * working on one row of tiles touches a compact block of memory. Each higher
+ * pyramid level halves the resolution and keeps the farthest depth of the
+ * texels it covers, which makes it suitable for conservative occlusion tests.
+ */
+public class HiZBuffer {
+    
+    /** Width and height of a level 0 tile, in pixels */
+    public static final int TILE = 8;
+    
+    private static final int TILE_PIXELS = TILE * TILE;
+    
+    private final int width, height;
+    private final int tilesX, tilesY;
+    
+    /** Level 0 depth, tiled */
+    private final float[] depth;
+    /** Pyramid levels 1..n, row-major */
+    private final float[][] levels;
+    private final int[] levelWidth, levelHeight;
+    
+    /**
+     * Constructor
+     * 
+     * The resolution is rounded up to a whole number of tiles.
+     *
+     * @param width buffer width, in pixels
+     * @param height buffer height, in pixels
+     */
+    public HiZBuffer(int width, int height) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid depth buffer size " +
+                    width + "x" + height);
+        }
+        
+        this.tilesX = (width + TILE - 1) / TILE;
+        this.tilesY = (height + TILE - 1) / TILE;
+        this.width = tilesX * TILE;
+        this.height = tilesY * TILE;
+        this.depth = new float[this.width * this.height];
+        
+        // build the level chain down to a single texel
+        int n = 0;
+        for(int w = this.width, h = this.height; w > 1 || h > 1; n++) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        
+        this.levels = new float[n + 1][];
+        this.levelWidth = new int[n + 1];
+        this.levelHeight = new int[n + 1];
+        
+        this.levelWidth[0] = this.width;
+        this.levelHeight[0] = this.height;
+        for(int l = 1; l <= n; l++) {
+            levelWidth[l] = (levelWidth[l - 1] + 1) / 2;
+            levelHeight[l] = (levelHeight[l - 1] + 1) / 2;
+            levels[l] = new float[levelWidth[l] * levelHeight[l]];
+        }
+        
+        clear();
+    }
+    
+    /**
+     * Get the level 0 width, in pixels
+     *
+     * @return the buffer width
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Get the level 0 height, in pixels
+     *
+     * @return the buffer height
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Get the number of tile rows; each row can be rasterized independently
+     *
+     * @return the number of tile rows
+     */
+    public int getTileRows() {
+        return this.tilesY;
+    }
+    
+    /**
+     * Get the number of pyramid levels, including level 0
+     *
+     * @return the level count
+     */
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+    
+    /**
+     * Reset every pixel to the far plane
+     */
+    public void clear() {
+        Arrays.fill(depth, 1.0f);
+        
+        for(int l = 1; l < levels.length; l++) {
+            Arrays.fill(levels[l], 1.0f);
+        }
+    }
+    
+    /**
+     * Get the depth of a level 0 pixel
+     *
+     * @param x pixel x
+     * @param y pixel y (0 is the top row)
+     * @return the pixel depth
+     */
+    public float getDepth(int x, int y) {
+        return depth[index(x, y)];
+    }
+    
+    /**
+     * Get the farthest depth stored in a texel of the given pyramid level
+     *
+     * @param level pyramid level
+     * @param x texel x at that level
+     * @param y texel y at that level
+     * @return the texel's max depth
+     */
+    public float getMaxDepth(int level, int x, int y) {
+        if(level == 0) {
+            return depth[index(x, y)];
+        }
+        
+        return levels[level][x + y * levelWidth[level]];
+    }
+    
+    /**
+     * Rasterize a screen-space triangle into one row of tiles, keeping the
+     * nearest depth per pixel
+     * 
+     * Pixels are covered when their center lies inside the triangle; winding
+     * does not matter. Different tile rows may be rasterized concurrently.
+     *
+     * @param tileRow the tile row to draw into
+     * @param x0 vertex 0 x, in pixels
+     * @param y0 vertex 0 y, in pixels
+     * @param z0 vertex 0 depth
+     * @param x1 vertex 1 x
+     * @param y1 vertex 1 y
+     * @param z1 vertex 1 depth
+     * @param x2 vertex 2 x
+     * @param y2 vertex 2 y
+     * @param z2 vertex 2 depth
+     */
+    public void rasterize(int tileRow, float x0, float y0, float z0,
+            float x1, float y1, float z1, float x2, float y2, float z2) {
+        float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if(area == 0.0f) {
+            return;
+        }
+        if(area < 0.0f) {
+            // flip to counter-clockwise (in y-down screen space)
+            float t = x1; x1 = x2; x2 = t;
+            t = y1; y1 = y2; y2 = t;
+            t = z1; z1 = z2; z2 = t;
+            area = -area;
+        }
+        
+        int bandTop = tileRow * TILE;
+        int bandBottom = bandTop + TILE;
+        
+        int minX = Math.max(0, (int)Math.floor(min3(x0, x1, x2)));
+        int maxX = Math.min(width - 1, (int)Math.ceil(max3(x0, x1, x2)));
+        int minY = Math.max(bandTop, (int)Math.floor(min3(y0, y1, y2)));
+        int maxY = Math.min(bandBottom - 1, (int)Math.ceil(max3(y0, y1, y2)));
+        
+        if(minX > maxX || minY > maxY) {
+            return;
+        }
+        
+        // edge function steps
+        float a0 = y1 - y2, b0 = x2 - x1;
+        float a1 = y2 - y0, b1 = x0 - x2;
+        float a2 = y0 - y1, b2 = x1 - x0;
+        
+        float invArea = 1.0f / area;
+        float px = minX + 0.5f;
+        
+        for(int y = minY; y <= maxY; y++) {
+            float py = y + 0.5f;
+            
+            float w0 = a0 * (px - x1) + b0 * (py - y1);
+            float w1 = a1 * (px - x2) + b1 * (py - y2);
+            float w2 = a2 * (px - x0) + b2 * (py - y0);
+            
+            int rowBase = rowIndex(y);
+            
+            for(int x = minX; x <= maxX; x++) {
+                if(w0 >= 0.0f && w1 >= 0.0f && w2 >= 0.0f) {
+                    float z = (w0 * z0 + w1 * z1 + w2 * z2) * invArea;
+                    int i = rowBase + tileOffset(x);
+                    
+                    if(z < depth[i]) {
+                        depth[i] = z;
+                    }
+                }
+                
+                w0 += a0;
+                w1 += a1;
+                w2 += a2;
+            }
+        }
+    }
+    
+    /**
+     * Rebuild a range of pyramid level 1 rows from level 0
+     * 
+     * Call this for all level 1 rows (possibly from several threads), then
+     * call buildUpperLevels().
+     *
+     * @param startRow first level 1 row (inclusive)
+     * @param endRow last level 1 row (exclusive)
+     */
+    public void buildFirstLevel(int startRow, int endRow) {
+        if(levels.length < 2) {
+            return;
+        }
+        
+        float[] dst = levels[1];
+        int w = levelWidth[1];
+        
+        for(int y = startRow; y < endRow; y++) {
+            int sy = y * 2;
+            
+            for(int x = 0; x < w; x++) {
+                int sx = x * 2;
+                // level 0 dimensions are even (multiples of TILE)
+                float m = Math.max(
+                        Math.max(depth[index(sx, sy)], depth[index(sx + 1, sy)]),
+                        Math.max(depth[index(sx, sy + 1)],
+                                depth[index(sx + 1, sy + 1)]));
+                
+                dst[x + y * w] = m;
+            }
+        }
+    }
+    
+    /**
+     * Get the number of rows in pyramid level 1
+     *
+     * @return level 1 height
+     */
+    public int getFirstLevelRows() {
+        return levels.length < 2 ? 0 : levelHeight[1];
+    }
+    
+    /**
+     * Rebuild pyramid levels 2 and up from level 1
+     * 
+     * These levels are small enough that they are built on one thread.
+     */
+    public void buildUpperLevels() {
+        for(int l = 2; l < levels.length; l++) {
+            float[] src = levels[l - 1];
+            float[] dst = levels[l];
+            int sw = levelWidth[l - 1], sh = levelHeight[l - 1];
+            int w = levelWidth[l], h = levelHeight[l];
+            
+            for(int y = 0; y < h; y++) {
+                int sy0 = y * 2;
+                int sy1 = Math.min(sy0 + 1, sh - 1);
+                
+                for(int x = 0; x < w; x++) {
+                    int sx0 = x * 2;
+                    int sx1 = Math.min(sx0 + 1, sw - 1);
+                    
+                    dst[x + y * w] = Math.max(
+                            Math.max(src[sx0 + sy0 * sw], src[sx1 + sy0 * sw]),
+                            Math.max(src[sx0 + sy1 * sw], src[sx1 + sy1 * sw]));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Find the farthest depth over a rectangle of level 0 pixels using the
+     * coarsest pyramid level that still covers the rectangle with a few texels
+     *
+     * @param minX left pixel (inclusive)
+     * @param minY top pixel (inclusive)
+     * @param maxX right pixel (inclusive)
+     * @param maxY bottom pixel (inclusive)
+     * @return the farthest depth covering the rectangle
+     */
+    public float maxDepth(int minX, int minY, int maxX, int maxY) {
+        int size = Math.max(maxX - minX, maxY - minY) + 1;
+        
+        // pick the level where the rectangle spans at most ~2 texels per axis
+        int level = 0;
+        while(level < levels.length - 1 && (size >> level) > 2) {
+            level++;
+        }
+        
+        int x0 = minX >> level, x1 = maxX >> level;
+        int y0 = minY >> level, y1 = maxY >> level;
+        
+        float m = 0.0f;
+        for(int y = y0; y <= y1; y++) {
+            for(int x = x0; x <= x1; x++) {
+                m = Math.max(m, getMaxDepth(level, x, y));
+            }
+        }
+        
+        return m;
+    }
+    
+    /**
+     * Index of a level 0 pixel in the tiled layout
+     */
+    private int index(int x, int y) {
+        return rowIndex(y) + tileOffset(x);
+    }
+    
+    /**
+     * Tiled index of the first pixel of a row (tile column 0)
+     */
+    private int rowIndex(int y) {
+        return (y / TILE) * tilesX * TILE_PIXELS + (y % TILE) * TILE;
+    }
+    
+    /**
+     * Tiled offset of a column relative to rowIndex()
+     */
+    private int tileOffset(int x) {
+        return (x / TILE) * TILE_PIXELS + (x % TILE);
+    }
+    
+    private static float min3(float a, float b, float c) {
+        return Math.min(a, Math.min(b, c));
+    }
+    
+    private static float max3(float a, float b, float c) {
+        return Math.max(a, Math.max(b, c));
+    }
+}
@@ -0,0 +1,221 @@
+/* InstanceBatch.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.math.Matrix4f;
+
+/**
+ * Per-instance data for every instance of one mesh/material pair in a frame
+ * 
+ * Instances are packed into a direct FloatBuffer, getFloatsPerInstance()
+ * floats each: the model matrix (16 floats, column-major), the color (4
+ * floats, RGBA), then any custom attribute floats. The buffer grows as needed
+ * and is kept between frames.
+ */
+public class InstanceBatch {
+    
+    public static final int MATRIX_FLOATS = 16;
+    public static final int COLOR_FLOATS = 4;
+    public static final int COLOR_OFFSET = MATRIX_FLOATS;
+    public static final int CUSTOM_OFFSET = MATRIX_FLOATS + COLOR_FLOATS;
+    
+    private final int mesh;
+    private final int material;
+    private final int customFloats;
+    private final int stride;
+    
+    private FloatBuffer data;
+    private int count;
+    
+    /** Scratch space for copying matrices out without allocating */
+    private final float[] scratch = new float[MATRIX_FLOATS];
+    
+    /**
+     * Constructor
+     *
+     * @param mesh mesh id
+     * @param material material id
+     * @param customFloats number of custom attribute floats per instance
+     * @param initialCapacity number of instances to allocate space for
+     */
+    public InstanceBatch(int mesh, int material, int customFloats,
+            int initialCapacity) {
+        this.mesh = mesh;
+        this.material = material;
+        this.customFloats = customFloats;
+        this.stride = CUSTOM_OFFSET + customFloats;
+        this.data = BufferUtils.createFloatBuffer(
+                Math.max(1, initialCapacity) * stride);
+        this.count = 0;
+    }
+    
+    /**
+     * Get the mesh all instances in the batch draw
+     *
+     * @return the mesh id
+     */
+    public int getMesh() {
+        return this.mesh;
+    }
+    
+    /**
+     * Get the material all instances in the batch draw with
+     *
+     * @return the material id
+     */
+    public int getMaterial() {
+        return this.material;
+    }
+    
+    /**
+     * Get the number of floats per instance
+     *
+     * @return the instance stride, in floats
+     */
+    public int getFloatsPerInstance() {
+        return this.stride;
+    }
+    
+    /**
+     * Get the number of custom attribute floats per instance
+     *
+     * @return the custom float count
+     */
+    public int getCustomFloats() {
+        return this.customFloats;
+    }
+    
+    /**
+     * Get the number of instances added this frame
+     *
+     * @return the instance count
+     */
+    public int getCount() {
+        return this.count;
+    }
+    
+    /**
+     * Get the packed instance data
+     * 
+     * The buffer's position is 0 and its limit marks the end of the
+     * instances added so far.
+     *
+     * @return the instance data buffer
+     */
+    public FloatBuffer getData() {
+        data.limit(count * stride).position(0);
+        
+        return data;
+    }
+    
+    /**
+     * Remove all instances, keeping the storage
+     */
+    public void clear() {
+        this.count = 0;
+    }
+    
+    /**
+     * Add an instance
+     *
+     * @param model the instance's model matrix
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     * @param a alpha component
+     * @return the instance index
+     */
+    public int add(Matrix4f model, float r, float g, float b, float a) {
+        return add(model.get(scratch), r, g, b, a, null);
+    }
+    
+    /**
+     * Add an instance with custom attributes
+     *
+     * @param model the instance's model matrix
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     * @param a alpha component
+     * @param custom custom attribute values (getCustomFloats() of them)
+     * @return the instance index
+     */
+    public int add(Matrix4f model, float r, float g, float b, float a,
+            float[] custom) {
+        return add(model.get(scratch), r, g, b, a, custom);
+    }
+    
+    /**
+     * Add an instance from a raw column-major model matrix
+     *
+     * @param model the model matrix (16 floats)
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     * @param a alpha component
+     * @param custom custom attribute values, or null for zeros
+     * @return the instance index
+     */
+    public int add(float[] model, float r, float g, float b, float a,
+            float[] custom) {
+        if((count + 1) * stride > data.capacity()) {
+            grow();
+        }
+        
+        int o = count * stride;
+        FloatBuffer d = this.data;
+        
+        // getData() narrows the limit to the instances added so far
+        d.limit(d.capacity());
+        
+        for(int i = 0; i < MATRIX_FLOATS; i++) {
+            d.put(o + i, model[i]);
+        }
+        
+        d.put(o + COLOR_OFFSET, r);
+        d.put(o + COLOR_OFFSET + 1, g);
+        d.put(o + COLOR_OFFSET + 2, b);
+        d.put(o + COLOR_OFFSET + 3, a);
+        
+        for(int i = 0; i < customFloats; i++) {
+            d.put(o + CUSTOM_OFFSET + i, custom == null ? 0.0f : custom[i]);
+        }
+        
+        return count++;
+    }
+    
+    /**
+     * Double the instance storage
+     */
+    private void grow() {
+        FloatBuffer bigger = BufferUtils.createFloatBuffer(data.capacity() * 2);
+        
+        data.limit(count * stride).position(0);
+        bigger.put(data);
+        bigger.clear();
+        data.clear();
+        
+        this.data = bigger;
+    }
+}
@@ -0,0 +1,123 @@
+/* InstanceRenderer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups per-instance data by mesh and material and draws each group at once
+ * 
+ * Callers fetch a batch once per mesh/material pair (and may hold on to it
+ * across frames), add instances to it during the frame, then call render()
+ * followed by reset().
+ */
+public class InstanceRenderer {
+    
+    private static final int INITIAL_INSTANCES = 64;
+    
+    private final int customFloats;
+    private final Map<Long, InstanceBatch> byKey;
+    private final List<InstanceBatch> batches;
+    
+    private int drawCount;
+    private int instanceCount;
+    
+    /**
+     * Constructor
+     *
+     * @param customFloats number of custom attribute floats per instance
+     */
+    public InstanceRenderer(int customFloats) {
+        this.customFloats = customFloats;
+        this.byKey = new HashMap<Long, InstanceBatch>();
+        this.batches = new ArrayList<InstanceBatch>();
+    }
+    
+    /**
+     * Get the batch for a mesh/material pair, creating it if needed
+     *
+     * @param mesh mesh id
+     * @param material material id
+     * @return the batch
+     */
+    public InstanceBatch getBatch(int mesh, int material) {
+        Long key = Long.valueOf(((long)mesh << 32) | (material & 0xffffffffL));
+        InstanceBatch b = byKey.get(key);
+        
+        if(b == null) {
+            b = new InstanceBatch(mesh, material, customFloats,
+                    INITIAL_INSTANCES);
+            byKey.put(key, b);
+            batches.add(b);
+        }
+        
+        return b;
+    }
+    
+    /**
+     * Draw every non-empty batch
+     *
+     * @param backend the backend to draw with
+     */
+    public void render(InstanceBackend backend) {
+        drawCount = 0;
+        instanceCount = 0;
+        
+        for(int i = 0; i < batches.size(); i++) {
+            InstanceBatch b = batches.get(i);
+            
+            if(b.getCount() > 0) {
+                backend.drawInstanced(b);
+                drawCount++;
+                instanceCount += b.getCount();
+            }
+        }
+    }
+    
+    /**
+     * Clear every batch, ready for the next frame
+     */
+    public void reset() {
+        for(int i = 0; i < batches.size(); i++) {
+            batches.get(i).clear();
+        }
+    }
+    
+    /**
+     * Get the number of batches drawn by the last render()
+     *
+     * @return the draw count
+     */
+    public int getDrawCount() {
+        return this.drawCount;
+    }
+    
+    /**
+     * Get the number of instances drawn by the last render()
+     *
+     * @return the instance count
+     */
+    public int getInstanceCount() {
+        return this.instanceCount;
+    }
+}
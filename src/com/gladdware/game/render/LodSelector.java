@@ -0,0 +1,319 @@
+/* LodSelector.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+import com.gladdware.game.math.Vector3f;
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Per-frame level-of-detail selection by projected screen-space error
+ * 
+ * Objects share LOD groups: one per mesh, listing the world-space geometric
+ * error of each level (0 for the full-detail level 0, increasing for coarser
+ * ones; e.g. the simplification error). Each frame the error is projected to
+ * pixels with the camera's projection at the distance of the object's
+ * bounding sphere, and the coarsest level whose projected error stays within
+ * the pixel budget is chosen.
+ * 
+ * To avoid popping when an object hovers around a switch distance, a level
+ * only gets coarser when its projected error is below the budget by the
+ * hysteresis margin; it gets finer as soon as the budget is exceeded.
+ * 
+ * Objects are processed in batches on the worker pool, reading their bounds
+ * straight from the packed BoundingVolumes arrays.
+ */
+public class LodSelector {
+    
+    /** Minimum number of objects per parallel chunk */
+    private static final int CHUNK = 2048;
+    
+    /** Smallest distance used for projection, to avoid dividing by zero */
+    private static final float MIN_DISTANCE = 1e-3f;
+    
+    /** LOD groups: levels of group g are errors[groupStart[g]..] */
+    private float[] errors;
+    private int[] groupStart;
+    private int[] groupLevels;
+    private int groupCount;
+    private int errorCount;
+    
+    /** Per-object group (-1 = always level 0) and selected level */
+    private int[] objectGroup;
+    private int[] lod;
+    private int objectCount;
+    
+    private float maxPixelError;
+    private float hysteresis;
+    private int maxLevels;
+    private int[] levelCounts;
+    
+    /** Per-pass parameters read by the kernel */
+    private BoundingVolumes curVolumes;
+    private int[] curCandidates;
+    private float camX, camY, camZ;
+    private float pixelScale;
+    private boolean ortho;
+    
+    /** Reusable selection kernel */
+    private final Parallel.RangeTask kernel = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            selectRange(start, end);
+        }
+    };
+    
+    /**
+     * Constructor
+     *
+     * @param maxPixelError largest acceptable projected error, in pixels
+     * @param hysteresis fraction of the budget an object must be under before
+     *        it switches to a coarser level (e.g. 0.2)
+     */
+    public LodSelector(float maxPixelError, float hysteresis) {
+        this.maxPixelError = maxPixelError;
+        this.hysteresis = hysteresis;
+        this.errors = new float[64];
+        this.groupStart = new int[16];
+        this.groupLevels = new int[16];
+        this.objectGroup = new int[0];
+        this.lod = new int[0];
+        this.levelCounts = new int[1];
+    }
+    
+    /**
+     * Add an LOD group
+     *
+     * @param levelErrors world-space error of each level, non-decreasing,
+     *        starting with the full-detail level
+     * @return the group id
+     */
+    public int addGroup(float[] levelErrors) {
+        if(levelErrors.length == 0) {
+            throw new IllegalArgumentException("LOD group without levels");
+        }
+        for(int i = 1; i < levelErrors.length; i++) {
+            if(levelErrors[i] < levelErrors[i - 1]) {
+                throw new IllegalArgumentException(
+                        "LOD errors must not decrease");
+            }
+        }
+        
+        if(groupCount == groupStart.length) {
+            groupStart = Arrays.copyOf(groupStart, groupCount * 2);
+            groupLevels = Arrays.copyOf(groupLevels, groupCount * 2);
+        }
+        int needed = errorCount + levelErrors.length;
+        if(needed > errors.length) {
+            errors = Arrays.copyOf(errors,
+                    Math.max(errors.length * 2, needed));
+        }
+        
+        groupStart[groupCount] = errorCount;
+        groupLevels[groupCount] = levelErrors.length;
+        System.arraycopy(levelErrors, 0, errors, errorCount,
+                levelErrors.length);
+        errorCount += levelErrors.length;
+        
+        if(levelErrors.length > maxLevels) {
+            maxLevels = levelErrors.length;
+            levelCounts = new int[maxLevels];
+        }
+        
+        return groupCount++;
+    }
+    
+    /**
+     * Assign an object to an LOD group
+     * 
+     * Object indices match the BoundingVolumes passed to select().
+     *
+     * @param object the object index
+     * @param group the group id, or -1 to always use level 0
+     */
+    public void setGroup(int object, int group) {
+        if(object >= objectGroup.length) {
+            int cap = Math.max(object + 1, objectGroup.length * 2);
+            int old = objectGroup.length;
+            
+            objectGroup = Arrays.copyOf(objectGroup, cap);
+            lod = Arrays.copyOf(lod, cap);
+            Arrays.fill(objectGroup, old, cap, -1);
+            Arrays.fill(lod, old, cap, -1);
+        }
+        
+        objectGroup[object] = group;
+        lod[object] = -1;
+        objectCount = Math.max(objectCount, object + 1);
+    }
+    
+    /**
+     * Select levels for all objects
+     *
+     * @param camera the camera
+     * @param viewportHeight viewport height, in pixels
+     * @param volumes object bounds
+     */
+    public void select(Camera camera, int viewportHeight,
+            BoundingVolumes volumes) {
+        select(camera, viewportHeight, volumes, null);
+    }
+    
+    /**
+     * Select levels for some objects (e.g. the visible ones)
+     * 
+     * Objects not in the list keep their previous level.
+     *
+     * @param camera the camera
+     * @param viewportHeight viewport height, in pixels
+     * @param volumes object bounds
+     * @param candidates the objects to update, or null for all
+     */
+    public void select(Camera camera, int viewportHeight,
+            BoundingVolumes volumes, VisibilityList candidates) {
+        int n = candidates != null ? candidates.size() :
+            Math.min(volumes.getCount(), objectCount);
+        
+        Vector3f eye = camera.getPosition();
+        
+        // pixels per world unit at distance 1 (perspective) or anywhere
+        // (orthographic), from the projection's vertical scale
+        this.pixelScale = Math.abs(camera.getProjection().get(1, 1)) *
+                viewportHeight * 0.5f;
+        this.ortho = camera.isOrthographic();
+        this.camX = eye.getX();
+        this.camY = eye.getY();
+        this.camZ = eye.getZ();
+        this.curVolumes = volumes;
+        this.curCandidates = candidates != null ? candidates.array() : null;
+        
+        Parallel.forRange(n, CHUNK, this.kernel);
+        
+        this.curVolumes = null;
+        this.curCandidates = null;
+        
+        Arrays.fill(levelCounts, 0);
+        for(int i = 0; i < n; i++) {
+            int obj = candidates != null ? candidates.get(i) : i;
+            if(obj < objectCount && lod[obj] >= 0) {
+                levelCounts[lod[obj]]++;
+            }
+        }
+    }
+    
+    /**
+     * Get an object's selected level
+     *
+     * @param object the object index
+     * @return the level, 0 for full detail
+     */
+    public int getLod(int object) {
+        return object < objectCount ? Math.max(lod[object], 0) : 0;
+    }
+    
+    /**
+     * Get the number of objects the last select() put at a level
+     *
+     * @param level the level
+     * @return the object count
+     */
+    public int getLevelCount(int level) {
+        return level < levelCounts.length ? levelCounts[level] : 0;
+    }
+    
+    /**
+     * Set the projected error budget
+     *
+     * @param maxPixelError largest acceptable projected error, in pixels
+     */
+    public void setMaxPixelError(float maxPixelError) {
+        this.maxPixelError = maxPixelError;
+    }
+    
+    /**
+     * Set the hysteresis margin
+     *
+     * @param hysteresis fraction of the budget an object must be under
+     *        before it switches to a coarser level
+     */
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+    
+    /**
+     * Select levels for a range of objects
+     */
+    private void selectRange(int start, int end) {
+        BoundingVolumes bv = curVolumes;
+        float[] cx = bv.centerX, cy = bv.centerY, cz = bv.centerZ;
+        float[] rad = bv.radius;
+        int[] list = curCandidates;
+        
+        float refine = maxPixelError;
+        float coarsen = maxPixelError * (1 - hysteresis);
+        
+        for(int i = start; i < end; i++) {
+            int obj = list != null ? list[i] : i;
+            if(obj >= objectCount) {
+                continue;
+            }
+            
+            int g = objectGroup[obj];
+            if(g < 0) {
+                lod[obj] = 0;
+                continue;
+            }
+            
+            float scale = pixelScale;
+            if(!ortho) {
+                float dx = cx[obj] - camX;
+                float dy = cy[obj] - camY;
+                float dz = cz[obj] - camZ;
+                float dist = (float)Math.sqrt(dx * dx + dy * dy + dz * dz) -
+                        rad[obj];
+                
+                scale /= Math.max(dist, MIN_DISTANCE);
+            }
+            
+            // coarsest levels within the budget, with and without margin
+            int base = groupStart[g];
+            int levels = groupLevels[g];
+            int within = 0, withinMargin = 0;
+            for(int l = 1; l < levels; l++) {
+                float px = errors[base + l] * scale;
+                
+                if(px <= refine) {
+                    within = l;
+                }
+                if(px <= coarsen) {
+                    withinMargin = l;
+                }
+            }
+            
+            int cur = lod[obj];
+            if(cur < 0 || cur > within) {
+                // first selection, or the current level is too coarse
+                lod[obj] = within;
+            } else if(withinMargin > cur) {
+                lod[obj] = withinMargin;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/* LwjglGL.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * GLApi implementation that calls straight into LWJGL
+ * 
+ * Requires a current OpenGL context on the calling thread.
+ */
+public class LwjglGL implements GLApi {
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glActiveTexture(int)
+     */
+    public void glActiveTexture(int unit) {
+        GL13.glActiveTexture(unit);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glBindTexture(int, int)
+     */
+    public void glBindTexture(int target, int texture) {
+        GL11.glBindTexture(target, texture);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glUseProgram(int)
+     */
+    public void glUseProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glBindBuffer(int, int)
+     */
+    public void glBindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glEnable(int)
+     */
+    public void glEnable(int cap) {
+        GL11.glEnable(cap);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glDisable(int)
+     */
+    public void glDisable(int cap) {
+        GL11.glDisable(cap);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glBlendFunc(int, int)
+     */
+    public void glBlendFunc(int sfactor, int dfactor) {
+        GL11.glBlendFunc(sfactor, dfactor);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glDepthFunc(int)
+     */
+    public void glDepthFunc(int func) {
+        GL11.glDepthFunc(func);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glDepthMask(boolean)
+     */
+    public void glDepthMask(boolean flag) {
+        GL11.glDepthMask(flag);
+    }
+    
+    /* (non-Javadoc)
+     * @see com.gladdware.game.render.GLApi#glViewport(int, int, int, int)
+     */
+    public void glViewport(int x, int y, int width, int height) {
+        GL11.glViewport(x, y, width, height);
+    }
+}
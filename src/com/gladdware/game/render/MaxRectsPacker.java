@@ -0,0 +1,177 @@
+/* MaxRectsPacker.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs rectangles into a single fixed-size bin using the MaxRects algorithm
+ * with the best-short-side-fit heuristic
+ * 
+ * See Jukka Jylanki, "A Thousand Ways to Pack the Bin".
+ */
+public class MaxRectsPacker {
+    
+    private final int width, height;
+    
+    /** Maximal free rectangles, each {x, y, w, h} */
+    private final List<int[]> free;
+    
+    private long usedArea;
+    
+    /**
+     * Constructor
+     *
+     * @param width bin width
+     * @param height bin height
+     */
+    public MaxRectsPacker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.free = new ArrayList<int[]>();
+        this.free.add(new int[] { 0, 0, width, height });
+    }
+    
+    /**
+     * Get the fraction of the bin covered by placed rectangles
+     *
+     * @return occupancy in [0, 1]
+     */
+    public float getOccupancy() {
+        return (float)usedArea / ((long)width * height);
+    }
+    
+    /**
+     * Place a rectangle
+     *
+     * @param w rectangle width
+     * @param h rectangle height
+     * @return the {x, y} position of the placed rectangle, or null if it
+     *         doesn't fit
+     */
+    public int[] insert(int w, int h) {
+        int bestShort = Integer.MAX_VALUE;
+        int bestLong = Integer.MAX_VALUE;
+        int[] best = null;
+        
+        for(int i = 0; i < free.size(); i++) {
+            int[] f = free.get(i);
+            
+            if(f[2] >= w && f[3] >= h) {
+                int leftX = f[2] - w, leftY = f[3] - h;
+                int shortSide = Math.min(leftX, leftY);
+                int longSide = Math.max(leftX, leftY);
+                
+                if(shortSide < bestShort ||
+                        (shortSide == bestShort && longSide < bestLong)) {
+                    bestShort = shortSide;
+                    bestLong = longSide;
+                    best = f;
+                }
+            }
+        }
+        
+        if(best == null) {
+            return null;
+        }
+        
+        int[] placed = { best[0], best[1], w, h };
+        
+        // split every free rectangle the placement overlaps
+        List<int[]> added = new ArrayList<int[]>();
+        for(int i = free.size() - 1; i >= 0; i--) {
+            int[] f = free.get(i);
+            
+            if(split(f, placed, added)) {
+                free.remove(i);
+            }
+        }
+        free.addAll(added);
+        prune();
+        
+        usedArea += (long)w * h;
+        
+        return new int[] { placed[0], placed[1] };
+    }
+    
+    /**
+     * Split a free rectangle around a placed one
+     *
+     * @return true if f overlapped and was replaced by the pieces in out
+     */
+    private static boolean split(int[] f, int[] p, List<int[]> out) {
+        if(p[0] >= f[0] + f[2] || p[0] + p[2] <= f[0] ||
+                p[1] >= f[1] + f[3] || p[1] + p[3] <= f[1]) {
+            return false;
+        }
+        
+        if(p[0] > f[0]) {
+            // left piece
+            out.add(new int[] { f[0], f[1], p[0] - f[0], f[3] });
+        }
+        if(p[0] + p[2] < f[0] + f[2]) {
+            // right piece
+            out.add(new int[] { p[0] + p[2], f[1],
+                    f[0] + f[2] - (p[0] + p[2]), f[3] });
+        }
+        if(p[1] > f[1]) {
+            // top piece
+            out.add(new int[] { f[0], f[1], f[2], p[1] - f[1] });
+        }
+        if(p[1] + p[3] < f[1] + f[3]) {
+            // bottom piece
+            out.add(new int[] { f[0], p[1] + p[3], f[2],
+                    f[1] + f[3] - (p[1] + p[3]) });
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Remove free rectangles contained in other free rectangles
+     */
+    private void prune() {
+        for(int i = 0; i < free.size(); i++) {
+            for(int j = i + 1; j < free.size(); j++) {
+                int[] a = free.get(i), b = free.get(j);
+                
+                if(contains(b, a)) {
+                    free.remove(i);
+                    i--;
+                    break;
+                }
+                if(contains(a, b)) {
+                    free.remove(j);
+                    j--;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check whether one rectangle fully contains another
+     */
+    private static boolean contains(int[] outer, int[] inner) {
+        return inner[0] >= outer[0] && inner[1] >= outer[1] &&
+                inner[0] + inner[2] <= outer[0] + outer[2] &&
+                inner[1] + inner[3] <= outer[1] + outer[3];
+    }
+}
@@ -0,0 +1,457 @@
+/* OcclusionCuller.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+import com.gladdware.game.util.Parallel;
+
+/**
+ * CPU software occlusion culling
+ * 
+ * Each frame, designated occluders (large, simple shapes like walls and
+ * floors) are rasterized at low resolution into a HiZBuffer, then object
+ * bounds are tested against its max-depth pyramid. An object is reported as
+ * occluded only when its nearest point is farther than everything already
+ * drawn over its screen rectangle, so the test never hides a visible object
+ * (up to the rasterization resolution). Rasterization is split by tile rows
+ * and object tests by index ranges across the worker pool. Nothing here
+ * touches OpenGL, so it runs headless.
+ */
+public class OcclusionCuller {
+    
+    /** Minimum number of objects per parallel test chunk */
+    private static final int TEST_CHUNK = 1024;
+    /** Minimum number of triangles per parallel transform chunk */
+    private static final int XFORM_CHUNK = 1024;
+    
+    /** Clip-space w below which a vertex is treated as behind the camera */
+    private static final float NEAR_W = 1e-5f;
+    
+    /** Triangle indices for the eight corners built by addOccluderBox() */
+    private static final int[] BOX_INDICES = {
+        0, 1, 2,  0, 2, 3,     // -z
+        4, 6, 5,  4, 7, 6,     // +z
+        0, 4, 5,  0, 5, 1,     // -y
+        3, 2, 6,  3, 6, 7,     // +y
+        0, 3, 7,  0, 7, 4,     // -x
+        1, 5, 6,  1, 6, 2      // +x
+    };
+    
+    private final HiZBuffer buffer;
+    private final float[] viewProj;
+    
+    /** World-space occluder triangles, 9 floats each */
+    private float[] occluders;
+    private int triangleCount;
+    
+    /** Screen-space occluder triangles, 9 floats each (x, y, depth) */
+    private float[] screen;
+    /** Per-triangle flag: 1 if the triangle can be rasterized */
+    private byte[] drawable;
+    
+    /** Per-object visibility flags from the last cull() */
+    private byte[] flags;
+    
+    private BoundingVolumes curVolumes;
+    private int[] curCandidates;
+    
+    private long testedCount;
+    private long occludedCount;
+    
+    /** Reusable task: transform occluder triangles to screen space */
+    private final Parallel.RangeTask transformTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            transform(start, end);
+        }
+    };
+    
+    /** Reusable task: rasterize all occluders into a range of tile rows */
+    private final Parallel.RangeTask rasterTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            for(int row = start; row < end; row++) {
+                rasterizeRow(row);
+            }
+        }
+    };
+    
+    /** Reusable task: build a range of pyramid level 1 rows */
+    private final Parallel.RangeTask pyramidTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            buffer.buildFirstLevel(start, end);
+        }
+    };
+    
+    /** Reusable task: test a range of candidate objects */
+    private final Parallel.RangeTask testTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            BoundingVolumes bv = curVolumes;
+            
+            for(int k = start; k < end; k++) {
+                int i = curCandidates[k];
+                
+                flags[k] = (byte)(testAabb(bv.centerX[i], bv.centerY[i],
+                        bv.centerZ[i], bv.extentX[i], bv.extentY[i],
+                        bv.extentZ[i]) ? 1 : 0);
+            }
+        }
+    };
+    
+    /**
+     * Constructor
+     *
+     * @param width depth buffer width, in pixels (e.g. 256)
+     * @param height depth buffer height, in pixels (e.g. 128)
+     */
+    public OcclusionCuller(int width, int height) {
+        this.buffer = new HiZBuffer(width, height);
+        this.viewProj = new float[16];
+        this.occluders = new float[9 * 64];
+        this.screen = new float[9 * 64];
+        this.drawable = new byte[64];
+        this.flags = new byte[0];
+        this.curCandidates = new int[0];
+    }
+    
+    /**
+     * Get the depth buffer, e.g. for debug display
+     *
+     * @return the occlusion depth buffer
+     */
+    public HiZBuffer getBuffer() {
+        return this.buffer;
+    }
+    
+    /**
+     * Start a new frame: forget all occluders and adopt the camera's current
+     * view-projection
+     *
+     * @param camera the camera the frame is rendered from
+     */
+    public void beginFrame(Camera camera) {
+        camera.getViewProjection(this.viewProj);
+        this.triangleCount = 0;
+    }
+    
+    /**
+     * Get the number of occluder triangles queued this frame
+     *
+     * @return occluder triangle count
+     */
+    public int getOccluderTriangleCount() {
+        return this.triangleCount;
+    }
+    
+    /**
+     * Queue an indexed occluder mesh
+     *
+     * @param positions world-space vertex positions, 3 floats per vertex
+     * @param indices triangle vertex indices, 3 per triangle
+     * @param indexCount number of indices to use
+     */
+    public void addOccluder(float[] positions, int[] indices, int indexCount) {
+        for(int k = 0; k + 2 < indexCount; k += 3) {
+            int i0 = indices[k] * 3, i1 = indices[k + 1] * 3,
+                    i2 = indices[k + 2] * 3;
+            
+            addTriangle(positions[i0], positions[i0 + 1], positions[i0 + 2],
+                    positions[i1], positions[i1 + 1], positions[i1 + 2],
+                    positions[i2], positions[i2 + 1], positions[i2 + 2]);
+        }
+    }
+    
+    /**
+     * Queue a solid axis-aligned box as an occluder
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     */
+    public void addOccluderBox(float minX, float minY, float minZ, float maxX,
+            float maxY, float maxZ) {
+        float[] v = {
+            minX, minY, minZ,   maxX, minY, minZ,
+            maxX, maxY, minZ,   minX, maxY, minZ,
+            minX, minY, maxZ,   maxX, minY, maxZ,
+            maxX, maxY, maxZ,   minX, maxY, maxZ
+        };
+        
+        addOccluder(v, BOX_INDICES, BOX_INDICES.length);
+    }
+    
+    /**
+     * Queue a single world-space occluder triangle
+     *
+     * @param x0
+     * @param y0
+     * @param z0
+     * @param x1
+     * @param y1
+     * @param z1
+     * @param x2
+     * @param y2
+     * @param z2
+     */
+    public void addTriangle(float x0, float y0, float z0, float x1, float y1,
+            float z1, float x2, float y2, float z2) {
+        if((triangleCount + 1) * 9 > occluders.length) {
+            occluders = Arrays.copyOf(occluders, occluders.length * 2);
+        }
+        
+        int o = triangleCount * 9;
+        occluders[o] = x0;
+        occluders[o + 1] = y0;
+        occluders[o + 2] = z0;
+        occluders[o + 3] = x1;
+        occluders[o + 4] = y1;
+        occluders[o + 5] = z1;
+        occluders[o + 6] = x2;
+        occluders[o + 7] = y2;
+        occluders[o + 8] = z2;
+        
+        triangleCount++;
+    }
+    
+    /**
+     * Rasterize all queued occluders and build the depth pyramid
+     * 
+     * Must be called after the occluders for the frame have been queued and
+     * before any objects are tested.
+     */
+    public void rasterize() {
+        if(screen.length < occluders.length) {
+            screen = new float[occluders.length];
+        }
+        if(drawable.length < triangleCount) {
+            drawable = new byte[occluders.length / 9];
+        }
+        
+        buffer.clear();
+        
+        Parallel.forRange(triangleCount, XFORM_CHUNK, this.transformTask);
+        Parallel.forRange(buffer.getTileRows(), 1, this.rasterTask);
+        Parallel.forRange(buffer.getFirstLevelRows(), 4, this.pyramidTask);
+        buffer.buildUpperLevels();
+    }
+    
+    /**
+     * Test an axis-aligned box against the occlusion buffer
+     *
+     * @param cx box center x
+     * @param cy box center y
+     * @param cz box center z
+     * @param hx half extent along x
+     * @param hy half extent along y
+     * @param hz half extent along z
+     * @return true if the box may be visible, false if it is hidden
+     */
+    public boolean testAabb(float cx, float cy, float cz, float hx, float hy,
+            float hz) {
+        float[] m = this.viewProj;
+        
+        float minSx = Float.MAX_VALUE, minSy = Float.MAX_VALUE;
+        float maxSx = -Float.MAX_VALUE, maxSy = -Float.MAX_VALUE;
+        float minDepth = Float.MAX_VALUE;
+        
+        for(int c = 0; c < 8; c++) {
+            float x = cx + (((c & 1) == 0) ? -hx : hx);
+            float y = cy + (((c & 2) == 0) ? -hy : hy);
+            float z = cz + (((c & 4) == 0) ? -hz : hz);
+            
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            if(w < NEAR_W) {
+                // crosses the camera plane; can't reason about it
+                return true;
+            }
+            
+            float invW = 1.0f / w;
+            float sx = (m[0] * x + m[4] * y + m[8] * z + m[12]) * invW;
+            float sy = (m[1] * x + m[5] * y + m[9] * z + m[13]) * invW;
+            float sz = (m[2] * x + m[6] * y + m[10] * z + m[14]) * invW;
+            
+            minSx = Math.min(minSx, sx);
+            maxSx = Math.max(maxSx, sx);
+            minSy = Math.min(minSy, sy);
+            maxSy = Math.max(maxSy, sy);
+            minDepth = Math.min(minDepth, sz);
+        }
+        
+        int w = buffer.getWidth(), h = buffer.getHeight();
+        
+        // NDC to pixels (y down)
+        int x0 = (int)Math.floor((minSx * 0.5f + 0.5f) * w);
+        int x1 = (int)Math.floor((maxSx * 0.5f + 0.5f) * w);
+        int y0 = (int)Math.floor((0.5f - maxSy * 0.5f) * h);
+        int y1 = (int)Math.floor((0.5f - minSy * 0.5f) * h);
+        
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, w - 1);
+        y1 = Math.min(y1, h - 1);
+        
+        if(x0 > x1 || y0 > y1) {
+            // off screen; that's the frustum culler's business
+            return true;
+        }
+        
+        float nearest = minDepth * 0.5f + 0.5f;
+        
+        return nearest <= buffer.maxDepth(x0, y0, x1, y1);
+    }
+    
+    /**
+     * Test a list of candidate objects (typically the output of a frustum
+     * culling pass) against the occlusion buffer
+     *
+     * @param volumes the object bounds
+     * @param candidates indices into volumes of the objects to test
+     * @param visible cleared, then filled with the candidates that may be
+     *        visible, in candidate order; must not be candidates
+     * @return the number of visible objects
+     * @throws IllegalArgumentException if visible is candidates
+     */
+    public int cull(BoundingVolumes volumes, VisibilityList candidates,
+            VisibilityList visible) {
+        if(candidates == visible) {
+            throw new IllegalArgumentException(
+                    "Occlusion culling in place is not supported");
+        }
+        
+        int n = candidates.size();
+        
+        if(flags.length < n) {
+            flags = new byte[Math.max(n, flags.length * 2)];
+        }
+        
+        this.curVolumes = volumes;
+        this.curCandidates = candidates.array();
+        Parallel.forRange(n, TEST_CHUNK, this.testTask);
+        this.curVolumes = null;
+        
+        visible.clear();
+        visible.ensureCapacity(n);
+        int[] c = candidates.array();
+        for(int k = 0; k < n; k++) {
+            if(flags[k] != 0) {
+                visible.add(c[k]);
+            }
+        }
+        
+        testedCount += n;
+        occludedCount += n - visible.size();
+        
+        return visible.size();
+    }
+    
+    /**
+     * Get the total number of objects tested since the last stats reset
+     *
+     * @return tested object count
+     */
+    public long getTestedCount() {
+        return this.testedCount;
+    }
+    
+    /**
+     * Get the total number of objects found occluded since the last stats
+     * reset
+     *
+     * @return occluded object count
+     */
+    public long getOccludedCount() {
+        return this.occludedCount;
+    }
+    
+    /**
+     * Reset the culling statistics
+     */
+    public void resetStats() {
+        this.testedCount = 0L;
+        this.occludedCount = 0L;
+    }
+    
+    /**
+     * Transform a range of occluder triangles into screen space
+     */
+    private void transform(int start, int end) {
+        float[] m = this.viewProj;
+        float w = buffer.getWidth(), h = buffer.getHeight();
+        
+        for(int t = start; t < end; t++) {
+            int o = t * 9;
+            boolean ok = true;
+            
+            for(int v = 0; v < 9; v += 3) {
+                float x = occluders[o + v];
+                float y = occluders[o + v + 1];
+                float z = occluders[o + v + 2];
+                
+                float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+                float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+                
+                if(cw < NEAR_W || cz < -cw) {
+                    // dropping an occluder is always safe
+                    ok = false;
+                    break;
+                }
+                
+                float invW = 1.0f / cw;
+                float cx = (m[0] * x + m[4] * y + m[8] * z + m[12]) * invW;
+                float cy = (m[1] * x + m[5] * y + m[9] * z + m[13]) * invW;
+                
+                screen[o + v] = (cx * 0.5f + 0.5f) * w;
+                screen[o + v + 1] = (0.5f - cy * 0.5f) * h;
+                screen[o + v + 2] = Math.min(1.0f, cz * invW * 0.5f + 0.5f);
+            }
+            
+            drawable[t] = (byte)(ok ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Rasterize every drawable occluder triangle into one tile row
+     */
+    private void rasterizeRow(int row) {
+        float top = row * HiZBuffer.TILE;
+        float bottom = top + HiZBuffer.TILE;
+        float[] s = this.screen;
+        
+        for(int t = 0; t < triangleCount; t++) {
+            if(drawable[t] == 0) {
+                continue;
+            }
+            
+            int o = t * 9;
+            float y0 = s[o + 1], y1 = s[o + 4], y2 = s[o + 7];
+            
+            // quick reject against the row
+            if((y0 < top && y1 < top && y2 < top) ||
+                    (y0 >= bottom && y1 >= bottom && y2 >= bottom)) {
+                continue;
+            }
+            
+            buffer.rasterize(row, s[o], y0, s[o + 2], s[o + 3], y1, s[o + 5],
+                    s[o + 6], y2, s[o + 8]);
+        }
+    }
+}
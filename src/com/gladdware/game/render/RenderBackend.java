@@ -0,0 +1,65 @@
+/* RenderBackend.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Executes sorted draw commands on the render thread
+ * 
+ * The render queue only calls setShader() and setTexture() when the value
+ * actually changes between consecutive draws, so implementations can issue
+ * the corresponding API calls directly. The engine ships no implementation:
+ * games provide one for their renderer (for OpenGL, through the tracker from
+ * Window.getGLState()), and a recording mock makes queue behavior testable
+ * without a graphics context.
+ */
+public interface RenderBackend {
+    
+    /**
+     * Called once before the first command of a frame is executed
+     */
+    void begin();
+    
+    /**
+     * Make the given shader current
+     *
+     * @param shader shader id
+     */
+    void setShader(int shader);
+    
+    /**
+     * Make the given texture current
+     *
+     * @param texture texture id
+     */
+    void setTexture(int texture);
+    
+    /**
+     * Issue a draw
+     *
+     * @param mesh mesh id
+     * @param userData extra per-draw data (transform slot, instance id, ...)
+     */
+    void draw(int mesh, int userData);
+    
+    /**
+     * Called once after the last command of a frame is executed
+     */
+    void end();
+}
@@ -0,0 +1,628 @@
+/* RenderGraph.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Declarative frame render graph
+ * 
+ * Instead of running passes in a hand-written order, the game registers each
+ * pass together with the resources it reads and writes, then calls compile()
+ * and execute():
+ * 
+ * - Each write makes a new version of a resource. A pass that reads a
+ *   resource reads the version of the last pass added before it that writes
+ *   it, and runs after that pass; a pass that writes a resource runs after
+ *   the earlier passes writing or reading it. Several passes may write the
+ *   same resource; they run in the order they were added, and a pass that
+ *   blends onto a resource should declare both a read and a write.
+ * - Passes whose results never reach an imported resource, a resource marked
+ *   as output, or a pass marked as having side effects are culled.
+ * - Transient render targets whose lifetimes (first to last use in the final
+ *   pass order) do not overlap share one physical target when their
+ *   descriptions are equal.
+ * 
+ * All of this is plain CPU work; physical targets come from a
+ * RenderTargetPool, so graphs can be compiled and executed without a
+ * graphics context. A graph is usually cleared and rebuilt every frame.
+ */
+public class RenderGraph {
+    
+    private static class Pass {
+        final String name;
+        final RenderPass impl;
+        final List<Integer> reads = new ArrayList<Integer>();
+        final List<Integer> writes = new ArrayList<Integer>();
+        boolean sideEffect;
+        
+        Pass(String name, RenderPass impl) {
+            this.name = name;
+            this.impl = impl;
+        }
+    }
+    
+    private static class Resource {
+        final String name;
+        final RenderTargetDesc desc;
+        final int external;
+        boolean output;
+        final List<Integer> writers = new ArrayList<Integer>();
+        
+        Resource(String name, RenderTargetDesc desc, int external) {
+            this.name = name;
+            this.desc = desc;
+            this.external = external;
+        }
+        
+        boolean isImported() {
+            return desc == null;
+        }
+    }
+    
+    private final List<Pass> passes;
+    private final List<Resource> resources;
+    
+    /** Compiled state */
+    private boolean compiled;
+    private boolean[] live;
+    private int[] order;
+    private int[] physicalOf;
+    private List<RenderTargetDesc> physicalDescs;
+    private int[] physicalFirst;
+    private int[] physicalLast;
+    private long transientBytes;
+    private long allocatedBytes;
+    
+    /** Execution state */
+    private int[] physicalTargets;
+    private boolean executing;
+    
+    /**
+     * Constructor
+     */
+    public RenderGraph() {
+        this.passes = new ArrayList<Pass>();
+        this.resources = new ArrayList<Resource>();
+        this.physicalDescs = new ArrayList<RenderTargetDesc>();
+    }
+    
+    /**
+     * Declare a transient render target owned by the graph
+     *
+     * @param name debug name
+     * @param desc target description
+     * @return the resource handle
+     */
+    public int createTarget(String name, RenderTargetDesc desc) {
+        if(desc == null) {
+            throw new IllegalArgumentException("Transient target " + name +
+                    " needs a description");
+        }
+        
+        return addResource(new Resource(name, desc, 0));
+    }
+    
+    /**
+     * Declare an externally owned render target (e.g. the back buffer)
+     * 
+     * Imported targets are always treated as graph outputs and never aliased.
+     *
+     * @param name debug name
+     * @param target backend target handle
+     * @return the resource handle
+     */
+    public int importTarget(String name, int target) {
+        Resource r = new Resource(name, null, target);
+        r.output = true;
+        
+        return addResource(r);
+    }
+    
+    /**
+     * Keep the passes producing a transient resource alive even though no
+     * other pass reads it (e.g. a target read back by the game)
+     *
+     * @param resource the resource handle
+     */
+    public void markOutput(int resource) {
+        resource(resource).output = true;
+        this.compiled = false;
+    }
+    
+    /**
+     * Add a pass
+     *
+     * @param name debug name
+     * @param impl the pass implementation
+     * @return the pass handle
+     */
+    public int addPass(String name, RenderPass impl) {
+        passes.add(new Pass(name, impl));
+        this.compiled = false;
+        
+        return passes.size() - 1;
+    }
+    
+    /**
+     * Declare that a pass reads a resource
+     * 
+     * The pass reads what the last pass added before it wrote to the
+     * resource, so producers must be added before their readers.
+     *
+     * @param pass the pass handle
+     * @param resource the resource handle
+     */
+    public void read(int pass, int resource) {
+        resource(resource);
+        pass(pass).reads.add(resource);
+        this.compiled = false;
+    }
+    
+    /**
+     * Declare that a pass writes a resource
+     *
+     * @param pass the pass handle
+     * @param resource the resource handle
+     */
+    public void write(int pass, int resource) {
+        pass(pass).writes.add(resource);
+        resource(resource).writers.add(pass);
+        this.compiled = false;
+    }
+    
+    /**
+     * Never cull a pass, even if nothing reads its output (e.g. a pass that
+     * uploads data or reads back queries)
+     *
+     * @param pass the pass handle
+     */
+    public void setSideEffect(int pass) {
+        pass(pass).sideEffect = true;
+        this.compiled = false;
+    }
+    
+    /**
+     * Order and cull passes and assign physical render targets
+     *
+     * @throws IllegalStateException if a transient resource is read before
+     *      any pass writes it, or the declared dependencies form a cycle
+     */
+    public void compile() {
+        int n = passes.size();
+        
+        // dependency edges: pass -> passes that must run before it
+        List<List<Integer>> before = new ArrayList<List<Integer>>(n);
+        List<List<Integer>> producers = new ArrayList<List<Integer>>(n);
+        List<List<Integer>> readers =
+                new ArrayList<List<Integer>>(resources.size());
+        for(int p = 0; p < n; p++) {
+            before.add(new ArrayList<Integer>());
+            producers.add(new ArrayList<Integer>());
+        }
+        for(int r = 0; r < resources.size(); r++) {
+            readers.add(new ArrayList<Integer>());
+        }
+        
+        for(int p = 0; p < n; p++) {
+            Pass pass = passes.get(p);
+            
+            // a read binds to the version of the last earlier writer
+            for(int r : pass.reads) {
+                Resource res = resources.get(r);
+                readers.get(r).add(p);
+                
+                int producer = -1;
+                for(int w : res.writers) {
+                    if(w < p && w > producer) {
+                        producer = w;
+                    }
+                }
+                
+                if(producer >= 0) {
+                    producers.get(p).add(producer);
+                    before.get(p).add(producer);
+                } else if(!res.isImported()) {
+                    throw new IllegalStateException("Pass " + pass.name +
+                            " reads " + res.name + " before any pass " +
+                            "writes it");
+                }
+            }
+            
+            // a write runs after the earlier writes and reads it replaces
+            for(int r : pass.writes) {
+                for(int w : resources.get(r).writers) {
+                    if(w < p) {
+                        before.get(p).add(w);
+                    }
+                }
+                for(int q : readers.get(r)) {
+                    if(q < p) {
+                        before.get(p).add(q);
+                    }
+                }
+            }
+        }
+        
+        // cull: walk back from the passes producing outputs
+        this.live = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        
+        for(int p = 0; p < n; p++) {
+            if(passes.get(p).sideEffect) {
+                live[p] = true;
+                stack[top++] = p;
+            }
+        }
+        for(Resource res : resources) {
+            if(res.output) {
+                for(int w : res.writers) {
+                    if(!live[w]) {
+                        live[w] = true;
+                        stack[top++] = w;
+                    }
+                }
+            }
+        }
+        while(top > 0) {
+            int p = stack[--top];
+            
+            for(int w : producers.get(p)) {
+                if(!live[w]) {
+                    live[w] = true;
+                    stack[top++] = w;
+                }
+            }
+        }
+        
+        // topological sort of live passes, ties broken by declaration order
+        int[] pending = new int[n];
+        int liveCount = 0;
+        for(int p = 0; p < n; p++) {
+            if(!live[p]) {
+                continue;
+            }
+            
+            liveCount++;
+            for(int b : before.get(p)) {
+                if(live[b]) {
+                    pending[p]++;
+                }
+            }
+        }
+        
+        List<List<Integer>> after = new ArrayList<List<Integer>>(n);
+        for(int p = 0; p < n; p++) {
+            after.add(new ArrayList<Integer>());
+        }
+        for(int p = 0; p < n; p++) {
+            if(live[p]) {
+                for(int b : before.get(p)) {
+                    if(live[b]) {
+                        after.get(b).add(p);
+                    }
+                }
+            }
+        }
+        
+        this.order = new int[liveCount];
+        boolean[] done = new boolean[n];
+        for(int i = 0; i < liveCount; i++) {
+            int next = -1;
+            for(int p = 0; p < n; p++) {
+                if(live[p] && !done[p] && pending[p] == 0) {
+                    next = p;
+                    break;
+                }
+            }
+            
+            if(next < 0) {
+                throw new IllegalStateException(
+                        "Render graph has a dependency cycle involving " +
+                        describeCycle(done));
+            }
+            
+            done[next] = true;
+            order[i] = next;
+            for(int a : after.get(next)) {
+                pending[a]--;
+            }
+        }
+        
+        assignTargets();
+        this.compiled = true;
+    }
+    
+    /**
+     * Run the live passes in order
+     * 
+     * Physical targets are acquired from the pool just before the first pass
+     * using them and released right after the last one.
+     *
+     * @param pool supplies physical render targets
+     */
+    public void execute(RenderTargetPool pool) {
+        if(!compiled) {
+            compile();
+        }
+        
+        int physicalCount = physicalDescs.size();
+        this.physicalTargets = new int[physicalCount];
+        this.executing = true;
+        
+        try {
+            for(int i = 0; i < order.length; i++) {
+                for(int t = 0; t < physicalCount; t++) {
+                    if(physicalFirst[t] == i) {
+                        physicalTargets[t] = pool.acquire(physicalDescs.get(t));
+                    }
+                }
+                
+                Pass pass = passes.get(order[i]);
+                pass.impl.execute(this);
+                
+                for(int t = 0; t < physicalCount; t++) {
+                    if(physicalLast[t] == i) {
+                        pool.release(physicalTargets[t], physicalDescs.get(t));
+                    }
+                }
+            }
+        } finally {
+            this.executing = false;
+        }
+    }
+    
+    /**
+     * Get the backend target for a resource
+     * 
+     * Only valid while a pass that declared the resource is executing.
+     *
+     * @param resource the resource handle
+     * @return the backend target handle
+     */
+    public int getTarget(int resource) {
+        Resource res = resource(resource);
+        
+        if(res.isImported()) {
+            return res.external;
+        }
+        if(!executing || physicalOf[resource] < 0) {
+            throw new IllegalStateException("Target " + res.name +
+                    " is not allocated");
+        }
+        
+        return physicalTargets[physicalOf[resource]];
+    }
+    
+    /**
+     * Remove all passes and resources
+     */
+    public void clear() {
+        passes.clear();
+        resources.clear();
+        physicalDescs.clear();
+        this.compiled = false;
+    }
+    
+    /**
+     * Get the compiled pass order
+     *
+     * @return pass handles of the live passes, in execution order
+     */
+    public int[] getExecutionOrder() {
+        requireCompiled();
+        return this.order.clone();
+    }
+    
+    /**
+     * Check whether compile() culled a pass
+     *
+     * @param pass the pass handle
+     * @return true if the pass will not run
+     */
+    public boolean isCulled(int pass) {
+        requireCompiled();
+        return !live[pass];
+    }
+    
+    /**
+     * Get the physical target slot assigned to a transient resource
+     * 
+     * Resources sharing a slot are aliased.
+     *
+     * @param resource the resource handle
+     * @return the slot, or -1 if the resource is imported or unused
+     */
+    public int getPhysicalSlot(int resource) {
+        requireCompiled();
+        return physicalOf[resource];
+    }
+    
+    /**
+     * Get the number of physical targets the compiled graph needs
+     *
+     * @return the physical target count
+     */
+    public int getPhysicalTargetCount() {
+        requireCompiled();
+        return physicalDescs.size();
+    }
+    
+    /**
+     * Get the memory the used transient targets would take without aliasing
+     *
+     * @return the size, in bytes
+     */
+    public long getTransientBytes() {
+        requireCompiled();
+        return this.transientBytes;
+    }
+    
+    /**
+     * Get the memory of the physical targets actually needed
+     *
+     * @return the size, in bytes
+     */
+    public long getAllocatedBytes() {
+        requireCompiled();
+        return this.allocatedBytes;
+    }
+    
+    /**
+     * Get a pass's debug name
+     *
+     * @param pass the pass handle
+     * @return the name
+     */
+    public String getPassName(int pass) {
+        return pass(pass).name;
+    }
+    
+    /**
+     * Compute transient resource lifetimes and alias non-overlapping ones
+     */
+    private void assignTargets() {
+        int count = resources.size();
+        int[] first = new int[count];
+        int[] last = new int[count];
+        Arrays.fill(first, -1);
+        Arrays.fill(last, -1);
+        
+        for(int i = 0; i < order.length; i++) {
+            Pass pass = passes.get(order[i]);
+            
+            for(int r : pass.reads) {
+                touch(first, last, r, i);
+            }
+            for(int r : pass.writes) {
+                touch(first, last, r, i);
+            }
+        }
+        
+        // resources sorted by first use
+        Integer[] sorted = new Integer[count];
+        for(int r = 0; r < count; r++) {
+            sorted[r] = r;
+        }
+        final int[] firstUse = first;
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return firstUse[a] - firstUse[b];
+            }
+        });
+        
+        this.physicalOf = new int[count];
+        Arrays.fill(physicalOf, -1);
+        physicalDescs.clear();
+        int[] physFirst = new int[count];
+        int[] physLast = new int[count];
+        this.transientBytes = 0;
+        this.allocatedBytes = 0;
+        
+        for(int s = 0; s < count; s++) {
+            int r = sorted[s];
+            Resource res = resources.get(r);
+            
+            if(res.isImported() || first[r] < 0) {
+                continue;
+            }
+            
+            transientBytes += res.desc.getByteSize();
+            
+            int slot = -1;
+            for(int t = 0; t < physicalDescs.size(); t++) {
+                if(physLast[t] < first[r] &&
+                        physicalDescs.get(t).equals(res.desc)) {
+                    slot = t;
+                    break;
+                }
+            }
+            
+            if(slot < 0) {
+                slot = physicalDescs.size();
+                physicalDescs.add(res.desc);
+                physFirst[slot] = first[r];
+                allocatedBytes += res.desc.getByteSize();
+            }
+            
+            physLast[slot] = last[r];
+            physicalOf[r] = slot;
+        }
+        
+        this.physicalFirst = Arrays.copyOf(physFirst, physicalDescs.size());
+        this.physicalLast = Arrays.copyOf(physLast, physicalDescs.size());
+    }
+    
+    private static void touch(int[] first, int[] last, int r, int i) {
+        if(first[r] < 0) {
+            first[r] = i;
+        }
+        last[r] = i;
+    }
+    
+    private String describeCycle(boolean[] done) {
+        StringBuilder sb = new StringBuilder();
+        
+        for(int p = 0; p < passes.size(); p++) {
+            if(live[p] && !done[p]) {
+                if(sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(passes.get(p).name);
+            }
+        }
+        
+        return sb.toString();
+    }
+    
+    private int addResource(Resource r) {
+        resources.add(r);
+        this.compiled = false;
+        
+        return resources.size() - 1;
+    }
+    
+    private Pass pass(int pass) {
+        if(pass < 0 || pass >= passes.size()) {
+            throw new IllegalArgumentException("Invalid pass handle " + pass);
+        }
+        
+        return passes.get(pass);
+    }
+    
+    private Resource resource(int resource) {
+        if(resource < 0 || resource >= resources.size()) {
+            throw new IllegalArgumentException("Invalid resource handle " +
+                    resource);
+        }
+        
+        return resources.get(resource);
+    }
+    
+    private void requireCompiled() {
+        if(!compiled) {
+            throw new IllegalStateException("Render graph is not compiled");
+        }
+    }
+}
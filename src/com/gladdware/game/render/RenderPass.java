@@ -0,0 +1,37 @@
+/* RenderPass.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * One pass of a render graph
+ * 
+ * A pass is only executed when the graph decides its output is needed. It
+ * looks up the physical render targets for the resources it declared with
+ * RenderGraph.getTarget().
+ */
+public interface RenderPass {
+    
+    /**
+     * Record or issue the pass's work
+     *
+     * @param graph the executing graph
+     */
+    void execute(RenderGraph graph);
+}
@@ -0,0 +1,329 @@
+/* RenderQueue.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frame render command queue
+ * 
+ * Each frame goes through three phases:
+ * 
+ * 1. Record: any number of threads call getBuffer() and record draw commands
+ *    into their own per-thread CommandBuffer, without locking.
+ * 2. Sort: once recording threads are done, the render thread calls sort(),
+ *    which merges all buffers and radix sorts the commands by key.
+ * 3. Execute: the render thread calls execute() to replay the commands through
+ *    a RenderBackend, skipping shader and texture changes that would not
+ *    change anything. reset() then prepares the queue for the next frame.
+ */
+public class RenderQueue {
+    
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = 64 / RADIX_BITS;
+    
+    /** Every buffer handed out, so they can be merged */
+    private final List<CommandBuffer> buffers;
+    
+    private final ThreadLocal<CommandBuffer> threadBuffer =
+            new ThreadLocal<CommandBuffer>() {
+        @Override
+        protected CommandBuffer initialValue() {
+            CommandBuffer b = new CommandBuffer();
+            
+            synchronized(buffers) {
+                buffers.add(b);
+            }
+            
+            return b;
+        }
+    };
+    
+    /** Merged commands, in sorted order after sort() */
+    private long[] keys;
+    private int[] order;
+    private int[] meshes;
+    private int[] userData;
+    private int count;
+    
+    /** Radix sort scratch space */
+    private long[] tmpKeys;
+    private int[] tmpOrder;
+    private final int[] histograms;
+    
+    private boolean sorted;
+    
+    private int drawCount;
+    private int shaderChanges;
+    private int textureChanges;
+    
+    /**
+     * Constructor
+     */
+    public RenderQueue() {
+        this.buffers = new ArrayList<CommandBuffer>();
+        this.keys = new long[0];
+        this.order = new int[0];
+        this.meshes = new int[0];
+        this.userData = new int[0];
+        this.tmpKeys = new long[0];
+        this.tmpOrder = new int[0];
+        this.histograms = new int[PASSES * RADIX];
+    }
+    
+    /**
+     * Get the calling thread's command buffer
+     *
+     * @return the calling thread's command buffer for this queue
+     */
+    public CommandBuffer getBuffer() {
+        return threadBuffer.get();
+    }
+    
+    /**
+     * Get the number of commands merged by the last sort()
+     *
+     * @return the sorted command count
+     */
+    public int size() {
+        return this.count;
+    }
+    
+    /**
+     * Get a sorted command key
+     *
+     * @param i position in sorted order
+     * @return the command's sort key
+     */
+    public long getKey(int i) {
+        return keys[i];
+    }
+    
+    /**
+     * Merge all per-thread buffers and sort the commands by key
+     * 
+     * Must only be called once all recording threads have finished. Commands
+     * with equal keys keep their per-thread recording order.
+     */
+    public void sort() {
+        List<CommandBuffer> snapshot;
+        synchronized(buffers) {
+            snapshot = new ArrayList<CommandBuffer>(buffers);
+        }
+        
+        int n = 0;
+        for(int b = 0; b < snapshot.size(); b++) {
+            n += snapshot.get(b).count;
+        }
+        
+        ensureCapacity(n);
+        
+        // merge
+        int o = 0;
+        for(int b = 0; b < snapshot.size(); b++) {
+            CommandBuffer cb = snapshot.get(b);
+            
+            System.arraycopy(cb.keys, 0, keys, o, cb.count);
+            System.arraycopy(cb.meshes, 0, meshes, o, cb.count);
+            System.arraycopy(cb.userData, 0, userData, o, cb.count);
+            o += cb.count;
+        }
+        
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        
+        this.count = n;
+        radixSort(n);
+        this.sorted = true;
+    }
+    
+    /**
+     * Replay the sorted commands through a backend
+     *
+     * @param backend the backend to execute the commands
+     */
+    public void execute(RenderBackend backend) {
+        if(!sorted) {
+            sort();
+        }
+        
+        drawCount = 0;
+        shaderChanges = 0;
+        textureChanges = 0;
+        
+        int curShader = -1;
+        int curTexture = -1;
+        
+        backend.begin();
+        
+        for(int i = 0; i < count; i++) {
+            long key = keys[i];
+            int shader = SortKey.shader(key);
+            int texture = SortKey.texture(key);
+            
+            if(shader != curShader) {
+                backend.setShader(shader);
+                curShader = shader;
+                shaderChanges++;
+            }
+            
+            if(texture != curTexture) {
+                backend.setTexture(texture);
+                curTexture = texture;
+                textureChanges++;
+            }
+            
+            int c = order[i];
+            backend.draw(meshes[c], userData[c]);
+            drawCount++;
+        }
+        
+        backend.end();
+    }
+    
+    /**
+     * Discard all recorded and sorted commands, ready for the next frame
+     */
+    public void reset() {
+        synchronized(buffers) {
+            for(int b = 0; b < buffers.size(); b++) {
+                buffers.get(b).reset();
+            }
+        }
+        
+        this.count = 0;
+        this.sorted = false;
+    }
+    
+    /**
+     * Get the number of draws issued by the last execute()
+     *
+     * @return the draw count
+     */
+    public int getDrawCount() {
+        return this.drawCount;
+    }
+    
+    /**
+     * Get the number of shader changes issued by the last execute()
+     *
+     * @return the shader change count
+     */
+    public int getShaderChanges() {
+        return this.shaderChanges;
+    }
+    
+    /**
+     * Get the number of texture changes issued by the last execute()
+     *
+     * @return the texture change count
+     */
+    public int getTextureChanges() {
+        return this.textureChanges;
+    }
+    
+    /**
+     * Grow the merge and scratch arrays to hold n commands
+     */
+    private void ensureCapacity(int n) {
+        if(keys.length >= n) {
+            return;
+        }
+        
+        int cap = Math.max(n, keys.length * 2);
+        keys = new long[cap];
+        order = new int[cap];
+        meshes = new int[cap];
+        userData = new int[cap];
+        tmpKeys = new long[cap];
+        tmpOrder = new int[cap];
+    }
+    
+    /**
+     * Stable LSD radix sort of (keys, order) by key, 8 bits per pass
+     * 
+     * All histograms are built in one pass over the keys, and passes where
+     * every key has the same digit are skipped entirely; with small id ranges
+     * most of the 8 passes disappear.
+     */
+    private void radixSort(int n) {
+        int[] h = this.histograms;
+        Arrays.fill(h, 0);
+        
+        for(int i = 0; i < n; i++) {
+            long k = keys[i];
+            
+            for(int p = 0; p < PASSES; p++) {
+                h[p * RADIX + (int)((k >>> (p * RADIX_BITS)) & (RADIX - 1))]++;
+            }
+        }
+        
+        long[] srcK = keys, dstK = tmpKeys;
+        int[] srcO = order, dstO = tmpOrder;
+        
+        for(int p = 0; p < PASSES; p++) {
+            int base = p * RADIX;
+            
+            // skip the pass if one digit holds every key
+            boolean trivial = false;
+            for(int d = 0; d < RADIX; d++) {
+                if(h[base + d] == n) {
+                    trivial = true;
+                    break;
+                } else if(h[base + d] != 0) {
+                    break;
+                }
+            }
+            if(trivial) {
+                continue;
+            }
+            
+            // prefix sums to bucket offsets
+            int sum = 0;
+            for(int d = 0; d < RADIX; d++) {
+                int c = h[base + d];
+                h[base + d] = sum;
+                sum += c;
+            }
+            
+            int shift = p * RADIX_BITS;
+            for(int i = 0; i < n; i++) {
+                long k = srcK[i];
+                int pos = h[base + (int)((k >>> shift) & (RADIX - 1))]++;
+                
+                dstK[pos] = k;
+                dstO[pos] = srcO[i];
+            }
+            
+            long[] tk = srcK; srcK = dstK; dstK = tk;
+            int[] to = srcO; srcO = dstO; dstO = to;
+        }
+        
+        // leave the result in keys/order
+        this.keys = srcK;
+        this.tmpKeys = dstK;
+        this.order = srcO;
+        this.tmpOrder = dstO;
+    }
+}
@@ -0,0 +1,113 @@
+/* RenderTargetDesc.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Description of a render target
+ * 
+ * Two transient graph resources can share one physical render target only if
+ * their descriptions are equal.
+ */
+public class RenderTargetDesc {
+    
+    private final int width;
+    private final int height;
+    private final int format;
+    private final int bytesPerPixel;
+    
+    /**
+     * Constructor
+     *
+     * @param width width, in pixels
+     * @param height height, in pixels
+     * @param format backend pixel format (e.g. GL_RGBA8)
+     * @param bytesPerPixel size of one pixel in the format, used for memory
+     *      accounting
+     */
+    public RenderTargetDesc(int width, int height, int format,
+            int bytesPerPixel) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid render target size " +
+                    width + "x" + height);
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.bytesPerPixel = bytesPerPixel;
+    }
+    
+    /**
+     * Get the width
+     *
+     * @return the width, in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Get the height
+     *
+     * @return the height, in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Get the pixel format
+     *
+     * @return the backend pixel format
+     */
+    public int getFormat() {
+        return this.format;
+    }
+    
+    /**
+     * Get the memory needed by a target of this description
+     *
+     * @return the size, in bytes
+     */
+    public long getByteSize() {
+        return (long)width * height * bytesPerPixel;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof RenderTargetDesc)) {
+            return false;
+        }
+        
+        RenderTargetDesc d = (RenderTargetDesc)o;
+        return width == d.width && height == d.height && format == d.format &&
+                bytesPerPixel == d.bytesPerPixel;
+    }
+    
+    @Override
+    public int hashCode() {
+        return ((width * 31 + height) * 31 + format) * 31 + bytesPerPixel;
+    }
+    
+    @Override
+    public String toString() {
+        return width + "x" + height + " fmt=" + format;
+    }
+}
@@ -0,0 +1,45 @@
+/* RenderTargetPool.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Supplies physical render targets to a render graph
+ * 
+ * Implementations typically keep released targets around and hand them out
+ * again on later frames instead of recreating them.
+ */
+public interface RenderTargetPool {
+    
+    /**
+     * Get a render target matching a description
+     *
+     * @param desc the target description
+     * @return backend target handle (e.g. a framebuffer or texture name)
+     */
+    int acquire(RenderTargetDesc desc);
+    
+    /**
+     * Return a render target obtained from acquire()
+     *
+     * @param target the target handle
+     * @param desc the description it was acquired with
+     */
+    void release(int target, RenderTargetDesc desc);
+}
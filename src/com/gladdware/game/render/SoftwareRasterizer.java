@@ -0,0 +1,511 @@
+/* SoftwareRasterizer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+import com.gladdware.game.math.Matrix4f;
+import com.gladdware.game.util.Parallel;
+
+/**
+ * Tile-binned, multithreaded triangle rasterizer
+ * 
+ * Triangles are transformed, clipped against the near plane and set up on the
+ * submitting thread, then binned into TILE_SIZE x TILE_SIZE screen tiles. On
+ * flush() every tile is rasterized independently on the worker pool, drawing
+ * its triangles in submission order, so results are deterministic and tiles
+ * never contend for pixels. Rasterization does depth testing (less-than),
+ * perspective-correct interpolation of texture coordinates and vertex color,
+ * and nearest-filtered texturing modulated by the vertex color.
+ * 
+ * Vertices are FLOATS_PER_VERTEX floats each: x, y, z, u, v, r, g, b, a.
+ */
+public class SoftwareRasterizer {
+    
+    /** Width and height of a bin tile, in pixels */
+    public static final int TILE_SIZE = 32;
+    
+    /** Floats per input vertex: position, texture coordinate, color */
+    public static final int FLOATS_PER_VERTEX = 9;
+    
+    /** Floats per clip-space vertex: x, y, z, w, u, v, r, g, b, a */
+    private static final int CLIP_FLOATS = 10;
+    /** Floats per vertex of a set-up triangle */
+    private static final int SETUP_VERTEX = 10;
+    /** Floats per set-up triangle */
+    private static final int SETUP_FLOATS = SETUP_VERTEX * 3;
+    
+    private FrameBuffer target;
+    private int tilesX, tilesY;
+    
+    private final float[] transform;
+    private SoftwareTexture texture;
+    private boolean cullBackFaces;
+    
+    /** Set-up triangles awaiting rasterization */
+    private float[] triangles;
+    private SoftwareTexture[] triTextures;
+    private int triangleCount;
+    
+    /** Triangle indices per tile, in submission order */
+    private int[][] bins;
+    private int[] binCounts;
+    
+    /** Clipping scratch space: input triangle and clipped polygon */
+    private final float[] clipIn = new float[3 * CLIP_FLOATS];
+    private final float[] clipOut = new float[4 * CLIP_FLOATS];
+    
+    private long submittedCount;
+    private long rasterizedCount;
+    
+    /** Reusable task: rasterize a range of tiles */
+    private final Parallel.RangeTask tileTask = new Parallel.RangeTask() {
+        public void run(int start, int end) {
+            for(int t = start; t < end; t++) {
+                rasterizeTile(t);
+            }
+        }
+    };
+    
+    /**
+     * Constructor
+     *
+     * @param target the frame buffer to draw into
+     */
+    public SoftwareRasterizer(FrameBuffer target) {
+        this.transform = Matrix4f.identity().get(new float[16]);
+        this.triangles = new float[SETUP_FLOATS * 256];
+        this.triTextures = new SoftwareTexture[256];
+        
+        setTarget(target);
+    }
+    
+    /**
+     * Change the frame buffer to draw into
+     * 
+     * Pending triangles are discarded.
+     *
+     * @param target the new frame buffer
+     */
+    public void setTarget(FrameBuffer target) {
+        this.target = target;
+        this.tilesX = (target.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (target.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        
+        int tiles = tilesX * tilesY;
+        this.bins = new int[tiles][16];
+        this.binCounts = new int[tiles];
+        this.triangleCount = 0;
+    }
+    
+    /**
+     * Get the frame buffer being drawn into
+     *
+     * @return the target frame buffer
+     */
+    public FrameBuffer getTarget() {
+        return this.target;
+    }
+    
+    /**
+     * Set the transform from vertex positions to clip space (usually
+     * projection * view * model) for subsequently submitted triangles
+     *
+     * @param m the transform matrix
+     */
+    public void setTransform(Matrix4f m) {
+        m.get(this.transform);
+    }
+    
+    /**
+     * Set the clip-space transform from a column-major array
+     *
+     * @param m the transform matrix (16 elements)
+     */
+    public void setTransform(float[] m) {
+        System.arraycopy(m, 0, this.transform, 0, 16);
+    }
+    
+    /**
+     * Set the texture for subsequently submitted triangles
+     *
+     * @param tex the texture, or null to use vertex color only
+     */
+    public void setTexture(SoftwareTexture tex) {
+        this.texture = tex;
+    }
+    
+    /**
+     * Enable or disable culling of clockwise (back-facing) triangles
+     *
+     * @param cull true to cull back faces
+     */
+    public void setCullBackFaces(boolean cull) {
+        this.cullBackFaces = cull;
+    }
+    
+    /**
+     * Clear the target color and depth buffers
+     * 
+     * Pending triangles are drawn first.
+     *
+     * @param argb the packed ARGB clear color
+     */
+    public void clear(int argb) {
+        flush();
+        target.clear(argb);
+    }
+    
+    /**
+     * Submit indexed triangles
+     *
+     * @param vertices vertex data, FLOATS_PER_VERTEX floats per vertex
+     * @param indices vertex indices, 3 per triangle
+     * @param indexCount number of indices to use
+     */
+    public void drawTriangles(float[] vertices, int[] indices, int indexCount) {
+        for(int k = 0; k + 2 < indexCount; k += 3) {
+            loadClipVertex(vertices, indices[k], 0);
+            loadClipVertex(vertices, indices[k + 1], 1);
+            loadClipVertex(vertices, indices[k + 2], 2);
+            
+            submitClipTriangle();
+        }
+    }
+    
+    /**
+     * Submit non-indexed triangles
+     *
+     * @param vertices vertex data, FLOATS_PER_VERTEX floats per vertex, 3
+     *        vertices per triangle
+     * @param vertexCount number of vertices to use
+     */
+    public void drawTriangles(float[] vertices, int vertexCount) {
+        for(int v = 0; v + 2 < vertexCount; v += 3) {
+            loadClipVertex(vertices, v, 0);
+            loadClipVertex(vertices, v + 1, 1);
+            loadClipVertex(vertices, v + 2, 2);
+            
+            submitClipTriangle();
+        }
+    }
+    
+    /**
+     * Rasterize all pending triangles into the target
+     */
+    public void flush() {
+        if(triangleCount == 0) {
+            return;
+        }
+        
+        Parallel.forRange(tilesX * tilesY, 1, this.tileTask);
+        
+        rasterizedCount += triangleCount;
+        triangleCount = 0;
+        Arrays.fill(binCounts, 0);
+        Arrays.fill(triTextures, null);
+    }
+    
+    /**
+     * Get the number of triangles submitted since the last stats reset
+     *
+     * @return submitted triangle count
+     */
+    public long getSubmittedCount() {
+        return this.submittedCount;
+    }
+    
+    /**
+     * Get the number of triangles that survived clipping and culling and were
+     * rasterized since the last stats reset
+     *
+     * @return rasterized triangle count
+     */
+    public long getRasterizedCount() {
+        return this.rasterizedCount;
+    }
+    
+    /**
+     * Reset the triangle statistics
+     */
+    public void resetStats() {
+        this.submittedCount = 0L;
+        this.rasterizedCount = 0L;
+    }
+    
+    /**
+     * Transform one input vertex into a clipping scratch slot
+     */
+    private void loadClipVertex(float[] vertices, int index, int slot) {
+        float[] m = this.transform;
+        int i = index * FLOATS_PER_VERTEX;
+        int o = slot * CLIP_FLOATS;
+        
+        float x = vertices[i], y = vertices[i + 1], z = vertices[i + 2];
+        
+        clipIn[o] = m[0] * x + m[4] * y + m[8] * z + m[12];
+        clipIn[o + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+        clipIn[o + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+        clipIn[o + 3] = m[3] * x + m[7] * y + m[11] * z + m[15];
+        
+        // u, v, r, g, b, a
+        System.arraycopy(vertices, i + 3, clipIn, o + 4, 6);
+    }
+    
+    /**
+     * Clip the scratch triangle against the near plane (z >= -w) and set up
+     * the resulting one or two triangles
+     */
+    private void submitClipTriangle() {
+        submittedCount++;
+        
+        float[] in = this.clipIn;
+        float[] out = this.clipOut;
+        int n = 0;
+        
+        for(int v = 0; v < 3; v++) {
+            int a = v * CLIP_FLOATS;
+            int b = ((v + 1) % 3) * CLIP_FLOATS;
+            
+            float da = in[a + 2] + in[a + 3];
+            float db = in[b + 2] + in[b + 3];
+            
+            if(da >= 0.0f) {
+                System.arraycopy(in, a, out, n * CLIP_FLOATS, CLIP_FLOATS);
+                n++;
+            }
+            
+            if((da >= 0.0f) != (db >= 0.0f)) {
+                // edge crosses the plane; emit the intersection
+                float t = da / (da - db);
+                int o = n * CLIP_FLOATS;
+                
+                for(int k = 0; k < CLIP_FLOATS; k++) {
+                    out[o + k] = in[a + k] + (in[b + k] - in[a + k]) * t;
+                }
+                n++;
+            }
+        }
+        
+        // fan-triangulate the clipped polygon
+        for(int v = 1; v + 1 < n; v++) {
+            setupTriangle(out, 0, v * CLIP_FLOATS, (v + 1) * CLIP_FLOATS);
+        }
+    }
+    
+    /**
+     * Project a clipped triangle to the screen and bin it
+     */
+    private void setupTriangle(float[] c, int a, int b, int d) {
+        if((triangleCount + 1) * SETUP_FLOATS > triangles.length) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+            triTextures = Arrays.copyOf(triTextures, triTextures.length * 2);
+        }
+        
+        int base = triangleCount * SETUP_FLOATS;
+        float w = target.getWidth(), h = target.getHeight();
+        
+        for(int v = 0; v < 3; v++) {
+            int s = (v == 0) ? a : ((v == 1) ? b : d);
+            int o = base + v * SETUP_VERTEX;
+            float invW = 1.0f / c[s + 3];
+            
+            triangles[o] = (c[s] * invW * 0.5f + 0.5f) * w;
+            triangles[o + 1] = (0.5f - c[s + 1] * invW * 0.5f) * h;
+            triangles[o + 2] = c[s + 2] * invW * 0.5f + 0.5f;
+            triangles[o + 3] = invW;
+            
+            for(int k = 4; k < SETUP_VERTEX; k++) {
+                triangles[o + k] = c[s + k] * invW;
+            }
+        }
+        
+        float x0 = triangles[base], y0 = triangles[base + 1];
+        float x1 = triangles[base + SETUP_VERTEX];
+        float y1 = triangles[base + SETUP_VERTEX + 1];
+        float x2 = triangles[base + 2 * SETUP_VERTEX];
+        float y2 = triangles[base + 2 * SETUP_VERTEX + 1];
+        
+        // y points down, so counter-clockwise in NDC is negative area here
+        float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if(area == 0.0f || (cullBackFaces && area > 0.0f)) {
+            return;
+        }
+        
+        int minTx = clampTile((int)Math.floor(min3(x0, x1, x2)), tilesX);
+        int maxTx = clampTile((int)Math.ceil(max3(x0, x1, x2)), tilesX);
+        int minTy = clampTile((int)Math.floor(min3(y0, y1, y2)), tilesY);
+        int maxTy = clampTile((int)Math.ceil(max3(y0, y1, y2)), tilesY);
+        
+        if(max3(x0, x1, x2) < 0.0f || min3(x0, x1, x2) >= w ||
+                max3(y0, y1, y2) < 0.0f || min3(y0, y1, y2) >= h) {
+            return;
+        }
+        
+        int tri = triangleCount++;
+        triTextures[tri] = this.texture;
+        
+        for(int ty = minTy; ty <= maxTy; ty++) {
+            for(int tx = minTx; tx <= maxTx; tx++) {
+                int t = tx + ty * tilesX;
+                
+                if(binCounts[t] == bins[t].length) {
+                    bins[t] = Arrays.copyOf(bins[t], bins[t].length * 2);
+                }
+                bins[t][binCounts[t]++] = tri;
+            }
+        }
+    }
+    
+    /**
+     * Rasterize every triangle binned into one tile
+     */
+    private void rasterizeTile(int tile) {
+        int count = binCounts[tile];
+        if(count == 0) {
+            return;
+        }
+        
+        int tileX0 = (tile % tilesX) * TILE_SIZE;
+        int tileY0 = (tile / tilesX) * TILE_SIZE;
+        int tileX1 = Math.min(tileX0 + TILE_SIZE, target.getWidth()) - 1;
+        int tileY1 = Math.min(tileY0 + TILE_SIZE, target.getHeight()) - 1;
+        
+        int fbw = target.getWidth();
+        int[] color = target.color;
+        float[] depth = target.depth;
+        float[] t = this.triangles;
+        int[] bin = bins[tile];
+        
+        for(int k = 0; k < count; k++) {
+            int tri = bin[k];
+            int v0 = tri * SETUP_FLOATS;
+            int v1 = v0 + SETUP_VERTEX;
+            int v2 = v1 + SETUP_VERTEX;
+            
+            float x0 = t[v0], y0 = t[v0 + 1];
+            float x1 = t[v1], y1 = t[v1 + 1];
+            float x2 = t[v2], y2 = t[v2 + 1];
+            
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+            if(area < 0.0f) {
+                // make the edge functions positive inside
+                int tmp = v1; v1 = v2; v2 = tmp;
+                x1 = t[v1]; y1 = t[v1 + 1];
+                x2 = t[v2]; y2 = t[v2 + 1];
+                area = -area;
+            }
+            float invArea = 1.0f / area;
+            
+            int minX = Math.max(tileX0, (int)Math.floor(min3(x0, x1, x2)));
+            int maxX = Math.min(tileX1, (int)Math.ceil(max3(x0, x1, x2)));
+            int minY = Math.max(tileY0, (int)Math.floor(min3(y0, y1, y2)));
+            int maxY = Math.min(tileY1, (int)Math.ceil(max3(y0, y1, y2)));
+            
+            float a0 = y1 - y2, b0 = x2 - x1;
+            float a1 = y2 - y0, b1 = x0 - x2;
+            float a2 = y0 - y1, b2 = x1 - x0;
+            
+            SoftwareTexture tex = triTextures[tri];
+            float px0 = minX + 0.5f;
+            
+            for(int y = minY; y <= maxY; y++) {
+                float py = y + 0.5f;
+                float e0 = a0 * (px0 - x1) + b0 * (py - y1);
+                float e1 = a1 * (px0 - x2) + b1 * (py - y2);
+                float e2 = a2 * (px0 - x0) + b2 * (py - y0);
+                int row = y * fbw;
+                
+                for(int x = minX; x <= maxX; x++, e0 += a0, e1 += a1, e2 += a2) {
+                    if(e0 < 0.0f || e1 < 0.0f || e2 < 0.0f) {
+                        continue;
+                    }
+                    
+                    float l0 = e0 * invArea, l1 = e1 * invArea,
+                            l2 = e2 * invArea;
+                    
+                    float z = l0 * t[v0 + 2] + l1 * t[v1 + 2] + l2 * t[v2 + 2];
+                    int i = row + x;
+                    if(z < 0.0f || z >= depth[i]) {
+                        continue;
+                    }
+                    
+                    // perspective-correct attributes
+                    float w = 1.0f / (l0 * t[v0 + 3] + l1 * t[v1 + 3] +
+                            l2 * t[v2 + 3]);
+                    float r = attr(t, v0, v1, v2, 6, l0, l1, l2) * w;
+                    float g = attr(t, v0, v1, v2, 7, l0, l1, l2) * w;
+                    float b = attr(t, v0, v1, v2, 8, l0, l1, l2) * w;
+                    float al = attr(t, v0, v1, v2, 9, l0, l1, l2) * w;
+                    
+                    if(tex != null) {
+                        float u = attr(t, v0, v1, v2, 4, l0, l1, l2) * w;
+                        float v = attr(t, v0, v1, v2, 5, l0, l1, l2) * w;
+                        int texel = tex.sample(u, v);
+                        
+                        al *= ((texel >>> 24) & 0xff) / 255.0f;
+                        r *= ((texel >>> 16) & 0xff) / 255.0f;
+                        g *= ((texel >>> 8) & 0xff) / 255.0f;
+                        b *= (texel & 0xff) / 255.0f;
+                    }
+                    
+                    depth[i] = z;
+                    color[i] = pack(al, r, g, b);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Interpolate a perspective-divided attribute
+     */
+    private static float attr(float[] t, int v0, int v1, int v2, int k,
+            float l0, float l1, float l2) {
+        return l0 * t[v0 + k] + l1 * t[v1 + k] + l2 * t[v2 + k];
+    }
+    
+    /**
+     * Pack color components in [0, 1] into an ARGB integer
+     */
+    private static int pack(float a, float r, float g, float b) {
+        return (channel(a) << 24) | (channel(r) << 16) | (channel(g) << 8) |
+                channel(b);
+    }
+    
+    private static int channel(float c) {
+        int v = (int)(c * 255.0f + 0.5f);
+        
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+    
+    private static int clampTile(int pixel, int tiles) {
+        int t = pixel / TILE_SIZE;
+        
+        return pixel < 0 ? 0 : (t >= tiles ? tiles - 1 : t);
+    }
+    
+    private static float min3(float a, float b, float c) {
+        return Math.min(a, Math.min(b, c));
+    }
+    
+    private static float max3(float a, float b, float c) {
+        return Math.max(a, Math.max(b, c));
+    }
+}
@@ -0,0 +1,127 @@
+/* SoftwareTexture.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Texture for the software rasterizer
+ * 
+ * Texels are packed ARGB integers, sampled with nearest filtering and
+ * repeating wrap.
+ */
+public class SoftwareTexture {
+    
+    private final int width, height;
+    
+    /** Packed ARGB texels, row-major, row 0 at v = 0 */
+    final int[] texels;
+    
+    /**
+     * Constructor
+     *
+     * @param width texture width
+     * @param height texture height
+     * @param argb packed ARGB texels, row-major (copied)
+     */
+    public SoftwareTexture(int width, int height, int[] argb) {
+        if(width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("Invalid texture data");
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.texels = new int[width * height];
+        
+        System.arraycopy(argb, 0, this.texels, 0, width * height);
+    }
+    
+    /**
+     * Create a texture from an image
+     *
+     * @param image the source image
+     * @return a new texture
+     */
+    public static SoftwareTexture fromImage(BufferedImage image) {
+        int w = image.getWidth(), h = image.getHeight();
+        
+        return new SoftwareTexture(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+    }
+    
+    /**
+     * Load a texture from an image file
+     *
+     * @param file the image file
+     * @return a new texture
+     * @throws IOException on failure to read or decode the file
+     */
+    public static SoftwareTexture load(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        
+        if(image == null) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        
+        return fromImage(image);
+    }
+    
+    /**
+     * Get the texture width
+     *
+     * @return the width, in texels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Get the texture height
+     *
+     * @return the height, in texels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Sample the texture
+     *
+     * @param u horizontal texture coordinate (repeats outside [0, 1))
+     * @param v vertical texture coordinate (repeats outside [0, 1))
+     * @return the packed ARGB texel
+     */
+    public int sample(float u, float v) {
+        int x = (int)Math.floor(u * width) % width;
+        int y = (int)Math.floor(v * height) % height;
+        
+        if(x < 0) {
+            x += width;
+        }
+        if(y < 0) {
+            y += height;
+        }
+        
+        return texels[x + y * width];
+    }
+}
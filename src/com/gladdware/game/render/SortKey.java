@@ -0,0 +1,130 @@
+/* SortKey.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+/**
+ * Packing and unpacking of 64-bit draw command sort keys
+ * 
+ * From most to least significant the key holds: layer (8 bits), shader (12
+ * bits), texture (16 bits) and depth (24 bits); the top 4 bits are always
+ * zero so keys sort the same signed or unsigned. Sorting by key draws layers
+ * in order and, within a layer, groups draws by shader and then by texture to
+ * minimize state changes. Depth breaks ties front to back.
+ */
+public class SortKey {
+    
+    public static final int LAYER_BITS = 8;
+    public static final int SHADER_BITS = 12;
+    public static final int TEXTURE_BITS = 16;
+    public static final int DEPTH_BITS = 24;
+    
+    public static final int MAX_LAYER = (1 << LAYER_BITS) - 1;
+    public static final int MAX_SHADER = (1 << SHADER_BITS) - 1;
+    public static final int MAX_TEXTURE = (1 << TEXTURE_BITS) - 1;
+    public static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+    
+    private static final int DEPTH_SHIFT = 0;
+    private static final int TEXTURE_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int SHADER_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int LAYER_SHIFT = SHADER_SHIFT + SHADER_BITS;
+    
+    /**
+     * Build a sort key
+     * 
+     * Out of range fields are masked to their bit widths.
+     *
+     * @param layer draw layer (0 draws first)
+     * @param shader shader id
+     * @param texture texture id
+     * @param depth quantized depth (see quantizeDepth())
+     * @return the packed key
+     */
+    public static long make(int layer, int shader, int texture, int depth) {
+        return ((long)(layer & MAX_LAYER) << LAYER_SHIFT) |
+                ((long)(shader & MAX_SHADER) << SHADER_SHIFT) |
+                ((long)(texture & MAX_TEXTURE) << TEXTURE_SHIFT) |
+                ((long)(depth & MAX_DEPTH) << DEPTH_SHIFT);
+    }
+    
+    /**
+     * Quantize a view depth to the key's depth field
+     *
+     * @param viewDepth distance from the camera
+     * @param near near clipping distance
+     * @param far far clipping distance
+     * @param backToFront true to reverse the order (for translucent draws)
+     * @return the quantized depth
+     */
+    public static int quantizeDepth(float viewDepth, float near, float far,
+            boolean backToFront) {
+        float t = (viewDepth - near) / (far - near);
+        t = t < 0.0f ? 0.0f : (t > 1.0f ? 1.0f : t);
+        
+        int d = (int)(t * MAX_DEPTH);
+        
+        return backToFront ? MAX_DEPTH - d : d;
+    }
+    
+    /**
+     * Get the layer of a key
+     *
+     * @param key the sort key
+     * @return the layer field
+     */
+    public static int layer(long key) {
+        return (int)(key >>> LAYER_SHIFT) & MAX_LAYER;
+    }
+    
+    /**
+     * Get the shader of a key
+     *
+     * @param key the sort key
+     * @return the shader field
+     */
+    public static int shader(long key) {
+        return (int)(key >>> SHADER_SHIFT) & MAX_SHADER;
+    }
+    
+    /**
+     * Get the texture of a key
+     *
+     * @param key the sort key
+     * @return the texture field
+     */
+    public static int texture(long key) {
+        return (int)(key >>> TEXTURE_SHIFT) & MAX_TEXTURE;
+    }
+    
+    /**
+     * Get the depth of a key
+     *
+     * @param key the sort key
+     * @return the depth field
+     */
+    public static int depth(long key) {
+        return (int)(key >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private SortKey() {}
+
+}
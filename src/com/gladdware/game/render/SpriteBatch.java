@@ -0,0 +1,380 @@
+/* SpriteBatch.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import com.gladdware.game.math.Matrix4f;
+
+/**
+ * Accumulates textured 2D quads and draws them in as few batches as possible
+ * 
+ * Quads are written straight into a direct FloatBuffer that is allocated once
+ * and used as a ring: each batch takes the next free range, so a renderer can
+ * upload a batch while the GPU may still be reading an earlier one. A batch is
+ * flushed when the texture changes, when it reaches the batch size, or at
+ * end(). Sort sprites by texture (or use an atlas) to keep batches large.
+ * 
+ * Each vertex is FLOATS_PER_VERTEX floats: x, y, u, v, r, g, b, a.
+ */
+public class SpriteBatch {
+    
+    public static final int FLOATS_PER_VERTEX = 8;
+    public static final int VERTICES_PER_SPRITE = 4;
+    public static final int FLOATS_PER_SPRITE =
+            FLOATS_PER_VERTEX * VERTICES_PER_SPRITE;
+    public static final int INDICES_PER_SPRITE = 6;
+    
+    /** Default number of batches that fit in the ring */
+    private static final int DEFAULT_RING_BATCHES = 3;
+    
+    private final SpriteRenderer renderer;
+    private final int maxBatchSprites;
+    private final int ringSprites;
+    private final FloatBuffer vertices;
+    
+    /** First quad of the batch being built, in ring slots */
+    private int batchStart;
+    /** Number of quads in the batch being built */
+    private int batchCount;
+    /** Texture of the batch being built */
+    private int batchTexture;
+    
+    private boolean drawing;
+    
+    private float red, green, blue, alpha;
+    
+    private int spriteCount;
+    private int batchesDrawn;
+    private int textureFlushes;
+    private int capacityFlushes;
+    private int maxBatchSize;
+    
+    /**
+     * Constructor
+     *
+     * @param renderer draws the finished batches
+     * @param maxBatchSprites maximum number of quads per batch
+     * @param ringBatches number of full batches the vertex ring can hold
+     */
+    public SpriteBatch(SpriteRenderer renderer, int maxBatchSprites,
+            int ringBatches) {
+        if(maxBatchSprites <= 0 || ringBatches <= 0) {
+            throw new IllegalArgumentException("Invalid sprite batch size");
+        }
+        
+        this.renderer = renderer;
+        this.maxBatchSprites = maxBatchSprites;
+        this.ringSprites = maxBatchSprites * ringBatches;
+        this.vertices = BufferUtils.createFloatBuffer(
+                ringSprites * FLOATS_PER_SPRITE);
+        this.batchTexture = -1;
+        this.red = this.green = this.blue = this.alpha = 1.0f;
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param renderer draws the finished batches
+     * @param maxBatchSprites maximum number of quads per batch
+     */
+    public SpriteBatch(SpriteRenderer renderer, int maxBatchSprites) {
+        this(renderer, maxBatchSprites, DEFAULT_RING_BATCHES);
+    }
+    
+    /**
+     * Get the vertex ring buffer
+     *
+     * @return the direct vertex buffer
+     */
+    public FloatBuffer getVertexBuffer() {
+        return this.vertices;
+    }
+    
+    /**
+     * Get the maximum number of quads per batch
+     *
+     * @return the batch size
+     */
+    public int getMaxBatchSprites() {
+        return this.maxBatchSprites;
+    }
+    
+    /**
+     * Get the number of quads the vertex ring holds
+     *
+     * @return the ring size, in quads
+     */
+    public int getRingSprites() {
+        return this.ringSprites;
+    }
+    
+    /**
+     * Start a frame of sprite drawing and reset the batch statistics
+     */
+    public void begin() {
+        if(drawing) {
+            throw new IllegalStateException("SpriteBatch.begin() called twice");
+        }
+        
+        drawing = true;
+        batchTexture = -1;
+        spriteCount = 0;
+        batchesDrawn = 0;
+        textureFlushes = 0;
+        capacityFlushes = 0;
+        maxBatchSize = 0;
+    }
+    
+    /**
+     * Draw any pending quads and finish the frame
+     */
+    public void end() {
+        if(!drawing) {
+            throw new IllegalStateException("SpriteBatch.end() without begin()");
+        }
+        
+        flush();
+        drawing = false;
+    }
+    
+    /**
+     * Set the tint color for subsequent quads
+     *
+     * @param r red component
+     * @param g green component
+     * @param b blue component
+     * @param a alpha component
+     */
+    public void setColor(float r, float g, float b, float a) {
+        this.red = r;
+        this.green = g;
+        this.blue = b;
+        this.alpha = a;
+    }
+    
+    /**
+     * Draw an axis-aligned quad
+     *
+     * @param texture texture name
+     * @param x left edge
+     * @param y top edge
+     * @param w width
+     * @param h height
+     * @param u0 left texture coordinate
+     * @param v0 top texture coordinate
+     * @param u1 right texture coordinate
+     * @param v1 bottom texture coordinate
+     */
+    public void draw(int texture, float x, float y, float w, float h,
+            float u0, float v0, float u1, float v1) {
+        int o = reserve(texture);
+        float x1 = x + w, y1 = y + h;
+        
+        putVertex(o, x, y, u0, v0);
+        putVertex(o + FLOATS_PER_VERTEX, x1, y, u1, v0);
+        putVertex(o + 2 * FLOATS_PER_VERTEX, x1, y1, u1, v1);
+        putVertex(o + 3 * FLOATS_PER_VERTEX, x, y1, u0, v1);
+    }
+    
+    /**
+     * Draw a quad rotated about an origin point
+     *
+     * @param texture texture name
+     * @param x x position of the origin point
+     * @param y y position of the origin point
+     * @param originX origin offset from the quad's left edge
+     * @param originY origin offset from the quad's top edge
+     * @param w width
+     * @param h height
+     * @param rotationRad rotation about the origin, in radians
+     * @param u0 left texture coordinate
+     * @param v0 top texture coordinate
+     * @param u1 right texture coordinate
+     * @param v1 bottom texture coordinate
+     */
+    public void draw(int texture, float x, float y, float originX,
+            float originY, float w, float h, float rotationRad, float u0,
+            float v0, float u1, float v1) {
+        if(rotationRad == 0.0f) {
+            draw(texture, x - originX, y - originY, w, h, u0, v0, u1, v1);
+            return;
+        }
+        
+        float cos = (float)Math.cos(rotationRad);
+        float sin = (float)Math.sin(rotationRad);
+        
+        transformed(texture, cos, sin, -sin, cos, x, y, -originX, -originY,
+                w, h, u0, v0, u1, v1);
+    }
+    
+    /**
+     * Draw a quad through an arbitrary 2D affine transform
+     * 
+     * The quad spans (0, 0) to (w, h) in its local space; the x/y rotation,
+     * scale and translation parts of the matrix map it into place.
+     *
+     * @param texture texture name
+     * @param transform local-to-world transform
+     * @param w width
+     * @param h height
+     * @param u0 left texture coordinate
+     * @param v0 top texture coordinate
+     * @param u1 right texture coordinate
+     * @param v1 bottom texture coordinate
+     */
+    public void draw(int texture, Matrix4f transform, float w, float h,
+            float u0, float v0, float u1, float v1) {
+        transformed(texture,
+                transform.get(0, 0), transform.get(1, 0),
+                transform.get(0, 1), transform.get(1, 1),
+                transform.get(0, 3), transform.get(1, 3),
+                0.0f, 0.0f, w, h, u0, v0, u1, v1);
+    }
+    
+    /**
+     * Draw any pending quads now
+     */
+    public void flush() {
+        if(batchCount == 0) {
+            return;
+        }
+        
+        renderer.drawBatch(vertices, batchStart, batchCount, batchTexture);
+        
+        batchesDrawn++;
+        maxBatchSize = Math.max(maxBatchSize, batchCount);
+        
+        // the next batch starts after this one, wrapping if it can't fit
+        batchStart += batchCount;
+        if(batchStart + maxBatchSprites > ringSprites) {
+            batchStart = 0;
+        }
+        batchCount = 0;
+    }
+    
+    /**
+     * Get the number of quads drawn since begin()
+     *
+     * @return sprite count
+     */
+    public int getSpriteCount() {
+        return this.spriteCount;
+    }
+    
+    /**
+     * Get the number of batches drawn since begin()
+     *
+     * @return batch (draw call) count
+     */
+    public int getBatchCount() {
+        return this.batchesDrawn;
+    }
+    
+    /**
+     * Get the number of batches ended by a texture change since begin()
+     *
+     * @return texture flush count
+     */
+    public int getTextureFlushCount() {
+        return this.textureFlushes;
+    }
+    
+    /**
+     * Get the number of batches ended by reaching the batch size since
+     * begin()
+     *
+     * @return capacity flush count
+     */
+    public int getCapacityFlushCount() {
+        return this.capacityFlushes;
+    }
+    
+    /**
+     * Get the largest batch drawn since begin()
+     *
+     * @return maximum quads in one batch
+     */
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+    
+    /**
+     * Write a quad whose local corners are mapped by
+     * (x', y') = (m00 * x + m01 * y + tx, m10 * x + m11 * y + ty)
+     */
+    private void transformed(int texture, float m00, float m10, float m01,
+            float m11, float tx, float ty, float lx, float ly, float w,
+            float h, float u0, float v0, float u1, float v1) {
+        int o = reserve(texture);
+        float lx1 = lx + w, ly1 = ly + h;
+        
+        putVertex(o, m00 * lx + m01 * ly + tx, m10 * lx + m11 * ly + ty,
+                u0, v0);
+        putVertex(o + FLOATS_PER_VERTEX,
+                m00 * lx1 + m01 * ly + tx, m10 * lx1 + m11 * ly + ty, u1, v0);
+        putVertex(o + 2 * FLOATS_PER_VERTEX,
+                m00 * lx1 + m01 * ly1 + tx, m10 * lx1 + m11 * ly1 + ty, u1, v1);
+        putVertex(o + 3 * FLOATS_PER_VERTEX,
+                m00 * lx + m01 * ly1 + tx, m10 * lx + m11 * ly1 + ty, u0, v1);
+    }
+    
+    /**
+     * Make room for one quad with the given texture, flushing if needed
+     *
+     * @return float offset of the quad in the vertex ring
+     */
+    private int reserve(int texture) {
+        if(!drawing) {
+            throw new IllegalStateException("SpriteBatch.draw() without begin()");
+        }
+        
+        if(batchCount > 0 && texture != batchTexture) {
+            textureFlushes++;
+            flush();
+        } else if(batchCount == maxBatchSprites) {
+            capacityFlushes++;
+            flush();
+        }
+        
+        batchTexture = texture;
+        spriteCount++;
+        
+        return (batchStart + batchCount++) * FLOATS_PER_SPRITE;
+    }
+    
+    /**
+     * Write one vertex using the current tint color
+     */
+    private void putVertex(int o, float x, float y, float u, float v) {
+        FloatBuffer b = this.vertices;
+        
+        b.put(o, x);
+        b.put(o + 1, y);
+        b.put(o + 2, u);
+        b.put(o + 3, v);
+        b.put(o + 4, red);
+        b.put(o + 5, green);
+        b.put(o + 6, blue);
+        b.put(o + 7, alpha);
+    }
+}
@@ -0,0 +1,48 @@
+/* SpriteRenderer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws batches of sprite quads produced by a SpriteBatch
+ * 
+ * The OpenGL implementation is GLSpriteRenderer; tests can substitute a mock
+ * to inspect generated geometry without a GL context.
+ */
+public interface SpriteRenderer {
+    
+    /**
+     * Draw a batch of quads
+     * 
+     * The quads occupy spriteCount * SpriteBatch.FLOATS_PER_SPRITE floats of
+     * the vertex buffer starting at float offset
+     * firstSprite * SpriteBatch.FLOATS_PER_SPRITE. Each quad is four vertices
+     * (top left, top right, bottom right, bottom left) in the layout
+     * described by SpriteBatch.
+     *
+     * @param vertices the batch's vertex ring buffer
+     * @param firstSprite index of the first quad in the ring
+     * @param spriteCount number of quads to draw
+     * @param texture texture name for every quad in the batch
+     */
+    void drawBatch(FloatBuffer vertices, int firstSprite, int spriteCount,
+            int texture);
+}
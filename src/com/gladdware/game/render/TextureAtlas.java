@@ -0,0 +1,290 @@
+/* TextureAtlas.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import com.gladdware.game.util.Hash;
+
+/**
+ * A set of atlas page images plus the regions packed into them
+ * 
+ * Atlases are produced by AtlasBuilder, either at runtime or ahead of time.
+ * On disk an atlas is a set of PNG pages named base_N.png and a binary lookup
+ * table named base.atlas.
+ */
+public class TextureAtlas {
+    
+    /** Lookup table file magic ("GGEA") */
+    private static final int MAGIC = 0x47474541;
+    private static final int VERSION = 1;
+    
+    private final List<BufferedImage> pages;
+    private final List<AtlasRegion> regions;
+    private final Map<Integer, AtlasRegion> byId;
+    
+    /**
+     * Constructor
+     *
+     * @param pages the page images
+     * @param regions the regions on those pages
+     */
+    public TextureAtlas(List<BufferedImage> pages, List<AtlasRegion> regions) {
+        this.pages = new ArrayList<BufferedImage>(pages);
+        this.regions = new ArrayList<AtlasRegion>(regions);
+        this.byId = new HashMap<Integer, AtlasRegion>();
+        
+        for(int i = 0; i < regions.size(); i++) {
+            AtlasRegion r = regions.get(i);
+            
+            if(byId.put(r.getId(), r) != null) {
+                throw new IllegalArgumentException(
+                        "Duplicate atlas name ID for " + r.getName());
+            }
+        }
+    }
+    
+    /**
+     * Compute the name ID used to key atlas regions
+     *
+     * @param name the image name
+     * @return the name ID
+     */
+    public static int nameId(String name) {
+        return Hash.fnv1a32(name);
+    }
+    
+    /**
+     * Get the number of pages
+     *
+     * @return the page count
+     */
+    public int getPageCount() {
+        return this.pages.size();
+    }
+    
+    /**
+     * Get a page image
+     *
+     * @param page the page index
+     * @return the page image
+     */
+    public BufferedImage getPage(int page) {
+        return this.pages.get(page);
+    }
+    
+    /**
+     * Get every region in the atlas
+     *
+     * @return unmodifiable list of regions
+     */
+    public List<AtlasRegion> getRegions() {
+        return Collections.unmodifiableList(this.regions);
+    }
+    
+    /**
+     * Look up a region by name ID
+     *
+     * @param id the name ID
+     * @return the region, or null if there is none
+     */
+    public AtlasRegion find(int id) {
+        return byId.get(id);
+    }
+    
+    /**
+     * Look up a region by name
+     *
+     * @param name the image name
+     * @return the region, or null if there is none
+     */
+    public AtlasRegion find(String name) {
+        AtlasRegion r = byId.get(nameId(name));
+        
+        // IDs are unique within an atlas, but another name may share one
+        if(r == null || !r.getName().equals(name)) {
+            return null;
+        }
+        
+        return r;
+    }
+    
+    /**
+     * Upload a page as an OpenGL texture
+     * 
+     * Requires a current OpenGL context.
+     *
+     * @param state the GL state tracker to bind through
+     * @param page the page index
+     * @return the new texture name
+     */
+    public int createGLTexture(GLState state, int page) {
+        BufferedImage img = pages.get(page);
+        int w = img.getWidth(), h = img.getHeight();
+        int[] argb = img.getRGB(0, 0, w, h, null, 0, w);
+        
+        ByteBuffer rgba = BufferUtils.createByteBuffer(w * h * 4);
+        for(int i = 0; i < argb.length; i++) {
+            int p = argb[i];
+            
+            rgba.put((byte)(p >>> 16)).put((byte)(p >>> 8)).put((byte)p)
+                    .put((byte)(p >>> 24));
+        }
+        rgba.flip();
+        
+        int tex = GL11.glGenTextures();
+        state.bindTexture(GL11.GL_TEXTURE_2D, tex);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER,
+                GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER,
+                GL11.GL_LINEAR);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, w, h, 0,
+                GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, rgba);
+        
+        return tex;
+    }
+    
+    /**
+     * Write the atlas to disk
+     *
+     * @param dir the output directory
+     * @param baseName base file name for the pages and lookup table
+     * @throws IOException on failure to write any file
+     */
+    public void save(File dir, String baseName) throws IOException {
+        for(int p = 0; p < pages.size(); p++) {
+            File f = new File(dir, pageFileName(baseName, p));
+            
+            if(!ImageIO.write(pages.get(p), "png", f)) {
+                throw new IOException("No PNG writer available");
+            }
+        }
+        
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, baseName + ".atlas"))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pages.size());
+            out.writeInt(regions.size());
+            
+            for(int i = 0; i < regions.size(); i++) {
+                AtlasRegion r = regions.get(i);
+                
+                out.writeUTF(r.getName());
+                out.writeInt(r.getId());
+                out.writeInt(r.getPage());
+                out.writeInt(r.getX());
+                out.writeInt(r.getY());
+                out.writeInt(r.getWidth());
+                out.writeInt(r.getHeight());
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Read an atlas written by save()
+     *
+     * @param dir the directory holding the atlas
+     * @param baseName base file name for the pages and lookup table
+     * @return the loaded atlas
+     * @throws IOException on failure to read or parse any file
+     */
+    public static TextureAtlas load(File dir, String baseName)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(dir, baseName + ".atlas"))));
+        try {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a texture atlas: " + baseName);
+            }
+            
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported atlas version " + version);
+            }
+            
+            int pageCount = in.readInt();
+            int regionCount = in.readInt();
+            
+            List<BufferedImage> pages = new ArrayList<BufferedImage>();
+            for(int p = 0; p < pageCount; p++) {
+                File f = new File(dir, pageFileName(baseName, p));
+                BufferedImage img = ImageIO.read(f);
+                
+                if(img == null) {
+                    throw new IOException("Unreadable atlas page " + f);
+                }
+                pages.add(img);
+            }
+            
+            List<AtlasRegion> regions = new ArrayList<AtlasRegion>();
+            for(int i = 0; i < regionCount; i++) {
+                String name = in.readUTF();
+                int id = in.readInt();
+                int page = in.readInt();
+                int x = in.readInt();
+                int y = in.readInt();
+                int w = in.readInt();
+                int h = in.readInt();
+                
+                if(page < 0 || page >= pageCount) {
+                    throw new IOException("Corrupt atlas region " + name +
+                            ": page " + page + " of " + pageCount);
+                }
+                BufferedImage img = pages.get(page);
+                regions.add(new AtlasRegion(name, id, page, x, y, w, h,
+                        img.getWidth(), img.getHeight()));
+            }
+            
+            return new TextureAtlas(pages, regions);
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Get the file name of an atlas page
+     */
+    private static String pageFileName(String baseName, int page) {
+        return baseName + "_" + page + ".png";
+    }
+}
@@ -0,0 +1,107 @@
+/* VisibilityList.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.render;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of visible object indices produced by a culling pass
+ * 
+ * The list is meant to be reused from frame to frame; clearing it keeps the
+ * underlying storage.
+ */
+public class VisibilityList {
+    
+    private int[] indices;
+    private int size;
+    
+    /**
+     * Constructor
+     */
+    public VisibilityList() {
+        this.indices = new int[256];
+        this.size = 0;
+    }
+    
+    /**
+     * Get the number of visible objects
+     *
+     * @return the number of indices in the list
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * Get a visible object index
+     *
+     * @param i position in the list
+     * @return the object index
+     */
+    public int get(int i) {
+        if(i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i +
+                    " out of range [0, " + size + ")");
+        }
+        
+        return indices[i];
+    }
+    
+    /**
+     * Remove all indices
+     */
+    public void clear() {
+        this.size = 0;
+    }
+    
+    /**
+     * Append an object index
+     *
+     * @param index the object index
+     */
+    public void add(int index) {
+        if(size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+        }
+        
+        indices[size++] = index;
+    }
+    
+    /**
+     * Make sure the list can hold at least the given number of indices
+     * without growing
+     *
+     * @param capacity the required capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if(indices.length < capacity) {
+            indices = Arrays.copyOf(indices, capacity);
+        }
+    }
+    
+    /**
+     * Get the backing array; only the first size() elements are valid
+     *
+     * @return the backing index array
+     */
+    public int[] array() {
+        return this.indices;
+    }
+}
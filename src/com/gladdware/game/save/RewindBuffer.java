@@ -0,0 +1,427 @@
+/* RewindBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.save;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gladdware.game.input.InputEvent;
+import com.gladdware.game.input.KeyboardEvent;
+import com.gladdware.game.input.MouseEvent;
+
+/**
+ * In-memory history of recent game states for rewinding and replays
+ * 
+ * Every keyframeInterval frames the registered SaveSections are captured
+ * into a keyframe; in between only each frame's input events and delta time
+ * are kept. Any recorded frame can be restored by loading the nearest
+ * earlier keyframe and resimulating the frames after it headless through the
+ * Simulation callback, which runs the game's fixed update without rendering,
+ * so a rewind of a few seconds fits within one frame for a deterministic
+ * update.
+ * 
+ * The oldest keyframe and its frames are dropped when more than maxKeyframes
+ * keyframes are held or their size exceeds the memory cap.
+ * 
+ * All methods must be called from the main thread.
+ */
+public class RewindBuffer {
+    
+    private static final byte KEYBOARD = 0;
+    private static final byte MOUSE = 1;
+    private static final byte[] NO_INPUT = new byte[0];
+    
+    /**
+     * Advances the game state by one frame, headless
+     */
+    public interface Simulation {
+        
+        /**
+         * Run one frame of game logic
+         * 
+         * Must produce the same state as the original frame given the same
+         * inputs and must not record into the rewind buffer.
+         *
+         * @param frame the frame number
+         * @param inputs the frame's recorded input events
+         * @param deltaMs the frame's recorded delta time, in milliseconds
+         */
+        void step(long frame, List<InputEvent> inputs, float deltaMs);
+    }
+    
+    /**
+     * Captured section state at the start of a frame
+     */
+    private static class Keyframe {
+        final long frame;
+        final byte[] data;
+        
+        Keyframe(long frame, byte[] data) {
+            this.frame = frame;
+            this.data = data;
+        }
+    }
+    
+    private final Simulation simulation;
+    private final int keyframeInterval;
+    private final int maxKeyframes;
+    private final long memoryCap;
+    
+    private final Map<Integer, SaveSection> sections;
+    private final ArrayDeque<Keyframe> keyframes;
+    private final SaveBuffer scratch;
+    private final List<InputEvent> replayInputs;
+    
+    /** Per-frame inputs and delta times, indexed by frame % capacity */
+    private final byte[][] frameInputs;
+    private final float[] frameDeltas;
+    
+    private long frame;
+    private long memoryUsed;
+    private long lastRestoreNs;
+    
+    /**
+     * Constructor
+     *
+     * @param simulation runs frames headless when rewinding
+     * @param keyframeInterval frames between keyframes
+     * @param maxKeyframes largest number of keyframes held
+     * @param memoryCap largest size of the history, in bytes
+     */
+    public RewindBuffer(Simulation simulation, int keyframeInterval,
+            int maxKeyframes, long memoryCap) {
+        if(keyframeInterval < 1 || maxKeyframes < 1) {
+            throw new IllegalArgumentException("Invalid keyframe settings");
+        }
+        
+        this.simulation = simulation;
+        this.keyframeInterval = keyframeInterval;
+        this.maxKeyframes = maxKeyframes;
+        this.memoryCap = memoryCap;
+        
+        this.sections = new LinkedHashMap<Integer, SaveSection>();
+        this.keyframes = new ArrayDeque<Keyframe>();
+        this.scratch = new SaveBuffer(64 * 1024);
+        this.replayInputs = new ArrayList<InputEvent>();
+        
+        // the history spans at most maxKeyframes intervals plus one frame
+        int capacity = (maxKeyframes + 1) * keyframeInterval;
+        this.frameInputs = new byte[capacity][];
+        this.frameDeltas = new float[capacity];
+    }
+    
+    /**
+     * Register a section captured in keyframes
+     *
+     * @param id the section id
+     * @param section the section
+     */
+    public void register(int id, SaveSection section) {
+        if(sections.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate section " + id);
+        }
+        sections.put(id, section);
+    }
+    
+    /**
+     * Record a frame
+     * 
+     * Call once per frame before the game applies the frame's inputs, e.g.
+     * at the start of onUpdate() with Input.getInputs() and the delta time.
+     *
+     * @param inputs the frame's input events
+     * @param deltaMs the frame's delta time, in milliseconds
+     */
+    public void record(List<InputEvent> inputs, float deltaMs) {
+        // a rewind to a keyframe leaves its keyframe in place
+        if(keyframes.isEmpty() || (frame % keyframeInterval == 0 &&
+                keyframes.peekLast().frame != frame)) {
+            captureKeyframe();
+        }
+        
+        int slot = slot(frame);
+        byte[] encoded = inputs.isEmpty() ? NO_INPUT : encode(inputs);
+        frameInputs[slot] = encoded;
+        frameDeltas[slot] = deltaMs;
+        memoryUsed += encoded.length + 4;
+        frame++;
+        
+        while(keyframes.size() > 1 && (keyframes.size() > maxKeyframes ||
+                memoryUsed > memoryCap)) {
+            dropOldest();
+        }
+    }
+    
+    /**
+     * Restore the state at the start of an earlier frame
+     * 
+     * Recording continues from that frame; the frames after it are
+     * discarded.
+     *
+     * @param target the frame, between getOldestFrame() and getFrame()
+     * @return the number of frames resimulated
+     */
+    public int rewindTo(long target) {
+        if(!canRewindTo(target)) {
+            throw new IllegalArgumentException("Frame " + target +
+                    " not in history [" + getOldestFrame() + ", " + frame +
+                    "]");
+        }
+        
+        long start = System.nanoTime();
+        
+        // nearest keyframe at or before the target
+        Keyframe key = null;
+        Iterator<Keyframe> it = keyframes.descendingIterator();
+        while(it.hasNext()) {
+            key = it.next();
+            if(key.frame <= target) {
+                break;
+            }
+        }
+        
+        restore(key);
+        
+        for(long f = key.frame; f < target; f++) {
+            int slot = slot(f);
+            decode(frameInputs[slot], replayInputs);
+            simulation.step(f, replayInputs, frameDeltas[slot]);
+        }
+        replayInputs.clear();
+        
+        // discard the rewound frames and the keyframes after the target
+        for(long f = target; f < frame; f++) {
+            int slot = slot(f);
+            memoryUsed -= frameInputs[slot].length + 4;
+            frameInputs[slot] = null;
+        }
+        while(keyframes.peekLast().frame > target) {
+            memoryUsed -= keyframes.pollLast().data.length;
+        }
+        
+        int steps = (int)(target - key.frame);
+        frame = target;
+        lastRestoreNs = System.nanoTime() - start;
+        
+        return steps;
+    }
+    
+    /**
+     * Restore the state of a number of frames ago
+     *
+     * @param frames the number of frames to go back
+     * @return the number of frames resimulated
+     * @see #rewindTo(long)
+     */
+    public int rewind(int frames) {
+        return rewindTo(Math.max(frame - frames, getOldestFrame()));
+    }
+    
+    /**
+     * Check whether a frame is in the history
+     *
+     * @param target the frame
+     * @return true if rewindTo() can restore it
+     */
+    public boolean canRewindTo(long target) {
+        return !keyframes.isEmpty() && target >= getOldestFrame() &&
+                target <= frame;
+    }
+    
+    /**
+     * Get the number of the next frame to be recorded
+     *
+     * @return the frame number
+     */
+    public long getFrame() {
+        return frame;
+    }
+    
+    /**
+     * Get the oldest frame that can be restored
+     *
+     * @return the frame number
+     */
+    public long getOldestFrame() {
+        return keyframes.isEmpty() ? frame : keyframes.peekFirst().frame;
+    }
+    
+    /**
+     * Get the number of keyframes held
+     *
+     * @return the keyframe count
+     */
+    public int getKeyframeCount() {
+        return keyframes.size();
+    }
+    
+    /**
+     * Get the size of the history
+     *
+     * @return the size, in bytes
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+    
+    /**
+     * Get the time taken by the last rewind, including resimulation
+     *
+     * @return the time, in ns
+     */
+    public long getLastRestoreTimeNs() {
+        return lastRestoreNs;
+    }
+    
+    /**
+     * Discard the whole history
+     * 
+     * The next recorded frame becomes a keyframe.
+     */
+    public void clear() {
+        while(!keyframes.isEmpty()) {
+            dropOldest();
+        }
+    }
+    
+    private int slot(long f) {
+        return (int)(f % frameInputs.length);
+    }
+    
+    /**
+     * Capture the sections at the start of the current frame
+     */
+    private void captureKeyframe() {
+        scratch.clear();
+        for(Map.Entry<Integer, SaveSection> e : sections.entrySet()) {
+            // reserve the length, then fill it in
+            int start = scratch.size();
+            scratch.putInt(e.getKey()).putInt(0);
+            e.getValue().save(scratch);
+            scratch.putIntAt(start + 4, scratch.size() - start - 8);
+        }
+        
+        Keyframe key = new Keyframe(frame, scratch.copyRange(0,
+                scratch.size()));
+        keyframes.addLast(key);
+        memoryUsed += key.data.length;
+    }
+    
+    /**
+     * Load the sections from a keyframe
+     */
+    private void restore(Keyframe key) {
+        byte[] data = key.data;
+        SaveBuffer in = new SaveBuffer(data, 0, data.length);
+        
+        while(in.remaining() > 0) {
+            int id = in.getInt();
+            int len = in.getInt();
+            int off = data.length - in.remaining();
+            
+            SaveSection section = sections.get(id);
+            if(section != null) {
+                section.load(new SaveBuffer(data, off, len));
+            }
+            in.skip(len);
+        }
+    }
+    
+    /**
+     * Drop the oldest keyframe and the frames up to the next one
+     */
+    private void dropOldest() {
+        Keyframe oldest = keyframes.pollFirst();
+        long end = keyframes.isEmpty() ? frame : keyframes.peekFirst().frame;
+        
+        memoryUsed -= oldest.data.length;
+        for(long f = oldest.frame; f < end; f++) {
+            int slot = slot(f);
+            memoryUsed -= frameInputs[slot].length + 4;
+            frameInputs[slot] = null;
+        }
+    }
+    
+    /**
+     * Pack a frame's input events
+     */
+    private byte[] encode(List<InputEvent> inputs) {
+        scratch.clear();
+        
+        for(int i = 0; i < inputs.size(); i++) {
+            InputEvent e = inputs.get(i);
+            
+            if(e instanceof KeyboardEvent) {
+                KeyboardEvent k = (KeyboardEvent)e;
+                scratch.putByte(KEYBOARD);
+                scratch.putLong(k.getEventTimeNs());
+                scratch.putBoolean(
+                        k.getKeyState() == KeyboardEvent.State.DOWN);
+                scratch.putInt(k.getKeyCode());
+                scratch.putInt(k.getKeyChar());
+            } else if(e instanceof MouseEvent) {
+                MouseEvent m = (MouseEvent)e;
+                scratch.putByte(MOUSE);
+                scratch.putLong(m.getEventTimeNs());
+                scratch.putInt(m.getButton());
+                scratch.putByte((byte)m.getButtonState().ordinal());
+                scratch.putInt(m.getX()).putInt(m.getY());
+                scratch.putInt(m.getDeltaX()).putInt(m.getDeltaY());
+                scratch.putInt(m.getDeltaWheel());
+            }
+        }
+        
+        return scratch.copyRange(0, scratch.size());
+    }
+    
+    /**
+     * Unpack a frame's input events
+     */
+    private static void decode(byte[] data, List<InputEvent> out) {
+        out.clear();
+        if(data.length == 0) {
+            return;
+        }
+        
+        SaveBuffer in = new SaveBuffer(data, 0, data.length);
+        while(in.remaining() > 0) {
+            byte type = in.getByte();
+            long time = in.getLong();
+            
+            if(type == KEYBOARD) {
+                KeyboardEvent.State state = in.getBoolean() ?
+                        KeyboardEvent.State.DOWN : KeyboardEvent.State.UP;
+                int code = in.getInt();
+                char c = (char)in.getInt();
+                out.add(new KeyboardEvent(time, state, code, c));
+            } else {
+                int button = in.getInt();
+                MouseEvent.ButtonState state =
+                        MouseEvent.ButtonState.values()[in.getByte()];
+                out.add(new MouseEvent(time, button, state, in.getInt(),
+                        in.getInt(), in.getInt(), in.getInt(), in.getInt()));
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/* SaveBuffer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.save;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable little-endian byte buffer for save data
+ * 
+ * Sections write their state with the put methods and read it back with the
+ * matching get methods in the same order. Reading past the end throws
+ * BufferUnderflowException, so loading a shorter section from an older save
+ * fails early instead of reading garbage.
+ */
+public class SaveBuffer {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private ByteBuffer buf;
+    
+    /**
+     * Constructor for writing
+     *
+     * @param capacity initial capacity, in bytes
+     */
+    public SaveBuffer(int capacity) {
+        this.buf = ByteBuffer.allocate(Math.max(capacity, 16))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Constructor for reading
+     *
+     * @param data the saved bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     */
+    public SaveBuffer(byte[] data, int offset, int length) {
+        this.buf = ByteBuffer.wrap(data, offset, length).slice()
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Write a boolean as one byte
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putBoolean(boolean v) {
+        ensure(1).put(v ? (byte)1 : 0);
+        return this;
+    }
+    
+    /**
+     * Write a byte
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putByte(byte v) {
+        ensure(1).put(v);
+        return this;
+    }
+    
+    /**
+     * Write an int
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putInt(int v) {
+        ensure(4).putInt(v);
+        return this;
+    }
+    
+    /**
+     * Write a long
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putLong(long v) {
+        ensure(8).putLong(v);
+        return this;
+    }
+    
+    /**
+     * Write a float
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putFloat(float v) {
+        ensure(4).putFloat(v);
+        return this;
+    }
+    
+    /**
+     * Write a double
+     *
+     * @param v the value
+     * @return this buffer
+     */
+    public SaveBuffer putDouble(double v) {
+        ensure(8).putDouble(v);
+        return this;
+    }
+    
+    /**
+     * Write a string as a length and UTF-8 bytes
+     *
+     * @param s the string, or null
+     * @return this buffer
+     */
+    public SaveBuffer putString(String s) {
+        if(s == null) {
+            return putInt(-1);
+        }
+        
+        byte[] b = s.getBytes(UTF8);
+        putInt(b.length);
+        return putBytes(b, 0, b.length);
+    }
+    
+    /**
+     * Write bytes from an array
+     *
+     * @param src the array
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return this buffer
+     */
+    public SaveBuffer putBytes(byte[] src, int offset, int length) {
+        ensure(length).put(src, offset, length);
+        return this;
+    }
+    
+    /**
+     * Write ints from an array
+     *
+     * @param src the array
+     * @param offset index of the first int
+     * @param length number of ints
+     * @return this buffer
+     */
+    public SaveBuffer putInts(int[] src, int offset, int length) {
+        ByteBuffer b = ensure(length * 4);
+        b.asIntBuffer().put(src, offset, length);
+        b.position(b.position() + length * 4);
+        return this;
+    }
+    
+    /**
+     * Write floats from an array
+     *
+     * @param src the array
+     * @param offset index of the first float
+     * @param length number of floats
+     * @return this buffer
+     */
+    public SaveBuffer putFloats(float[] src, int offset, int length) {
+        ByteBuffer b = ensure(length * 4);
+        b.asFloatBuffer().put(src, offset, length);
+        b.position(b.position() + length * 4);
+        return this;
+    }
+    
+    /**
+     * Read a boolean
+     *
+     * @return the value
+     */
+    public boolean getBoolean() {
+        return buf.get() != 0;
+    }
+    
+    /**
+     * Read a byte
+     *
+     * @return the value
+     */
+    public byte getByte() {
+        return buf.get();
+    }
+    
+    /**
+     * Read an int
+     *
+     * @return the value
+     */
+    public int getInt() {
+        return buf.getInt();
+    }
+    
+    /**
+     * Read a long
+     *
+     * @return the value
+     */
+    public long getLong() {
+        return buf.getLong();
+    }
+    
+    /**
+     * Read a float
+     *
+     * @return the value
+     */
+    public float getFloat() {
+        return buf.getFloat();
+    }
+    
+    /**
+     * Read a double
+     *
+     * @return the value
+     */
+    public double getDouble() {
+        return buf.getDouble();
+    }
+    
+    /**
+     * Read a string written by putString()
+     *
+     * @return the string, or null
+     */
+    public String getString() {
+        int len = buf.getInt();
+        if(len < 0) {
+            return null;
+        }
+        if(len > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        
+        byte[] b = new byte[len];
+        buf.get(b);
+        
+        return new String(b, UTF8);
+    }
+    
+    /**
+     * Read bytes into an array
+     *
+     * @param dst the array
+     * @param offset index of the first byte
+     * @param length number of bytes
+     */
+    public void getBytes(byte[] dst, int offset, int length) {
+        buf.get(dst, offset, length);
+    }
+    
+    /**
+     * Read ints into an array
+     *
+     * @param dst the array
+     * @param offset index of the first int
+     * @param length number of ints
+     */
+    public void getInts(int[] dst, int offset, int length) {
+        if(length * 4 > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buf.asIntBuffer().get(dst, offset, length);
+        buf.position(buf.position() + length * 4);
+    }
+    
+    /**
+     * Read floats into an array
+     *
+     * @param dst the array
+     * @param offset index of the first float
+     * @param length number of floats
+     */
+    public void getFloats(float[] dst, int offset, int length) {
+        if(length * 4 > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buf.asFloatBuffer().get(dst, offset, length);
+        buf.position(buf.position() + length * 4);
+    }
+    
+    /**
+     * Get the number of bytes left to read
+     *
+     * @return the remaining size, in bytes
+     */
+    public int remaining() {
+        return buf.remaining();
+    }
+    
+    /**
+     * Get the number of bytes written
+     *
+     * @return the size, in bytes
+     */
+    public int size() {
+        return buf.position();
+    }
+    
+    /**
+     * Copy the bytes written
+     *
+     * @return the bytes
+     */
+    byte[] toByteArray() {
+        int base = buf.arrayOffset();
+        return Arrays.copyOfRange(buf.array(), base, base + buf.position());
+    }
+    
+    /**
+     * Copy part of the bytes written
+     *
+     * @param from index of the first byte
+     * @param to index after the last byte
+     * @return the bytes
+     */
+    byte[] copyRange(int from, int to) {
+        int base = buf.arrayOffset();
+        return Arrays.copyOfRange(buf.array(), base + from, base + to);
+    }
+    
+    /**
+     * Overwrite an int written earlier
+     *
+     * @param index byte index of the int
+     * @param v the value
+     */
+    void putIntAt(int index, int v) {
+        buf.putInt(index, v);
+    }
+    
+    /**
+     * Skip bytes when reading
+     *
+     * @param length number of bytes
+     */
+    void skip(int length) {
+        if(length > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buf.position(buf.position() + length);
+    }
+    
+    /**
+     * Check whether the bytes written equal a byte range
+     * 
+     * For a buffer being read, the bytes read so far are compared.
+     *
+     * @param data the bytes to compare with
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return true if the contents are equal
+     */
+    public boolean contentEquals(byte[] data, int offset, int length) {
+        if(length != buf.position()) {
+            return false;
+        }
+        
+        // read buffers are slices of a larger array
+        byte[] own = buf.array();
+        int base = buf.arrayOffset();
+        for(int i = 0; i < length; i++) {
+            if(own[base + i] != data[offset + i]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Discard the bytes written, keeping the capacity
+     */
+    public void clear() {
+        buf.clear();
+    }
+    
+    /**
+     * Make room for a write
+     *
+     * @return the backing buffer, positioned for the write
+     */
+    private ByteBuffer ensure(int bytes) {
+        if(buf.remaining() < bytes) {
+            int cap = Math.max(buf.capacity() * 2, buf.position() + bytes);
+            ByteBuffer b = ByteBuffer.allocate(cap)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            
+            buf.flip();
+            b.put(buf);
+            buf = b;
+        }
+        
+        return buf;
+    }
+}
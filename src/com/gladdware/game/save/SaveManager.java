@@ -0,0 +1,698 @@
+/* SaveManager.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.save;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.util.BlockCodec;
+
+/**
+ * Binary save games written in the background
+ * 
+ * Game state is split into registered SaveSections. save() pauses the main
+ * thread only long enough for each section to copy its state into a buffer;
+ * that snapshot is then encoded, compressed and written on a dedicated save
+ * thread while the game keeps running, so later changes to the state do not
+ * affect a save in progress.
+ * 
+ * Most saves are deltas: only the 32-byte blocks of each section that
+ * changed since the previous save are stored. Every fullInterval saves (and
+ * after any failed save) a full snapshot is written instead and the older
+ * files of the slot are deleted, so a slot holds one full snapshot followed
+ * by a short chain of deltas. load() replays the chain up to its last intact
+ * file.
+ * 
+ * Files are written to a temporary file, forced to disk as set by
+ * setSyncMode() and renamed into place, so a crash never leaves a partial
+ * save in the chain.
+ * 
+ * File layout (little-endian): header with magic "GGSV", version, type
+ * (full or delta), sequence number and base sequence number, followed by
+ * the payload as a BlockCodec frame.
+ */
+public class SaveManager {
+    
+    private static final String TAG = "SaveManager";
+    
+    static final int MAGIC = 0x56534747;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int TYPE_FULL = 0;
+    static final int TYPE_DELTA = 1;
+    
+    /** Granularity of delta comparisons, in bytes */
+    static final int DELTA_BLOCK = 32;
+    
+    /** Default number of delta saves between full saves */
+    public static final int DEFAULT_FULL_INTERVAL = 8;
+    
+    /**
+     * How far written saves are forced to disk before they count as saved
+     */
+    public enum SyncMode {
+        /** Leave flushing to the operating system */
+        NONE,
+        /** Force the file contents */
+        DATA,
+        /** Force the file contents and metadata */
+        FULL
+    }
+    
+    /**
+     * Section state captured by save()
+     */
+    private static class Snapshot {
+        final Map<Integer, byte[]> sections;
+        final boolean full;
+        
+        Snapshot(Map<Integer, byte[]> sections, boolean full) {
+            this.sections = sections;
+            this.full = full;
+        }
+    }
+    
+    private final File dir;
+    private final String slot;
+    private final Map<Integer, SaveSection> sections;
+    private final SaveBuffer capture;
+    private final ExecutorService saveThread;
+    
+    private volatile SyncMode syncMode;
+    private volatile int fullInterval;
+    
+    /** Save thread state: last written section state and chain position */
+    private Map<Integer, byte[]> lastSaved;
+    private long sequence;
+    private int deltaCount;
+    private boolean scanned;
+    
+    private long lastCaptureNs;
+    private volatile long lastWriteNs;
+    private volatile long lastWrittenBytes;
+    
+    /**
+     * Constructor
+     *
+     * @param dir the directory saves are written to
+     * @param slot the save slot name, used as the file name prefix
+     */
+    public SaveManager(File dir, String slot) {
+        this.dir = dir;
+        this.slot = slot;
+        this.sections = new LinkedHashMap<Integer, SaveSection>();
+        this.capture = new SaveBuffer(64 * 1024);
+        this.syncMode = SyncMode.DATA;
+        this.fullInterval = DEFAULT_FULL_INTERVAL;
+        
+        this.saveThread = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "save");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Register a section
+     * 
+     * Section ids identify the data in save files; keep them stable across
+     * game versions.
+     *
+     * @param id the section id
+     * @param section the section
+     */
+    public void register(int id, SaveSection section) {
+        if(sections.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate save section " + id);
+        }
+        sections.put(id, section);
+    }
+    
+    /**
+     * Set how far saves are forced to disk
+     *
+     * @param mode the sync mode (default DATA)
+     */
+    public void setSyncMode(SyncMode mode) {
+        this.syncMode = mode;
+    }
+    
+    /**
+     * Set the number of delta saves between full saves
+     *
+     * @param interval the interval, or 0 to always save in full
+     */
+    public void setFullInterval(int interval) {
+        this.fullInterval = interval;
+    }
+    
+    /**
+     * Capture all sections and write them in the background
+     * 
+     * Must be called from the main thread. Saves are written in the order
+     * they are requested.
+     *
+     * @return the written file, once done; get() throws an
+     *         ExecutionException if the save failed
+     */
+    public Future<File> save() {
+        return save(false);
+    }
+    
+    /**
+     * Capture all sections and write them in full in the background
+     *
+     * @return the written file, once done
+     * @see #save()
+     */
+    public Future<File> saveFull() {
+        return save(true);
+    }
+    
+    /**
+     * Restore all sections from the slot's latest intact save
+     * 
+     * Must be called from the main thread; waits for saves in progress.
+     * Sections not in the save keep their state.
+     *
+     * @return false if the slot has no save
+     * @throws IOException if no save could be read or a section failed to
+     *      load its data
+     */
+    public boolean load() throws IOException {
+        Map<Integer, byte[]> state;
+        
+        try {
+            state = saveThread.submit(new Callable<Map<Integer, byte[]>>() {
+                public Map<Integer, byte[]> call() throws IOException {
+                    return restore();
+                }
+            }).get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch(ExecutionException e) {
+            throw new IOException("Failed to read save: " +
+                    e.getCause().getMessage(), e.getCause());
+        }
+        
+        if(state == null) {
+            return false;
+        }
+        
+        for(Map.Entry<Integer, SaveSection> e : sections.entrySet()) {
+            byte[] data = state.get(e.getKey());
+            if(data == null) {
+                continue;
+            }
+            
+            try {
+                e.getValue().load(new SaveBuffer(data, 0, data.length));
+            } catch(RuntimeException ex) {
+                throw new IOException("Failed to load save section " +
+                        e.getKey(), ex);
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Wait until all requested saves are written
+     */
+    public void waitForSaves() {
+        try {
+            saveThread.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            // cannot happen
+        }
+    }
+    
+    /**
+     * Finish pending saves and stop the save thread
+     */
+    public void shutdown() {
+        saveThread.shutdown();
+        
+        try {
+            if(!saveThread.awaitTermination(30, TimeUnit.SECONDS)) {
+                Log.e(TAG, "Timed out waiting for saves to finish");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Get the main-thread time taken by the last save() call
+     *
+     * @return the time, in ns
+     */
+    public long getLastCaptureTimeNs() {
+        return lastCaptureNs;
+    }
+    
+    /**
+     * Get the save thread time taken by the last written save
+     *
+     * @return the time, in ns
+     */
+    public long getLastWriteTimeNs() {
+        return lastWriteNs;
+    }
+    
+    /**
+     * Get the file size of the last written save
+     *
+     * @return the size, in bytes
+     */
+    public long getLastWrittenBytes() {
+        return lastWrittenBytes;
+    }
+    
+    private Future<File> save(boolean full) {
+        long start = System.nanoTime();
+        
+        // one reused buffer for all sections, split into per-section copies
+        Map<Integer, byte[]> state = new HashMap<Integer, byte[]>();
+        capture.clear();
+        for(Map.Entry<Integer, SaveSection> e : sections.entrySet()) {
+            int from = capture.size();
+            e.getValue().save(capture);
+            state.put(e.getKey(), capture.copyRange(from, capture.size()));
+        }
+        
+        final Snapshot snapshot = new Snapshot(state, full);
+        lastCaptureNs = System.nanoTime() - start;
+        
+        return saveThread.submit(new Callable<File>() {
+            public File call() throws IOException {
+                return write(snapshot);
+            }
+        });
+    }
+    
+    /**
+     * Encode and write a snapshot (save thread)
+     */
+    private File write(Snapshot snapshot) throws IOException {
+        long start = System.nanoTime();
+        
+        // continue numbering after saves of an earlier session
+        if(!scanned) {
+            sequence = Math.max(sequence, lastSequence());
+            scanned = true;
+        }
+        
+        boolean full = snapshot.full || lastSaved == null ||
+                deltaCount >= fullInterval;
+        long seq = ++sequence;
+        
+        SaveBuffer payload = new SaveBuffer(64 * 1024);
+        payload.putInt(snapshot.sections.size());
+        for(Map.Entry<Integer, byte[]> e : snapshot.sections.entrySet()) {
+            byte[] data = e.getValue();
+            byte[] base = full ? null : lastSaved.get(e.getKey());
+            
+            payload.putInt(e.getKey());
+            payload.putInt(data.length);
+            if(base == null) {
+                payload.putInt(-1);
+                payload.putBytes(data, 0, data.length);
+            } else {
+                encodeDelta(base, data, payload);
+            }
+        }
+        
+        ByteBuffer frame = BlockCodec.compress(
+                ByteBuffer.wrap(payload.toByteArray()),
+                BlockCodec.DEFAULT_BLOCK_SIZE);
+        
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(full ? TYPE_FULL : TYPE_DELTA);
+        header.putInt(0);
+        header.putLong(seq);
+        header.putLong(full ? 0 : seq - 1);
+        header.flip();
+        
+        File out = new File(dir, slot + "." + seq + (full ? ".full" :
+            ".delta"));
+        File tmp = new File(dir, slot + ".tmp");
+        
+        try {
+            writeFile(tmp, header, frame);
+            Files.move(tmp.toPath(), out.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            // the chain is broken; start over with a full save
+            lastSaved = null;
+            Log.e(TAG, "Failed to write save " + out, e);
+            throw e;
+        }
+        
+        lastSaved = snapshot.sections;
+        if(full) {
+            deltaCount = 0;
+            deleteBefore(seq);
+        } else {
+            deltaCount++;
+        }
+        
+        lastWrittenBytes = HEADER_SIZE + frame.remaining();
+        lastWriteNs = System.nanoTime() - start;
+        Log.d(TAG, "Wrote " + out.getName() + ", " + lastWrittenBytes +
+                " bytes in " + lastWriteNs / 1000 + " us");
+        
+        return out;
+    }
+    
+    private void writeFile(File f, ByteBuffer header, ByteBuffer frame)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            ch.truncate(0);
+            
+            ByteBuffer[] parts = { header.duplicate(), frame.duplicate() };
+            long total = parts[0].remaining() + parts[1].remaining();
+            long written = 0;
+            while(written < total) {
+                written += ch.write(parts);
+            }
+            
+            SyncMode mode = syncMode;
+            if(mode != SyncMode.NONE) {
+                ch.force(mode == SyncMode.FULL);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Read the slot's save chain (save thread)
+     *
+     * @return the saved section state, or null if there is no save
+     */
+    private Map<Integer, byte[]> restore() throws IOException {
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return null;
+        }
+        
+        // sequence numbers of the slot's full and delta saves
+        List<Long> fulls = new ArrayList<Long>();
+        List<Long> deltas = new ArrayList<Long>();
+        long maxSeq = 0;
+        for(File f : files) {
+            long seq = parseSequence(f.getName(), ".full");
+            if(seq > 0) {
+                fulls.add(seq);
+            } else if((seq = parseSequence(f.getName(), ".delta")) > 0) {
+                deltas.add(seq);
+            }
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        Collections.sort(fulls, Collections.reverseOrder());
+        Collections.sort(deltas);
+        
+        // newest intact full save
+        Map<Integer, byte[]> state = null;
+        long cur = 0;
+        IOException error = null;
+        for(long seq : fulls) {
+            try {
+                state = apply(null, readPayload(seq, ".full", 0));
+                cur = seq;
+                break;
+            } catch(IOException e) {
+                Log.w(TAG, "Skipping unreadable save " + seq + ": " +
+                        e.getMessage());
+                error = e;
+            }
+        }
+        
+        if(state == null) {
+            if(error != null) {
+                throw error;
+            }
+            return null;
+        }
+        
+        // then its deltas, up to the first broken one
+        int applied = 0;
+        for(long seq : deltas) {
+            if(seq <= cur) {
+                continue;
+            }
+            
+            try {
+                state = apply(state, readPayload(seq, ".delta", cur));
+                cur = seq;
+                applied++;
+            } catch(IOException e) {
+                Log.w(TAG, "Save chain ends before " + seq + ": " +
+                        e.getMessage());
+                break;
+            }
+        }
+        
+        Log.d(TAG, "Restored save " + cur + " (" + applied + " deltas)");
+        
+        lastSaved = state;
+        sequence = maxSeq;
+        deltaCount = applied;
+        scanned = true;
+        
+        // later saves must not extend a chain past a broken delta
+        if(cur != maxSeq) {
+            lastSaved = null;
+        }
+        
+        return state;
+    }
+    
+    /**
+     * Read and decompress a save file's payload
+     */
+    private ByteBuffer readPayload(long seq, String suffix, long base)
+            throws IOException {
+        File f = new File(dir, slot + "." + seq + suffix);
+        ByteBuffer data;
+        
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            data = ByteBuffer.allocate((int)ch.size());
+            while(data.hasRemaining()) {
+                if(ch.read(data) < 0) {
+                    throw new FileNotFoundException("Truncated " + f);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        data.flip();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        
+        if(data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC ||
+                data.getInt(4) != VERSION || data.getLong(16) != seq ||
+                data.getLong(24) != base) {
+            throw new IOException("Bad save header in " + f);
+        }
+        
+        data.position(HEADER_SIZE);
+        ByteBuffer raw = ByteBuffer.allocate(BlockCodec.getRawLength(data))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        BlockCodec.decompress(data, raw);
+        
+        return raw;
+    }
+    
+    /**
+     * Apply a payload to saved section state
+     *
+     * @param base the previous state, or null for a full payload
+     */
+    private static Map<Integer, byte[]> apply(Map<Integer, byte[]> base,
+            ByteBuffer p) throws IOException {
+        Map<Integer, byte[]> state = new HashMap<Integer, byte[]>();
+        
+        try {
+            int count = p.getInt();
+            for(int i = 0; i < count; i++) {
+                int id = p.getInt();
+                byte[] data = new byte[p.getInt()];
+                int runs = p.getInt();
+                
+                if(runs < 0) {
+                    p.get(data);
+                } else {
+                    byte[] old = base != null ? base.get(id) : null;
+                    if(old == null) {
+                        throw new IOException("Delta of unknown section " +
+                                id);
+                    }
+                    
+                    System.arraycopy(old, 0, data, 0,
+                            Math.min(old.length, data.length));
+                    for(int r = 0; r < runs; r++) {
+                        int off = p.getInt();
+                        int len = p.getInt();
+                        p.get(data, off, len);
+                    }
+                }
+                
+                state.put(id, data);
+            }
+        } catch(RuntimeException e) {
+            throw new IOException("Corrupt save payload", e);
+        }
+        
+        return state;
+    }
+    
+    /**
+     * Write the changed blocks of a section as runs of (offset, length,
+     * bytes)
+     */
+    private static void encodeDelta(byte[] old, byte[] data, SaveBuffer out) {
+        SaveBuffer runs = new SaveBuffer(256);
+        int runCount = 0;
+        int runStart = -1;
+        
+        for(int off = 0; off < data.length; off += DELTA_BLOCK) {
+            int end = Math.min(off + DELTA_BLOCK, data.length);
+            
+            boolean changed = end > old.length;
+            for(int i = off; i < end && !changed; i++) {
+                changed = data[i] != old[i];
+            }
+            
+            if(changed && runStart < 0) {
+                runStart = off;
+            } else if(!changed && runStart >= 0) {
+                runs.putInt(runStart).putInt(off - runStart);
+                runs.putBytes(data, runStart, off - runStart);
+                runCount++;
+                runStart = -1;
+            }
+        }
+        if(runStart >= 0) {
+            runs.putInt(runStart).putInt(data.length - runStart);
+            runs.putBytes(data, runStart, data.length - runStart);
+            runCount++;
+        }
+        
+        out.putInt(runCount);
+        byte[] b = runs.toByteArray();
+        out.putBytes(b, 0, b.length);
+    }
+    
+    /**
+     * Get the highest sequence number among the slot's files
+     */
+    private long lastSequence() {
+        File[] files = dir.listFiles();
+        long max = 0;
+        
+        if(files != null) {
+            for(File f : files) {
+                max = Math.max(max, parseSequence(f.getName(), ".full"));
+                max = Math.max(max, parseSequence(f.getName(), ".delta"));
+            }
+        }
+        
+        return max;
+    }
+    
+    /**
+     * Delete the slot's saves older than a full save
+     */
+    private void deleteBefore(long seq) {
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return;
+        }
+        
+        for(File f : files) {
+            long s = parseSequence(f.getName(), ".full");
+            if(s <= 0) {
+                s = parseSequence(f.getName(), ".delta");
+            }
+            
+            if(s > 0 && s < seq && !f.delete()) {
+                Log.w(TAG, "Cannot delete old save " + f);
+            }
+        }
+    }
+    
+    /**
+     * Get the sequence number of one of the slot's files
+     *
+     * @return the sequence number, or 0 if the name does not match
+     */
+    private long parseSequence(String name, String suffix) {
+        if(!name.startsWith(slot + ".") || !name.endsWith(suffix)) {
+            return 0;
+        }
+        
+        try {
+            return Long.parseLong(name.substring(slot.length() + 1,
+                    name.length() - suffix.length()));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+}
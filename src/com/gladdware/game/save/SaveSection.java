@@ -0,0 +1,44 @@
+/* SaveSection.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.save;
+
+/**
+ * A part of the game state that is saved and restored
+ * 
+ * Both methods are called on the main thread. save() runs while the frame is
+ * paused and should only copy state into the buffer (bulk array puts are
+ * cheapest); all encoding and file I/O happen later on the save thread.
+ */
+public interface SaveSection {
+    
+    /**
+     * Copy the section's state
+     *
+     * @param out the buffer to write the state to
+     */
+    void save(SaveBuffer out);
+    
+    /**
+     * Restore the section's state
+     *
+     * @param in the state written by save(), in the same order
+     */
+    void load(SaveBuffer in);
+}
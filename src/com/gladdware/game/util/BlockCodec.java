@@ -0,0 +1,539 @@
+/* BlockCodec.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77-family block compression
+ * 
+ * Data is cut into independent blocks (64 KB by default) that are compressed
+ * and decompressed in parallel on the shared worker pool. Each block is
+ * stored with a checksum of its uncompressed bytes, verified when it is
+ * decompressed. Blocks that do not compress are stored as is.
+ * 
+ * The codec trades ratio for speed: decompression is a simple loop of
+ * literal runs and back references, working directly on the source and
+ * destination buffers (heap or direct, including memory-mapped files).
+ * 
+ * Frame layout (little-endian):
+ * 
+ * - header: magic "GGLZ", block size, uncompressed length, block count
+ * - block table: per block, the stored length (high bit set if the block is
+ *   stored uncompressed) and the checksum of its uncompressed bytes
+ * - the blocks, back to back
+ * 
+ * Block encoding: a sequence of (token, literals, match) groups. The token's
+ * high nibble is the literal count and its low nibble the match length minus
+ * MIN_MATCH; a nibble of 15 is followed by extra length bytes, each added in,
+ * that continue while they are 255. A match is a 2-byte distance back into
+ * the block's output. The last group of a block has literals only.
+ */
+public class BlockCodec {
+    
+    public static final int MAGIC = 0x5a4c4747;
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int HEADER_SIZE = 16;
+    
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_BITS = 14;
+    private static final int STORED = 0x80000000;
+    
+    /** Per-thread match finder tables */
+    private static final ThreadLocal<int[]> TABLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_BITS];
+        }
+    };
+    
+    /**
+     * Get the largest frame compress() can produce
+     *
+     * @param rawLength uncompressed length
+     * @param blockSize block size
+     * @return the size bound, in bytes
+     */
+    public static int maxCompressedLength(int rawLength, int blockSize) {
+        int blocks = blockCount(rawLength, blockSize);
+        
+        // stored blocks never exceed their raw size
+        return HEADER_SIZE + blocks * 8 + rawLength;
+    }
+    
+    /**
+     * Compress the bytes between a buffer's position and limit into a frame
+     * 
+     * Blocks are compressed in parallel into scratch space first, then copied
+     * into the frame. Neither buffer's position changes.
+     *
+     * @param src the data to compress
+     * @param blockSize block size, in bytes
+     * @return the frame, in a new heap buffer, position 0 to limit
+     */
+    public static ByteBuffer compress(ByteBuffer src, int blockSize) {
+        if(blockSize < 256) {
+            throw new IllegalArgumentException("Block size too small: " +
+                    blockSize);
+        }
+        
+        final ByteBuffer in = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int base = in.position();
+        final int rawLength = in.remaining();
+        final int size = blockSize;
+        final int blocks = blockCount(rawLength, blockSize);
+        
+        // each block gets a worst-case slot of the scratch buffer
+        final int slot = blockSize + blockSize / 255 + 16;
+        final ByteBuffer scratch = ByteBuffer.allocate(blocks * slot)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final int[] lengths = new int[blocks];
+        final int[] sums = new int[blocks];
+        
+        Parallel.forRange(blocks, 1, new Parallel.RangeTask() {
+            public void run(int start, int end) {
+                int[] table = TABLES.get();
+                
+                for(int b = start; b < end; b++) {
+                    int off = base + b * size;
+                    int len = Math.min(size, base + rawLength - off);
+                    
+                    sums[b] = checksum(in, off, len);
+                    int n = compressBlock(in, off, len, scratch, b * slot,
+                            table);
+                    lengths[b] = n < len ? n : (len | STORED);
+                }
+            }
+        });
+        
+        int total = HEADER_SIZE + blocks * 8;
+        for(int b = 0; b < blocks; b++) {
+            total += lengths[b] & ~STORED;
+        }
+        
+        ByteBuffer out = ByteBuffer.allocate(total)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putInt(blockSize);
+        out.putInt(rawLength);
+        out.putInt(blocks);
+        
+        for(int b = 0; b < blocks; b++) {
+            out.putInt(lengths[b]);
+            out.putInt(sums[b]);
+        }
+        
+        for(int b = 0; b < blocks; b++) {
+            ByteBuffer part;
+            int len = lengths[b] & ~STORED;
+            
+            if((lengths[b] & STORED) != 0) {
+                part = in.duplicate();
+                part.limit(base + b * size + len).position(base + b * size);
+            } else {
+                part = scratch.duplicate();
+                part.limit(b * slot + len).position(b * slot);
+            }
+            out.put(part);
+        }
+        
+        out.flip();
+        return out;
+    }
+    
+    /**
+     * Get the uncompressed length of a frame
+     *
+     * @param frame the frame, starting at its position
+     * @return the uncompressed length, in bytes
+     * @throws IOException if the frame header is invalid
+     */
+    public static int getRawLength(ByteBuffer frame) throws IOException {
+        ByteBuffer f = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        
+        if(f.remaining() < HEADER_SIZE || f.getInt(f.position()) != MAGIC) {
+            throw new IOException("Not a compressed frame");
+        }
+        
+        return f.getInt(f.position() + 8);
+    }
+    
+    /**
+     * Decompress a frame
+     * 
+     * Blocks are decompressed in parallel straight from the frame into the
+     * destination and their checksums verified. Neither buffer's position
+     * changes.
+     *
+     * @param frame the frame, starting at its position
+     * @param dst receives getRawLength() bytes at its position
+     * @throws IOException if the frame is corrupt
+     */
+    public static void decompress(ByteBuffer frame, ByteBuffer dst)
+            throws IOException {
+        final ByteBuffer in = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        
+        int start = in.position();
+        if(in.remaining() < HEADER_SIZE || in.getInt(start) != MAGIC) {
+            throw new IOException("Not a compressed frame");
+        }
+        
+        final int blockSize = in.getInt(start + 4);
+        final int rawLength = in.getInt(start + 8);
+        final int blocks = in.getInt(start + 12);
+        
+        if(blockSize <= 0 || rawLength < 0 ||
+                blocks != blockCount(rawLength, blockSize) ||
+                (long)HEADER_SIZE + blocks * 8L > in.remaining()) {
+            throw new IOException("Corrupt frame header");
+        }
+        if(out.remaining() < rawLength) {
+            throw new IllegalArgumentException("Destination too small: " +
+                    out.remaining() + " < " + rawLength);
+        }
+        
+        // block offsets from the table
+        final int table = start + HEADER_SIZE;
+        final int[] offsets = new int[blocks];
+        long pos = table + blocks * 8;
+        for(int b = 0; b < blocks; b++) {
+            offsets[b] = (int)pos;
+            pos += in.getInt(table + b * 8) & ~STORED;
+        }
+        if(pos > in.limit()) {
+            throw new IOException("Truncated frame");
+        }
+        
+        final int outBase = out.position();
+        final String[] error = new String[1];
+        
+        Parallel.forRange(blocks, 1, new Parallel.RangeTask() {
+            public void run(int first, int end) {
+                for(int b = first; b < end; b++) {
+                    int stored = in.getInt(table + b * 8);
+                    int sum = in.getInt(table + b * 8 + 4);
+                    int len = stored & ~STORED;
+                    int dstOff = outBase + b * blockSize;
+                    int rawLen = Math.min(blockSize,
+                            outBase + rawLength - dstOff);
+                    
+                    if((stored & STORED) != 0) {
+                        if(len != rawLen) {
+                            error[0] = "Bad stored block " + b;
+                            return;
+                        }
+                        copy(in, offsets[b], out, dstOff, len);
+                    } else if(decompressBlock(in, offsets[b], len, out,
+                            dstOff, rawLen) != rawLen) {
+                        error[0] = "Corrupt block " + b;
+                        return;
+                    }
+                    
+                    if(checksum(out, dstOff, rawLen) != sum) {
+                        error[0] = "Checksum mismatch in block " + b;
+                        return;
+                    }
+                }
+            }
+        });
+        
+        if(error[0] != null) {
+            throw new IOException(error[0]);
+        }
+    }
+    
+    /**
+     * Compress one block
+     *
+     * @param src source buffer (little-endian)
+     * @param off offset of the block in src
+     * @param len block length
+     * @param dst destination buffer (little-endian)
+     * @param dstOff where to write in dst; needs len + len / 255 + 16 bytes
+     * @param table match finder table of 2^14 ints, clobbered
+     * @return the compressed length
+     */
+    static int compressBlock(ByteBuffer src, int off, int len, ByteBuffer dst,
+            int dstOff, int[] table) {
+        Arrays.fill(table, -1);
+        
+        int end = off + len;
+        int matchLimit = end - MIN_MATCH;
+        int anchor = off;
+        int ip = off;
+        int op = dstOff;
+        
+        while(ip <= matchLimit) {
+            int seq = src.getInt(ip);
+            int h = (seq * 0x9e3779b1) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = ip;
+            
+            if(ref < off || ip - ref > MAX_DISTANCE || src.getInt(ref) != seq) {
+                ip++;
+                continue;
+            }
+            
+            // extend the match
+            int m = ip + MIN_MATCH;
+            int r = ref + MIN_MATCH;
+            while(m < end && src.get(m) == src.get(r)) {
+                m++;
+                r++;
+            }
+            
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref,
+                    m - ip);
+            
+            // seed the table inside the match so nearby repeats are found
+            if(m - 2 > ip && m - 2 <= matchLimit) {
+                int s = src.getInt(m - 2);
+                table[(s * 0x9e3779b1) >>> (32 - HASH_BITS)] = m - 2;
+            }
+            
+            ip = m;
+            anchor = m;
+        }
+        
+        // trailing literals
+        return writeSequence(src, anchor, end - anchor, dst, op, 0, 0) -
+                dstOff;
+    }
+    
+    /**
+     * Decompress one block
+     *
+     * @param src source buffer (little-endian)
+     * @param off offset of the compressed block
+     * @param len compressed length
+     * @param dst destination buffer
+     * @param dstOff where to write in dst
+     * @param rawLen expected uncompressed length
+     * @return the number of bytes produced, or -1 if the block is malformed
+     */
+    static int decompressBlock(ByteBuffer src, int off, int len,
+            ByteBuffer dst, int dstOff, int rawLen) {
+        int ip = off;
+        int end = off + len;
+        int op = dstOff;
+        int outEnd = dstOff + rawLen;
+        int srcLimit = src.limit();
+        
+        while(ip < end) {
+            int token = src.get(ip++) & 0xff;
+            
+            // literals
+            int lit = token >>> 4;
+            if(lit == 15) {
+                int b;
+                do {
+                    if(ip >= end) {
+                        return -1;
+                    }
+                    b = src.get(ip++) & 0xff;
+                    lit += b;
+                } while(b == 255);
+            }
+            if(ip + lit > end || op + lit > outEnd) {
+                return -1;
+            }
+            if(op + lit + 8 <= outEnd && ip + lit + 8 <= srcLimit) {
+                // may copy up to 7 extra bytes; the next write covers them
+                for(int i = 0; i < lit; i += 8) {
+                    dst.putLong(op + i, src.getLong(ip + i));
+                }
+            } else {
+                copy(src, ip, dst, op, lit);
+            }
+            ip += lit;
+            op += lit;
+            
+            if(ip == end) {
+                break;
+            }
+            
+            // match
+            if(ip + 2 > end) {
+                return -1;
+            }
+            int dist = (src.get(ip) & 0xff) | ((src.get(ip + 1) & 0xff) << 8);
+            ip += 2;
+            
+            int mlen = token & 15;
+            if(mlen == 15) {
+                int b;
+                do {
+                    if(ip >= end) {
+                        return -1;
+                    }
+                    b = src.get(ip++) & 0xff;
+                    mlen += b;
+                } while(b == 255);
+            }
+            mlen += MIN_MATCH;
+            
+            int ref = op - dist;
+            if(dist == 0 || ref < dstOff || op + mlen > outEnd) {
+                return -1;
+            }
+            
+            int i = 0;
+            if(dist < 8) {
+                // the match repeats the last dist bytes; once a whole
+                // number of periods spanning 8 bytes is written, copy from
+                // that far back in 8-byte steps
+                int period = dist * ((8 + dist - 1) / dist);
+                int n = Math.min(period, mlen);
+                for(; i < n; i++) {
+                    dst.put(op + i, dst.get(ref + i));
+                }
+                ref = op - period;
+            }
+            
+            if(op + mlen + 8 <= outEnd) {
+                for(; i < mlen; i += 8) {
+                    dst.putLong(op + i, dst.getLong(ref + i));
+                }
+            } else {
+                for(; i + 8 <= mlen; i += 8) {
+                    dst.putLong(op + i, dst.getLong(ref + i));
+                }
+                for(; i < mlen; i++) {
+                    dst.put(op + i, dst.get(ref + i));
+                }
+            }
+            op += mlen;
+        }
+        
+        return op - dstOff;
+    }
+    
+    /**
+     * xxHash32 (seed 0) of a range of bytes
+     *
+     * @param b the buffer (little-endian)
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @return the checksum
+     */
+    static int checksum(ByteBuffer b, int off, int len) {
+        final int p1 = 0x9e3779b1, p2 = 0x85ebca77, p3 = 0xc2b2ae3d,
+                p4 = 0x27d4eb2f, p5 = 0x165667b1;
+        int end = off + len;
+        int i = off;
+        int h;
+        
+        if(len >= 16) {
+            int v1 = p1 + p2, v2 = p2, v3 = 0, v4 = -p1;
+            int limit = end - 16;
+            
+            while(i <= limit) {
+                v1 = Integer.rotateLeft(v1 + b.getInt(i) * p2, 13) * p1;
+                v2 = Integer.rotateLeft(v2 + b.getInt(i + 4) * p2, 13) * p1;
+                v3 = Integer.rotateLeft(v3 + b.getInt(i + 8) * p2, 13) * p1;
+                v4 = Integer.rotateLeft(v4 + b.getInt(i + 12) * p2, 13) * p1;
+                i += 16;
+            }
+            
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) +
+                    Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+        } else {
+            h = p5;
+        }
+        
+        h += len;
+        
+        while(i + 4 <= end) {
+            h = Integer.rotateLeft(h + b.getInt(i) * p3, 17) * p4;
+            i += 4;
+        }
+        while(i < end) {
+            h = Integer.rotateLeft(h + (b.get(i) & 0xff) * p5, 11) * p1;
+            i++;
+        }
+        
+        h ^= h >>> 15;
+        h *= p2;
+        h ^= h >>> 13;
+        h *= p3;
+        h ^= h >>> 16;
+        
+        return h;
+    }
+    
+    private static int writeSequence(ByteBuffer src, int litOff, int lit,
+            ByteBuffer dst, int op, int dist, int matchLen) {
+        int ml = matchLen > 0 ? matchLen - MIN_MATCH : 0;
+        int token = (Math.min(lit, 15) << 4) | Math.min(ml, 15);
+        dst.put(op++, (byte)token);
+        
+        op = writeLength(dst, op, lit);
+        copy(src, litOff, dst, op, lit);
+        op += lit;
+        
+        if(matchLen > 0) {
+            dst.put(op++, (byte)dist);
+            dst.put(op++, (byte)(dist >>> 8));
+            op = writeLength(dst, op, ml);
+        }
+        
+        return op;
+    }
+    
+    private static int writeLength(ByteBuffer dst, int op, int n) {
+        if(n >= 15) {
+            n -= 15;
+            while(n >= 255) {
+                dst.put(op++, (byte)255);
+                n -= 255;
+            }
+            dst.put(op++, (byte)n);
+        }
+        
+        return op;
+    }
+    
+    private static void copy(ByteBuffer src, int off, ByteBuffer dst, int op,
+            int len) {
+        int n = len & ~7;
+        
+        for(int i = 0; i < n; i += 8) {
+            dst.putLong(op + i, src.getLong(off + i));
+        }
+        for(int i = n; i < len; i++) {
+            dst.put(op + i, src.get(off + i));
+        }
+    }
+    
+    private static int blockCount(int rawLength, int blockSize) {
+        return (int)(((long)rawLength + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private BlockCodec() {}
+
+}
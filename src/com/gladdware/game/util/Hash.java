@@ -0,0 +1,113 @@
+/* Hash.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Fast, stable, non-cryptographic hashes for asset names and content
+ * 
+ * Unlike String.hashCode(), these are specified here and will not change, so
+ * they can be stored in files produced by build tools.
+ */
+public class Hash {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final int FNV32_OFFSET = 0x811c9dc5;
+    private static final int FNV32_PRIME = 0x01000193;
+    private static final long FNV64_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV64_PRIME = 0x100000001b3L;
+    
+    /**
+     * 32-bit FNV-1a hash of a string's UTF-8 bytes
+     *
+     * @param s the string to hash
+     * @return the hash
+     */
+    public static int fnv1a32(String s) {
+        byte[] b = s.getBytes(UTF8);
+        int h = FNV32_OFFSET;
+        
+        for(int i = 0; i < b.length; i++) {
+            h ^= (b[i] & 0xff);
+            h *= FNV32_PRIME;
+        }
+        
+        return h;
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of a string's UTF-8 bytes
+     *
+     * @param s the string to hash
+     * @return the hash
+     */
+    public static long fnv1a64(String s) {
+        byte[] b = s.getBytes(UTF8);
+        
+        return fnv1a64(b, 0, b.length);
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of a range of bytes
+     *
+     * @param b the bytes to hash
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @return the hash
+     */
+    public static long fnv1a64(byte[] b, int off, int len) {
+        long h = FNV64_OFFSET;
+        
+        for(int i = off; i < off + len; i++) {
+            h ^= (b[i] & 0xff);
+            h *= FNV64_PRIME;
+        }
+        
+        return h;
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of a buffer's bytes between position and limit
+     * 
+     * The buffer's position is not changed.
+     *
+     * @param b the bytes to hash
+     * @return the hash
+     */
+    public static long fnv1a64(ByteBuffer b) {
+        long h = FNV64_OFFSET;
+        
+        for(int i = b.position(); i < b.limit(); i++) {
+            h ^= (b.get(i) & 0xff);
+            h *= FNV64_PRIME;
+        }
+        
+        return h;
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private Hash() {}
+
+}
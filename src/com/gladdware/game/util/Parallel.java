@@ -0,0 +1,183 @@
+/* Parallel.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.gladdware.game.log.Log;
+
+/**
+ * Shared worker pool for data-parallel engine work
+ * 
+ * Engine subsystems that process large, flat batches of data (particles,
+ * bounding volumes, etc.) split the batch into index ranges and hand them to
+ * this pool. The calling thread participates in the work and does not return
+ * until every range has been processed.
+ */
+public class Parallel {
+    
+    private static final String TAG = "Parallel";
+    
+    /** Smallest range worth handing to another thread by default */
+    public static final int DEFAULT_MIN_CHUNK = 4096;
+    
+    private static ForkJoinPool pool = null;
+    
+    /**
+     * Work performed over a half-open range of indices [start, end)
+     */
+    public interface RangeTask {
+        /**
+         * Process the given range of indices
+         *
+         * @param start first index (inclusive)
+         * @param end last index (exclusive)
+         */
+        void run(int start, int end);
+    }
+    
+    /**
+     * Get the shared worker pool, creating it on first use
+     *
+     * @return the shared worker pool
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if(pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            Log.d(TAG, "Created worker pool with parallelism " +
+                    pool.getParallelism());
+        }
+        
+        return pool;
+    }
+    
+    /**
+     * Get the number of worker threads available for parallel work
+     *
+     * @return the worker pool parallelism
+     */
+    public static int getParallelism() {
+        return getPool().getParallelism();
+    }
+    
+    /**
+     * Run the given task over the range [0, count), splitting it into chunks
+     * of at least minChunk indices that execute in parallel.
+     * 
+     * Small ranges run directly on the calling thread.
+     *
+     * @param count number of indices to process
+     * @param minChunk minimum number of indices per chunk
+     * @param task the work to perform on each chunk
+     */
+    public static void forRange(int count, int minChunk, RangeTask task) {
+        if(count <= 0) {
+            return;
+        }
+        
+        if(minChunk < 1) {
+            minChunk = 1;
+        }
+        
+        if(count <= minChunk) {
+            // not worth the hand-off
+            task.run(0, count);
+            return;
+        }
+        
+        ForkJoinPool p = getPool();
+        
+        // aim for a few chunks per worker to smooth out uneven chunks
+        int chunk = Math.max(minChunk, count / (p.getParallelism() * 4));
+        RangeAction action = new RangeAction(task, 0, count, chunk);
+        
+        if(ForkJoinTask.getPool() == p) {
+            // already on a worker; fork/join in place
+            action.invoke();
+        } else {
+            p.invoke(action);
+        }
+    }
+    
+    /**
+     * Run the given task over the range [0, count) with the default minimum
+     * chunk size.
+     *
+     * @param count number of indices to process
+     * @param task the work to perform on each chunk
+     */
+    public static void forRange(int count, RangeTask task) {
+        forRange(count, DEFAULT_MIN_CHUNK, task);
+    }
+    
+    /**
+     * Shut down the shared worker pool
+     * 
+     * A new pool will be created if parallel work is requested afterwards.
+     */
+    public static synchronized void shutdown() {
+        if(pool != null) {
+            Log.d(TAG, "Shutting down worker pool");
+            pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    /**
+     * Recursively splits a range until it is no bigger than the chunk size
+     */
+    private static class RangeAction extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final RangeTask task;
+        private final int start, end, chunk;
+        
+        RangeAction(RangeTask task, int start, int end, int chunk) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if(end - start <= chunk) {
+                task.run(start, end);
+                return;
+            }
+            
+            int mid = (start + end) >>> 1;
+            invokeAll(new RangeAction(task, start, mid, chunk),
+                    new RangeAction(task, mid, end, chunk));
+        }
+    }
+
+    /**
+     * Constructor - Never instantiate
+     */
+    private Parallel() {}
+
+}
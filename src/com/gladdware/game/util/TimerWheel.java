@@ -0,0 +1,436 @@
+/* TimerWheel.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.util;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel for delayed and repeating callbacks
+ * 
+ * Time is divided into ticks of a fixed length. Pending timers sit in four
+ * wheels of 256 slots each, covering 2^8, 2^16, 2^24 and 2^32 ticks ahead;
+ * a timer goes in the finest wheel that reaches its deadline and moves down
+ * a wheel each time the finer wheel wraps around, until it fires from the
+ * first. Scheduling and cancelling are O(1) list operations, and advancing
+ * costs one slot per elapsed tick plus the timers that fire or move, never
+ * a scan of all pending timers. With the default 1 ms tick the wheels reach
+ * about 49 days ahead; longer delays are placed at the far end and moved
+ * down again when they get there.
+ * 
+ * Timers are stored in recycled arrays and identified by long handles that
+ * combine the slot with a generation count, so scheduling allocates nothing
+ * and a stale handle never cancels a newer timer.
+ * 
+ * The engine advances its wheel with Time.getFrameStartTimeNs() at the
+ * start of every frame, before Game.onUpdate(); delays are counted from
+ * that time. All methods must be called from the main thread.
+ */
+public class TimerWheel {
+    
+    /** Default tick length: 1 ms */
+    public static final long DEFAULT_TICK_NS = 1000000L;
+    
+    /** Handle that never refers to a timer */
+    public static final long NO_TIMER = 0L;
+    
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final long MAX_DELTA = (1L << (LEVELS * SLOT_BITS)) - 1;
+    
+    /** Marks an unused timer or a timer that is firing */
+    private static final int NONE = -1;
+    
+    /**
+     * Called when a timer fires
+     */
+    public interface Callback {
+        
+        /**
+         * Handle an expired timer
+         * 
+         * May schedule and cancel timers, including this one.
+         *
+         * @param handle the timer's handle
+         * @param data the value passed when scheduling
+         */
+        void onTimer(long handle, int data);
+    }
+    
+    private final long tickNs;
+    private final long originNs;
+    
+    /** First timer in each slot, by level * SLOTS + slot */
+    private final int[] heads;
+    
+    /** Timer data, by index */
+    private Callback[] callbacks;
+    private int[] data;
+    private long[] expires;
+    private long[] periods;
+    private int[] generations;
+    private int[] slots;
+    private int[] next;
+    private int[] prev;
+    private int capacity;
+    private int used;
+    private int freeHead;
+    
+    private long currentTick;
+    private long nowNs;
+    private int pending;
+    
+    /**
+     * Constructor
+     *
+     * @param tickNs the tick length, in ns; timers fire on the first
+     *        advance() at or after the end of their deadline's tick
+     * @param startNs the current time, in ns
+     */
+    public TimerWheel(long tickNs, long startNs) {
+        if(tickNs <= 0) {
+            throw new IllegalArgumentException("Invalid tick length");
+        }
+        
+        this.tickNs = tickNs;
+        this.originNs = startNs;
+        this.nowNs = startNs;
+        
+        this.heads = new int[LEVELS * SLOTS];
+        Arrays.fill(heads, NONE);
+        
+        grow(256);
+        this.freeHead = NONE;
+    }
+    
+    /**
+     * Schedule a callback once
+     *
+     * @param delayNs the delay from the current time, in ns
+     * @param callback the callback
+     * @param value passed to the callback, e.g. an entity id
+     * @return the timer's handle
+     */
+    public long schedule(long delayNs, Callback callback, int value) {
+        return scheduleRepeating(delayNs, 0, callback, value);
+    }
+    
+    /**
+     * Schedule a repeating callback
+     * 
+     * The timer repeats until cancelled. Repeats keep to the period's
+     * schedule rather than drifting with frame times, so a period shorter
+     * than a frame fires several times in one advance().
+     *
+     * @param delayNs the delay of the first call from the current time, in
+     *        ns
+     * @param periodNs the time between calls, in ns, or 0 to fire once
+     * @param callback the callback
+     * @param value passed to the callback
+     * @return the timer's handle
+     */
+    public long scheduleRepeating(long delayNs, long periodNs,
+            Callback callback, int value) {
+        if(callback == null) {
+            throw new NullPointerException("Callback must not be null");
+        }
+        
+        int t = allocate();
+        callbacks[t] = callback;
+        data[t] = value;
+        periods[t] = periodNs > 0 ? Math.max(1, ceilTicks(periodNs)) : 0;
+        expires[t] = Math.max(ceilTicks(nowNs - originNs + delayNs),
+                currentTick + 1);
+        
+        insert(t);
+        pending++;
+        
+        return handle(t);
+    }
+    
+    /**
+     * Cancel a timer
+     *
+     * @param handle the timer's handle
+     * @return true if the timer was pending and is now cancelled
+     */
+    public boolean cancel(long handle) {
+        int t = resolve(handle);
+        if(t == NONE) {
+            return false;
+        }
+        
+        if(slots[t] != NONE) {
+            unlink(t);
+        }
+        release(t);
+        pending--;
+        
+        return true;
+    }
+    
+    /**
+     * Check whether a timer is pending
+     *
+     * @param handle the timer's handle
+     * @return true if the timer has yet to fire or repeats
+     */
+    public boolean isPending(long handle) {
+        return resolve(handle) != NONE;
+    }
+    
+    /**
+     * Get the time until a timer fires
+     *
+     * @param handle the timer's handle
+     * @return the time from the current time, in ns, or -1 if the timer is
+     *         not pending
+     */
+    public long getRemainingNs(long handle) {
+        int t = resolve(handle);
+        if(t == NONE) {
+            return -1;
+        }
+        
+        return Math.max(0, originNs + expires[t] * tickNs - nowNs);
+    }
+    
+    /**
+     * Get the number of pending timers
+     *
+     * @return the timer count
+     */
+    public int getPendingCount() {
+        return pending;
+    }
+    
+    /**
+     * Get the current time of the wheel
+     *
+     * @return the time passed to the last advance(), in ns
+     */
+    public long getTimeNs() {
+        return nowNs;
+    }
+    
+    /**
+     * Fire every timer due by a time
+     *
+     * @param timeNs the current time, in ns; earlier times are ignored
+     * @return the number of callbacks called
+     */
+    public int advance(long timeNs) {
+        if(timeNs <= nowNs) {
+            return 0;
+        }
+        nowNs = timeNs;
+        
+        long target = (timeNs - originNs) / tickNs;
+        int fired = 0;
+        
+        while(currentTick < target) {
+            currentTick++;
+            
+            // move timers down from each wheel that came around
+            int level = 0;
+            long t = currentTick;
+            while(level < LEVELS - 1 && (t & SLOT_MASK) == 0) {
+                t >>>= SLOT_BITS;
+                level++;
+            }
+            for(int l = level; l > 0; l--) {
+                cascade(l);
+            }
+            
+            fired += fire((int)(currentTick & SLOT_MASK));
+        }
+        
+        return fired;
+    }
+    
+    /**
+     * Cancel every pending timer
+     */
+    public void clear() {
+        for(int t = 0; t < used; t++) {
+            if(callbacks[t] != null) {
+                if(slots[t] != NONE) {
+                    unlink(t);
+                }
+                release(t);
+            }
+        }
+        pending = 0;
+    }
+    
+    /**
+     * Call the timers in a first-wheel slot
+     */
+    private int fire(int slot) {
+        int fired = 0;
+        
+        while(heads[slot] != NONE) {
+            int t = heads[slot];
+            unlink(t);
+            
+            int gen = generations[t];
+            callbacks[t].onTimer(handle(t), data[t]);
+            fired++;
+            
+            // the callback may have cancelled the timer
+            if(generations[t] != gen) {
+                continue;
+            }
+            
+            if(periods[t] > 0) {
+                expires[t] = Math.max(expires[t] + periods[t],
+                        currentTick + 1);
+                insert(t);
+            } else {
+                release(t);
+                pending--;
+            }
+        }
+        
+        return fired;
+    }
+    
+    /**
+     * Move the timers of the current slot of a wheel to finer wheels
+     */
+    private void cascade(int level) {
+        int slot = (int)((currentTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+        int head = level * SLOTS + slot;
+        
+        while(heads[head] != NONE) {
+            int t = heads[head];
+            unlink(t);
+            insert(t);
+        }
+    }
+    
+    /**
+     * Put a timer in the finest wheel that reaches its deadline
+     */
+    private void insert(int t) {
+        long delta = Math.min(expires[t] - currentTick, MAX_DELTA);
+        long at = currentTick + delta;
+        
+        int level = 0;
+        while(level < LEVELS - 1 &&
+                delta >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        
+        int head = level * SLOTS +
+                (int)((at >>> (level * SLOT_BITS)) & SLOT_MASK);
+        
+        slots[t] = head;
+        prev[t] = NONE;
+        next[t] = heads[head];
+        if(heads[head] != NONE) {
+            prev[heads[head]] = t;
+        }
+        heads[head] = t;
+    }
+    
+    private void unlink(int t) {
+        if(prev[t] != NONE) {
+            next[prev[t]] = next[t];
+        } else {
+            heads[slots[t]] = next[t];
+        }
+        if(next[t] != NONE) {
+            prev[next[t]] = prev[t];
+        }
+        
+        slots[t] = NONE;
+    }
+    
+    private int allocate() {
+        if(freeHead != NONE) {
+            int t = freeHead;
+            freeHead = next[t];
+            return t;
+        }
+        
+        if(used == capacity) {
+            grow(capacity * 2);
+        }
+        
+        return used++;
+    }
+    
+    private void release(int t) {
+        callbacks[t] = null;
+        generations[t]++;
+        slots[t] = NONE;
+        next[t] = freeHead;
+        freeHead = t;
+    }
+    
+    private void grow(int cap) {
+        callbacks = callbacks == null ? new Callback[cap] :
+                Arrays.copyOf(callbacks, cap);
+        data = copy(data, cap);
+        expires = expires == null ? new long[cap] :
+                Arrays.copyOf(expires, cap);
+        periods = periods == null ? new long[cap] :
+                Arrays.copyOf(periods, cap);
+        generations = copy(generations, cap);
+        slots = copy(slots, cap);
+        next = copy(next, cap);
+        prev = copy(prev, cap);
+        
+        // generations start at 1 so no handle equals NO_TIMER
+        for(int t = capacity; t < cap; t++) {
+            generations[t] = 1;
+        }
+        capacity = cap;
+    }
+    
+    private static int[] copy(int[] a, int cap) {
+        return a == null ? new int[cap] : Arrays.copyOf(a, cap);
+    }
+    
+    private long handle(int t) {
+        return ((long)generations[t] << 32) | t;
+    }
+    
+    /**
+     * Get the timer of a handle
+     *
+     * @return the timer index, or NONE if the handle is stale
+     */
+    private int resolve(long handle) {
+        int t = (int)handle;
+        if(t < 0 || t >= used || callbacks[t] == null ||
+                generations[t] != (int)(handle >>> 32)) {
+            return NONE;
+        }
+        
+        return t;
+    }
+    
+    private long ceilTicks(long ns) {
+        return ns <= 0 ? 0 : (ns + tickNs - 1) / tickNs;
+    }
+}
@@ -0,0 +1,49 @@
+/* ChunkListener.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.world;
+
+/**
+ * Receives world chunks as they enter and leave memory
+ * 
+ * Called on the main thread from WorldStreamer.update(), at the frame
+ * boundary before the game's onUpdate().
+ *
+ * @param <T> the chunk data type
+ */
+public interface ChunkListener<T> {
+    
+    /**
+     * A chunk finished loading
+     *
+     * @param chunkX chunk column
+     * @param chunkZ chunk row
+     * @param data the chunk data
+     */
+    void onChunkLoaded(int chunkX, int chunkZ, T data);
+    
+    /**
+     * A chunk is about to be unloaded; its data is disposed afterwards
+     *
+     * @param chunkX chunk column
+     * @param chunkZ chunk row
+     * @param data the chunk data
+     */
+    void onChunkUnloaded(int chunkX, int chunkZ, T data);
+}
@@ -0,0 +1,388 @@
+/* SceneFile.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.gladdware.game.math.Vector3f;
+
+/**
+ * Read-in-place binary scene (level) file
+ * 
+ * A scene is a flat list of entities, each with a transform, an optional
+ * parent and name, and any number of typed component blobs whose contents are
+ * up to the game. Everything is addressed by offsets into one buffer, so a
+ * scene is used straight from a file mapping (or an uncompressed AssetArchive
+ * entry): opening it reads only the header, and the accessors below read the
+ * tables in place without creating per-entity objects. Loading a level costs
+ * the page faults of the parts actually touched.
+ * 
+ * Entities and components are referred to by index. Parents always come
+ * before their children, so transforms can be propagated in one forward
+ * pass, and each entity's components are contiguous.
+ * 
+ * File layout (little-endian, see SceneWriter):
+ * 
+ * - header: magic "GGES", version, entity count, component count, then
+ *   offset and size pairs for the entity table, component table, name pool
+ *   and blob section
+ * - entities: ENTITY_SIZE bytes each: id, parent index (-1 for none), first
+ *   component, component count, name offset (-1 for none), flags, position
+ *   (3 floats), rotation quaternion (x, y, z, w), scale (3 floats)
+ * - components: COMPONENT_SIZE bytes each: type, entity index, blob offset,
+ *   blob length
+ * - names: 16-bit length followed by UTF-8 bytes
+ * - blobs: component data, each aligned to BLOB_ALIGN
+ * 
+ * Name and blob offsets are relative to the start of their section. All
+ * accessors are thread-safe.
+ */
+public class SceneFile {
+    
+    static final int MAGIC = 0x47474553;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 48;
+    static final int ENTITY_SIZE = 64;
+    static final int COMPONENT_SIZE = 16;
+    static final int BLOB_ALIGN = 16;
+    
+    /** Number of floats in a transform: position, rotation, scale */
+    public static final int TRANSFORM_FLOATS = 10;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final ByteBuffer buf;
+    private final int entityCount;
+    private final int componentCount;
+    private final int entities;
+    private final int components;
+    private final int names;
+    private final int blobs;
+    
+    /**
+     * Constructor
+     */
+    private SceneFile(ByteBuffer buf) {
+        this.buf = buf;
+        this.entityCount = buf.getInt(8);
+        this.componentCount = buf.getInt(12);
+        this.entities = buf.getInt(16);
+        this.components = buf.getInt(24);
+        this.names = buf.getInt(32);
+        this.blobs = buf.getInt(40);
+    }
+    
+    /**
+     * Map a scene file
+     *
+     * @param file the scene file
+     * @param validate true to check the whole file with SceneValidator first;
+     *        trusted files built by SceneWriter can skip this
+     * @return the scene
+     * @throws IOException if the file cannot be mapped or is not a valid
+     *      scene
+     */
+    public static SceneFile open(File file, boolean validate)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer map;
+        
+        try {
+            FileChannel ch = raf.getChannel();
+            if(ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Scene too large to map: " + file);
+            }
+            
+            // the mapping stays valid after the channel is closed
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            raf.close();
+        }
+        
+        try {
+            return wrap(map, validate);
+        } catch(IOException e) {
+            throw new IOException(e.getMessage() + " in " + file, e);
+        }
+    }
+    
+    /**
+     * Use a scene held in a buffer
+     * 
+     * The scene is read from position to limit, in place; the buffer must
+     * not be modified while the scene is in use.
+     *
+     * @param data the scene bytes
+     * @param validate true to check the whole scene with SceneValidator first
+     * @return the scene
+     * @throws IOException if the data is not a valid scene
+     */
+    public static SceneFile wrap(ByteBuffer data, boolean validate)
+            throws IOException {
+        ByteBuffer b = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        
+        if(validate) {
+            SceneValidator.validate(b);
+        } else {
+            SceneValidator.validateHeader(b);
+        }
+        
+        return new SceneFile(b);
+    }
+    
+    /**
+     * Get the number of entities
+     *
+     * @return the entity count
+     */
+    public int getEntityCount() {
+        return entityCount;
+    }
+    
+    /**
+     * Get the total number of components
+     *
+     * @return the component count
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+    
+    /**
+     * Get an entity's id
+     *
+     * @param entity the entity index
+     * @return the id assigned by the level editor
+     */
+    public int getId(int entity) {
+        return buf.getInt(entity(entity));
+    }
+    
+    /**
+     * Get an entity's parent
+     *
+     * @param entity the entity index
+     * @return the parent's entity index (always lower), or -1
+     */
+    public int getParent(int entity) {
+        return buf.getInt(entity(entity) + 4);
+    }
+    
+    /**
+     * Get an entity's flags
+     *
+     * @param entity the entity index
+     * @return the game-defined flags
+     */
+    public int getFlags(int entity) {
+        return buf.getInt(entity(entity) + 20);
+    }
+    
+    /**
+     * Get an entity's name
+     * 
+     * Unlike the other accessors this creates a String.
+     *
+     * @param entity the entity index
+     * @return the name, or null
+     */
+    public String getName(int entity) {
+        int off = buf.getInt(entity(entity) + 16);
+        if(off < 0) {
+            return null;
+        }
+        
+        int p = names + off;
+        int len = buf.getShort(p) & 0xffff;
+        byte[] bytes = new byte[len];
+        
+        ByteBuffer b = buf.duplicate();
+        b.position(p + 2);
+        b.get(bytes);
+        
+        return new String(bytes, UTF8);
+    }
+    
+    /**
+     * Get an entity's local position
+     *
+     * @param entity the entity index
+     * @param dst the vector to store the position in
+     * @return dst
+     */
+    public Vector3f getPosition(int entity, Vector3f dst) {
+        int e = entity(entity) + 24;
+        dst.set(buf.getFloat(e), buf.getFloat(e + 4), buf.getFloat(e + 8));
+        return dst;
+    }
+    
+    /**
+     * Get an entity's local scale
+     *
+     * @param entity the entity index
+     * @param dst the vector to store the scale in
+     * @return dst
+     */
+    public Vector3f getScale(int entity, Vector3f dst) {
+        int e = entity(entity) + 52;
+        dst.set(buf.getFloat(e), buf.getFloat(e + 4), buf.getFloat(e + 8));
+        return dst;
+    }
+    
+    /**
+     * Get an entity's local transform
+     * 
+     * Stores TRANSFORM_FLOATS floats: position x, y, z, rotation quaternion
+     * x, y, z, w and scale x, y, z.
+     *
+     * @param entity the entity index
+     * @param dst the array to store the transform in
+     * @param offset the index in dst to start at
+     */
+    public void getTransform(int entity, float[] dst, int offset) {
+        int e = entity(entity) + 24;
+        for(int i = 0; i < TRANSFORM_FLOATS; i++) {
+            dst[offset + i] = buf.getFloat(e + i * 4);
+        }
+    }
+    
+    /**
+     * Get an entity's first component
+     *
+     * @param entity the entity index
+     * @return the component index
+     */
+    public int getFirstComponent(int entity) {
+        return buf.getInt(entity(entity) + 8);
+    }
+    
+    /**
+     * Get an entity's number of components
+     *
+     * @param entity the entity index
+     * @return the component count
+     */
+    public int getComponentCount(int entity) {
+        return buf.getInt(entity(entity) + 12);
+    }
+    
+    /**
+     * Find an entity's first component of a type
+     *
+     * @param entity the entity index
+     * @param type the component type
+     * @return the component index, or -1
+     */
+    public int findComponent(int entity, int type) {
+        int e = entity(entity);
+        int first = buf.getInt(e + 8);
+        int end = first + buf.getInt(e + 12);
+        
+        for(int c = first; c < end; c++) {
+            if(buf.getInt(component(c)) == type) {
+                return c;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Get a component's type
+     *
+     * @param component the component index
+     * @return the game-defined type
+     */
+    public int getComponentType(int component) {
+        return buf.getInt(component(component));
+    }
+    
+    /**
+     * Get the entity a component belongs to
+     *
+     * @param component the component index
+     * @return the entity index
+     */
+    public int getComponentEntity(int component) {
+        return buf.getInt(component(component) + 4);
+    }
+    
+    /**
+     * Get the position of a component's data in getBuffer()
+     * 
+     * Together with getComponentLength() this reads component data without
+     * creating a buffer per component.
+     *
+     * @param component the component index
+     * @return the absolute byte offset, aligned to 16 bytes
+     */
+    public int getComponentOffset(int component) {
+        return blobs + buf.getInt(component(component) + 8);
+    }
+    
+    /**
+     * Get the length of a component's data
+     *
+     * @param component the component index
+     * @return the length, in bytes
+     */
+    public int getComponentLength(int component) {
+        return buf.getInt(component(component) + 12);
+    }
+    
+    /**
+     * Get a component's data
+     *
+     * @param component the component index
+     * @return a little-endian view of the data (shares the scene's memory)
+     */
+    public ByteBuffer getComponentData(int component) {
+        int off = getComponentOffset(component);
+        
+        ByteBuffer b = buf.duplicate();
+        b.limit(off + getComponentLength(component)).position(off);
+        
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Get the whole scene buffer
+     *
+     * @return the buffer (little-endian); use absolute reads only
+     */
+    public ByteBuffer getBuffer() {
+        return buf;
+    }
+    
+    private int entity(int i) {
+        return entities + i * ENTITY_SIZE;
+    }
+    
+    private int component(int i) {
+        return components + i * COMPONENT_SIZE;
+    }
+}
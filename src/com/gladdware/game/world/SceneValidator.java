@@ -0,0 +1,204 @@
+/* SceneValidator.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.log.LogLevel;
+
+/**
+ * Checks scene files for consistency
+ * 
+ * SceneFile trusts the offsets it reads, so a scene from an untrusted or
+ * possibly corrupt source should be validated once: every section, entity,
+ * component, name and blob must lie inside the file, parents must precede
+ * their children and each entity's components must be its own.
+ * 
+ * Run main() to check scene files at build time.
+ */
+public class SceneValidator {
+    
+    private static final String TAG = "SceneValidator";
+    
+    /**
+     * Check a whole scene
+     *
+     * @param b the scene bytes, little-endian, starting at index 0
+     * @throws IOException describing the first problem found
+     */
+    public static void validate(ByteBuffer b) throws IOException {
+        validateHeader(b);
+        
+        int entityCount = b.getInt(8);
+        int componentCount = b.getInt(12);
+        int entities = b.getInt(16);
+        int components = b.getInt(24);
+        int names = b.getInt(32);
+        int namesSize = b.getInt(36);
+        int blobs = b.getInt(40);
+        int blobsSize = b.getInt(44);
+        
+        int nextComponent = 0;
+        for(int i = 0; i < entityCount; i++) {
+            int e = entities + i * SceneFile.ENTITY_SIZE;
+            int parent = b.getInt(e + 4);
+            int first = b.getInt(e + 8);
+            int count = b.getInt(e + 12);
+            int name = b.getInt(e + 16);
+            
+            if(parent < -1 || parent >= i) {
+                throw new IOException("Entity " + i + " has bad parent " +
+                        parent);
+            }
+            if(first != nextComponent || count < 0 ||
+                    count > componentCount - first) {
+                throw new IOException("Entity " + i +
+                        " has bad component range " + first + "+" + count);
+            }
+            nextComponent += count;
+            
+            if(name != -1) {
+                if(name < 0 || name > namesSize - 2 ||
+                        (b.getShort(names + name) & 0xffff) >
+                        namesSize - name - 2) {
+                    throw new IOException("Entity " + i +
+                            " has bad name offset " + name);
+                }
+            }
+            
+            for(int f = 0; f < SceneFile.TRANSFORM_FLOATS; f++) {
+                float v = b.getFloat(e + 24 + f * 4);
+                if(Float.isNaN(v) || Float.isInfinite(v)) {
+                    throw new IOException("Entity " + i +
+                            " has a non-finite transform");
+                }
+            }
+            
+            for(int c = first; c < first + count; c++) {
+                int p = components + c * SceneFile.COMPONENT_SIZE;
+                int owner = b.getInt(p + 4);
+                int off = b.getInt(p + 8);
+                int len = b.getInt(p + 12);
+                
+                if(owner != i) {
+                    throw new IOException("Component " + c +
+                            " belongs to entity " + owner + ", listed by " + i);
+                }
+                if(off < 0 || len < 0 || off > blobsSize - len ||
+                        off % SceneFile.BLOB_ALIGN != 0) {
+                    throw new IOException("Component " + c +
+                            " has bad data range " + off + "+" + len);
+                }
+            }
+        }
+        
+        if(nextComponent != componentCount) {
+            throw new IOException((componentCount - nextComponent) +
+                    " components belong to no entity");
+        }
+    }
+    
+    /**
+     * Check a scene's header and section bounds only
+     *
+     * @param b the scene bytes, little-endian, starting at index 0
+     * @throws IOException describing the first problem found
+     */
+    public static void validateHeader(ByteBuffer b) throws IOException {
+        if(b.limit() < SceneFile.HEADER_SIZE ||
+                b.getInt(0) != SceneFile.MAGIC) {
+            throw new IOException("Not a scene file");
+        }
+        if(b.getInt(4) != SceneFile.VERSION) {
+            throw new IOException("Unsupported scene version " + b.getInt(4));
+        }
+        
+        int entityCount = b.getInt(8);
+        int componentCount = b.getInt(12);
+        if(entityCount < 0 || componentCount < 0) {
+            throw new IOException("Corrupt scene header");
+        }
+        
+        checkSection(b, 16, (long)entityCount * SceneFile.ENTITY_SIZE,
+                "entity table");
+        checkSection(b, 24, (long)componentCount * SceneFile.COMPONENT_SIZE,
+                "component table");
+        checkSection(b, 32, -1, "name pool");
+        checkSection(b, 40, -1, "blob section");
+        
+        if(b.getInt(40) % SceneFile.BLOB_ALIGN != 0) {
+            throw new IOException("Misaligned blob section");
+        }
+    }
+    
+    /**
+     * Check that a header's offset and size pair lies inside the scene
+     */
+    private static void checkSection(ByteBuffer b, int field, long size,
+            String what) throws IOException {
+        long off = b.getInt(field);
+        long len = b.getInt(field + 4);
+        
+        if(off < SceneFile.HEADER_SIZE || len < 0 || off + len > b.limit() ||
+                (size >= 0 && len != size)) {
+            throw new IOException("Corrupt scene " + what);
+        }
+    }
+    
+    /**
+     * Build-time entry point
+     * 
+     * Usage: SceneValidator sceneFile...
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        Log.setLevel(LogLevel.DEBUG);
+        
+        if(args.length < 1) {
+            System.err.println("Usage: SceneValidator <sceneFile>...");
+            System.exit(1);
+        }
+        
+        boolean ok = true;
+        for(int i = 0; i < args.length; i++) {
+            try {
+                SceneFile scene = SceneFile.open(new File(args[i]), true);
+                
+                Log.i(TAG, args[i] + ": " + scene.getEntityCount() +
+                        " entities, " + scene.getComponentCount() +
+                        " components");
+            } catch(IOException e) {
+                Log.e(TAG, "Invalid scene: " + e.getMessage());
+                ok = false;
+            }
+        }
+        
+        System.exit(ok ? 0 : 1);
+    }
+    
+    /**
+     * Constructor - Never instantiate
+     */
+    private SceneValidator() {}
+}
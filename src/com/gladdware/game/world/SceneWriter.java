@@ -0,0 +1,328 @@
+/* SceneWriter.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds scene files for SceneFile
+ * 
+ * Used by level tools: add entities (parents first), set their transforms
+ * and attach component data, then write the scene out. Components may be
+ * added in any order; they are grouped per entity when written.
+ */
+public class SceneWriter {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static class Component {
+        final int entity;
+        final int type;
+        final byte[] data;
+        
+        Component(int entity, int type, byte[] data) {
+            this.entity = entity;
+            this.type = type;
+            this.data = data;
+        }
+    }
+    
+    private static final Comparator<Component> BY_ENTITY =
+            new Comparator<Component>() {
+        /* (non-Javadoc)
+         * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(Component a, Component b) {
+            return a.entity < b.entity ? -1 : (a.entity > b.entity ? 1 : 0);
+        }
+    };
+    
+    private int entityCount;
+    private int[] ids;
+    private int[] parents;
+    private int[] flags;
+    private float[] transforms;
+    private final List<String> names;
+    private final List<Component> components;
+    
+    /**
+     * Constructor
+     */
+    public SceneWriter() {
+        this.ids = new int[64];
+        this.parents = new int[64];
+        this.flags = new int[64];
+        this.transforms = new float[64 * SceneFile.TRANSFORM_FLOATS];
+        this.names = new ArrayList<String>();
+        this.components = new ArrayList<Component>();
+    }
+    
+    /**
+     * Add an entity with an identity transform
+     *
+     * @param id the entity's id
+     * @param parent index of an entity added earlier, or -1
+     * @param name the entity's name, or null
+     * @return the entity index
+     */
+    public int addEntity(int id, int parent, String name) {
+        if(parent < -1 || parent >= entityCount) {
+            throw new IllegalArgumentException("Parent " + parent +
+                    " must be added before its children");
+        }
+        if(name != null && name.getBytes(UTF8).length > 0xffff) {
+            throw new IllegalArgumentException("Entity name too long");
+        }
+        
+        if(entityCount == ids.length) {
+            int cap = entityCount * 2;
+            ids = Arrays.copyOf(ids, cap);
+            parents = Arrays.copyOf(parents, cap);
+            flags = Arrays.copyOf(flags, cap);
+            transforms = Arrays.copyOf(transforms,
+                    cap * SceneFile.TRANSFORM_FLOATS);
+        }
+        
+        int i = entityCount++;
+        ids[i] = id;
+        parents[i] = parent;
+        flags[i] = 0;
+        names.add(name);
+        setTransform(i, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1);
+        
+        return i;
+    }
+    
+    /**
+     * Set an entity's local transform
+     *
+     * @param entity the entity index
+     * @param x position x
+     * @param y position y
+     * @param z position z
+     * @param qx rotation quaternion x
+     * @param qy rotation quaternion y
+     * @param qz rotation quaternion z
+     * @param qw rotation quaternion w
+     * @param sx scale x
+     * @param sy scale y
+     * @param sz scale z
+     */
+    public void setTransform(int entity, float x, float y, float z, float qx,
+            float qy, float qz, float qw, float sx, float sy, float sz) {
+        checkEntity(entity);
+        
+        int t = entity * SceneFile.TRANSFORM_FLOATS;
+        transforms[t] = x;
+        transforms[t + 1] = y;
+        transforms[t + 2] = z;
+        transforms[t + 3] = qx;
+        transforms[t + 4] = qy;
+        transforms[t + 5] = qz;
+        transforms[t + 6] = qw;
+        transforms[t + 7] = sx;
+        transforms[t + 8] = sy;
+        transforms[t + 9] = sz;
+    }
+    
+    /**
+     * Set an entity's flags
+     *
+     * @param entity the entity index
+     * @param flags the game-defined flags
+     */
+    public void setFlags(int entity, int flags) {
+        checkEntity(entity);
+        this.flags[entity] = flags;
+    }
+    
+    /**
+     * Attach a component to an entity
+     *
+     * @param entity the entity index
+     * @param type the game-defined component type
+     * @param data the component data; not copied
+     */
+    public void addComponent(int entity, int type, byte[] data) {
+        checkEntity(entity);
+        components.add(new Component(entity, type, data));
+    }
+    
+    /**
+     * Get the number of entities added
+     *
+     * @return the entity count
+     */
+    public int getEntityCount() {
+        return entityCount;
+    }
+    
+    /**
+     * Lay out the scene in memory
+     *
+     * @return the scene bytes, little-endian, from 0 to limit
+     */
+    public ByteBuffer toBuffer() {
+        List<Component> sorted = new ArrayList<Component>(components);
+        Collections.sort(sorted, BY_ENTITY);
+        int componentCount = sorted.size();
+        
+        // name pool
+        byte[][] nameBytes = new byte[entityCount][];
+        int namesSize = 0;
+        for(int i = 0; i < entityCount; i++) {
+            String name = names.get(i);
+            if(name != null) {
+                nameBytes[i] = name.getBytes(UTF8);
+                namesSize += 2 + nameBytes[i].length;
+            }
+        }
+        
+        // blob section
+        long blobsSize = 0;
+        for(Component c : sorted) {
+            blobsSize = align(blobsSize) + c.data.length;
+        }
+        
+        int entities = SceneFile.HEADER_SIZE;
+        int comps = entities + entityCount * SceneFile.ENTITY_SIZE;
+        int namesOff = comps + componentCount * SceneFile.COMPONENT_SIZE;
+        long blobs = align(namesOff + namesSize);
+        if(blobs + blobsSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Scene larger than 2 GB");
+        }
+        
+        ByteBuffer b = ByteBuffer.allocate((int)(blobs + blobsSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        
+        b.putInt(SceneFile.MAGIC);
+        b.putInt(SceneFile.VERSION);
+        b.putInt(entityCount);
+        b.putInt(componentCount);
+        b.putInt(entities).putInt(comps - entities);
+        b.putInt(comps).putInt(namesOff - comps);
+        b.putInt(namesOff).putInt(namesSize);
+        b.putInt((int)blobs).putInt((int)blobsSize);
+        
+        // entity table, with the name pool filled alongside
+        int first = 0;
+        int nameOff = 0;
+        for(int i = 0; i < entityCount; i++) {
+            int count = 0;
+            while(first + count < componentCount &&
+                    sorted.get(first + count).entity == i) {
+                count++;
+            }
+            
+            b.putInt(ids[i]);
+            b.putInt(parents[i]);
+            b.putInt(first);
+            b.putInt(count);
+            if(nameBytes[i] != null) {
+                b.putInt(nameOff);
+                b.putShort(namesOff + nameOff, (short)nameBytes[i].length);
+                putAt(b, namesOff + nameOff + 2, nameBytes[i]);
+                nameOff += 2 + nameBytes[i].length;
+            } else {
+                b.putInt(-1);
+            }
+            b.putInt(flags[i]);
+            
+            int t = i * SceneFile.TRANSFORM_FLOATS;
+            for(int k = 0; k < SceneFile.TRANSFORM_FLOATS; k++) {
+                b.putFloat(transforms[t + k]);
+            }
+            
+            first += count;
+        }
+        
+        // component table and blobs
+        int blobOff = 0;
+        for(Component c : sorted) {
+            blobOff = (int)align(blobOff);
+            
+            b.putInt(c.type);
+            b.putInt(c.entity);
+            b.putInt(blobOff);
+            b.putInt(c.data.length);
+            
+            putAt(b, (int)blobs + blobOff, c.data);
+            blobOff += c.data.length;
+        }
+        
+        b.clear();
+        
+        return b;
+    }
+    
+    /**
+     * Write the scene to a file
+     *
+     * @param out the output file, replaced if it exists
+     * @throws IOException on a write error
+     */
+    public void write(File out) throws IOException {
+        ByteBuffer b = toBuffer();
+        
+        if(out.exists() && !out.delete()) {
+            throw new IOException("Cannot replace " + out);
+        }
+        
+        RandomAccessFile raf = new RandomAccessFile(out, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            
+            long p = 0;
+            while(b.hasRemaining()) {
+                p += ch.write(b, p);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+    
+    private void checkEntity(int entity) {
+        if(entity < 0 || entity >= entityCount) {
+            throw new IndexOutOfBoundsException("No entity " + entity);
+        }
+    }
+    
+    private static void putAt(ByteBuffer b, int index, byte[] data) {
+        ByteBuffer d = b.duplicate();
+        d.position(index);
+        d.put(data);
+    }
+    
+    private static long align(long pos) {
+        int a = SceneFile.BLOB_ALIGN;
+        return (pos + a - 1) / a * a;
+    }
+}
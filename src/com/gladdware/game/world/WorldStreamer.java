@@ -0,0 +1,614 @@
+/* WorldStreamer.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gladdware.game.asset.AssetHandle;
+import com.gladdware.game.asset.AssetLoader;
+import com.gladdware.game.asset.AssetManager;
+import com.gladdware.game.asset.SizedAsset;
+import com.gladdware.game.log.Log;
+
+/**
+ * Streams a world divided into square chunks in and out around a focus point
+ * 
+ * The world is a grid of chunkSize x chunkSize cells on the XZ plane; chunk
+ * (cx, cz) is loaded from the asset path String.format(pathFormat, cx, cz)
+ * through the AssetManager, so reading and decoding run on its background
+ * threads and the loader's upload() runs within the per-frame upload budget.
+ * 
+ * Every chunk within loadRadius chunks of the focus is kept loaded, nearest
+ * first. Chunks around the position the focus reaches after prefetchTime
+ * seconds at its current velocity are requested at background priority, so
+ * they are usually ready when the player arrives. Chunks that are no longer
+ * needed stay in memory until the resident size (see SizedAsset) exceeds the
+ * budget; then the least recently needed ones are unloaded. Requests for
+ * chunks that are no longer needed are cancelled, and missing chunk files
+ * are treated as empty chunks.
+ * 
+ * All methods must be called from the main thread. Register the streamer
+ * with Game.setWorldStreamer() and the engine calls update() at each frame
+ * boundary, after AssetManager.processUploads(), so chunks loaded and
+ * unloaded through the ChunkListener are seen by the next onUpdate().
+ *
+ * @param <T> the chunk data type
+ */
+public class WorldStreamer<T> {
+    
+    private static final String TAG = "WorldStreamer";
+    
+    /** Default limit on chunk loads in flight */
+    public static final int DEFAULT_MAX_PENDING = 8;
+    
+    /** Default look-ahead along the focus velocity, in seconds */
+    public static final float DEFAULT_PREFETCH_TIME = 2f;
+    
+    /**
+     * Chunk slot, from the first time it is needed until it is unloaded
+     */
+    private static class Chunk<T> {
+        final int x, z;
+        final long key;
+        
+        AssetHandle<T> handle;
+        T data;
+        long bytes;
+        boolean loaded;
+        
+        /** Needed for the current focus; never unloaded while set */
+        boolean wanted;
+        boolean prefetch;
+        float distance;
+        
+        /** Frame the chunk was last needed, for LRU eviction */
+        long lastUsed;
+        
+        Chunk(int x, int z, long key) {
+            this.x = x;
+            this.z = z;
+            this.key = key;
+        }
+    }
+    
+    /** Request order: current area before prefetch, then nearest first */
+    private static final Comparator<Chunk<?>> REQUEST_ORDER =
+            new Comparator<Chunk<?>>() {
+        /* (non-Javadoc)
+         * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(Chunk<?> a, Chunk<?> b) {
+            if(a.prefetch != b.prefetch) {
+                return a.prefetch ? 1 : -1;
+            }
+            return Float.compare(a.distance, b.distance);
+        }
+    };
+    
+    /** Eviction order: least recently needed first */
+    private static final Comparator<Chunk<?>> LRU_ORDER =
+            new Comparator<Chunk<?>>() {
+        /* (non-Javadoc)
+         * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(Chunk<?> a, Chunk<?> b) {
+            return a.lastUsed < b.lastUsed ? -1 :
+                (a.lastUsed > b.lastUsed ? 1 : 0);
+        }
+    };
+    
+    private final AssetManager assets;
+    private final AssetLoader<T> loader;
+    private final String pathFormat;
+    private final float chunkSize;
+    
+    private int loadRadius;
+    private long budget;
+    private int maxPending;
+    private float prefetchTime;
+    private ChunkListener<T> listener;
+    
+    private final Map<Long, Chunk<T>> chunks;
+    private List<Chunk<T>> wanted;
+    private List<Chunk<T>> previouslyWanted;
+    private final List<Chunk<T>> requests;
+    private int nextRequest;
+    private final List<Chunk<T>> pending;
+    private final List<Chunk<T>> evictable;
+    
+    private float focusX, focusZ;
+    private float velocityX, velocityZ;
+    
+    /** Chunk the wanted set was computed for; forces a first update */
+    private int centerX = Integer.MIN_VALUE, centerZ;
+    private int aheadX, aheadZ;
+    
+    private long frame;
+    private long residentBytes;
+    private int loadedCount;
+    private int evictionCount;
+    
+    /**
+     * Constructor
+     *
+     * @param assets the asset manager chunks are loaded through
+     * @param loader the chunk loader
+     * @param pathFormat chunk asset path format, given the chunk column and
+     *        row (e.g. "world/chunk_%d_%d.bin")
+     * @param chunkSize chunk edge length, in world units
+     * @param loadRadius radius around the focus kept loaded, in chunks
+     * @param budget resident chunk memory budget, in bytes
+     */
+    public WorldStreamer(AssetManager assets, AssetLoader<T> loader,
+            String pathFormat, float chunkSize, int loadRadius, long budget) {
+        if(chunkSize <= 0 || loadRadius < 0) {
+            throw new IllegalArgumentException("Invalid chunk size or radius");
+        }
+        
+        this.assets = assets;
+        this.loader = loader;
+        this.pathFormat = pathFormat;
+        this.chunkSize = chunkSize;
+        this.loadRadius = loadRadius;
+        this.budget = budget;
+        this.maxPending = DEFAULT_MAX_PENDING;
+        this.prefetchTime = DEFAULT_PREFETCH_TIME;
+        
+        this.chunks = new HashMap<Long, Chunk<T>>();
+        this.wanted = new ArrayList<Chunk<T>>();
+        this.previouslyWanted = new ArrayList<Chunk<T>>();
+        this.requests = new ArrayList<Chunk<T>>();
+        this.pending = new ArrayList<Chunk<T>>();
+        this.evictable = new ArrayList<Chunk<T>>();
+    }
+    
+    /**
+     * Set the chunk listener
+     *
+     * @param listener the listener, or null
+     */
+    public void setListener(ChunkListener<T> listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Set the point chunks are streamed around
+     * 
+     * Typically the player or camera position, set during onUpdate(); it
+     * takes effect at the next update().
+     *
+     * @param x world x
+     * @param z world z
+     * @param velocityX x velocity, in world units per second
+     * @param velocityZ z velocity, in world units per second
+     */
+    public void setFocus(float x, float z, float velocityX, float velocityZ) {
+        this.focusX = x;
+        this.focusZ = z;
+        this.velocityX = velocityX;
+        this.velocityZ = velocityZ;
+    }
+    
+    /**
+     * Set the radius around the focus kept loaded
+     *
+     * @param loadRadius the radius, in chunks
+     */
+    public void setLoadRadius(int loadRadius) {
+        this.loadRadius = loadRadius;
+        this.centerX = Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Set the resident chunk memory budget
+     *
+     * @param budget the budget, in bytes
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * Set the limit on chunk loads in flight
+     * 
+     * Keeps a fast-moving focus from flooding the loader queues with chunks
+     * it has already passed.
+     *
+     * @param maxPending the limit
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = Math.max(maxPending, 1);
+    }
+    
+    /**
+     * Set the look-ahead along the focus velocity
+     *
+     * @param seconds the look-ahead, or 0 to disable prefetching
+     */
+    public void setPrefetchTime(float seconds) {
+        this.prefetchTime = seconds;
+    }
+    
+    /**
+     * Update chunk residency
+     * 
+     * Collects finished loads, requests and cancels chunks for the current
+     * focus and unloads the least recently needed chunks while over budget.
+     */
+    public void update() {
+        frame++;
+        
+        collectLoads();
+        
+        int cx = chunkCoord(focusX);
+        int cz = chunkCoord(focusZ);
+        int ax = chunkCoord(focusX + velocityX * prefetchTime);
+        int az = chunkCoord(focusZ + velocityZ * prefetchTime);
+        if(cx != centerX || cz != centerZ || ax != aheadX || az != aheadZ) {
+            centerX = cx;
+            centerZ = cz;
+            aheadX = ax;
+            aheadZ = az;
+            updateWanted();
+        }
+        
+        issueRequests();
+        
+        if(residentBytes > budget) {
+            evict();
+        }
+    }
+    
+    /**
+     * Get a loaded chunk's data
+     *
+     * @param chunkX chunk column
+     * @param chunkZ chunk row
+     * @return the data, or null if not loaded or empty
+     */
+    public T getChunk(int chunkX, int chunkZ) {
+        Chunk<T> c = chunks.get(key(chunkX, chunkZ));
+        return c != null ? c.data : null;
+    }
+    
+    /**
+     * Check whether a chunk is loaded
+     *
+     * @param chunkX chunk column
+     * @param chunkZ chunk row
+     * @return true if loaded (possibly empty)
+     */
+    public boolean isLoaded(int chunkX, int chunkZ) {
+        Chunk<T> c = chunks.get(key(chunkX, chunkZ));
+        return c != null && c.loaded;
+    }
+    
+    /**
+     * Check whether every chunk within the load radius of the focus is loaded
+     * 
+     * Useful to hold a loading screen until the area around a spawn point is
+     * in.
+     *
+     * @return true if the area is loaded
+     */
+    public boolean isAreaLoaded() {
+        if(centerX == Integer.MIN_VALUE) {
+            return false;
+        }
+        
+        for(Chunk<T> c : wanted) {
+            if(!c.prefetch && !c.loaded) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Get the chunk column or row containing a world coordinate
+     *
+     * @param coord world x or z
+     * @return the chunk coordinate
+     */
+    public int chunkCoord(float coord) {
+        return (int)Math.floor(coord / chunkSize);
+    }
+    
+    /**
+     * Get the chunk edge length
+     *
+     * @return the size, in world units
+     */
+    public float getChunkSize() {
+        return chunkSize;
+    }
+    
+    /**
+     * Get the memory held by loaded chunks
+     *
+     * @return the size, in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+    
+    /**
+     * Get the number of loaded chunks
+     *
+     * @return the chunk count
+     */
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+    
+    /**
+     * Get the number of chunk loads in flight
+     *
+     * @return the load count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Get the number of chunks unloaded to stay within budget
+     *
+     * @return the eviction count
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * Cancel all loads and unload all chunks
+     */
+    public void unloadAll() {
+        for(Chunk<T> c : pending) {
+            assets.cancel(c.handle);
+        }
+        pending.clear();
+        
+        for(Chunk<T> c : chunks.values()) {
+            if(c.loaded) {
+                unload(c);
+            }
+        }
+        
+        chunks.clear();
+        wanted.clear();
+        requests.clear();
+        nextRequest = 0;
+        centerX = Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Take over chunks whose loads finished since the last update
+     */
+    private void collectLoads() {
+        for(int i = pending.size() - 1; i >= 0; i--) {
+            Chunk<T> c = pending.get(i);
+            AssetHandle<T> handle = c.handle;
+            if(!handle.isDone()) {
+                continue;
+            }
+            
+            removeFast(pending, i);
+            c.loaded = true;
+            loadedCount++;
+            
+            if(handle.isReady()) {
+                c.data = handle.get();
+                c.bytes = sizeOf(c.data);
+                residentBytes += c.bytes;
+                
+                if(listener != null) {
+                    listener.onChunkLoaded(c.x, c.z, c.data);
+                }
+            } else {
+                // no chunk file or a bad one; keep it as an empty chunk
+                Log.d(TAG, "Chunk " + c.x + "," + c.z + " not loaded: " +
+                        handle.getError());
+            }
+        }
+    }
+    
+    /**
+     * Recompute the chunks needed around the focus and its look-ahead
+     */
+    private void updateWanted() {
+        // swap lists so the old set can be checked for dropped chunks
+        List<Chunk<T>> old = wanted;
+        wanted = previouslyWanted;
+        previouslyWanted = old;
+        
+        for(Chunk<T> c : old) {
+            c.wanted = false;
+            c.lastUsed = frame;
+        }
+        
+        requests.clear();
+        nextRequest = 0;
+        
+        markArea(centerX, centerZ, false);
+        if(prefetchTime > 0 && (aheadX != centerX || aheadZ != centerZ)) {
+            markArea(aheadX, aheadZ, true);
+        }
+        
+        // drop chunks no longer needed that hold nothing worth keeping
+        for(Chunk<T> c : old) {
+            if(c.wanted) {
+                continue;
+            }
+            
+            if(!c.loaded) {
+                if(c.handle != null) {
+                    assets.cancel(c.handle);
+                    pending.remove(c);
+                }
+                chunks.remove(c.key);
+            } else if(c.data == null) {
+                chunks.remove(c.key);
+                loadedCount--;
+            }
+        }
+        old.clear();
+        
+        Collections.sort(requests, REQUEST_ORDER);
+    }
+    
+    /**
+     * Mark the chunks within the load radius of a chunk as wanted
+     */
+    private void markArea(int cx, int cz, boolean prefetch) {
+        int r = loadRadius;
+        
+        for(int dz = -r; dz <= r; dz++) {
+            for(int dx = -r; dx <= r; dx++) {
+                int d2 = dx * dx + dz * dz;
+                if(d2 > r * r) {
+                    continue;
+                }
+                
+                long key = key(cx + dx, cz + dz);
+                Chunk<T> c = chunks.get(key);
+                if(c == null) {
+                    c = new Chunk<T>(cx + dx, cz + dz, key);
+                    chunks.put(key, c);
+                }
+                
+                float distance = (float)Math.sqrt(d2);
+                if(!c.wanted) {
+                    c.wanted = true;
+                    c.prefetch = prefetch;
+                    c.distance = distance;
+                    wanted.add(c);
+                    
+                    if(c.handle == null) {
+                        requests.add(c);
+                    }
+                } else if(!prefetch) {
+                    c.prefetch = false;
+                    c.distance = Math.min(c.distance, distance);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Start loads for wanted chunks, nearest first, up to the pending limit
+     */
+    private void issueRequests() {
+        while(nextRequest < requests.size() && pending.size() < maxPending) {
+            Chunk<T> c = requests.get(nextRequest++);
+            if(c.handle != null || !c.wanted) {
+                continue;
+            }
+            
+            int priority;
+            if(c.prefetch) {
+                priority = AssetManager.PRIORITY_BACKGROUND;
+            } else if(c.distance <= 1) {
+                priority = AssetManager.PRIORITY_HIGH;
+            } else {
+                priority = AssetManager.PRIORITY_NORMAL;
+            }
+            
+            c.handle = assets.load(String.format(pathFormat, c.x, c.z),
+                    loader, priority);
+            pending.add(c);
+        }
+    }
+    
+    /**
+     * Unload the least recently needed chunks until within budget
+     */
+    private void evict() {
+        for(Chunk<T> c : chunks.values()) {
+            if(c.loaded && !c.wanted) {
+                evictable.add(c);
+            }
+        }
+        Collections.sort(evictable, LRU_ORDER);
+        
+        for(int i = 0; i < evictable.size() && residentBytes > budget; i++) {
+            Chunk<T> c = evictable.get(i);
+            
+            unload(c);
+            chunks.remove(c.key);
+            evictionCount++;
+        }
+        evictable.clear();
+        
+        if(residentBytes > budget) {
+            Log.w(TAG, "Chunks around the focus exceed the budget: " +
+                    residentBytes + " > " + budget + " bytes");
+        }
+    }
+    
+    /**
+     * Release a loaded chunk's data
+     */
+    private void unload(Chunk<T> c) {
+        if(c.data != null) {
+            if(listener != null) {
+                listener.onChunkUnloaded(c.x, c.z, c.data);
+            }
+            loader.dispose(c.data);
+            residentBytes -= c.bytes;
+            c.data = null;
+        }
+        
+        c.loaded = false;
+        loadedCount--;
+    }
+    
+    /**
+     * Get the memory held by chunk data
+     */
+    private static long sizeOf(Object data) {
+        if(data instanceof SizedAsset) {
+            SizedAsset sized = (SizedAsset)data;
+            return sized.getHeapBytes() + sized.getNativeBytes();
+        }
+        return 0;
+    }
+    
+    /**
+     * Pack chunk coordinates into a map key
+     */
+    private static long key(int x, int z) {
+        return ((long)x << 32) | (z & 0xffffffffL);
+    }
+    
+    /**
+     * Remove a list element by moving the last one into its place
+     */
+    private static <E> void removeFast(List<E> list, int i) {
+        int last = list.size() - 1;
+        list.set(i, list.get(last));
+        list.remove(last);
+    }
+}
@@ -0,0 +1,180 @@
+/* UdpLoopbackTest.java
+ *
+ * This file is part of the Gladdware Game Engine (GGE)
+ * Copyright (C) 2014 Alex Gladd
+ *
+ * The GGE is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The GGE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with The GGE.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gladdware.game.tst;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.gladdware.game.log.Log;
+import com.gladdware.game.log.LogLevel;
+import com.gladdware.game.net.Connection;
+import com.gladdware.game.net.NetListener;
+import com.gladdware.game.net.UdpTransport;
+
+/**
+ * Manual checks for UdpTransport over the loopback interface
+ */
+public class UdpLoopbackTest {
+    
+    private static final String TAG = "UdpLoopbackTest";
+    
+    private static final int MESSAGES = 40;
+    private static final int PACKETS = 100;
+    private static final long TIMEOUT_NS = 5000000000L;
+    
+    /**
+     * Records what a transport received
+     */
+    private static class Recorder implements NetListener {
+        final List<byte[]> messages = new ArrayList<byte[]>();
+        final List<Integer> packets = new ArrayList<Integer>();
+        int acks = 0;
+        
+        public void onConnect(Connection conn) {}
+        
+        public void onDisconnect(Connection conn) {}
+        
+        public void onPacket(Connection conn, int sequence,
+                ByteBuffer payload) {
+            // the server's answers and resends carry no payload
+            if(payload.remaining() >= 4) {
+                packets.add(payload.getInt());
+            }
+        }
+        
+        public void onMessage(Connection conn, ByteBuffer message) {
+            byte[] b = new byte[message.remaining()];
+            message.get(b);
+            messages.add(b);
+        }
+        
+        public void onAck(Connection conn, int sequence) {
+            acks++;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Log.setLevel(LogLevel.DEBUG);
+        
+        Recorder serverEvents = new Recorder();
+        Recorder clientEvents = new Recorder();
+        UdpTransport server = new UdpTransport(0,
+                UdpTransport.DEFAULT_PROTOCOL_ID, serverEvents);
+        UdpTransport client = new UdpTransport(0,
+                UdpTransport.DEFAULT_PROTOCOL_ID, clientEvents);
+        client.setAccepting(false, 0);
+        
+        boolean ok;
+        try {
+            Connection conn = client.connect(new InetSocketAddress(
+                    "127.0.0.1", server.getLocalPort()));
+            
+            // largest message first, so later ones queue behind it
+            byte[][] sent = new byte[MESSAGES][];
+            for(int i = 0; i < MESSAGES; i++) {
+                int size = (i == 0) ? Connection.MAX_MESSAGE : 1 + i * 13;
+                sent[i] = new byte[size];
+                for(int k = 0; k < size; k++) {
+                    sent[i][k] = (byte)(i + k);
+                }
+                conn.sendReliable(sent[i]);
+            }
+            
+            exchange(client, server, conn);
+            
+            ok = checkMessages(sent, serverEvents.messages) &
+                    checkPackets(serverEvents.packets, clientEvents.acks);
+        } finally {
+            client.close();
+            server.close();
+        }
+        
+        Log.i(TAG, ok ? "All checks passed" : "Some checks FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+    
+    /**
+     * Send numbered packets from the client and answer each from the server
+     * until everything is delivered and acknowledged, or time runs out
+     */
+    private static void exchange(UdpTransport client, UdpTransport server,
+            Connection conn) throws IOException, InterruptedException {
+        byte[] payload = new byte[4];
+        long deadline = System.nanoTime() + TIMEOUT_NS;
+        int sent = 0;
+        
+        while(System.nanoTime() < deadline &&
+                (sent < PACKETS || conn.getPendingMessageCount() > 0 ||
+                 conn.getAckedPackets() < conn.getSentPackets())) {
+            if(sent < PACKETS) {
+                ByteBuffer.wrap(payload).putInt(sent++);
+            }
+            client.send(conn, payload, 0, payload.length);
+            
+            Thread.sleep(1);
+            server.poll();
+            for(Connection c : server.getConnections()) {
+                server.send(c, payload, 0, 0);
+            }
+            
+            Thread.sleep(1);
+            client.poll();
+        }
+    }
+    
+    private static boolean checkMessages(byte[][] sent, List<byte[]> got) {
+        boolean ok = got.size() == sent.length;
+        for(int i = 0; ok && i < sent.length; i++) {
+            ok = Arrays.equals(sent[i], got.get(i));
+        }
+        
+        return report("reliable messages", ok, got.size() + " of " +
+                sent.length + " in order");
+    }
+    
+    private static boolean checkPackets(List<Integer> got, int acks) {
+        boolean ok = acks >= PACKETS;
+        for(int i = 1; ok && i < got.size(); i++) {
+            ok = got.get(i) > got.get(i - 1);
+        }
+        
+        return report("packets", ok && got.size() >= PACKETS,
+                got.size() + " received, " + acks + " acked");
+    }
+    
+    private static boolean report(String name, boolean ok, String detail) {
+        if(ok) {
+            Log.i(TAG, name + ": ok (" + detail + ")");
+        } else {
+            Log.e(TAG, name + ": FAILED, " + detail);
+        }
+        
+        return ok;
+    }
+    
+    /**
+     * Constructor - Never instantiate
+     */
+    private UdpLoopbackTest() {}
+}